@@ -21,7 +21,8 @@ import javax.inject.Inject
 import org.joda.time.DateTime
 import play.api.mvc.ControllerComponents
 import securesocial.core.AuthenticationResult.Authenticated
-import securesocial.core.services.SaveMode
+import securesocial.core.authenticator.{ Authenticator, JwtAuthenticator, JwtAuthenticatorBuilder }
+import securesocial.core.services.{ ProfileChanges, ReadConsistency, SaveMode }
 import securesocial.core.{ LoginEvent, SignUpEvent, _ }
 
 import scala.concurrent.Future
@@ -41,7 +42,12 @@ trait BaseLoginApi extends SecureSocialController {
 
   import play.api.libs.json._
 
-  case class TokenResponse(token: String, expiresOn: DateTime)
+  case class TokenResponse(token: String, expiresOn: DateTime, refreshToken: Option[String] = None)
+
+  private def tokenResponseFor(authenticator: Authenticator[_]): TokenResponse = authenticator match {
+    case jwt: JwtAuthenticator[_] => TokenResponse(jwt.id, jwt.expirationDate, jwt.refreshToken)
+    case other => TokenResponse(other.id, other.expirationDate)
+  }
 
   implicit val jodaDateWrites: Writes[org.joda.time.DateTime] = new Writes[org.joda.time.DateTime] {
     def writes(d: org.joda.time.DateTime): JsValue = JsString(d.toString)
@@ -53,22 +59,22 @@ trait BaseLoginApi extends SecureSocialController {
     val result = for (
       builder <- env.authenticatorService.find(builderId);
       provider <- env.providers.get(providerId) if provider.isInstanceOf[ApiSupport]
-    ) yield {
+    ) yield { () =>
       provider.asInstanceOf[ApiSupport].authenticateForApi.flatMap {
         case authenticated: Authenticated =>
           val profile = authenticated.profile
-          env.userService.find(profile.providerId, profile.userId).flatMap {
+          env.userService.find(profile.providerId, profile.userId, ReadConsistency.Primary).flatMap {
             maybeExisting =>
               val mode = if (maybeExisting.isDefined) SaveMode.LoggedIn else SaveMode.SignUp
-              env.userService.save(authenticated.profile, mode).flatMap {
+              maybeExisting.map(existing => env.userService.update(profile, ProfileChanges(existing, profile))).getOrElse(env.userService.save(profile, mode)).flatMap {
                 userForAction =>
                   logger.debug(s"[securesocial] user completed authentication: provider = ${profile.providerId}, userId: ${profile.userId}, mode = $mode")
                   val evt = if (mode == SaveMode.LoggedIn) new LoginEvent(userForAction) else new SignUpEvent(userForAction)
                   // we're not using a session here .... review this.
                   Events.fire(evt)
                   builder.fromUser(userForAction).map { authenticator =>
-                    val token = TokenResponse(authenticator.id, authenticator.expirationDate)
-                    Ok(Json.toJson(token))
+                    env.oauth2TokenRefresher.foreach(_.track(authenticated.profile, authenticator.id))
+                    Ok(Json.toJson(tokenResponseFor(authenticator)))
                   }
               }
           }
@@ -80,14 +86,46 @@ trait BaseLoginApi extends SecureSocialController {
           Future.successful(InternalServerError(Json.toJson(Map("error" -> "unexpected internal error"))).as("application/json"))
       }
     }
-    result.getOrElse(Future.successful(NotFound.as("application/json")))
+    result.map { login =>
+      env.loginLimiter.map { limiter =>
+        limiter(providerId)(login()).getOrElse {
+          Future.successful(ServiceUnavailable(Json.toJson(Map("error" -> "too many logins in progress, try again later")))
+            .as("application/json").withHeaders(RETRY_AFTER -> limiter.retryAfterInSeconds.toString))
+        }
+      }.getOrElse(login())
+    }.getOrElse(Future.successful(NotFound.as("application/json")))
+  }
+
+  /**
+   * Issues a new access token in exchange for a refresh token.  The refresh token can be sent
+   * in a json body or as a form field named refreshToken.
+   *
+   * @param builderId the id of the JwtAuthenticatorBuilder
+   */
+  def refresh(builderId: String) = Action.async { implicit request =>
+    val refreshToken = request.body.asJson.flatMap(json => (json \ "refreshToken").asOpt[String]).orElse {
+      request.body.asFormUrlEncoded.flatMap(_.get("refreshToken").flatMap(_.headOption))
+    }
+    val result = for (
+      builder <- env.authenticatorService.findAs[JwtAuthenticatorBuilder[env.U]](builderId);
+      token <- refreshToken
+    ) yield {
+      builder.refresh(token).map {
+        case Some(authenticator) => Ok(Json.toJson(tokenResponseFor(authenticator)))
+        case None => Unauthorized(Json.toJson(Map("error" -> "invalid refresh token"))).as("application/json")
+      }
+    }
+    result.getOrElse(Future.successful(BadRequest.as("application/json")))
   }
 
   def logout = Action.async { implicit request =>
     import securesocial.core.utils._
 
     env.authenticatorService.fromRequest(request).flatMap {
-      case Some(authenticator) => Ok("").discardingAuthenticator(authenticator)
+      case Some(authenticator) =>
+        env.connectionRegistry.foreach(_.close(authenticator.id))
+        env.oauth2TokenRefresher.foreach(_.untrackLogin(authenticator.id))
+        Ok("").discardingAuthenticator(authenticator)
       case None => Future.successful(Ok(""))
     }
   }
@@ -91,6 +91,8 @@ trait BaseLoginPage extends SecureSocial {
         user <- request.user
         authenticator <- request.authenticator
       } yield {
+        env.connectionRegistry.foreach(_.close(authenticator.id))
+        env.oauth2TokenRefresher.foreach(_.untrackLogin(authenticator.id))
         redirectTo.discardingAuthenticator(authenticator).map {
           _.withSession(Events.fire(LogoutEvent(user)).getOrElse(request.session))
         }
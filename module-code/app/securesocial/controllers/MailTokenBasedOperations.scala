@@ -27,6 +27,7 @@ import play.api.i18n.Messages
 import play.api.mvc.{ RequestHeader, Result }
 import securesocial.core.SecureSocial
 import securesocial.core.providers.MailToken
+import securesocial.core.services.ReadConsistency
 
 import scala.concurrent.Future
 
@@ -72,7 +73,8 @@ abstract class MailTokenBasedOperations extends SecureSocial {
   protected def executeForToken(token: String, isSignUp: Boolean,
     f: MailToken => Future[Result])(implicit request: RequestHeader): Future[Result] =
     {
-      env.userService.findToken(token).flatMap {
+      // the token was saved moments ago by another request, a replica might not have it yet
+      env.userService.findToken(token, ReadConsistency.Primary).flatMap {
         case Some(t) if !t.isExpired && t.isSignUp == isSignUp => f(t)
         case _ =>
           val to = if (isSignUp) env.routes.startSignUpUrl else env.routes.startResetPasswordUrl
@@ -27,6 +27,7 @@ import play.filters.csrf._
 import securesocial.core.SecureSocial._
 import securesocial.core._
 import securesocial.core.providers.utils.PasswordValidator
+import securesocial.core.services.ReadConsistency
 
 import scala.concurrent.{ Await, Future }
 
@@ -76,7 +77,7 @@ trait BasePasswordChange extends SecureSocial with I18nSupport {
    * @return a future boolean
    */
   def checkCurrentPassword[A](suppliedPassword: String)(implicit request: SecuredRequest[A, env.U]): Future[Boolean] = {
-    env.userService.passwordInfoFor(request.user).map {
+    env.userService.passwordInfoFor(request.user, ReadConsistency.Primary).map {
       case Some(info) =>
         env.passwordHashers.get(info.hasher).exists {
           _.matches(info, suppliedPassword)
@@ -98,7 +99,7 @@ trait BasePasswordChange extends SecureSocial with I18nSupport {
             Password1 -> nonEmptyText.verifying(PasswordValidator.constraint),
             Password2 -> nonEmptyText).verifying(Messages(BaseRegistration.PasswordsDoNotMatch), passwords => passwords._1 == passwords._2))((currentPassword, newPassword) => ChangeInfo(currentPassword, newPassword._1))((changeInfo: ChangeInfo) => Some(("", ("", "")))))
 
-    env.userService.passwordInfoFor(request.user).flatMap {
+    env.userService.passwordInfoFor(request.user, ReadConsistency.Replica).flatMap {
       case Some(info) =>
         f(form)
       case None =>
@@ -26,7 +26,7 @@ import play.filters.csrf._
 import securesocial.core._
 import securesocial.core.providers.UsernamePasswordProvider
 import securesocial.core.providers.utils.PasswordValidator
-import securesocial.core.services.SaveMode
+import securesocial.core.services.{ ReadConsistency, SaveMode }
 
 import scala.concurrent.Future
 
@@ -81,11 +81,11 @@ trait BasePasswordReset extends MailTokenBasedOperations with BaseController {
           errors => Future.successful(BadRequest(env.viewTemplates.getStartResetPasswordPage(errors))),
           e => {
             val email = e.toLowerCase
-            env.userService.findByEmailAndProvider(email, UsernamePasswordProvider.UsernamePassword).map {
+            env.userService.findByEmailAndProvider(email, UsernamePasswordProvider.UsernamePassword, ReadConsistency.Replica).map {
               maybeUser =>
                 maybeUser match {
                   case Some(user) =>
-                    createToken(email, isSignUp = false).map { token =>
+                    env.mailTokenCoalescer.coalesce(email, isSignUp = false)(createToken(email, isSignUp = false)) { token =>
                       env.mailer.sendPasswordResetEmail(user, token.uuid)
                       env.userService.saveToken(token)
                     }
@@ -126,12 +126,13 @@ trait BasePasswordReset extends MailTokenBasedOperations with BaseController {
             errors =>
               Future.successful(BadRequest(env.viewTemplates.getResetPasswordPage(errors, token))),
             p =>
-              env.userService.findByEmailAndProvider(t.email, UsernamePasswordProvider.UsernamePassword).flatMap {
+              env.userService.findByEmailAndProvider(t.email, UsernamePasswordProvider.UsernamePassword, ReadConsistency.Primary).flatMap {
                 case Some(profile) =>
                   val hashed = env.currentHasher.hash(p._1)
                   for (
                     updated <- env.userService.save(profile.copy(passwordInfo = Some(hashed)), SaveMode.PasswordChange);
-                    deleted <- env.userService.deleteToken(token)
+                    deleted <- env.userService.deleteToken(token);
+                    _ <- env.mailTokenCoalescer.forget(t.email, isSignUp = false)
                   ) yield {
                     env.mailer.sendPasswordChangedNotice(profile)
                     val eventSession = Events.fire(new PasswordResetEvent(updated)).getOrElse(request.session)
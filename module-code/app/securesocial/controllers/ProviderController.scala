@@ -23,7 +23,7 @@ import play.api.i18n.{ I18nSupport, Messages }
 import play.api.mvc._
 import securesocial.core._
 import securesocial.core.authenticator.CookieAuthenticator
-import securesocial.core.services.SaveMode
+import securesocial.core.services.{ ProfileChanges, ReadConsistency, SaveMode }
 import securesocial.core.utils._
 
 import scala.concurrent.Future
@@ -84,6 +84,17 @@ trait BaseProviderController extends SecureSocial with I18nSupport {
     }
   }
 
+  /**
+   * Runs a login through the LoginLimiter, if there is one
+   */
+  private def limited(provider: String)(login: => Future[Result])(implicit request: RequestHeader): Future[Result] = env.loginLimiter match {
+    case Some(limiter) if env.providers.contains(provider) =>
+      limiter(provider)(login).getOrElse {
+        Future.successful(ServiceUnavailable(Messages("securesocial.login.busy")).withHeaders(RETRY_AFTER -> limiter.retryAfterInSeconds.toString))
+      }
+    case _ => login
+  }
+
   /**
    * Common method to handle GET and POST authentication requests
    *
@@ -91,64 +102,70 @@ trait BaseProviderController extends SecureSocial with I18nSupport {
    * @param redirectTo the url the user needs to be redirected to after being authenticated
    */
   private def handleAuth(provider: String, redirectTo: Option[String]) = UserAwareAction.async { implicit request =>
-    val authenticationFlow = request.user.isEmpty
-    val modifiedSession = overrideOriginalUrl(request.session, redirectTo)
-
-    env.providers.get(provider).map {
-      _.authenticate().flatMap {
-        case denied: AuthenticationResult.AccessDenied =>
-          Future.successful(Redirect(env.routes.accessDeniedUrl).flashing("error" -> Messages("securesocial.login.accessDenied")))
-        case failed: AuthenticationResult.Failed =>
-          logger.error(s"[securesocial] authentication failed, reason: ${failed.error}")
-          throw AuthenticationException()
-        case flow: AuthenticationResult.NavigationFlow => Future.successful {
-          redirectTo.map { url =>
-            flow.result.withSession(flow.result.session + (SecureSocial.OriginalUrlKey -> url))
-          } getOrElse flow.result
-        }
-        case authenticated: AuthenticationResult.Authenticated =>
-          if (authenticationFlow) {
-            val profile = authenticated.profile
-            env.userService.find(profile.providerId, profile.userId).flatMap { maybeExisting =>
-              val mode = if (maybeExisting.isDefined) SaveMode.LoggedIn else SaveMode.SignUp
-              env.userService.save(authenticated.profile, mode).flatMap { userForAction =>
-                logger.debug(s"[securesocial] user completed authentication: provider = ${profile.providerId}, userId: ${profile.userId}, mode = $mode")
-                val evt = if (mode == SaveMode.LoggedIn) new LoginEvent(userForAction) else new SignUpEvent(userForAction)
-                val sessionAfterEvents = Events.fire(evt).getOrElse(request.session)
-                builder().fromUser(userForAction).flatMap { authenticator =>
-                  Redirect(toUrl(sessionAfterEvents, configuration)).withSession(sessionAfterEvents -
-                    SecureSocial.OriginalUrlKey -
-                    IdentityProvider.SessionId -
-                    OAuth1Provider.CacheKey).startingAuthenticator(authenticator)
+    val timer = env.serverTiming.start(ServerTiming.Login)
+    timer.around(request)(limited(provider) {
+      val authenticationFlow = request.user.isEmpty
+      val modifiedSession = overrideOriginalUrl(request.session, redirectTo)
+
+      env.providers.get(provider).map {
+        idp => timer.timed(ServerTiming.Provider)(idp.authenticate()).flatMap {
+          case denied: AuthenticationResult.AccessDenied =>
+            Future.successful(Redirect(env.routes.accessDeniedUrl).flashing("error" -> Messages("securesocial.login.accessDenied")))
+          case failed: AuthenticationResult.Failed =>
+            logger.error(s"[securesocial] authentication failed, reason: ${failed.error}")
+            throw AuthenticationException()
+          case flow: AuthenticationResult.NavigationFlow => Future.successful {
+            redirectTo.map { url =>
+              flow.result.withSession(flow.result.session + (SecureSocial.OriginalUrlKey -> url))
+            } getOrElse flow.result
+          }
+          case authenticated: AuthenticationResult.Authenticated =>
+            if (authenticationFlow) {
+              val profile = authenticated.profile
+              env.userService.find(profile.providerId, profile.userId, ReadConsistency.Primary).flatMap { maybeExisting =>
+                val mode = if (maybeExisting.isDefined) SaveMode.LoggedIn else SaveMode.SignUp
+                val saved = maybeExisting.map(existing => env.userService.update(profile, ProfileChanges(existing, profile))).getOrElse(env.userService.save(profile, mode))
+                timer.timed(ServerTiming.User)(saved).flatMap { userForAction =>
+                  logger.debug(s"[securesocial] user completed authentication: provider = ${profile.providerId}, userId: ${profile.userId}, mode = $mode")
+                  val evt = if (mode == SaveMode.LoggedIn) new LoginEvent(userForAction) else new SignUpEvent(userForAction)
+                  val sessionAfterEvents = Events.fire(evt).getOrElse(request.session)
+                  timer.timed(ServerTiming.Session)(builder().fromUser(userForAction)).flatMap { authenticator =>
+                    env.oauth2TokenRefresher.foreach(_.track(authenticated.profile, authenticator.id))
+                    Redirect(toUrl(sessionAfterEvents, configuration)).withSession(sessionAfterEvents -
+                      SecureSocial.OriginalUrlKey -
+                      IdentityProvider.SessionId -
+                      OAuth1Provider.CacheKey).startingAuthenticator(authenticator)
+                  }
                 }
               }
+            } else {
+              request.user match {
+                case Some(currentUser) =>
+                  for (
+                    linked <- timer.timed(ServerTiming.User)(env.userService.link(currentUser, authenticated.profile));
+                    updatedAuthenticator <- request.authenticator.get.updateUser(linked);
+                    result <- Redirect(toUrl(modifiedSession, configuration)).withSession(modifiedSession -
+                      SecureSocial.OriginalUrlKey -
+                      IdentityProvider.SessionId -
+                      OAuth1Provider.CacheKey).touchingAuthenticator(updatedAuthenticator)
+                  ) yield {
+                    logger.debug(s"[securesocial] linked $currentUser to: providerId = ${authenticated.profile.providerId}")
+                    env.oauth2TokenRefresher.foreach(_.track(authenticated.profile, updatedAuthenticator.id))
+                    result
+                  }
+                case _ =>
+                  Future.successful(Unauthorized)
+              }
             }
-          } else {
-            request.user match {
-              case Some(currentUser) =>
-                for (
-                  linked <- env.userService.link(currentUser, authenticated.profile);
-                  updatedAuthenticator <- request.authenticator.get.updateUser(linked);
-                  result <- Redirect(toUrl(modifiedSession, configuration)).withSession(modifiedSession -
-                    SecureSocial.OriginalUrlKey -
-                    IdentityProvider.SessionId -
-                    OAuth1Provider.CacheKey).touchingAuthenticator(updatedAuthenticator)
-                ) yield {
-                  logger.debug(s"[securesocial] linked $currentUser to: providerId = ${authenticated.profile.providerId}")
-                  result
-                }
-              case _ =>
-                Future.successful(Unauthorized)
-            }
-          }
-      } recover {
-        case e =>
-          logger.error("Unable to log user in. An exception was thrown", e)
-          Redirect(env.routes.loginPageUrl).flashing("error" -> Messages("securesocial.login.errorLoggingIn"))
+        } recover {
+          case e =>
+            logger.error("Unable to log user in. An exception was thrown", e)
+            Redirect(env.routes.loginPageUrl).flashing("error" -> Messages("securesocial.login.errorLoggingIn"))
+        }
+      } getOrElse {
+        Future.successful(NotFound)
       }
-    } getOrElse {
-      Future.successful(NotFound)
-    }
+    })
   }
 }
 
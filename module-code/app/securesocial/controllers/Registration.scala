@@ -27,7 +27,7 @@ import securesocial.core._
 import securesocial.core.authenticator.CookieAuthenticator
 import securesocial.core.providers.UsernamePasswordProvider
 import securesocial.core.providers.utils._
-import securesocial.core.services.SaveMode
+import securesocial.core.services.{ ReadConsistency, SaveMode }
 
 import scala.concurrent.{ Await, Future }
 
@@ -65,7 +65,7 @@ trait BaseRegistration extends MailTokenBasedOperations with BaseController {
       UserName -> nonEmptyText.verifying(Messages(UserNameAlreadyTaken), userName => {
         // todo: see if there's a way to avoid waiting here :-\
         import scala.concurrent.duration._
-        Await.result(env.userService.find(providerId, userName), 20.seconds).isEmpty
+        Await.result(env.userService.find(providerId, userName, ReadConsistency.Primary), 20.seconds).isEmpty
       }),
       FirstName -> nonEmptyText,
       LastName -> nonEmptyText,
@@ -117,14 +117,14 @@ trait BaseRegistration extends MailTokenBasedOperations with BaseController {
           e => {
             val email = e.toLowerCase
             // check if there is already an account for this email address
-            env.userService.findByEmailAndProvider(email, UsernamePasswordProvider.UsernamePassword).map {
+            env.userService.findByEmailAndProvider(email, UsernamePasswordProvider.UsernamePassword, ReadConsistency.Replica).map {
               maybeUser =>
                 maybeUser match {
                   case Some(user) =>
                     // user signed up already, send an email offering to login/recover password
                     env.mailer.sendAlreadyRegisteredEmail(user)
                   case None =>
-                    createToken(email, isSignUp = true).flatMap { token =>
+                    env.mailTokenCoalescer.coalesce(email, isSignUp = true)(createToken(email, isSignUp = true)) { token =>
                       env.mailer.sendSignUpEmail(email, token.uuid)
                       env.userService.saveToken(token)
                     }
@@ -186,7 +186,8 @@ trait BaseRegistration extends MailTokenBasedOperations with BaseController {
                 val result = for (
                   toSave <- withAvatar;
                   saved <- env.userService.save(toSave, SaveMode.SignUp);
-                  deleted <- env.userService.deleteToken(t.uuid)
+                  deleted <- env.userService.deleteToken(t.uuid);
+                  _ <- env.mailTokenCoalescer.forget(t.email, isSignUp = true)
                 ) yield {
                   if (env.usernamePasswordConfig.sendWelcomeEmail)
                     env.mailer.sendWelcomeEmail(newUser)
@@ -16,7 +16,16 @@
  */
 package securesocial.core
 
+import java.util.concurrent.{ Callable, CompletionStage }
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
 import play.api.mvc.RequestHeader
+import securesocial.core.services.LocalCache
+
+import scala.compat.java8.FutureConverters._
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.Success
 
 /**
  * A trait to define Authorization objects that let you hook
@@ -32,3 +41,117 @@ trait Authorization[U] {
    */
   def isAuthorized(user: U, request: RequestHeader): Boolean
 }
+
+/**
+ * An Authorization whose check is asynchronous, for checks that need to query a database or a
+ * directory service.
+ */
+trait AsyncAuthorization[U] {
+  /**
+   * Checks whether the user is authorized to execute an action or not.
+   *
+   * @param user the user
+   * @param request the current request
+   * @return a future with the decision
+   */
+  def isAuthorized(user: U, request: RequestHeader): Future[Boolean]
+}
+
+object AsyncAuthorization {
+  /**
+   * Adapts a synchronous Authorization
+   */
+  def apply[U](authorization: Authorization[U]): AsyncAuthorization[U] = new AsyncAuthorization[U] {
+    override def isAuthorized(user: U, request: RequestHeader): Future[Boolean] =
+      Future.successful(authorization.isAuthorized(user, request))
+  }
+}
+
+/**
+ * An AsyncAuthorization that keeps its decisions in an AuthorizationCache.  The decisions are cached by
+ * user and key, so the underlying check must not depend on anything else in the request.
+ *
+ * @param underlying the authorization that makes the decisions
+ * @param cache the cache for the decisions
+ * @param key identifies the decision among the ones cached for the user (eg: "role:admin")
+ * @tparam U the user object type
+ */
+class CachedAuthorization[U](underlying: AsyncAuthorization[U], cache: AuthorizationCache, key: String) extends AsyncAuthorization[U] {
+  override def isAuthorized(user: U, request: RequestHeader): Future[Boolean] =
+    cache.decide(user, key)(underlying.isAuthorized(user, request))
+}
+
+/**
+ * A bounded cache for authorization decisions.  Decisions are kept per user object, so the user type
+ * must implement equals and hashCode (case classes do).  A user whose permissions change should be
+ * invalidated, otherwise the old decisions are used until they expire.
+ *
+ * Concurrent checks for the same user and key share a single call to the underlying authorization and
+ * failed checks are not cached.
+ *
+ * @param config the cache settings
+ */
+class AuthorizationCache(config: AuthorizationCacheConfig)(implicit val executionContext: ExecutionContext) {
+  import AuthorizationCache._
+
+  private val ttlInMillis = config.ttlInSeconds * 1000L
+  // decisions are keyed by the current generation of the user, invalidating a user starts a new one
+  private val generations = new LocalCache[Any, Generation](config.maxEntries, ttlInMillis)
+  private val decisions = new LocalCache[(Generation, String), Future[Boolean]](config.maxEntries, ttlInMillis)
+
+  /**
+   * Returns the cached decision for a user or the result of the check
+   *
+   * @param user the user
+   * @param key identifies the decision
+   * @param check the check invoked when there is no cached decision
+   * @return a future with the decision
+   */
+  def decide(user: Any, key: String)(check: => Future[Boolean]): Future[Boolean] = {
+    val entry = (generations.getOrElseUpdate(user)(new Generation), key)
+    val result = decisions.getOrElseUpdate(entry)(check)
+    result.value match {
+      case Some(Success(_)) =>
+      case Some(_) => decisions.remove(entry, result)
+      case None =>
+        result.onComplete {
+          case Success(_) =>
+          case _ => decisions.remove(entry, result)
+        }
+    }
+    result
+  }
+
+  /**
+   * Returns the cached decision for a user or the result of the check. Meant to be used from Java.
+   */
+  def decideJava(user: Any, key: String, check: Callable[CompletionStage[java.lang.Boolean]]): CompletionStage[java.lang.Boolean] =
+    decide(user, key)(check.call().toScala.map(_.booleanValue())).map(Boolean.box).toJava
+
+  /**
+   * Discards the decisions cached for a user
+   */
+  def invalidate(user: Any): Unit = generations.remove(user)
+
+  /**
+   * Discards all the decisions
+   */
+  def invalidateAll(): Unit = {
+    generations.clear()
+    decisions.clear()
+  }
+}
+
+object AuthorizationCache {
+  // compared by identity
+  private class Generation
+}
+
+case class AuthorizationCacheConfig(maxEntries: Int, ttlInSeconds: Int)
+
+object AuthorizationCacheConfig {
+  implicit val configLoader: ConfigLoader[AuthorizationCacheConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): AuthorizationCacheConfig =
+    configuration.get[AuthorizationCacheConfig]("securesocial.authorizationCache")
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ CompletionStage, ConcurrentHashMap }
+import java.util.function.BiFunction
+
+import akka.NotUsed
+import akka.stream.scaladsl.{ Flow, Source }
+import akka.stream.{ KillSwitches, SharedKillSwitch, javadsl }
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.mvc.{ RequestHeader, Result, Results }
+import play.api.{ ConfigLoader, Configuration }
+import play.libs.F
+import securesocial.core.authenticator.{ Authenticator, AuthenticatorBuilder, AuthenticatorLookup }
+import securesocial.core.services.AuthenticatorService
+
+import scala.collection.JavaConverters._
+import scala.compat.java8.FutureConverters._
+import scala.concurrent.{ ExecutionContext, Future }
+
+/**
+ * Authenticates long lived connections (WebSockets and server sent events) and keeps track of them so they
+ * are closed when the user logs out or the authenticator is no longer valid.
+ *
+ * The user is resolved once, when the connection is opened, and only the ids of the authenticator and of its
+ * builder are kept.  After that, revalidate checks the authenticators of all the open connections at once: they
+ * are looked up in batches with AuthenticatorLookup.findMany, each one a single time no matter how many
+ * connections use it, and the connections whose authenticator is gone or invalid are closed.  The
+ * authenticators of builders that can't look them up by id are only checked against their expiration.  Nothing
+ * is checked per message.
+ *
+ * Sample usage:
+ *
+ * def socket = WebSocket.acceptOrResult[String, String] { request =>
+ *   env.connectionRegistry.get.accept(request) { user => Flow[String].map(msg => s"${user.main.userId}: $msg") }
+ * }
+ *
+ * @param authenticatorService the service used to find the authenticators
+ * @param config the registry settings
+ * @tparam U the user object type
+ */
+class ConnectionRegistry[U](authenticatorService: AuthenticatorService[U], config: ConnectionRegistryConfig)(implicit val executionContext: ExecutionContext) {
+  private val logger = play.api.Logger("securesocial.core.ConnectionRegistry")
+
+  // the connections opened with an authenticator and what is needed to look it up again
+  private class Session(val builderId: String, val expirationMillis: Long) {
+    val connections = new ConcurrentHashMap[Long, SharedKillSwitch]()
+  }
+
+  private val sessions = new ConcurrentHashMap[String, Session]()
+  private val ids = new AtomicLong()
+
+  private def authenticate(request: RequestHeader): Future[Option[(AuthenticatorBuilder[U], Authenticator[U])]] =
+    authenticatorService.fromRequestWithBuilder(request).map(_.filter(_._2.isValid))
+
+  private def register(builder: AuthenticatorBuilder[U], authenticator: Authenticator[U]): (SharedKillSwitch, () => Unit) = {
+    val id = ids.incrementAndGet()
+    val killSwitch = KillSwitches.shared(s"securesocial-connection-$id")
+    sessions.compute(authenticator.id, new BiFunction[String, Session, Session] {
+      override def apply(key: String, existing: Session): Session = {
+        val session = if (existing == null) new Session(builder.id, authenticator.expirationMillis) else existing
+        session.connections.put(id, killSwitch)
+        session
+      }
+    })
+    val unregister = () => {
+      sessions.computeIfPresent(authenticator.id, new BiFunction[String, Session, Session] {
+        override def apply(key: String, session: Session): Session = {
+          session.connections.remove(id)
+          if (session.connections.isEmpty) null else session
+        }
+      })
+      ()
+    }
+    (killSwitch, unregister)
+  }
+
+  private def unauthorized: Result = Results.Forbidden
+
+  /**
+   * Authenticates a WebSocket.  Use it with WebSocket.acceptOrResult.
+   *
+   * @param request the upgrade request
+   * @param flow creates the flow that handles the messages for the authenticated user
+   * @return the flow, or a Forbidden result if there is no valid authenticator in the request
+   */
+  def accept[In, Out, M](request: RequestHeader)(flow: U => Flow[In, Out, M]): Future[Either[Result, Flow[In, Out, NotUsed]]] =
+    authenticate(request).map {
+      case Some((builder, authenticator)) =>
+        val (killSwitch, unregister) = register(builder, authenticator)
+        Right(Flow[In].via(killSwitch.flow).via(flow(authenticator.user)).via(killSwitch.flow)
+          .watchTermination() { (_, done) =>
+            done.onComplete(_ => unregister())
+            NotUsed
+          })
+      case None =>
+        Left(unauthorized)
+    }
+
+  /**
+   * Authenticates a stream of server sent events (or any other chunked response)
+   *
+   * @param request the request
+   * @param source creates the source of events for the authenticated user
+   * @return the source, or a Forbidden result if there is no valid authenticator in the request
+   */
+  def source[Out, M](request: RequestHeader)(source: U => Source[Out, M]): Future[Either[Result, Source[Out, NotUsed]]] =
+    authenticate(request).map {
+      case Some((builder, authenticator)) =>
+        val (killSwitch, unregister) = register(builder, authenticator)
+        Right(source(authenticator.user).via(killSwitch.flow)
+          .watchTermination() { (_, done) =>
+            done.onComplete(_ => unregister())
+            NotUsed
+          })
+      case None =>
+        Left(unauthorized)
+    }
+
+  /**
+   * Authenticates a WebSocket. Meant to be used from Java with WebSocket.acceptOrResult.
+   */
+  def acceptJava[In, Out](request: play.mvc.Http.RequestHeader, flow: java.util.function.Function[AnyRef, javadsl.Flow[In, Out, _]]): CompletionStage[F.Either[play.mvc.Result, javadsl.Flow[In, Out, _]]] =
+    accept(request.asScala()) { user => flow.apply(user.asInstanceOf[AnyRef]).asScala }.map {
+      case Right(accepted) => F.Either.Right[play.mvc.Result, javadsl.Flow[In, Out, _]](accepted.asJava)
+      case Left(result) => F.Either.Left[play.mvc.Result, javadsl.Flow[In, Out, _]](result.asJava)
+    }.toJava
+
+  /**
+   * Closes the connections opened with an authenticator
+   *
+   * @param authenticatorId the authenticator id
+   */
+  def close(authenticatorId: String): Unit =
+    Option(sessions.remove(authenticatorId)).foreach { session =>
+      logger.debug(s"[securesocial] closing ${session.connections.size} connections")
+      session.connections.values.asScala.foreach(_.shutdown())
+    }
+
+  /**
+   * Looks up the authenticators of the open connections, closing the ones that are no longer valid.  The
+   * authenticators are not touched, so the sessions of users with open connections still time out while
+   * idle.  Failed lookups don't close the connections.
+   *
+   * @return the number of authenticators whose connections were closed
+   */
+  def revalidate(): Future[Int] = {
+    val now = System.currentTimeMillis()
+    val byBuilder = sessions.asScala.toVector.groupBy { case (_, session) => session.builderId }
+    Future.sequence(byBuilder.toSeq.map {
+      case (builderId, open) =>
+        authenticatorService.find(builderId) match {
+          case Some(lookup: AuthenticatorLookup[U @unchecked]) =>
+            check(lookup, open.map(_._1))
+          case _ =>
+            val expired = open.collect { case (id, session) if session.expirationMillis <= now => id }
+            expired.foreach(close)
+            Future.successful(expired.size)
+        }
+    }).map(_.sum)
+  }
+
+  private def check(lookup: AuthenticatorLookup[U], ids: Seq[String]): Future[Int] =
+    ids.grouped(config.batchSize).foldLeft(Future.successful(0)) { (previous, batch) =>
+      previous.flatMap { closed =>
+        lookup.findMany(batch).map { found =>
+          val invalid = batch.filterNot(id => found.get(id).exists(_.isValid))
+          invalid.foreach(close)
+          closed + invalid.size
+        }.recover {
+          case e =>
+            logger.warn(s"[securesocial] could not revalidate ${batch.size} authenticators: ${e.getMessage}")
+            closed
+        }
+      }
+    }
+
+  /**
+   * The number of open connections
+   */
+  def size: Int = sessions.values.asScala.map(_.connections.size).sum
+}
+
+case class ConnectionRegistryConfig(enabled: Boolean, revalidationIntervalInSeconds: Int, batchSize: Int)
+
+object ConnectionRegistryConfig {
+  implicit val configLoader: ConfigLoader[ConnectionRegistryConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): ConnectionRegistryConfig =
+    configuration.get[ConnectionRegistryConfig]("securesocial.connections")
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.io._
+import java.nio.channels.{ Channels, FileChannel }
+import java.nio.file.{ Files, StandardCopyOption, StandardOpenOption }
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ ArrayBlockingQueue, TimeUnit }
+import java.util.zip.{ GZIPInputStream, GZIPOutputStream }
+
+import akka.NotUsed
+import akka.stream.scaladsl.{ Framing, Source, StreamConverters }
+import akka.util.ByteString
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.libs.json.{ Json, OFormat }
+import play.api.mvc.{ RequestHeader, Session }
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.authenticator.UserReference
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.Try
+import scala.util.control.NonFatal
+
+/**
+ * An entry in the event journal
+ *
+ * @param timestamp when the event was fired, in milliseconds since the epoch
+ * @param event the event type (login, logout, signup, passwordChange or passwordReset)
+ * @param user the user the event refers to
+ * @param remoteAddress the address the request came from
+ */
+case class JournalEntry(timestamp: Long, event: String, user: String, remoteAddress: String)
+
+object JournalEntry {
+  implicit val format: OFormat[JournalEntry] = Json.format[JournalEntry]
+}
+
+/**
+ * An EventListener that appends the events to a local journal, for auditing.
+ *
+ * Firing an event only puts an entry in a bounded queue, so requests never wait for the disk.  A writer thread
+ * takes all the entries queued at once, appends them and syncs the file a single time (group commit).  When the
+ * queue is full the entries are dropped and counted.
+ *
+ * The journal is a directory of segments with one JSON entry per line.  A new segment is started when the current
+ * one grows larger than maxSegmentSizeInBytes or older than maxSegmentAgeInSeconds, and the previous one is
+ * compressed in the background.  Use replay to read the entries back.
+ *
+ * @param directory the journal directory
+ * @param config the journal settings
+ * @param describe turns a user into the string kept in the journal.  By default the provider and user ids of
+ *                 the user profile, see EventJournal.describeUser.  The journal is kept for a long time, so
+ *                 it should never include credentials or tokens.
+ */
+class EventJournal(directory: File, config: EventJournalConfig, describe: Any => String = EventJournal.describeUser)(implicit executionContext: ExecutionContext)
+  extends EventListener {
+
+  import EventJournal._
+
+  private val logger = play.api.Logger("securesocial.core.EventJournal")
+  private val queue = new ArrayBlockingQueue[JournalEntry](config.queueSize)
+  private val droppedCount = new AtomicLong()
+  private val writtenCount = new AtomicLong()
+  @volatile private var running = true
+
+  directory.mkdirs()
+  // segments left uncompressed by a previous run
+  segments().filterNot(_.getName.endsWith(Compressed)).foreach(file => Future(compress(file)))
+
+  private val writer = new Thread(new Runnable {
+    def run(): Unit = write()
+  }, "securesocial-event-journal")
+  writer.setDaemon(true)
+  writer.start()
+
+  override def onEvent[U](event: Event[U], request: RequestHeader, session: Session): Option[Session] = {
+    val name = event match {
+      case _: LoginEvent[_] => Some("login")
+      case _: LogoutEvent[_] => Some("logout")
+      case _: SignUpEvent[_] => Some("signup")
+      case _: PasswordChangeEvent[_] => Some("passwordChange")
+      case _: PasswordResetEvent[_] => Some("passwordReset")
+      case _ => None
+    }
+    name.foreach { n =>
+      val entry = JournalEntry(System.currentTimeMillis(), n, describe(event.user), request.remoteAddress)
+      if (!running || !queue.offer(entry)) {
+        if (droppedCount.incrementAndGet() % 1000 == 1) logger.warn("[securesocial] the event journal queue is full, dropping events")
+      }
+    }
+    None
+  }
+
+  private class Segment(val file: File, val startedAt: Long) {
+    val channel: FileChannel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+    val out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024)
+
+    def size: Long = channel.size()
+
+    def close(): Unit = {
+      out.flush()
+      channel.force(true)
+      out.close()
+    }
+  }
+
+  private def newSegment(): Segment = {
+    def fileFor(start: Long) = new File(directory, f"$Prefix$start%015d$Extension")
+    // segments started in the same millisecond get consecutive names
+    var start = System.currentTimeMillis()
+    while (fileFor(start).exists() || new File(fileFor(start).getPath + ".gz").exists()) start += 1
+    new Segment(fileFor(start), start)
+  }
+
+  private def write(): Unit = {
+    var segment = newSegment()
+    val batch = new java.util.ArrayList[JournalEntry](config.maxBatchSize)
+    while (running || !queue.isEmpty) {
+      try {
+        val first = queue.poll(1, TimeUnit.SECONDS)
+        if (first != null) {
+          batch.add(first)
+          queue.drainTo(batch, config.maxBatchSize - 1)
+          val it = batch.iterator()
+          while (it.hasNext) {
+            segment.out.write(Json.toBytes(Json.toJson(it.next())))
+            segment.out.write('\n')
+          }
+          segment.out.flush()
+          if (config.fsync) segment.channel.force(false)
+          writtenCount.addAndGet(batch.size)
+          batch.clear()
+        }
+        if (segment.size >= config.maxSegmentSizeInBytes ||
+          System.currentTimeMillis() - segment.startedAt >= config.maxSegmentAgeInSeconds * 1000L) {
+          val full = segment
+          full.close()
+          segment = newSegment()
+          if (full.file.length() == 0) full.file.delete() else Future(compress(full.file))
+        }
+      } catch {
+        case _: InterruptedException =>
+          running = false
+        case NonFatal(e) =>
+          logger.error("[securesocial] error writing to the event journal", e)
+          batch.clear()
+      }
+    }
+    segment.close()
+  }
+
+  private def compress(file: File): Unit = if (config.compress) {
+    val target = new File(file.getPath + Compressed)
+    val temporary = new File(target.getPath + ".tmp")
+    try {
+      val out = new GZIPOutputStream(new FileOutputStream(temporary))
+      try Files.copy(file.toPath, out) finally out.close()
+      Files.move(temporary.toPath, target.toPath, StandardCopyOption.ATOMIC_MOVE)
+      file.delete()
+    } catch {
+      case NonFatal(e) =>
+        logger.error(s"[securesocial] error compressing event journal segment ${file.getName}", e)
+        temporary.delete()
+    }
+  }
+
+  // the segments ordered by start time, preferring the compressed version when both exist
+  private def segments(): Seq[File] = {
+    val files = Option(directory.listFiles()).map(_.toSeq).getOrElse(Seq()).filter { f =>
+      f.getName.startsWith(Prefix) && (f.getName.endsWith(Extension) || f.getName.endsWith(Compressed))
+    }
+    files.groupBy(startOf).toSeq.sortBy(_._1).map {
+      case (_, versions) => versions.find(_.getName.endsWith(Compressed)).getOrElse(versions.head)
+    }
+  }
+
+  /**
+   * Streams the entries kept in the journal, oldest first
+   *
+   * @param from the first timestamp to include
+   * @param to the last timestamp to include
+   * @return a source of entries
+   */
+  def replay(from: Long = 0, to: Long = Long.MaxValue): Source[JournalEntry, NotUsed] = {
+    val all = segments()
+    // a segment can only hold entries older than the start of the next one
+    val selected = all.zip(all.drop(1).map(f => Some(startOf(f))) :+ None).collect {
+      case (file, next) if startOf(file) <= to && next.forall(_ >= from) => file
+    }
+    Source(selected.toList).flatMapConcat { file =>
+      val open = () => {
+        val in = new FileInputStream(file)
+        if (file.getName.endsWith(Compressed)) new GZIPInputStream(in) else in
+      }
+      StreamConverters.fromInputStream(open)
+        .via(Framing.delimiter(ByteString("\n"), MaxLineLength, allowTruncation = true))
+        // the last line of the current segment can be incomplete
+        .map(line => Try(Json.parse(line.toArray)).toOption.flatMap(_.asOpt[JournalEntry]))
+        .collect { case Some(entry) if entry.timestamp >= from && entry.timestamp <= to => entry }
+    }
+  }
+
+  /**
+   * The number of entries written
+   */
+  def written: Long = writtenCount.get
+
+  /**
+   * The number of entries dropped because the queue was full
+   */
+  def dropped: Long = droppedCount.get
+
+  /**
+   * Stops accepting events, writes the ones queued and closes the current segment
+   */
+  def close(): Unit = {
+    running = false
+    writer.join()
+  }
+}
+
+object EventJournal {
+  private val Prefix = "events-"
+  private val Extension = ".log"
+  private val Compressed = ".log.gz"
+  private val MaxLineLength = 64 * 1024
+
+  private def startOf(file: File): Long =
+    file.getName.stripPrefix(Prefix).takeWhile(_.isDigit).toLong
+
+  /**
+   * Describes a user by the provider and user ids of its profile: the user itself, a UserReference, or the first
+   * profile held by a user object that wraps them (eg: case class User(main: BasicProfile, identities: List[BasicProfile])).
+   * Other users are only described by their class name, their toString may include password hashes or tokens.
+   */
+  val describeUser: Any => String = {
+    case profile: GenericProfile => s"${profile.providerId}:${profile.userId}"
+    case reference: UserReference => s"${reference.providerId}:${reference.userId}"
+    case user: Product =>
+      user.productIterator.collectFirst {
+        case profile: GenericProfile => s"${profile.providerId}:${profile.userId}"
+      }.getOrElse(user.getClass.getName)
+    case null => "null"
+    case user => user.getClass.getName
+  }
+
+  /**
+   * Creates a journal in the configured directory
+   *
+   * @param describe turns a user into the string kept in the journal
+   */
+  def apply(config: EventJournalConfig, describe: Any => String = describeUser)(implicit executionContext: ExecutionContext): EventJournal =
+    new EventJournal(new File(config.directory), config, describe)
+}
+
+/**
+ * The settings for the EventJournal
+ *
+ * @param enabled whether the journal is added to the event listeners
+ * @param directory the journal directory
+ * @param queueSize the maximum number of entries waiting to be written
+ * @param maxBatchSize the maximum number of entries written with a single sync
+ * @param fsync whether the segment is synced after every batch
+ * @param maxSegmentSizeInBytes the size that starts a new segment
+ * @param maxSegmentAgeInSeconds the age that starts a new segment
+ * @param compress whether the completed segments are compressed
+ */
+case class EventJournalConfig(
+  enabled: Boolean,
+  directory: String,
+  queueSize: Int,
+  maxBatchSize: Int,
+  fsync: Boolean,
+  maxSegmentSizeInBytes: Long,
+  maxSegmentAgeInSeconds: Int,
+  compress: Boolean)
+
+object EventJournalConfig {
+  implicit val configLoader: ConfigLoader[EventJournalConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): EventJournalConfig =
+    configuration.get[EventJournalConfig]("securesocial.eventJournal")
+}
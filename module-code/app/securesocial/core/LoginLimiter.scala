@@ -0,0 +1,170 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{ AtomicInteger, AtomicLong }
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.SameThreadExecutionContext
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+import scala.util.control.NonFatal
+
+/**
+ * Limits the number of logins in progress for each provider, so a slow identity provider or database makes the
+ * login endpoints fail fast instead of piling up requests until everything times out together.  Only the login
+ * endpoints go through it: the secured actions keep working while logins are shed.
+ *
+ * The limit of each provider adapts to the observed latency (AIMD): it grows slowly while the logins complete
+ * within maxLatencyInMillis and the limit is being used, and it's cut by backoffRatio when they take longer.  Only
+ * the logins that started after the last cut can cut it again, so a burst of slow logins counts once.
+ *
+ * @param config the limiter settings
+ */
+class LoginLimiter(config: LoginLimiterConfig) {
+  import LoginLimiter._
+
+  private val maxLatencyInNanos = config.maxLatencyInMillis * 1000000L
+  private val limits = new ConcurrentHashMap[String, Limit]()
+
+  private class Limit {
+    val inFlight = new AtomicInteger()
+    val accepted = new AtomicLong()
+    val rejected = new AtomicLong()
+    val slow = new AtomicLong()
+    // updated holding the lock
+    @volatile private var current: Double = config.initialLimit
+    private var lastDecrease = Long.MinValue
+
+    def limit: Int = current.toInt
+
+    def tryAcquire(): Boolean = {
+      val max = limit
+      var inUse = inFlight.get()
+      while (inUse < max) {
+        if (inFlight.compareAndSet(inUse, inUse + 1)) {
+          accepted.incrementAndGet()
+          return true
+        }
+        inUse = inFlight.get()
+      }
+      rejected.incrementAndGet()
+      false
+    }
+
+    def release(start: Long, end: Long): Unit = {
+      val inUse = inFlight.getAndDecrement()
+      synchronized {
+        if (end - start > maxLatencyInNanos) {
+          slow.incrementAndGet()
+          if (start > lastDecrease) {
+            current = math.max(config.minLimit.toDouble, current * config.backoffRatio)
+            lastDecrease = end
+          }
+        } else if (inUse * 2 >= current) {
+          current = math.min(config.maxLimit.toDouble, current + 1 / current)
+        }
+      }
+    }
+  }
+
+  private def limitFor(providerId: String): Limit = {
+    val existing = limits.get(providerId)
+    if (existing != null) {
+      existing
+    } else {
+      val created = new Limit
+      val raced = limits.putIfAbsent(providerId, created)
+      if (raced != null) raced else created
+    }
+  }
+
+  /**
+   * Runs a login if the provider is within its limit
+   *
+   * @param providerId the provider id
+   * @param login the login
+   * @return the result of the login or None if it was rejected
+   */
+  def apply[T](providerId: String)(login: => Future[T]): Option[Future[T]] = {
+    val limit = limitFor(providerId)
+    if (limit.tryAcquire()) {
+      val start = System.nanoTime()
+      val result = try login catch { case NonFatal(e) => Future.failed(e) }
+      result.onComplete(_ => limit.release(start, System.nanoTime()))(SameThreadExecutionContext)
+      Some(result)
+    } else {
+      logger.debug(s"[securesocial] rejected a login for provider $providerId, limit = ${limit.limit}")
+      None
+    }
+  }
+
+  /**
+   * The number of seconds clients are asked to wait before trying again
+   */
+  def retryAfterInSeconds: Int = config.retryAfterInSeconds
+
+  /**
+   * The current limits and counters by provider id
+   */
+  def stats: Map[String, ProviderStats] = limits.asScala.map {
+    case (id, limit) => id -> ProviderStats(limit.limit, limit.inFlight.get, limit.accepted.get, limit.rejected.get, limit.slow.get)
+  }.toMap
+}
+
+object LoginLimiter {
+  private val logger = play.api.Logger("securesocial.core.LoginLimiter")
+
+  /**
+   * @param limit the current limit
+   * @param inFlight the logins in progress
+   * @param accepted the logins accepted since the start
+   * @param rejected the logins rejected since the start
+   * @param slow the logins that took longer than the maximum latency
+   */
+  case class ProviderStats(limit: Int, inFlight: Int, accepted: Long, rejected: Long, slow: Long)
+}
+
+/**
+ * The settings for the LoginLimiter
+ *
+ * @param enabled whether the login endpoints are limited
+ * @param initialLimit the limit of concurrent logins for a provider at start
+ * @param minLimit the lowest the limit can get
+ * @param maxLimit the highest the limit can get
+ * @param maxLatencyInMillis logins taking longer than this reduce the limit
+ * @param backoffRatio the factor applied to the limit when a login is slow
+ * @param retryAfterInSeconds the Retry-After sent with the rejections
+ */
+case class LoginLimiterConfig(
+  enabled: Boolean,
+  initialLimit: Int,
+  minLimit: Int,
+  maxLimit: Int,
+  maxLatencyInMillis: Int,
+  backoffRatio: Double,
+  retryAfterInSeconds: Int)
+
+object LoginLimiterConfig {
+  implicit val configLoader: ConfigLoader[LoginLimiterConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): LoginLimiterConfig =
+    configuration.get[LoginLimiterConfig]("securesocial.loginLimiter")
+}
@@ -147,7 +147,7 @@ abstract class OAuth1Provider(
           throw AuthenticationException()
         }
         for (
-          requestToken <- cacheService.getAs[RequestToken](cacheKey).recover {
+          requestToken <- cacheService.getAndRemove[RequestToken](cacheKey).recover {
             case e =>
               logger.error("[securesocial] error retrieving entry from cache", e)
               throw AuthenticationException()
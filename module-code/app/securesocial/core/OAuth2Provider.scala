@@ -37,6 +37,13 @@ trait OAuth2Client {
 
   def retrieveProfile(profileUrl: String): Future[JsValue]
 
+  /**
+   * Exchanges a refresh token for a new access token.  Clients that don't support it fail with an
+   * UnsupportedOperationException, so their tokens are not refreshed.
+   */
+  def refreshToken(refreshToken: String, builder: OAuth2InfoBuilder): Future[OAuth2Info] =
+    Future.failed(new UnsupportedOperationException(s"${getClass.getName} does not support refreshing tokens"))
+
   type OAuth2InfoBuilder = WSResponse => OAuth2Info
 
   implicit def executionContext: ExecutionContext
@@ -59,6 +66,15 @@ object OAuth2Client {
 
     override def retrieveProfile(profileUrl: String): Future[JsValue] =
       httpService.url(profileUrl).get().map(_.json)
+
+    override def refreshToken(refreshToken: String, builder: OAuth2InfoBuilder): Future[OAuth2Info] = {
+      val params = Map(
+        OAuth2Constants.ClientId -> Seq(settings.clientId),
+        OAuth2Constants.ClientSecret -> Seq(settings.clientSecret),
+        OAuth2Constants.GrantType -> Seq(OAuth2Constants.RefreshToken),
+        OAuth2Constants.RefreshToken -> Seq(refreshToken)) ++ settings.accessTokenUrlParams.mapValues(Seq(_))
+      httpService.url(settings.accessTokenUrl).post(params).map(builder)
+    }
   }
 }
 /**
@@ -93,13 +109,31 @@ abstract class OAuth2Provider(
       (json \ OAuth2Constants.AccessToken).as[String],
       (json \ OAuth2Constants.TokenType).asOpt[String],
       (json \ OAuth2Constants.ExpiresIn).asOpt[Int],
-      (json \ OAuth2Constants.RefreshToken).asOpt[String])
+      (json \ OAuth2Constants.RefreshToken).asOpt[String],
+      (json \ OAuth2Constants.IdToken).asOpt[String])
+  }
+
+  /**
+   * Gets a new access token using the refresh token in an OAuth2Info. The refresh token is kept when the
+   * authorization server does not return a new one.
+   *
+   * @param info the current OAuth2Info
+   * @return the new OAuth2Info
+   */
+  def refreshAccessToken(info: OAuth2Info): Future[OAuth2Info] = info.refreshToken match {
+    case Some(token) =>
+      client.refreshToken(token, buildInfo).map { refreshed =>
+        if (refreshed.refreshToken.isDefined) refreshed else refreshed.copy(refreshToken = info.refreshToken)
+      }
+    case None =>
+      Future.failed(new IllegalArgumentException(s"[securesocial] there is no refresh token for provider $id"))
   }
 
   private[this] def validateOauthState(request: Request[AnyContent]): Future[Boolean] = {
     val sessId: Option[String] = request.session.get(IdentityProvider.SessionId)
     val stateInQueryString: Option[String] = request.queryString.get(OAuth2Constants.State).flatMap(_.headOption)
-    val cacheSessId: Option[Future[Option[String]]] = sessId.map(cacheService.getAs[String](_))
+    // the state can only be used once
+    val cacheSessId: Option[Future[Option[String]]] = sessId.map(cacheService.getAndRemove[String](_))
     cacheSessId.fold(Future.successful(false))(_.map(_ == stateInQueryString))
   }
 
@@ -107,7 +141,7 @@ abstract class OAuth2Provider(
     validateOauthState(request).flatMap(stateOk => if (stateOk) {
       for {
         accessToken <- getAccessToken(code)(request) if stateOk;
-        user <- fillProfile(OAuth2Info(accessToken.accessToken, accessToken.tokenType, accessToken.expiresIn, accessToken.refreshToken))
+        user <- fillProfile(accessToken)
       } yield {
         logger.debug(s"[securesocial] user loggedin using provider $id = $user")
         AuthenticationResult.Authenticated(user)
@@ -259,5 +293,6 @@ object OAuth2Constants {
   val TokenType = "token_type"
   val ExpiresIn = "expires_in"
   val RefreshToken = "refresh_token"
+  val IdToken = "id_token"
   val AccessDenied = "access_denied"
 }
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.util.concurrent.atomic.{ AtomicBoolean, AtomicInteger }
+import java.util.concurrent.{ ConcurrentHashMap, ThreadLocalRandom }
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.UserService
+
+import scala.collection.JavaConverters._
+import scala.concurrent.{ ExecutionContext, Future }
+
+/**
+ * Refreshes the OAuth2 access tokens of the users that logged in before they expire, so they can keep
+ * being used to call the provider APIs without sending the users through the login flow again.
+ *
+ * The profiles are tracked when the users log in, along with the id of the authenticator issued for the
+ * login.  Every time refreshDue is invoked the tokens that are about to expire are refreshed in batches per
+ * provider, with at most maxConcurrentPerProvider calls in flight for each one, and the new tokens are saved
+ * using UserService.updateOAuth2Info.  The refresh time of each token is moved ahead by a random jitter so
+ * tokens issued together are not refreshed together.
+ *
+ * Only profiles with a refresh token and an expiration are tracked, and at most maxTracked of them.  A token
+ * stops being refreshed when it can't be refreshed, when the user logs out or when the user logged in more
+ * than maxAgeInDays ago.
+ *
+ * @param providers the providers by id
+ * @param userService the service where the new tokens are saved
+ * @param config the refresher settings
+ * @tparam U the user object type
+ */
+class OAuth2TokenRefresher[U](
+  providers: => Map[String, IdentityProvider],
+  userService: UserService[U],
+  config: OAuth2RefreshConfig)(implicit val executionContext: ExecutionContext) {
+
+  private val logger = play.api.Logger("securesocial.core.OAuth2TokenRefresher")
+
+  private case class Key(providerId: String, userId: String)
+  private case class Pending(profile: BasicProfile, dueAt: Long, loggedInAt: Long, authenticatorId: String) {
+    def key = Key(profile.providerId, profile.userId)
+  }
+
+  // the tracked profiles by provider and user id
+  private val pending = new ConcurrentHashMap[String, ConcurrentHashMap[String, Pending]]()
+  // the users tracked for each login, kept while their tokens are refreshed so a logout is not missed
+  private val logins = new ConcurrentHashMap[String, java.util.Set[Key]]()
+  private val trackedCount = new AtomicInteger()
+  private val running = new AtomicBoolean()
+  private val maxAgeInMillis = config.maxAgeInDays * 24L * 60 * 60 * 1000
+
+  private def now = System.currentTimeMillis()
+
+  /**
+   * Starts tracking the token of a profile, replacing the one tracked for the same user if any
+   *
+   * @param profile the profile
+   * @param authenticatorId the id of the authenticator issued for the login, see untrackLogin
+   */
+  def track(profile: BasicProfile, authenticatorId: String): Unit = schedule(profile, now, authenticatorId)
+
+  // true if the token is tracked
+  private def schedule(profile: BasicProfile, loggedInAt: Long, authenticatorId: String): Boolean = {
+    val expiration = for (
+      info <- profile.oAuth2Info;
+      _ <- info.refreshToken;
+      expiresIn <- info.expiresIn
+    ) yield expiresIn
+    expiration.exists { expiresIn =>
+      val users = pendingFor(profile.providerId)
+      if (!users.containsKey(profile.userId) && trackedCount.get >= config.maxTracked) {
+        logger.debug(s"[securesocial] not refreshing the token of user ${profile.userId} for provider ${profile.providerId}, ${config.maxTracked} tokens are tracked")
+        false
+      } else {
+        val jitter = if (config.jitterInSeconds > 0) ThreadLocalRandom.current().nextLong(config.jitterInSeconds * 1000L) else 0L
+        val dueAt = now + (expiresIn - config.refreshBeforeExpiryInSeconds) * 1000L - jitter
+        val tracked = Pending(profile, dueAt, loggedInAt, authenticatorId)
+        loginsFor(authenticatorId).add(tracked.key)
+        val previous = users.put(profile.userId, tracked)
+        if (previous == null) trackedCount.incrementAndGet()
+        else if (previous.authenticatorId != authenticatorId) forget(previous)
+        true
+      }
+    }
+  }
+
+  private def pendingFor(providerId: String): ConcurrentHashMap[String, Pending] = {
+    val existing = pending.get(providerId)
+    if (existing != null) {
+      existing
+    } else {
+      val created = new ConcurrentHashMap[String, Pending]()
+      val raced = pending.putIfAbsent(providerId, created)
+      if (raced != null) raced else created
+    }
+  }
+
+  private def loginsFor(authenticatorId: String): java.util.Set[Key] = {
+    val existing = logins.get(authenticatorId)
+    if (existing != null) {
+      existing
+    } else {
+      val created = ConcurrentHashMap.newKeySet[Key]()
+      val raced = logins.putIfAbsent(authenticatorId, created)
+      if (raced != null) raced else created
+    }
+  }
+
+  private def isLoggedIn(tracked: Pending): Boolean =
+    Option(logins.get(tracked.authenticatorId)).exists(_.contains(tracked.key))
+
+  private def forget(tracked: Pending): Unit = Option(logins.get(tracked.authenticatorId)).foreach { keys =>
+    keys.remove(tracked.key)
+    if (keys.isEmpty) logins.remove(tracked.authenticatorId, keys)
+  }
+
+  private def remove(tracked: Pending): Boolean = {
+    val removed = Option(pending.get(tracked.profile.providerId)).exists(_.remove(tracked.profile.userId, tracked))
+    if (removed) trackedCount.decrementAndGet()
+    removed
+  }
+
+  /**
+   * Stops tracking the token of a user
+   */
+  def untrack(providerId: String, userId: String): Unit =
+    Option(pending.get(providerId)).flatMap(users => Option(users.get(userId))).foreach { tracked =>
+      if (remove(tracked)) forget(tracked)
+    }
+
+  /**
+   * Stops tracking the token of the user that logged in with an authenticator, invoked when the user logs out
+   *
+   * @param authenticatorId the id of the authenticator issued for the login
+   */
+  def untrackLogin(authenticatorId: String): Unit = Option(logins.remove(authenticatorId)).foreach { keys =>
+    keys.asScala.foreach { key =>
+      Option(pending.get(key.providerId)).flatMap(users => Option(users.get(key.userId)))
+        .filter(_.authenticatorId == authenticatorId)
+        .foreach(remove)
+    }
+  }
+
+  /**
+   * The number of tokens tracked
+   */
+  def size: Int = trackedCount.get
+
+  /**
+   * Refreshes the tokens that are due.  Invocations made while a previous one is still running do nothing.
+   *
+   * @return the number of tokens refreshed
+   */
+  def refreshDue(): Future[Int] = {
+    if (!running.compareAndSet(false, true)) {
+      Future.successful(0)
+    } else {
+      val limit = now
+      val batches = pending.asScala.toVector.map {
+        case (providerId, users) =>
+          // a profile tracked again while it is refreshed is kept
+          val due = users.values.asScala.filter(_.dueAt <= limit).toVector.filter(remove)
+          val (expired, current) = due.partition(limit - _.loggedInAt >= maxAgeInMillis)
+          expired.foreach(forget)
+          refreshBatch(providerId, current)
+      }
+      val result = Future.sequence(batches).map(_.sum)
+      result.onComplete { _ => running.set(false) }
+      result
+    }
+  }
+
+  private def refreshBatch(providerId: String, due: Vector[Pending]): Future[Int] = {
+    if (due.isEmpty) {
+      Future.successful(0)
+    } else {
+      providers.get(providerId) match {
+        case Some(provider: OAuth2Provider) =>
+          logger.debug(s"[securesocial] refreshing ${due.size} tokens for provider $providerId")
+          due.grouped(config.maxConcurrentPerProvider).foldLeft(Future.successful(0)) { (previous, group) =>
+            previous.flatMap { count =>
+              Future.sequence(group.map(refresh(provider, _))).map(results => count + results.count(identity))
+            }
+          }
+        case _ =>
+          logger.warn(s"[securesocial] can't refresh tokens for $providerId, it is not an OAuth2 provider")
+          due.foreach(forget)
+          Future.successful(0)
+      }
+    }
+  }
+
+  private def refresh(provider: OAuth2Provider, tracked: Pending): Future[Boolean] = {
+    val profile = tracked.profile
+    provider.refreshAccessToken(profile.oAuth2Info.get).flatMap { info =>
+      userService.updateOAuth2Info(profile, info).map { _ =>
+        Option(pending.get(profile.providerId)).flatMap(users => Option(users.get(profile.userId))) match {
+          // the user logged in again while the token was refreshed
+          case Some(newer) => if (newer.authenticatorId != tracked.authenticatorId) forget(tracked)
+          // or logged out
+          case None =>
+            if (!isLoggedIn(tracked) || !schedule(profile.copy(oAuth2Info = Some(info)), tracked.loggedInAt, tracked.authenticatorId)) forget(tracked)
+        }
+        true
+      }
+    }.recover {
+      case e =>
+        logger.warn(s"[securesocial] could not refresh the token of user ${profile.userId} for provider ${profile.providerId}: ${e.getMessage}")
+        forget(tracked)
+        false
+    }
+  }
+}
+
+case class OAuth2RefreshConfig(
+  enabled: Boolean,
+  intervalInSeconds: Int,
+  refreshBeforeExpiryInSeconds: Int,
+  jitterInSeconds: Int,
+  maxConcurrentPerProvider: Int,
+  maxTracked: Int,
+  maxAgeInDays: Int)
+
+object OAuth2RefreshConfig {
+  implicit val configLoader: ConfigLoader[OAuth2RefreshConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): OAuth2RefreshConfig =
+    configuration.get[OAuth2RefreshConfig]("securesocial.oauth2Refresh")
+}
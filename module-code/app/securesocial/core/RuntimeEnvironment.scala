@@ -3,14 +3,16 @@ package securesocial.core
 import akka.actor.ActorSystem
 import play.api.{ Configuration, Environment }
 import play.api.cache.AsyncCacheApi
+import play.api.inject.ApplicationLifecycle
 import play.api.i18n.MessagesApi
 import securesocial.controllers.{ MailTemplates, ViewTemplates }
 import securesocial.core.authenticator._
 import securesocial.core.providers._
-import securesocial.core.providers.utils.{ Mailer, PasswordHasher, PasswordValidator }
+import securesocial.core.providers.utils.{ BreachedPasswordConfig, BreachedPasswordIndex, BreachedPasswordValidator, Mailer, PasswordHasher, PasswordValidator }
 import securesocial.core.services._
 
-import scala.concurrent.ExecutionContext
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.concurrent.duration._
 import scala.collection.immutable.ListMap
 import play.api.libs.mailer.MailerClient
 import play.api.libs.ws.WSClient
@@ -55,11 +57,81 @@ trait RuntimeEnvironment {
     HttpHeaderConfig.fromConfiguration(configuration)
   lazy val cookieConfig: CookieConfig =
     CookieConfig.fromConfiguration(configuration)
+  lazy val userCacheConfig: UserCacheConfig =
+    UserCacheConfig.fromConfiguration(configuration)
+  lazy val jwtConfig: JwtConfig =
+    JwtConfig.fromConfiguration(configuration)
+  lazy val mappedFileStoreConfig: MappedFileStoreConfig =
+    MappedFileStoreConfig.fromConfiguration(configuration)
+  lazy val blockingExecutorConfig: BlockingExecutorConfig =
+    BlockingExecutorConfig.fromConfiguration(configuration)
+  lazy val authorizationCacheConfig: AuthorizationCacheConfig =
+    AuthorizationCacheConfig.fromConfiguration(configuration)
+  lazy val oauth2RefreshConfig: OAuth2RefreshConfig =
+    OAuth2RefreshConfig.fromConfiguration(configuration)
+  lazy val connectionRegistryConfig: ConnectionRegistryConfig =
+    ConnectionRegistryConfig.fromConfiguration(configuration)
+  lazy val eventJournalConfig: EventJournalConfig =
+    EventJournalConfig.fromConfiguration(configuration)
+  lazy val mailTokenCoalescerConfig: MailTokenCoalescerConfig =
+    MailTokenCoalescerConfig.fromConfiguration(configuration)
+  lazy val authenticatorIdFilterConfig: AuthenticatorIdFilterConfig =
+    AuthenticatorIdFilterConfig.fromConfiguration(configuration)
+  lazy val breachedPasswordConfig: BreachedPasswordConfig =
+    BreachedPasswordConfig.fromConfiguration(configuration)
+  lazy val warmUpConfig: WarmUpConfig =
+    WarmUpConfig.fromConfiguration(configuration)
+  lazy val loginLimiterConfig: LoginLimiterConfig =
+    LoginLimiterConfig.fromConfiguration(configuration)
+  lazy val serverTimingConfig: ServerTimingConfig =
+    ServerTimingConfig.fromConfiguration(configuration)
   lazy val enableRefererAsOriginalUrl: EnableRefererAsOriginalUrl =
     EnableRefererAsOriginalUrl(configuration)
   lazy val registrationEnabled =
     RegistrationEnabled(configuration)
 
+  /**
+   * The cache shared by the CachedAuthorization instances and the Java actions with cached authorizations
+   */
+  lazy val authorizationCache: AuthorizationCache = new AuthorizationCache(authorizationCacheConfig)
+
+  /**
+   * Rejects the authenticator ids that can't be in the store, shared by the cookie and header authenticators
+   */
+  lazy val authenticatorIdFilter: AuthenticatorIdFilter =
+    new AuthenticatorIdFilter(authenticatorIdFilterConfig, idGenerator.isWellFormed)
+
+  /**
+   * Warms up the services before the application gets traffic, see WarmUpModule
+   */
+  lazy val warmUp: WarmUp = new WarmUp(this, warmUpConfig)
+
+  /**
+   * Times the phases of the secured actions and the logins, when enabled
+   */
+  lazy val serverTiming: ServerTiming = new ServerTiming(serverTimingConfig)
+
+  /**
+   * Coalesces the sign up and password reset requests made for the same email
+   */
+  lazy val mailTokenCoalescer: MailTokenCoalescer =
+    new MailTokenCoalescer(mailTokenCoalescerConfig, if (mailTokenCoalescerConfig.shared) Some(cacheService) else None)
+
+  /**
+   * Refreshes the OAuth2 tokens of the users that log in, when enabled
+   */
+  def oauth2TokenRefresher: Option[OAuth2TokenRefresher[U]] = None
+
+  /**
+   * Keeps track of the authenticated WebSocket and streaming connections
+   */
+  def connectionRegistry: Option[ConnectionRegistry[U]] = None
+
+  /**
+   * Limits the logins in progress for each provider, when enabled
+   */
+  def loginLimiter: Option[LoginLimiter] = None
+
   def messagesApi: MessagesApi
 
   def parsers: PlayBodyParsers
@@ -79,6 +151,18 @@ object RuntimeEnvironment {
     def parsers: PlayBodyParsers
     def actorSystem: ActorSystem
 
+    /**
+     * The application lifecycle, used to release resources like the event journal writer when the
+     * app stops.  Override it with the injected instance; without one they are released when the
+     * actor system terminates.
+     */
+    def applicationLifecycle: Option[ApplicationLifecycle] = None
+
+    protected def onStop(hook: () => Unit): Unit = applicationLifecycle match {
+      case Some(lifecycle) => lifecycle.addStopHook(() => Future.successful(hook()))
+      case None => actorSystem.registerOnTermination(hook())
+    }
+
     override lazy val routes: RoutesService = new RoutesService.Default(environment, configuration)
 
     override lazy val viewTemplates: ViewTemplates = new ViewTemplates.Default(this)(configuration)
@@ -87,18 +171,110 @@ object RuntimeEnvironment {
 
     override lazy val currentHasher: PasswordHasher = new PasswordHasher.Default(configuration)
     override lazy val passwordHashers: Map[String, PasswordHasher] = Map(currentHasher.id -> currentHasher)
-    override lazy val passwordValidator: PasswordValidator = new PasswordValidator.Default(usernamePasswordConfig.minimumPasswordLength)
+    override lazy val passwordValidator: PasswordValidator = {
+      val default = new PasswordValidator.Default(usernamePasswordConfig.minimumPasswordLength)
+      breachedPasswordConfig.indexFile.map { file =>
+        val index = new BreachedPasswordIndex(new java.io.File(file))
+        onStop(() => index.close())
+        new BreachedPasswordValidator(index, default)
+      }.getOrElse(default)
+    }
 
     override lazy val httpService: HttpService = new HttpService.Default(wsClient)
     override lazy val cacheService: CacheService = new CacheService.Default(cacheApi)
     override lazy val avatarService: Option[AvatarService] = Some(new AvatarService.Default(httpService))
     override lazy val idGenerator: IdGenerator = new IdGenerator.Default(configuration)
 
+    /**
+     * The executor for UserService implementations that make blocking calls, eg:
+     *
+     * override lazy val userService = new MyJdbcUserService(blockingExecutor)
+     */
+    protected lazy val blockingExecutor: BlockingExecutor = new BlockingExecutor(blockingExecutorConfig)
+
     override lazy val authenticatorService: AuthenticatorService[U] = new AuthenticatorService(
-      new CookieAuthenticatorBuilder[U](new AuthenticatorStore.Default(cacheService), idGenerator, cookieConfig),
-      new HttpHeaderAuthenticatorBuilder[U](new AuthenticatorStore.Default(cacheService), idGenerator, httpHeaderConfig))
+      new CookieAuthenticatorBuilder[U](new AuthenticatorStore.Default(cacheService), idGenerator, cookieConfig, authenticatorIdFilter),
+      new HttpHeaderAuthenticatorBuilder[U](new AuthenticatorStore.Default(cacheService), idGenerator, httpHeaderConfig, authenticatorIdFilter))
+
+    /**
+     * Builds an AuthenticatorService whose cookie and header authenticators only store a reference
+     * to the user.  Override authenticatorService with it to use reference based authenticators, eg:
+     *
+     * override lazy val authenticatorService = referenceAuthenticatorService(new UserCache(myLoader, userCacheConfig))
+     *
+     * @param users the cache used to resolve users
+     * @return an AuthenticatorService instance
+     */
+    protected def referenceAuthenticatorService(users: UserCache[U]): AuthenticatorService[U] = new AuthenticatorService(
+      new ReferenceAuthenticatorBuilder[U](
+        new CookieAuthenticatorBuilder[UserReference](new AuthenticatorStore.Default(cacheService), idGenerator, cookieConfig, authenticatorIdFilter), users),
+      new ReferenceAuthenticatorBuilder[U](
+        new HttpHeaderAuthenticatorBuilder[UserReference](new AuthenticatorStore.Default(cacheService), idGenerator, httpHeaderConfig, authenticatorIdFilter), users))
 
-    override lazy val eventListeners: Seq[EventListener] = Seq()
+    /**
+     * Creates an AuthenticatorStore backed by a memory mapped file and schedules its compaction. It can be
+     * used instead of AuthenticatorStore.Default in the authenticator builders, eg:
+     *
+     * new CookieAuthenticatorBuilder[U](mappedFileStore("cookie.db"), idGenerator, cookieConfig, authenticatorIdFilter)
+     *
+     * @param name the file name, relative to the mappedFileStore directory
+     * @return a MappedFileAuthenticatorStore instance
+     */
+    protected def mappedFileStore[A <: Authenticator[_]](name: String): MappedFileAuthenticatorStore[A] = {
+      val store = MappedFileAuthenticatorStore[A](name, mappedFileStoreConfig)
+      val interval = mappedFileStoreConfig.compactionIntervalInSeconds.seconds
+      actorSystem.scheduler.schedule(interval, interval)(store.compact())
+      store
+    }
+
+    /**
+     * Builds a JwtAuthenticatorBuilder using the keys in the jwt settings.  Add it to the
+     * authenticatorService to issue tokens from the /api/jwt endpoints.
+     *
+     * @param users the cache used to resolve users
+     * @return a JwtAuthenticatorBuilder instance
+     */
+    protected def jwtAuthenticatorBuilder(users: UserCache[U]): JwtAuthenticatorBuilder[U] =
+      new JwtAuthenticatorBuilder[U](JwtKeySet.fromConfig(jwtConfig), users, cacheService, idGenerator, jwtConfig)
+
+    override lazy val oauth2TokenRefresher: Option[OAuth2TokenRefresher[U]] =
+      if (oauth2RefreshConfig.enabled) {
+        val refresher = new OAuth2TokenRefresher[U](providers, userService, oauth2RefreshConfig)
+        val interval = oauth2RefreshConfig.intervalInSeconds.seconds
+        actorSystem.scheduler.schedule(interval, interval)(refresher.refreshDue())
+        Some(refresher)
+      } else {
+        None
+      }
+
+    override lazy val connectionRegistry: Option[ConnectionRegistry[U]] =
+      if (connectionRegistryConfig.enabled) {
+        val registry = new ConnectionRegistry[U](authenticatorService, connectionRegistryConfig)
+        val interval = connectionRegistryConfig.revalidationIntervalInSeconds.seconds
+        val revalidation = actorSystem.scheduler.schedule(interval, interval)(registry.revalidate())
+        onStop(() => revalidation.cancel())
+        Some(registry)
+      } else {
+        None
+      }
+
+    override lazy val loginLimiter: Option[LoginLimiter] =
+      if (loginLimiterConfig.enabled) Some(new LoginLimiter(loginLimiterConfig)) else None
+
+    /**
+     * The journal for the authentication events, when enabled.  Add it to the eventListeners if they are
+     * overridden.
+     */
+    protected lazy val eventJournal: Option[EventJournal] =
+      if (eventJournalConfig.enabled) {
+        val journal = EventJournal(eventJournalConfig)
+        onStop(() => journal.close())
+        Some(journal)
+      } else {
+        None
+      }
+
+    override lazy val eventListeners: Seq[EventListener] = eventJournal.toSeq
 
     protected def include(p: IdentityProvider): (String, IdentityProvider) = p.id -> p
     protected def oauth1ClientFor(provider: String): OAuth1Client =
@@ -106,27 +282,66 @@ object RuntimeEnvironment {
     protected def oauth2ClientFor(provider: String): OAuth2Client =
       new OAuth2Client.Default(httpService, OAuth2Settings.forProvider(configuration, provider))
 
-    protected lazy val builtInProviders = ListMap(
-      include(new FacebookProvider(routes, cacheService, oauth2ClientFor(FacebookProvider.Facebook))),
-      include(new FoursquareProvider(routes, cacheService, oauth2ClientFor(FoursquareProvider.Foursquare))),
-      include(new GitHubProvider(routes, cacheService, oauth2ClientFor(GitHubProvider.GitHub))),
-      include(new GoogleProvider(routes, cacheService, oauth2ClientFor(GoogleProvider.Google))),
-      include(new InstagramProvider(routes, cacheService, oauth2ClientFor(InstagramProvider.Instagram))),
-      include(new ConcurProvider(routes, cacheService, oauth2ClientFor(ConcurProvider.Concur))),
-      include(new SoundcloudProvider(routes, cacheService, oauth2ClientFor(SoundcloudProvider.Soundcloud))),
-      include(new LinkedInOAuth2Provider(routes, cacheService, oauth2ClientFor(LinkedInOAuth2Provider.LinkedIn))),
-      include(new VkProvider(routes, cacheService, oauth2ClientFor(VkProvider.Vk))),
-      include(new DropboxProvider(routes, cacheService, oauth2ClientFor(DropboxProvider.Dropbox))),
-      include(new WeiboProvider(routes, cacheService, oauth2ClientFor(WeiboProvider.Weibo))),
-      include(new ConcurProvider(routes, cacheService, oauth2ClientFor(ConcurProvider.Concur))),
-      include(new SpotifyProvider(routes, cacheService, oauth2ClientFor(SpotifyProvider.Spotify))),
-      include(new SlackProvider(routes, cacheService, oauth2ClientFor(SlackProvider.Slack))),
+    /**
+     * Creates the built in providers by id. Only the ones that are configured are created
+     */
+    protected lazy val builtInProviderFactories: ListMap[String, () => IdentityProvider] = ListMap(
+      FacebookProvider.Facebook -> (() => new FacebookProvider(routes, cacheService, oauth2ClientFor(FacebookProvider.Facebook))),
+      FoursquareProvider.Foursquare -> (() => new FoursquareProvider(routes, cacheService, oauth2ClientFor(FoursquareProvider.Foursquare))),
+      GitHubProvider.GitHub -> (() => new GitHubProvider(routes, cacheService, oauth2ClientFor(GitHubProvider.GitHub))),
+      GoogleProvider.Google -> (() => new GoogleProvider(routes, cacheService, oauth2ClientFor(GoogleProvider.Google))),
+      InstagramProvider.Instagram -> (() => new InstagramProvider(routes, cacheService, oauth2ClientFor(InstagramProvider.Instagram))),
+      ConcurProvider.Concur -> (() => new ConcurProvider(routes, cacheService, oauth2ClientFor(ConcurProvider.Concur))),
+      SoundcloudProvider.Soundcloud -> (() => new SoundcloudProvider(routes, cacheService, oauth2ClientFor(SoundcloudProvider.Soundcloud))),
+      LinkedInOAuth2Provider.LinkedIn -> (() => new LinkedInOAuth2Provider(routes, cacheService, oauth2ClientFor(LinkedInOAuth2Provider.LinkedIn))),
+      VkProvider.Vk -> (() => new VkProvider(routes, cacheService, oauth2ClientFor(VkProvider.Vk))),
+      DropboxProvider.Dropbox -> (() => new DropboxProvider(routes, cacheService, oauth2ClientFor(DropboxProvider.Dropbox))),
+      WeiboProvider.Weibo -> (() => new WeiboProvider(routes, cacheService, oauth2ClientFor(WeiboProvider.Weibo))),
+      SpotifyProvider.Spotify -> (() => new SpotifyProvider(routes, cacheService, oauth2ClientFor(SpotifyProvider.Spotify))),
+      SlackProvider.Slack -> (() => new SlackProvider(routes, cacheService, oauth2ClientFor(SlackProvider.Slack))),
+      OpenIdConnectProvider.OpenIdConnect -> (() => OpenIdConnectProvider(routes, cacheService, oauth2ClientFor(OpenIdConnectProvider.OpenIdConnect),
+        configuration.get[String](s"securesocial.${OpenIdConnectProvider.OpenIdConnect}.issuer"))),
       // oauth 1 client providers
-      //include(new LinkedInProvider(routes, cacheService, oauth1ClientFor(LinkedInProvider.LinkedIn))),
-      include(new TwitterProvider(routes, cacheService, oauth1ClientFor(TwitterProvider.Twitter))),
-      include(new XingProvider(routes, cacheService, oauth1ClientFor(XingProvider.Xing))),
+      //LinkedInProvider.LinkedIn -> (() => new LinkedInProvider(routes, cacheService, oauth1ClientFor(LinkedInProvider.LinkedIn))),
+      TwitterProvider.Twitter -> (() => new TwitterProvider(routes, cacheService, oauth1ClientFor(TwitterProvider.Twitter))),
+      XingProvider.Xing -> (() => new XingProvider(routes, cacheService, oauth1ClientFor(XingProvider.Xing))),
       // username password
-      include(new UsernamePasswordProvider[U](userService, avatarService, viewTemplates, passwordHashers, messagesApi)))
+      UsernamePasswordProvider.UsernamePassword -> (() => new UsernamePasswordProvider[U](userService, avatarService, viewTemplates, passwordHashers, messagesApi)))
+
+    /**
+     * Checks if a provider has settings under securesocial.<id>. The username password provider
+     * is always considered configured.
+     *
+     * @param id the provider id
+     */
+    protected def isConfigured(id: String): Boolean =
+      id == UsernamePasswordProvider.UsernamePassword ||
+        configuration.getOptional[String](s"securesocial.$id.clientId").isDefined ||
+        configuration.getOptional[String](s"securesocial.$id.consumerKey").isDefined
+
+    /**
+     * Creates the providers that are configured and logs the time it took to create each one
+     *
+     * @param factories the provider factories by id
+     * @return the providers by id
+     */
+    protected def instantiate(factories: ListMap[String, () => IdentityProvider]): ListMap[String, IdentityProvider] = {
+      val (configured, skipped) = factories.partition { case (id, _) => isConfigured(id) }
+      val start = System.nanoTime()
+      val timed = configured.toSeq.map {
+        case (id, create) =>
+          val providerStart = System.nanoTime()
+          val provider = create()
+          (include(provider), (System.nanoTime() - providerStart) / 1000000.0)
+      }
+      val logger = play.api.Logger("securesocial.core.RuntimeEnvironment")
+      logger.info(f"[securesocial] created ${timed.size} providers in ${(System.nanoTime() - start) / 1000000.0}%.1f ms: " +
+        timed.map { case ((id, _), millis) => f"$id ($millis%.1f ms)" }.mkString(", "))
+      if (skipped.nonEmpty) logger.debug(s"[securesocial] skipped providers that are not configured: ${skipped.keys.mkString(", ")}")
+      ListMap(timed.map(_._1): _*)
+    }
+
+    protected lazy val builtInProviders: ListMap[String, IdentityProvider] = instantiate(builtInProviderFactories)
 
     override lazy val providers: ListMap[String, IdentityProvider] = builtInProviders
   }
@@ -24,6 +24,8 @@ import play.api.mvc.{ Result, _ }
 import play.twirl.api.Html
 import securesocial.core.SecureSocial.{ RequestWithUser, SecuredRequest }
 import securesocial.core.authenticator._
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.SameThreadExecutionContext
 import securesocial.core.utils._
 
 import scala.concurrent.{ ExecutionContext, Future }
@@ -82,6 +84,12 @@ trait SecureSocial extends ControllerHelpers with I18nSupport { self =>
      * @param authorize an Authorize object that checks if the user is authorized to invoke the action
      */
     def apply[A](authorize: Authorization[env.U]) = new SecuredActionBuilder(Some(authorize))
+
+    /**
+     * Creates a secured action
+     * @param authorize an AsyncAuthorization object that checks if the user is authorized to invoke the action
+     */
+    def apply[A](authorize: AsyncAuthorization[env.U]) = new AsyncSecuredActionBuilder(authorize)
   }
 
   /**
@@ -96,27 +104,48 @@ trait SecureSocial extends ControllerHelpers with I18nSupport { self =>
 
     private val logger = play.api.Logger("securesocial.core.SecuredActionBuilder")
 
+    /**
+     * The check used by invokeBlock
+     */
+    protected def authorization: Option[AsyncAuthorization[env.U]] = authorize.map(AsyncAuthorization(_))
+
     def invokeSecuredBlock[A](authorize: Option[Authorization[env.U]], request: Request[A],
+      block: SecuredRequest[A, env.U] => Future[Result]): Future[Result] =
+      invokeAsyncSecuredBlock(authorize.map(AsyncAuthorization(_)), request, block)
+
+    def invokeAsyncSecuredBlock[A](authorize: Option[AsyncAuthorization[env.U]], request: Request[A],
       block: SecuredRequest[A, env.U] => Future[Result]): Future[Result] =
       {
-        env.authenticatorService.fromRequest(request).flatMap {
-          case Some(authenticator) if authenticator.isValid =>
-            authenticator.touch.flatMap { updatedAuthenticator =>
-              val user = updatedAuthenticator.user
-              if (authorize.isEmpty || authorize.get.isAuthorized(user, request)) {
-                block(SecuredRequest(user, updatedAuthenticator, request)).flatMap {
-                  _.touchingAuthenticator(updatedAuthenticator)
+        val timer = env.serverTiming.start(ServerTiming.Secured)
+        // the continuations run in the calling thread when the previous step is already completed
+        timer.around(request) {
+          env.authenticatorService.fromRequest(request).flatMapNow {
+            case Some(authenticator) if authenticator.isValid =>
+              timer.mark(ServerTiming.Authenticator)
+              authenticator.touch.flatMapNow { updatedAuthenticator =>
+                timer.mark(ServerTiming.Touch)
+                val user = updatedAuthenticator.user
+                authorize.map(_.isAuthorized(user, request)).getOrElse(Future.successful(true)).flatMapNow { authorized =>
+                  timer.mark(ServerTiming.Authorization)
+                  if (authorized) {
+                    block(SecuredRequest(user, updatedAuthenticator, request)).flatMapNow { result =>
+                      timer.mark(ServerTiming.Action)
+                      result.touchingAuthenticator(updatedAuthenticator)
+                    }(SameThreadExecutionContext)
+                  } else {
+                    notAuthorizedResult(request)
+                  }
                 }
-              } else {
-                notAuthorizedResult(request)
               }
-            }
-          case Some(authenticator) if !authenticator.isValid =>
-            logger.debug("[securesocial] user tried to access with invalid authenticator : '%s'".format(request.uri))
-            notAuthenticatedResult(request).flatMap { _.discardingAuthenticator(authenticator) }
-          case None =>
-            logger.debug("[securesocial] anonymous user trying to access : '%s'".format(request.uri))
-            notAuthenticatedResult(request)
+            case Some(authenticator) if !authenticator.isValid =>
+              timer.mark(ServerTiming.Authenticator)
+              logger.debug("[securesocial] user tried to access with invalid authenticator : '%s'".format(request.uri))
+              notAuthenticatedResult(request).flatMapNow { _.discardingAuthenticator(authenticator) }
+            case None =>
+              timer.mark(ServerTiming.Authenticator)
+              logger.debug("[securesocial] anonymous user trying to access : '%s'".format(request.uri))
+              notAuthenticatedResult(request)
+          }
         }
       }
 
@@ -124,10 +153,19 @@ trait SecureSocial extends ControllerHelpers with I18nSupport { self =>
       request: Request[A],
       block: (SecuredRequest[A, env.U]) => Future[Result]): Future[Result] =
       {
-        invokeSecuredBlock(authorize, request, block)
+        invokeAsyncSecuredBlock(authorization, request, block)
       }
   }
 
+  /**
+   * A builder for secured actions whose authorization check is asynchronous
+   *
+   * @param authorize an AsyncAuthorization object that checks if the user is authorized to invoke the action
+   */
+  class AsyncSecuredActionBuilder(authorize: AsyncAuthorization[env.U]) extends SecuredActionBuilder(None) {
+    override protected def authorization: Option[AsyncAuthorization[env.U]] = Some(authorize)
+  }
+
   /**
    * An action that adds the current user in the request if it's available.
    */
@@ -146,15 +184,22 @@ trait SecureSocial extends ControllerHelpers with I18nSupport { self =>
       request: Request[A],
       block: (RequestWithUser[A, env.U]) => Future[Result]): Future[Result] =
       {
-        env.authenticatorService.fromRequest(request).flatMap {
-          case Some(authenticator) if authenticator.isValid =>
-            authenticator.touch.flatMap {
-              a => block(RequestWithUser(Some(a.user), Some(a), request))
-            }
-          case Some(authenticator) if !authenticator.isValid =>
-            block(RequestWithUser(None, None, request)).flatMap(_.discardingAuthenticator(authenticator))
-          case None =>
-            block(RequestWithUser(None, None, request))
+        val timer = env.serverTiming.start(ServerTiming.UserAware)
+        timer.around(request) {
+          env.authenticatorService.fromRequest(request).flatMapNow {
+            case Some(authenticator) if authenticator.isValid =>
+              timer.mark(ServerTiming.Authenticator)
+              authenticator.touch.flatMapNow { a =>
+                timer.mark(ServerTiming.Touch)
+                timer.timed(ServerTiming.Action)(block(RequestWithUser(Some(a.user), Some(a), request)))
+              }
+            case Some(authenticator) if !authenticator.isValid =>
+              timer.mark(ServerTiming.Authenticator)
+              timer.timed(ServerTiming.Action)(block(RequestWithUser(None, None, request))).flatMapNow(_.discardingAuthenticator(authenticator))(SameThreadExecutionContext)
+            case None =>
+              timer.mark(ServerTiming.Authenticator)
+              timer.timed(ServerTiming.Action)(block(RequestWithUser(None, None, request)))
+          }
         }
       }
   }
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.util.concurrent.ThreadLocalRandom
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.mvc.{ RequestHeader, Result }
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.SameThreadExecutionContext
+
+import scala.concurrent.Future
+
+/**
+ * Records how long the phases of the secured actions and the logins take (eg: the authenticator lookup, the touch,
+ * the authorization and the action itself) and reports them in a Server-Timing header and a log line.
+ *
+ * When disabled, or when a request is not sampled, start returns a timer that records nothing so the actions only
+ * pay for a field read.
+ *
+ * The login timings are only logged, never sent in the header: the time of the provider phase tells a client
+ * whether a password was checked against a stored hash, which would reveal the existing accounts.
+ *
+ * @param config the timing settings
+ */
+class ServerTiming(config: ServerTimingConfig) {
+  import ServerTiming._
+
+  /**
+   * Starts timing a request
+   *
+   * @param name the name reported for the total time (eg: ServerTiming.Secured)
+   * @return a timer or ServerTiming.Off if the request is not timed
+   */
+  def start(name: String): Timer =
+    if (!config.enabled || (config.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= config.sampleRate)) Off
+    else new Recording(name, config)
+}
+
+object ServerTiming {
+  private val logger = play.api.Logger("securesocial.core.ServerTiming")
+
+  val HeaderName = "Server-Timing"
+
+  /**
+   * The prefix of the metric names in the header, to keep them apart from the ones added by the application
+   */
+  val Prefix = "ss-"
+
+  // totals
+  val Secured = "secured"
+  val UserAware = "useraware"
+  val Login = "login"
+
+  // phases
+  val Authenticator = "authenticator"
+  val Touch = "touch"
+  val Authorization = "authorization"
+  val Action = "action"
+  val Provider = "provider"
+  val User = "user"
+  val Session = "session"
+
+  /**
+   * The timings of a request.  The phases run one after the other, so a timer is never used by two threads at once.
+   */
+  trait Timer {
+    def isRecording: Boolean
+
+    /**
+     * Ends a phase, that started when the previous one ended or when the timer was started
+     *
+     * @param phase the phase name
+     */
+    def mark(phase: String): Unit
+
+    /**
+     * Ends a phase when a future completes
+     */
+    def timed[T](phase: String)(result: Future[T]): Future[T] =
+      if (isRecording) result.mapNow { value => mark(phase); value }(SameThreadExecutionContext) else result
+
+    /**
+     * Adds the timings to a result and logs them
+     */
+    def addTo(result: Result, request: RequestHeader): Result
+
+    /**
+     * Adds the timings to a Java result and logs them
+     */
+    def addTo(result: play.mvc.Result, request: RequestHeader): play.mvc.Result
+
+    /**
+     * Adds the timings to a result once it's available
+     */
+    def around(request: RequestHeader)(result: Future[Result]): Future[Result] =
+      if (isRecording) result.mapNow(addTo(_, request))(SameThreadExecutionContext) else result
+  }
+
+  /**
+   * The timer for the requests that are not timed
+   */
+  object Off extends Timer {
+    override def isRecording: Boolean = false
+    override def mark(phase: String): Unit = ()
+    override def addTo(result: Result, request: RequestHeader): Result = result
+    override def addTo(result: play.mvc.Result, request: RequestHeader): play.mvc.Result = result
+  }
+
+  private class Recording(name: String, config: ServerTimingConfig) extends Timer {
+    private val start = System.nanoTime()
+    private var last = start
+    private var phases = List[(String, Long)]()
+
+    override def isRecording: Boolean = true
+
+    override def mark(phase: String): Unit = {
+      val now = System.nanoTime()
+      phases = (phase, now - last) :: phases
+      last = now
+    }
+
+    private def millis(nanos: Long) = f"${nanos / 1000000.0}%.3f"
+
+    private def finish(request: RequestHeader, status: Int): Option[String] = {
+      val timings = ((name, System.nanoTime() - start) :: phases).reverse
+      if (config.log && logger.isInfoEnabled) {
+        logger.info(s"[securesocial] timing name=$name method=${request.method} path=${request.path} status=$status " +
+          timings.map { case (phase, nanos) => s"$phase=${millis(nanos)}" }.mkString(" "))
+      }
+      if (config.header && name != Login) Some(timings.map { case (phase, nanos) => s"$Prefix$phase;dur=${millis(nanos)}" }.mkString(", ")) else None
+    }
+
+    private def join(existing: Option[String], timings: String) = existing.map(_ + ", " + timings).getOrElse(timings)
+
+    override def addTo(result: Result, request: RequestHeader): Result =
+      finish(request, result.header.status).map { timings =>
+        result.withHeaders(HeaderName -> join(result.header.headers.get(HeaderName), timings))
+      }.getOrElse(result)
+
+    override def addTo(result: play.mvc.Result, request: RequestHeader): play.mvc.Result =
+      finish(request, result.status()).map { timings =>
+        val existing = result.header(HeaderName)
+        result.withHeader(HeaderName, join(if (existing.isPresent) Some(existing.get) else None, timings))
+      }.getOrElse(result)
+  }
+}
+
+/**
+ * The settings for the ServerTiming
+ *
+ * @param enabled whether the requests are timed
+ * @param sampleRate the fraction of the requests that are timed
+ * @param header whether the timings of the secured actions are sent in a Server-Timing header
+ * @param log whether the timings are logged to the securesocial.core.ServerTiming logger
+ */
+case class ServerTimingConfig(enabled: Boolean, sampleRate: Double, header: Boolean, log: Boolean)
+
+object ServerTimingConfig {
+  implicit val configLoader: ConfigLoader[ServerTimingConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): ServerTimingConfig =
+    configuration.get[ServerTimingConfig]("securesocial.serverTiming")
+}
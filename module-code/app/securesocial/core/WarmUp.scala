@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core
+
+import java.io.{ ByteArrayInputStream, ByteArrayOutputStream, ObjectInputStream, ObjectOutputStream }
+import java.net.URI
+import java.security.SecureRandom
+import javax.inject.{ Inject, Singleton }
+
+import io.methvin.play.autoconfig.AutoConfig
+import org.joda.time.DateTime
+import play.api.inject.{ Binding, Module }
+import play.api.libs.Codecs
+import play.api.libs.typedmap.TypedMap
+import play.api.mvc.request.{ RemoteConnection, RequestFactory, RequestTarget }
+import play.api.mvc.{ Headers, RequestHeader }
+import play.api.{ ConfigLoader, Configuration, Environment }
+import play.filters.csrf.CSRF.{ Token, TokenInfo }
+import securesocial.core.authenticator.{ AuthenticatorStore, CookieAuthenticator, Jwt, JwtClaims, JwtKey, JwtKeySet }
+import securesocial.core.providers.UsernamePasswordProvider
+
+import scala.concurrent.duration._
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.control.NonFatal
+
+/**
+ * Exercises the code paths of a login before the application gets traffic, so the first users after a deploy
+ * don't pay for cold code, uninitialized services and empty connection pools: it touches the lazy services of
+ * the environment, runs the password hashers, the id generator and the authenticator codecs, renders the login
+ * page and opens connections to the token endpoints of the OAuth 2 providers.
+ *
+ * The steps never fail: errors are logged and recorded in the report.  Use completed (or isCompleted from a
+ * health check) to keep the node out of rotation until it is warm.
+ *
+ * @param env the environment
+ * @param config the warm up settings
+ */
+class WarmUp(env: RuntimeEnvironment, config: WarmUpConfig) {
+  import WarmUp._
+
+  private implicit val executionContext: ExecutionContext = env.executionContext
+  private val logger = play.api.Logger("securesocial.core.WarmUp")
+  private val random = new SecureRandom()
+
+  private def randomHex(bytes: Int): String = {
+    val value = new Array[Byte](bytes)
+    random.nextBytes(value)
+    Codecs.toHexString(value)
+  }
+
+  private def timed(name: String)(block: => Future[Any]): Future[Step] = {
+    val start = System.nanoTime()
+    val result = try block catch { case NonFatal(e) => Future.failed(e) }
+    result.map(_ => Option.empty[String]).recover {
+      case NonFatal(e) =>
+        logger.warn(s"[securesocial] warm up step $name failed", e)
+        Some(e.toString)
+    }.map { error => Step(name, System.nanoTime() - start, error) }
+  }
+
+  private def services(): Future[Any] = Future {
+    env.routes
+    env.viewTemplates
+    env.userService
+    env.authenticatorService
+    env.providers
+    env.passwordValidator
+    env.eventListeners
+  }
+
+  private def hashers(): Future[Any] = Future {
+    val password = randomHex(8)
+    env.passwordHashers.values.foreach { hasher =>
+      val info = hasher.hash(password)
+      (1 to config.hasherRounds).foreach { _ => hasher.matches(info, password) }
+    }
+  }
+
+  private def ids(): Future[Any] =
+    Future.traverse(1 to config.idRounds) { _ => env.idGenerator.generate }.map(_.foreach(env.idGenerator.isWellFormed))
+
+  private def codecs(): Future[Any] = Future {
+    val keys = new JwtKeySet(new JwtKey("warm-up", randomHex(32).getBytes("UTF-8")))
+    (1 to config.idRounds).foreach { _ =>
+      val now = System.currentTimeMillis() / 1000
+      val claims = JwtClaims("warm-up", "warm-up", randomHex(8), randomHex(8), now, now + 60)
+      if (!Jwt.verify(keys, Jwt.sign(keys.current, claims)).contains(claims))
+        throw new IllegalStateException("the jwt codec did not round trip")
+    }
+    val profile = BasicProfile("warm-up", randomHex(8), None, None, None, None, None, AuthenticationMethod.UserPassword)
+    // the store is transient, it's not written
+    val store = new AuthenticatorStore.Default[CookieAuthenticator[BasicProfile]](env.cacheService)
+    val authenticator = CookieAuthenticator(randomHex(16), profile, DateTime.now.plusMinutes(1), DateTime.now,
+      DateTime.now, env.cookieConfig, store)
+    val bytes = new ByteArrayOutputStream()
+    val out = new ObjectOutputStream(bytes)
+    try out.writeObject(authenticator) finally out.close()
+    val in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray))
+    try in.readObject() finally in.close()
+  }
+
+  private def templates(): Future[Any] = Future {
+    implicit val request: RequestHeader = RequestFactory.plain.createRequestHeader(
+      RemoteConnection("127.0.0.1", secure = false, None),
+      "GET", RequestTarget("/", "/", Map()), "HTTP/1.1", Headers(),
+      TypedMap(Token.InfoAttr -> TokenInfo(Token("csrfToken", randomHex(16)))))
+    env.viewTemplates.getLoginPage(UsernamePasswordProvider.loginForm).body.length +
+      env.viewTemplates.getNotAuthorizedPage.body.length
+  }
+
+  /**
+   * The scheme, host and port of the token endpoints of the OAuth 2 providers
+   */
+  def tokenEndpointOrigins: Seq[String] = env.providers.values.toSeq.collect {
+    case provider: OAuth2Provider => provider.settings.accessTokenUrl
+  }.flatMap { url =>
+    try {
+      val uri = URI.create(url)
+      Option(uri.getHost).map { host => s"${uri.getScheme}://$host${if (uri.getPort > 0) s":${uri.getPort}" else ""}/" }
+    } catch {
+      case NonFatal(_) => None
+    }
+  }.distinct
+
+  // any response means the connection is open and back in the pool
+  private def connect(origin: String): Future[Any] =
+    env.httpService.url(origin).withRequestTimeout(config.connectionTimeoutInSeconds.seconds).head()
+
+  /**
+   * Runs the warm up.  The report is logged when it completes.
+   *
+   * @return the timings of each step
+   */
+  def run(): Future[Report] = {
+    val start = System.nanoTime()
+    // the CPU bound steps run one after the other, the connections are opened while they run
+    val connections = Future.traverse(tokenEndpointOrigins) { origin => timed(s"connect $origin")(connect(origin)) }
+    val steps = for (
+      s <- timed("services")(services());
+      h <- timed("password hashers")(hashers());
+      i <- timed("id generator")(ids());
+      c <- timed("authenticator codecs")(codecs());
+      t <- timed("templates")(templates());
+      pool <- connections
+    ) yield Seq(s, h, i, c, t) ++ pool
+    steps.map { all =>
+      val report = Report(all, System.nanoTime() - start)
+      logger.info(s"[securesocial] warm up completed\n$report")
+      report
+    }
+  }
+
+  /**
+   * The warm up, started on first use
+   */
+  lazy val completed: Future[Report] = run()
+
+  /**
+   * Whether the warm up has completed
+   */
+  def isCompleted: Boolean = completed.isCompleted
+}
+
+object WarmUp {
+  case class Step(name: String, elapsedNanos: Long, error: Option[String]) {
+    override def toString = f"  $name%-32s ${elapsedNanos / 1e6}%10.2f ms${error.map(e => s"  failed: $e").getOrElse("")}"
+  }
+
+  case class Report(steps: Seq[Step], elapsedNanos: Long) {
+    def failed: Seq[Step] = steps.filter(_.error.isDefined)
+
+    override def toString: String =
+      (f"elapsed = ${elapsedNanos / 1e6}%.2f ms, failed steps = ${failed.size}" +: steps.map(_.toString)).mkString("\n")
+  }
+}
+
+/**
+ * Starts the warm up when the application starts, if securesocial.warmUp.enabled is set
+ */
+@Singleton
+class WarmUpStarter @Inject() (env: RuntimeEnvironment) {
+  if (env.warmUpConfig.enabled) env.warmUp.completed
+}
+
+/**
+ * Binds the WarmUpStarter eagerly, enable it with:
+ *
+ * play.modules.enabled += "securesocial.core.WarmUpModule"
+ */
+class WarmUpModule extends Module {
+  override def bindings(environment: Environment, configuration: Configuration): Seq[Binding[_]] =
+    Seq(bind[WarmUpStarter].toSelf.eagerly())
+}
+
+/**
+ * The settings for the warm up
+ *
+ * @param enabled starts the warm up when the WarmUpModule is enabled
+ * @param hasherRounds the number of passwords checked with each hasher
+ * @param idRounds the number of ids generated and tokens encoded
+ * @param connectionTimeoutInSeconds the timeout for the connections to the token endpoints
+ */
+case class WarmUpConfig(enabled: Boolean, hasherRounds: Int, idRounds: Int, connectionTimeoutInSeconds: Int)
+
+object WarmUpConfig {
+  implicit val configLoader: ConfigLoader[WarmUpConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): WarmUpConfig =
+    configuration.get[WarmUpConfig]("securesocial.warmUp")
+}
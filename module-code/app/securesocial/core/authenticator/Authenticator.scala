@@ -39,17 +39,32 @@ trait Authenticator[U] {
   /**
    * The creation time
    */
-  val creationDate: DateTime
+  def creationDate: DateTime
 
   /**
    * The last used time
    */
-  val lastUsed: DateTime
+  def lastUsed: DateTime
 
   /**
    * The expiration date
    */
-  val expirationDate: DateTime
+  def expirationDate: DateTime
+
+  /**
+   * The creation time in milliseconds since the epoch
+   */
+  def creationMillis: Long = creationDate.getMillis
+
+  /**
+   * The last used time in milliseconds since the epoch
+   */
+  def lastUsedMillis: Long = lastUsed.getMillis
+
+  /**
+   * The expiration date in milliseconds since the epoch
+   */
+  def expirationMillis: Long = expirationDate.getMillis
 
   /**
    * Checks if this authenticator is valid.
@@ -148,3 +163,21 @@ trait AuthenticatorBuilder[U] {
    */
   def fromUser(user: U): Future[Authenticator[U]]
 }
+
+/**
+ * An AuthenticatorBuilder whose authenticators can be looked up by id, eg: because they are kept in an
+ * AuthenticatorStore
+ *
+ * @tparam U the user object type
+ */
+trait AuthenticatorLookup[U] {
+  self: AuthenticatorBuilder[U] =>
+
+  /**
+   * Finds several authenticators at once, eg: to check the ones used by long lived connections
+   *
+   * @param ids the authenticator ids
+   * @return the authenticators found by id
+   */
+  def findMany(ids: Seq[String]): Future[Map[String, Authenticator[U]]]
+}
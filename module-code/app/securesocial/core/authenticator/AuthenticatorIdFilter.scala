@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import java.util.concurrent.atomic.{ AtomicLongArray, LongAdder }
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.LocalCache
+
+import scala.util.hashing.MurmurHash3
+
+/**
+ * Rejects authenticator ids that can't be in the store, so requests with forged, garbage or long expired
+ * ids don't reach the store.  An id is rejected when:
+ *
+ * - it is not well formed (eg: it doesn't have the length of the ids created by the IdGenerator)
+ * - a lookup for it missed recently (negative cache)
+ * - the optional Bloom filter of the ids issued or used recently doesn't contain it
+ *
+ * The Bloom filter is kept in memory in two generations that rotate every bloomFilterRotationInMinutes, so it
+ * knows the ids issued or found during the last one to two rotation periods.  Keep that period longer than the
+ * idle timeout of the authenticators.  It is not trusted during the first period after a start, while it
+ * learns the sessions in use.  Since every node only knows the ids it has seen, enable it only for single
+ * node deployments or when the requests of a session always reach the same node.
+ *
+ * @param config the filter settings
+ * @param isWellFormed checks the format of an id
+ */
+class AuthenticatorIdFilter(config: AuthenticatorIdFilterConfig, isWellFormed: String => Boolean = _ => true) {
+  import AuthenticatorIdFilter._
+
+  private val misses =
+    if (config.negativeCacheSize > 0) Some(new LocalCache[String, java.lang.Boolean](config.negativeCacheSize, config.negativeCacheTtlInSeconds * 1000L))
+    else None
+
+  private val bloom =
+    if (config.bloomFilterEnabled) Some(new RotatingBloomFilter(config.bloomFilterExpectedIds, config.bloomFilterFalsePositiveRate,
+      config.bloomFilterRotationInMinutes * 60 * 1000L))
+    else None
+
+  private val malformedCount = new LongAdder
+  private val missedCount = new LongAdder
+  private val unknownCount = new LongAdder
+
+  /**
+   * Checks whether an id can be in the store
+   *
+   * @param id the authenticator id
+   * @return false if the id is certainly not in the store
+   */
+  def mightExist(id: String): Boolean = {
+    if (!isWellFormed(id)) {
+      malformedCount.increment()
+      false
+    } else if (misses.exists(_.get(id).isDefined)) {
+      missedCount.increment()
+      false
+    } else if (bloom.exists(!_.mightContain(id))) {
+      unknownCount.increment()
+      false
+    } else {
+      true
+    }
+  }
+
+  /**
+   * Records an id that was issued or found in the store
+   */
+  def seen(id: String): Unit = {
+    misses.foreach(_.remove(id))
+    bloom.foreach(_.add(id))
+  }
+
+  /**
+   * Records an id that was not found in the store
+   */
+  def missed(id: String): Unit = misses.foreach(_.put(id, java.lang.Boolean.TRUE))
+
+  /**
+   * The number of ids rejected for each reason
+   */
+  def stats: Stats = Stats(malformedCount.sum, missedCount.sum, unknownCount.sum)
+}
+
+object AuthenticatorIdFilter {
+  /**
+   * A filter that accepts all the ids
+   */
+  val AcceptAll = new AuthenticatorIdFilter(AuthenticatorIdFilterConfig(0, 0, bloomFilterEnabled = false, 0, 0, 0))
+
+  case class Stats(malformed: Long, missed: Long, unknown: Long)
+
+  /**
+   * A Bloom filter with two generations: ids are added to the current one and looked up in both
+   *
+   * @param currentTimeMillis the clock used to rotate the generations
+   */
+  private[authenticator] class RotatingBloomFilter(expectedIds: Int, falsePositiveRate: Double, rotationInMillis: Long,
+      currentTimeMillis: () => Long = () => System.currentTimeMillis()) {
+    private val bits: Int = {
+      val optimal = -expectedIds * math.log(falsePositiveRate) / (math.log(2) * math.log(2))
+      math.max(64, math.min(Int.MaxValue - 63, optimal.toLong).toInt)
+    }
+    private val hashes = math.max(1, math.round(bits.toDouble / expectedIds * math.log(2)).toInt)
+    private val startedAt = currentTimeMillis()
+
+    @volatile private var current = newGeneration()
+    @volatile private var previous = newGeneration()
+    @volatile private var rotatedAt = startedAt
+
+    private def newGeneration() = new AtomicLongArray((bits + 63) / 64)
+
+    private def rotateIfNeeded(now: Long): Unit = if (now - rotatedAt >= rotationInMillis) synchronized {
+      if (now - rotatedAt >= rotationInMillis) {
+        previous = current
+        current = newGeneration()
+        rotatedAt = now
+      }
+    }
+
+    // double hashing: the i-th position is h1 + i * h2
+    private def positions(id: String): Iterator[Int] = {
+      val h1 = MurmurHash3.stringHash(id)
+      val h2 = MurmurHash3.stringHash(id, h1)
+      Iterator.range(0, hashes).map(i => ((h1 + i * h2) & Int.MaxValue) % bits)
+    }
+
+    private def set(generation: AtomicLongArray, bit: Int): Unit = {
+      val index = bit >>> 6
+      val mask = 1L << (bit & 63)
+      var value = generation.get(index)
+      while ((value & mask) == 0 && !generation.compareAndSet(index, value, value | mask)) value = generation.get(index)
+    }
+
+    private def isSet(generation: AtomicLongArray, bit: Int): Boolean = (generation.get(bit >>> 6) & (1L << (bit & 63))) != 0
+
+    def add(id: String): Unit = {
+      rotateIfNeeded(currentTimeMillis())
+      val generation = current
+      positions(id).foreach(set(generation, _))
+    }
+
+    def mightContain(id: String): Boolean = {
+      val now = currentTimeMillis()
+      rotateIfNeeded(now)
+      // it only knows the ids in use after running for a full period
+      if (now - startedAt < rotationInMillis) {
+        true
+      } else {
+        val (newer, older) = (current, previous)
+        val bits = positions(id).toArray
+        bits.forall(isSet(newer, _)) || bits.forall(isSet(older, _))
+      }
+    }
+  }
+}
+
+/**
+ * The settings for the AuthenticatorIdFilter
+ *
+ * @param negativeCacheSize the number of missed ids remembered, zero disables the negative cache
+ * @param negativeCacheTtlInSeconds how long a missed id is remembered
+ * @param bloomFilterEnabled enables the Bloom filter of the ids in use
+ * @param bloomFilterExpectedIds the number of ids issued or used during a rotation period
+ * @param bloomFilterFalsePositiveRate the rate of unknown ids the filter lets through
+ * @param bloomFilterRotationInMinutes how often the filter rotates. Keep it longer than the idle timeout.
+ */
+case class AuthenticatorIdFilterConfig(
+  negativeCacheSize: Int,
+  negativeCacheTtlInSeconds: Int,
+  bloomFilterEnabled: Boolean,
+  bloomFilterExpectedIds: Int,
+  bloomFilterFalsePositiveRate: Double,
+  bloomFilterRotationInMinutes: Int)
+
+object AuthenticatorIdFilterConfig {
+  implicit val configLoader: ConfigLoader[AuthenticatorIdFilterConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): AuthenticatorIdFilterConfig =
+    configuration.get[AuthenticatorIdFilterConfig]("securesocial.authenticatorIdFilter")
+}
@@ -35,6 +35,19 @@ abstract class AuthenticatorStore[A <: Authenticator[_]](implicit val executionC
    */
   def find(id: String)(implicit ct: ClassTag[A]): Future[Option[A]]
 
+  /**
+   * Retrieves several Authenticators.  The lookups are issued in parallel, stores that can look up several
+   * keys at once should override it.
+   *
+   * @param ids the authenticator ids
+   * @param ct the class tag for the Authenticator type
+   * @return the authenticators found by id
+   */
+  def findMany(ids: Seq[String])(implicit ct: ClassTag[A]): Future[Map[String, A]] =
+    Future.sequence(ids.map(id => find(id).map(id -> _))).map {
+      _.collect { case (id, Some(authenticator)) => id -> authenticator }.toMap
+    }
+
   /**
    * Saves/updates an authenticator in the backing store
    *
@@ -74,6 +87,17 @@ object AuthenticatorStore {
       cacheService.getAs[A](id)(ct)
     }
 
+    /**
+     * Retrieves several Authenticators from the cache with a single multi key lookup
+     *
+     * @param ids the authenticator ids
+     * @param ct the class tag for the Authenticator type
+     * @return the authenticators found by id
+     */
+    override def findMany(ids: Seq[String])(implicit ct: ClassTag[A]): Future[Map[String, A]] = {
+      cacheService.getMany[A](ids)(ct)
+    }
+
     /**
      * Saves/updates an authenticator into the cache
      *
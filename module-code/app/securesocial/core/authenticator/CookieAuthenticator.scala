@@ -20,6 +20,8 @@ import io.methvin.play.autoconfig.AutoConfig
 import org.joda.time.DateTime
 import play.api.{ ConfigLoader, Configuration }
 import play.api.mvc.{ Cookie, DiscardingCookie, RequestHeader, Result }
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.SameThreadExecutionContext
 
 import scala.concurrent.Future
 
@@ -30,9 +32,9 @@ import scala.concurrent.Future
  *
  * @param id the authenticator id
  * @param user the user this authenticator is associated with
- * @param expirationDate the expiration date
- * @param lastUsed the last time the authenticator was used
- * @param creationDate the authenticator creation time
+ * @param expirationMillis the expiration date, in milliseconds since the epoch
+ * @param lastUsedMillis the last time the authenticator was used, in milliseconds since the epoch
+ * @param creationMillis the authenticator creation time, in milliseconds since the epoch
  * @param store the authenticator store where instances of this authenticator are persisted
  * @tparam U the user type (defined by the application using the module)
  *
@@ -42,9 +44,9 @@ import scala.concurrent.Future
 case class CookieAuthenticator[U](
   id: String,
   user: U,
-  expirationDate: DateTime,
-  lastUsed: DateTime,
-  creationDate: DateTime,
+  override val expirationMillis: Long,
+  override val lastUsedMillis: Long,
+  override val creationMillis: Long,
   config: CookieConfig,
   @transient store: AuthenticatorStore[CookieAuthenticator[U]])
   extends StoreBackedAuthenticator[U, CookieAuthenticator[U]] {
@@ -55,13 +57,27 @@ case class CookieAuthenticator[U](
   @transient
   override val absoluteTimeoutInSeconds = config.absoluteTimeoutInSeconds
 
+  override def expirationDate: DateTime = new DateTime(expirationMillis)
+  override def lastUsed: DateTime = new DateTime(lastUsedMillis)
+  override def creationDate: DateTime = new DateTime(creationMillis)
+
   /**
    * Returns a copy of this authenticator with the given last used time
    *
    * @param time the new time
    * @return the modified authenticator
    */
-  def withLastUsedTime(time: DateTime): CookieAuthenticator[U] = this.copy[U](lastUsed = time)
+  def withLastUsedTime(time: DateTime): CookieAuthenticator[U] = withLastUsedMillis(time.getMillis)
+
+  override def withLastUsedMillis(millis: Long): CookieAuthenticator[U] = this.copy[U](lastUsedMillis = millis)
+
+  /**
+   * Returns a copy of this authenticator with the given expiration time
+   *
+   * @param time the new time
+   * @return the modified authenticator
+   */
+  def withExpirationDate(time: DateTime): CookieAuthenticator[U] = this.copy[U](expirationMillis = time.getMillis)
 
   /**
    * Returns a copy of this Authenticator with the given user
@@ -117,12 +133,14 @@ case class CookieAuthenticator[U](
  *
  * @param store the store where instances of the CookieAuthenticator class are persisted.
  * @param generator a session id generator
+ * @param idFilter rejects the ids that can't be in the store before looking them up
  * @tparam U the user object type
  */
 class CookieAuthenticatorBuilder[U](
   store: AuthenticatorStore[CookieAuthenticator[U]],
   generator: IdGenerator,
-  config: CookieConfig) extends AuthenticatorBuilder[U] {
+  config: CookieConfig,
+  idFilter: AuthenticatorIdFilter = AuthenticatorIdFilter.AcceptAll) extends AuthenticatorBuilder[U] with AuthenticatorLookup[U] {
   import store.executionContext
   val id = CookieAuthenticator.Id
 
@@ -134,13 +152,26 @@ class CookieAuthenticatorBuilder[U](
    */
   override def fromRequest(request: RequestHeader): Future[Option[CookieAuthenticator[U]]] = {
     request.cookies.get(config.name) match {
-      case Some(cookie) => store.find(cookie.value).map { retrieved =>
+      case Some(cookie) if idFilter.mightExist(cookie.value) => store.find(cookie.value).mapNow { retrieved =>
+        if (retrieved.isDefined) idFilter.seen(cookie.value) else idFilter.missed(cookie.value)
         retrieved.map { _.copy(store = store) }
-      }
-      case None => Future.successful(None)
+      }(SameThreadExecutionContext)
+      case _ => Future.successful(None)
     }
   }
 
+  /**
+   * Finds several CookieAuthenticators in the store
+   *
+   * @param ids the authenticator ids
+   * @return the authenticators found by id
+   */
+  override def findMany(ids: Seq[String]): Future[Map[String, CookieAuthenticator[U]]] = {
+    store.findMany(ids).mapNow {
+      _.map { case (id, authenticator) => id -> authenticator.copy(store = store) }
+    }(SameThreadExecutionContext)
+  }
+
   /**
    * Creates an instance of a CookieAuthenticator from a user object.
    *
@@ -150,9 +181,9 @@ class CookieAuthenticatorBuilder[U](
   override def fromUser(user: U): Future[CookieAuthenticator[U]] = {
     generator.generate.flatMap {
       id =>
-        val now = DateTime.now()
-        val expirationDate = now.plusMinutes(config.absoluteTimeoutInMinutes)
-        val authenticator = CookieAuthenticator(id, user, expirationDate, now, now, config, store)
+        val now = System.currentTimeMillis()
+        val authenticator = CookieAuthenticator(id, user, now + config.absoluteTimeoutInSeconds * 1000L, now, now, config, store)
+        idFilter.seen(id)
         store.save(authenticator, config.absoluteTimeoutInSeconds)
     }
   }
@@ -191,4 +222,11 @@ object CookieConfig {
 
 object CookieAuthenticator {
   val Id = "cookie"
+
+  /**
+   * Creates an authenticator from DateTime timestamps
+   */
+  def apply[U](id: String, user: U, expirationDate: DateTime, lastUsed: DateTime, creationDate: DateTime,
+    config: CookieConfig, store: AuthenticatorStore[CookieAuthenticator[U]]): CookieAuthenticator[U] =
+    new CookieAuthenticator[U](id, user, expirationDate.getMillis, lastUsed.getMillis, creationDate.getMillis, config, store)
 }
@@ -20,6 +20,8 @@ import io.methvin.play.autoconfig.AutoConfig
 import org.joda.time.DateTime
 import play.api.mvc.{ Result, _ }
 import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.SameThreadExecutionContext
 
 import scala.concurrent.Future
 
@@ -30,31 +32,45 @@ import scala.concurrent.Future
  *
  * @param id the authenticator id
  * @param user the user this authenticator is associated with
- * @param expirationDate the expiration date
- * @param lastUsed the last time the authenticator was used
- * @param creationDate the authenticator creation time
+ * @param expirationMillis the expiration date, in milliseconds since the epoch
+ * @param lastUsedMillis the last time the authenticator was used, in milliseconds since the epoch
+ * @param creationMillis the authenticator creation time, in milliseconds since the epoch
  * @param store the authenticator store where instances of this authenticator are persisted
  * @tparam U the user type (defined by the application using the module)
  *
  * @see AuthenticatorStore
  * @see RuntimeEnvironment
  */
-case class HttpHeaderAuthenticator[U](id: String, user: U, expirationDate: DateTime,
-  lastUsed: DateTime,
-  creationDate: DateTime,
+case class HttpHeaderAuthenticator[U](id: String, user: U, override val expirationMillis: Long,
+  override val lastUsedMillis: Long,
+  override val creationMillis: Long,
   config: HttpHeaderConfig,
   @transient store: AuthenticatorStore[HttpHeaderAuthenticator[U]])
   extends StoreBackedAuthenticator[U, HttpHeaderAuthenticator[U]] {
 
   override val idleTimeoutInMinutes = config.idleTimeoutInMinutes
   override val absoluteTimeoutInSeconds = config.absoluteTimeoutInSeconds
+
+  override def expirationDate: DateTime = new DateTime(expirationMillis)
+  override def lastUsed: DateTime = new DateTime(lastUsedMillis)
+  override def creationDate: DateTime = new DateTime(creationMillis)
   /**
    * Returns a copy of this authenticator with the given last used time
    *
    * @param time the new time
    * @return the modified authenticator
    */
-  def withLastUsedTime(time: DateTime): HttpHeaderAuthenticator[U] = this.copy[U](lastUsed = time)
+  def withLastUsedTime(time: DateTime): HttpHeaderAuthenticator[U] = withLastUsedMillis(time.getMillis)
+
+  override def withLastUsedMillis(millis: Long): HttpHeaderAuthenticator[U] = this.copy[U](lastUsedMillis = millis)
+
+  /**
+   * Returns a copy of this authenticator with the given expiration time
+   *
+   * @param time the new time
+   * @return the modified authenticator
+   */
+  def withExpirationDate(time: DateTime): HttpHeaderAuthenticator[U] = this.copy[U](expirationMillis = time.getMillis)
 
   /**
    * Returns a copy of this Authenticator with the given user
@@ -80,13 +96,15 @@ case class HttpHeaderAuthenticator[U](id: String, user: U, expirationDate: DateT
  *
  * @param store the store where instances of the HttpHeaderAuthenticator class are persisted.
  * @param generator a session id generator
+ * @param idFilter rejects the ids that can't be in the store before looking them up
  * @tparam U the user object type
  */
 class HttpHeaderAuthenticatorBuilder[U](
   store: AuthenticatorStore[HttpHeaderAuthenticator[U]],
   generator: IdGenerator,
-  config: HttpHeaderConfig)
-  extends AuthenticatorBuilder[U] {
+  config: HttpHeaderConfig,
+  idFilter: AuthenticatorIdFilter = AuthenticatorIdFilter.AcceptAll)
+  extends AuthenticatorBuilder[U] with AuthenticatorLookup[U] {
 
   import store.executionContext
 
@@ -100,13 +118,26 @@ class HttpHeaderAuthenticatorBuilder[U](
    */
   override def fromRequest(request: RequestHeader): Future[Option[HttpHeaderAuthenticator[U]]] = {
     request.headers.get(config.name) match {
-      case Some(value) => store.find(value).map { retrieved =>
+      case Some(value) if idFilter.mightExist(value) => store.find(value).mapNow { retrieved =>
+        if (retrieved.isDefined) idFilter.seen(value) else idFilter.missed(value)
         retrieved.map { _.copy(store = store) }
-      }
-      case None => Future.successful(None)
+      }(SameThreadExecutionContext)
+      case _ => Future.successful(None)
     }
   }
 
+  /**
+   * Finds several HttpHeaderAuthenticators in the store
+   *
+   * @param ids the authenticator ids
+   * @return the authenticators found by id
+   */
+  override def findMany(ids: Seq[String]): Future[Map[String, HttpHeaderAuthenticator[U]]] = {
+    store.findMany(ids).mapNow {
+      _.map { case (id, authenticator) => id -> authenticator.copy(store = store) }
+    }(SameThreadExecutionContext)
+  }
+
   /**
    * Creates an instance of a HttpHeaderAuthenticator from a user object.
    *
@@ -116,9 +147,9 @@ class HttpHeaderAuthenticatorBuilder[U](
   override def fromUser(user: U): Future[HttpHeaderAuthenticator[U]] = {
     generator.generate.flatMap {
       id =>
-        val now = DateTime.now()
-        val expirationDate = now.plusMinutes(config.absoluteTimeoutInMinutes)
-        val authenticator = HttpHeaderAuthenticator(id, user, expirationDate, now, now, config, store)
+        val now = System.currentTimeMillis()
+        val authenticator = HttpHeaderAuthenticator(id, user, now + config.absoluteTimeoutInSeconds * 1000L, now, now, config, store)
+        idFilter.seen(id)
         store.save(authenticator, config.absoluteTimeoutInSeconds)
     }
   }
@@ -139,4 +170,11 @@ object HttpHeaderConfig {
 
 object HttpHeaderAuthenticator {
   val Id = "token"
+
+  /**
+   * Creates an authenticator from DateTime timestamps
+   */
+  def apply[U](id: String, user: U, expirationDate: DateTime, lastUsed: DateTime, creationDate: DateTime,
+    config: HttpHeaderConfig, store: AuthenticatorStore[HttpHeaderAuthenticator[U]]): HttpHeaderAuthenticator[U] =
+    new HttpHeaderAuthenticator[U](id, user, expirationDate.getMillis, lastUsed.getMillis, creationDate.getMillis, config, store)
 }
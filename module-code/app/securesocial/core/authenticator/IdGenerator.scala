@@ -28,6 +28,14 @@ import scala.concurrent.Future
  */
 trait IdGenerator {
   def generate: Future[String]
+
+  /**
+   * Checks whether an id has the format of the ids this generator creates
+   *
+   * @param id the id
+   * @return false if the id can't have been created by this generator
+   */
+  def isWellFormed(id: String): Boolean = true
 }
 
 object IdGenerator {
@@ -54,5 +62,21 @@ object IdGenerator {
         Codecs.toHexString(randomValue)
       }
     }
+
+    // Character.digit also accepts non ASCII digits (eg: fullwidth ones)
+    private def isLowerHexDigit(c: Char): Boolean = ('0' <= c && c <= '9') || ('a' <= c && c <= 'f')
+
+    /**
+     * Checks that the id is a lower case hex string of the configured length
+     */
+    override def isWellFormed(id: String): Boolean = {
+      if (id.length != IdSizeInBytes * 2) {
+        false
+      } else {
+        var i = 0
+        while (i < id.length && isLowerHexDigit(id.charAt(i))) i += 1
+        i == id.length
+      }
+    }
   }
 }
\ No newline at end of file
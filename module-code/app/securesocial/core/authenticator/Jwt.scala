@@ -0,0 +1,422 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import java.nio.charset.StandardCharsets.{ US_ASCII, UTF_8 }
+import java.util.Base64
+import java.util.concurrent.atomic.AtomicReference
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * A key used to sign and verify JSON Web Tokens (HS256).
+ *
+ * @param id the key id, sent in the kid header of the tokens signed with this key
+ * @param secret the key bytes (at least 32)
+ */
+class JwtKey(val id: String, secret: Array[Byte]) {
+  require(id.matches("[A-Za-z0-9_-]+"), "JWT key ids can only contain letters, digits, '-' and '_'")
+  require(secret.length >= 32, "JWT keys must be at least 32 bytes long")
+
+  private val spec = new SecretKeySpec(secret.clone(), Jwt.Algorithm)
+
+  private val macs = new ThreadLocal[Mac] {
+    override def initialValue(): Mac = {
+      val mac = Mac.getInstance(Jwt.Algorithm)
+      mac.init(spec)
+      mac
+    }
+  }
+
+  /**
+   * The encoded JOSE header for the tokens signed with this key
+   */
+  private[authenticator] val encodedHeader: String =
+    Jwt.encode(s"""{"alg":"HS256","typ":"JWT","kid":"$id"}""".getBytes(UTF_8))
+
+  private[authenticator] def mac: Mac = macs.get()
+
+  override def toString = s"JwtKey($id)"
+}
+
+/**
+ * The set of keys accepted when verifying tokens.  New tokens are always signed with the current key; the
+ * previous keys are kept so tokens issued before a rotation remain valid until they expire or the key is retired.
+ *
+ * @param initial the current key
+ * @param previous the keys that are still accepted for verification
+ */
+class JwtKeySet(initial: JwtKey, previous: Seq[JwtKey] = Seq()) {
+  // the head is the current key
+  private val state = new AtomicReference[Vector[JwtKey]](initial +: previous.filterNot(_.id == initial.id).toVector)
+
+  /**
+   * The key used to sign new tokens
+   */
+  def current: JwtKey = state.get.head
+
+  /**
+   * All the keys accepted for verification
+   */
+  def keys: Seq[JwtKey] = state.get
+
+  /**
+   * Makes a key the current one. The key that was current until now is still accepted for verification.
+   *
+   * @param key the new signing key
+   */
+  def rotate(key: JwtKey): Unit = {
+    var done = false
+    while (!done) {
+      val existing = state.get
+      done = state.compareAndSet(existing, key +: existing.filterNot(_.id == key.id))
+    }
+  }
+
+  /**
+   * Stops accepting tokens signed with a key. The current key can't be retired.
+   *
+   * @param id the key id
+   */
+  def retire(id: String): Unit = {
+    var done = false
+    while (!done) {
+      val existing = state.get
+      require(existing.head.id != id, "the current key can't be retired")
+      done = state.compareAndSet(existing, existing.filterNot(_.id == id))
+    }
+  }
+
+  /**
+   * Finds the key whose header matches the first segment of a token
+   *
+   * @return the key or null if there is none
+   */
+  private[authenticator] def forHeader(token: String, headerLength: Int): JwtKey = {
+    val keys = state.get
+    var i = 0
+    while (i < keys.length) {
+      val key = keys(i)
+      val header = key.encodedHeader
+      if (header.length == headerLength && token.regionMatches(0, header, 0, headerLength)) return key
+      i += 1
+    }
+    null
+  }
+}
+
+object JwtKeySet {
+  /**
+   * Builds a key set from the configuration. The keys are base64 encoded.
+   *
+   * @param config the jwt settings
+   * @return a JwtKeySet instance
+   */
+  def fromConfig(config: JwtConfig): JwtKeySet = {
+    val keys = config.keys.map { case (id, secret) => new JwtKey(id, Base64.getDecoder.decode(secret)) }.toSeq
+    val current = keys.find(_.id == config.currentKey).getOrElse {
+      throw new IllegalArgumentException(s"securesocial.jwt.currentKey (${config.currentKey}) is not one of the configured keys")
+    }
+    new JwtKeySet(current, keys)
+  }
+}
+
+/**
+ * The claims carried by the tokens issued by the JwtAuthenticatorBuilder
+ *
+ * @param issuer the token issuer (iss)
+ * @param providerId the provider id of the user (pid)
+ * @param userId the user id (sub)
+ * @param sessionId the id of the session the token belongs to (sid)
+ * @param issuedAt the creation time in seconds since the epoch (iat)
+ * @param expiresAt the expiration time in seconds since the epoch (exp)
+ */
+case class JwtClaims(issuer: String, providerId: String, userId: String, sessionId: String, issuedAt: Long, expiresAt: Long) {
+  def toJson: String = {
+    val sb = new StringBuilder(128)
+    sb.append("{\"iss\":")
+    Jwt.appendString(sb, issuer)
+    sb.append(",\"sub\":")
+    Jwt.appendString(sb, userId)
+    sb.append(",\"pid\":")
+    Jwt.appendString(sb, providerId)
+    sb.append(",\"sid\":")
+    Jwt.appendString(sb, sessionId)
+    sb.append(",\"iat\":").append(issuedAt)
+    sb.append(",\"exp\":").append(expiresAt)
+    sb.append('}').toString
+  }
+}
+
+/**
+ * Signs and verifies compact JSON Web Tokens using HS256.
+ *
+ * Verification works on the token string directly: the header is matched against the headers of the known keys,
+ * the signature is checked before the payload is decoded and the decoding/parsing is done over per thread buffers,
+ * so the only objects created for a valid token are the claims.
+ */
+object Jwt {
+  val Algorithm = "HmacSHA256"
+
+  private val SignatureLength = 32
+
+  private val encoder = Base64.getUrlEncoder.withoutPadding()
+
+  private val DecodeTable: Array[Int] = {
+    val table = Array.fill(128)(-1)
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".zipWithIndex.foreach {
+      case (c, i) => table(c) = i
+    }
+    table
+  }
+
+  private class Scratch {
+    var input = new Array[Byte](512)
+    var payload = new Array[Byte](512)
+    val expected = new Array[Byte](SignatureLength)
+    val actual = new Array[Byte](SignatureLength + 2)
+    var pos = 0
+  }
+
+  private val scratch = new ThreadLocal[Scratch] {
+    override def initialValue(): Scratch = new Scratch
+  }
+
+  private[authenticator] def encode(bytes: Array[Byte]): String = encoder.encodeToString(bytes)
+
+  /**
+   * Creates a signed token
+   *
+   * @param key the signing key
+   * @param claims the token claims
+   * @return the compact serialization of the token
+   */
+  def sign(key: JwtKey, claims: JwtClaims): String = {
+    val signingInput = key.encodedHeader + "." + encode(claims.toJson.getBytes(UTF_8))
+    val mac = key.mac
+    mac.reset()
+    signingInput + "." + encode(mac.doFinal(signingInput.getBytes(US_ASCII)))
+  }
+
+  /**
+   * Verifies a token and returns its claims.  The expiration time is not checked here.
+   *
+   * @param keys the accepted keys
+   * @param token the compact serialization of the token
+   * @return the claims if the token was signed by one of the keys
+   */
+  def verify(keys: JwtKeySet, token: String): Option[JwtClaims] = {
+    val first = token.indexOf('.')
+    val second = if (first > 0) token.indexOf('.', first + 1) else -1
+    if (second < 0 || token.indexOf('.', second + 1) >= 0) {
+      None
+    } else {
+      val key = keys.forHeader(token, first)
+      val s = scratch.get()
+      if (key == null || !signatureMatches(key.mac, token, second, s)) {
+        None
+      } else {
+        if (s.payload.length < second - first) s.payload = new Array[Byte](second - first)
+        val length = decode(token, first + 1, second, s.payload)
+        if (length < 0) None else parseClaims(s, length)
+      }
+    }
+  }
+
+  private def signatureMatches(mac: Mac, token: String, signingInputLength: Int, s: Scratch): Boolean = {
+    if (s.input.length < signingInputLength) s.input = new Array[Byte](signingInputLength)
+    val input = s.input
+    var i = 0
+    var ascii = true
+    while (i < signingInputLength && ascii) {
+      val c = token.charAt(i)
+      ascii = c < 128
+      input(i) = c.toByte
+      i += 1
+    }
+    ascii && decode(token, signingInputLength + 1, token.length, s.actual) == SignatureLength && {
+      mac.reset()
+      mac.update(input, 0, signingInputLength)
+      mac.doFinal(s.expected, 0)
+      var diff = 0
+      var j = 0
+      while (j < SignatureLength) {
+        diff |= s.expected(j) ^ s.actual(j)
+        j += 1
+      }
+      diff == 0
+    }
+  }
+
+  /**
+   * Decodes a base64url (unpadded) section of a string into a buffer.  Only the canonical encoding is accepted:
+   * the bits left over after the last byte must be zero, so a token has a single valid spelling.
+   *
+   * @return the number of bytes written or -1 if the input is not valid or does not fit
+   */
+  private def decode(s: String, from: Int, until: Int, out: Array[Byte]): Int = {
+    val n = until - from
+    if (n % 4 == 1 || n * 3 / 4 > out.length) return -1
+    var acc = 0
+    var bits = 0
+    var o = 0
+    var i = from
+    while (i < until) {
+      val c = s.charAt(i)
+      val v = if (c < 128) DecodeTable(c) else -1
+      if (v < 0) return -1
+      acc = ((acc << 6) | v) & 0xffffff
+      bits += 6
+      if (bits >= 8) {
+        bits -= 8
+        out(o) = (acc >> bits).toByte
+        o += 1
+      }
+      i += 1
+    }
+    if ((acc & ((1 << bits) - 1)) != 0) -1 else o
+  }
+
+  private[authenticator] def appendString(sb: StringBuilder, value: String): Unit = {
+    sb.append('"')
+    var i = 0
+    while (i < value.length) {
+      val c = value.charAt(i)
+      c match {
+        case '"' => sb.append("\\\"")
+        case '\\' => sb.append("\\\\")
+        case _ if c < 0x20 => sb.append("\\u%04x".format(c.toInt))
+        case _ => sb.append(c)
+      }
+      i += 1
+    }
+    sb.append('"')
+  }
+
+  // a strict parser for the flat objects written by JwtClaims.toJson; the payload was already authenticated.
+  private def parseClaims(s: Scratch, length: Int): Option[JwtClaims] = {
+    val bytes = s.payload
+    var issuer: String = null
+    var providerId: String = null
+    var userId: String = null
+    var sessionId: String = null
+    var issuedAt = -1L
+    var expiresAt = -1L
+    var valid = length > 1 && bytes(0) == '{' && bytes(length - 1) == '}'
+    s.pos = 1
+    while (valid && s.pos < length - 1) {
+      if (bytes(s.pos) == ',') s.pos += 1
+      val keyStart = s.pos + 1
+      valid = bytes(s.pos) == '"' && skipString(bytes, length, s)
+      val keyEnd = s.pos - 1
+      valid = valid && s.pos < length && bytes(s.pos) == ':'
+      if (valid) {
+        s.pos += 1
+        if (keyEnd - keyStart == 3) {
+          bytes(keyStart).toChar match {
+            case 'i' if bytes(keyStart + 1) == 's' && bytes(keyStart + 2) == 's' => issuer = readString(bytes, length, s)
+            case 's' if bytes(keyStart + 1) == 'u' && bytes(keyStart + 2) == 'b' => userId = readString(bytes, length, s)
+            case 'p' if bytes(keyStart + 1) == 'i' && bytes(keyStart + 2) == 'd' => providerId = readString(bytes, length, s)
+            case 's' if bytes(keyStart + 1) == 'i' && bytes(keyStart + 2) == 'd' => sessionId = readString(bytes, length, s)
+            case 'i' if bytes(keyStart + 1) == 'a' && bytes(keyStart + 2) == 't' => issuedAt = readLong(bytes, length, s)
+            case 'e' if bytes(keyStart + 1) == 'x' && bytes(keyStart + 2) == 'p' => expiresAt = readLong(bytes, length, s)
+            case _ => valid = skipValue(bytes, length, s)
+          }
+        } else {
+          valid = skipValue(bytes, length, s)
+        }
+      }
+    }
+    if (valid && issuer != null && providerId != null && userId != null && sessionId != null && issuedAt >= 0 && expiresAt >= 0)
+      Some(JwtClaims(issuer, providerId, userId, sessionId, issuedAt, expiresAt))
+    else
+      None
+  }
+
+  // positions s.pos after the closing quote of the string starting at s.pos
+  private def skipString(bytes: Array[Byte], length: Int, s: Scratch): Boolean = {
+    var i = s.pos + 1
+    while (i < length && bytes(i) != '"') {
+      if (bytes(i) == '\\') i += 1
+      i += 1
+    }
+    s.pos = i + 1
+    i < length
+  }
+
+  private def readString(bytes: Array[Byte], length: Int, s: Scratch): String = {
+    if (bytes(s.pos) != '"') return null
+    val start = s.pos + 1
+    if (!skipString(bytes, length, s)) return null
+    val end = s.pos - 1
+    var escaped = false
+    var i = start
+    while (i < end && !escaped) {
+      escaped = bytes(i) == '\\'
+      i += 1
+    }
+    if (!escaped) {
+      new String(bytes, start, end - start, UTF_8)
+    } else {
+      val sb = new java.lang.StringBuilder(end - start)
+      var runStart = start
+      i = start
+      while (i < end) {
+        if (bytes(i) == '\\') {
+          sb.append(new String(bytes, runStart, i - runStart, UTF_8))
+          bytes(i + 1).toChar match {
+            case 'u' =>
+              sb.append(Integer.parseInt(new String(bytes, i + 2, 4, US_ASCII), 16).toChar)
+              i += 6
+            case 'n' => sb.append('\n'); i += 2
+            case 'r' => sb.append('\r'); i += 2
+            case 't' => sb.append('\t'); i += 2
+            case 'b' => sb.append('\b'); i += 2
+            case 'f' => sb.append('\f'); i += 2
+            case other => sb.append(other); i += 2
+          }
+          runStart = i
+        } else {
+          i += 1
+        }
+      }
+      sb.append(new String(bytes, runStart, end - runStart, UTF_8))
+      sb.toString
+    }
+  }
+
+  private def readLong(bytes: Array[Byte], length: Int, s: Scratch): Long = {
+    var result = 0L
+    var digits = 0
+    while (s.pos < length && bytes(s.pos) >= '0' && bytes(s.pos) <= '9' && digits < 18) {
+      result = result * 10 + (bytes(s.pos) - '0')
+      digits += 1
+      s.pos += 1
+    }
+    if (digits == 0) -1L else result
+  }
+
+  private def skipValue(bytes: Array[Byte], length: Int, s: Scratch): Boolean = {
+    if (bytes(s.pos) == '"') {
+      skipString(bytes, length, s)
+    } else {
+      val start = s.pos
+      while (s.pos < length - 1 && bytes(s.pos) != ',' && bytes(s.pos) != '{' && bytes(s.pos) != '[') s.pos += 1
+      s.pos > start && bytes(s.pos) != '{' && bytes(s.pos) != '['
+    }
+  }
+}
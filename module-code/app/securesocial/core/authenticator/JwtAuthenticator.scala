@@ -0,0 +1,254 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import java.nio.charset.StandardCharsets.UTF_8
+import java.security.{ MessageDigest, SecureRandom }
+
+import io.methvin.play.autoconfig.AutoConfig
+import org.joda.time.DateTime
+import play.api.libs.Codecs
+import play.api.mvc.{ RequestHeader, Result }
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.{ CacheService, CoarseClock }
+
+import scala.concurrent.Future
+
+/**
+ * A self contained authenticator.  The id is a signed JSON Web Token sent by clients in the
+ * Authorization header (Bearer scheme) that is verified locally, so requests don't need to
+ * hit the AuthenticatorStore.  The user is resolved through the UserCache.
+ *
+ * Access tokens are short lived; clients use the refresh token returned when they authenticate
+ * to get a new one.  Discarding the authenticator revokes the refresh token, the access token
+ * remains valid until it expires.
+ *
+ * @param id the signed token
+ * @param user the user this authenticator is associated with
+ * @param sessionId the id of the session (shared by all the tokens obtained with refresh tokens)
+ * @param expirationDate the expiration date of the token
+ * @param lastUsed the time the token was issued
+ * @param creationDate the time the token was issued
+ * @param refreshToken the refresh token, only available when the token is issued
+ * @param builder the builder that issued the authenticator
+ * @tparam U the user type (defined by the application using the module)
+ */
+case class JwtAuthenticator[U](id: String, user: U,
+  sessionId: String,
+  expirationDate: DateTime,
+  lastUsed: DateTime,
+  creationDate: DateTime,
+  refreshToken: Option[String],
+  @transient builder: JwtAuthenticatorBuilder[U]) extends Authenticator[U] {
+
+  @transient
+  implicit private val executionContext = builder.executionContext
+
+  override def isValid: Boolean = expirationMillis > CoarseClock.now
+
+  /**
+   * Tokens are not updated on use
+   */
+  override def touch: Future[Authenticator[U]] = Future.successful(this)
+
+  /**
+   * Replaces the user in the cache
+   *
+   * @param user the user object
+   * @return the updated authenticator
+   */
+  override def updateUser(user: U): Future[Authenticator[U]] = {
+    builder.users.put(user)
+    Future.successful(copy[U](user = user))
+  }
+
+  override def starting(result: Result): Future[Result] = Future.successful(result)
+
+  override def discarding(result: Result): Future[Result] = builder.revoke(sessionId).map(_ => result)
+
+  override def touching(result: Result): Future[Result] = Future.successful(result)
+
+  override def touching(javaContext: play.mvc.Http.Context): Future[Unit] = Future.successful(())
+
+  override def discarding(javaContext: play.mvc.Http.Context): Future[Unit] = builder.revoke(sessionId)
+}
+
+/**
+ * The data kept for each session to validate refresh tokens
+ *
+ * @param reference the user the session belongs to
+ * @param secretDigest the SHA-256 of the current refresh secret
+ * @param creationDate the time the session was started
+ * @param expirationDate the time after which the session can't be refreshed
+ */
+case class JwtRefreshRecord(reference: UserReference, secretDigest: String, creationDate: DateTime, expirationDate: DateTime)
+
+/**
+ * A builder for JwtAuthenticators.
+ *
+ * @param keys the keys used to sign and verify tokens
+ * @param users the user cache used to resolve users
+ * @param cacheService the cache where refresh records are kept
+ * @param generator the generator for refresh secrets
+ * @param config the jwt settings
+ * @tparam U the user object type
+ */
+class JwtAuthenticatorBuilder[U](
+  val keys: JwtKeySet,
+  val users: UserCache[U],
+  cacheService: CacheService,
+  generator: IdGenerator,
+  config: JwtConfig) extends AuthenticatorBuilder[U] {
+
+  implicit val executionContext = users.executionContext
+
+  private val logger = play.api.Logger("securesocial.core.authenticator.JwtAuthenticatorBuilder")
+  private val random = new SecureRandom()
+  private val BearerPrefix = "Bearer "
+
+  val id = JwtAuthenticator.Id
+
+  /**
+   * Creates an instance of a JwtAuthenticator from the bearer token in the Authorization header
+   *
+   * @param request the incoming request
+   * @return an optional JwtAuthenticator instance
+   */
+  override def fromRequest(request: RequestHeader): Future[Option[JwtAuthenticator[U]]] = {
+    request.headers.get(config.header) match {
+      case Some(value) if value.regionMatches(true, 0, BearerPrefix, 0, BearerPrefix.length) =>
+        val token = value.substring(BearerPrefix.length)
+        Jwt.verify(keys, token) match {
+          case Some(claims) if claims.issuer == config.issuer && claims.expiresAt > System.currentTimeMillis() / 1000 =>
+            users.get(UserReference(claims.providerId, claims.userId)).map {
+              _.map { user =>
+                val issuedAt = new DateTime(claims.issuedAt * 1000)
+                JwtAuthenticator(token, user, claims.sessionId, new DateTime(claims.expiresAt * 1000), issuedAt, issuedAt, None, this)
+              }
+            }
+          case _ => Future.successful(None)
+        }
+      case _ => Future.successful(None)
+    }
+  }
+
+  /**
+   * Starts a session for a user and issues an access and a refresh token for it
+   *
+   * @param user the user
+   * @return a JwtAuthenticator instance
+   */
+  override def fromUser(user: U): Future[JwtAuthenticator[U]] = {
+    users.put(user)
+    val reference = users.referenceFor(user)
+    val bytes = new Array[Byte](16)
+    random.nextBytes(bytes)
+    val now = DateTime.now()
+    issue(user, reference, Codecs.toHexString(bytes), now, now.plusMinutes(config.refreshTokenTtlInMinutes))
+  }
+
+  /**
+   * Issues a new access token for the session identified by a refresh token.  The refresh token is
+   * replaced by a new one; presenting a refresh token that was already used revokes the session.  The
+   * refresh record is taken out of the cache with getAndRemove, use a CacheService that does it atomically.
+   *
+   * @param refreshToken the refresh token
+   * @return an optional JwtAuthenticator instance
+   */
+  def refresh(refreshToken: String): Future[Option[JwtAuthenticator[U]]] = {
+    val separator = refreshToken.indexOf('.')
+    if (separator <= 0) {
+      Future.successful(None)
+    } else {
+      val sessionId = refreshToken.substring(0, separator)
+      val secret = refreshToken.substring(separator + 1)
+      // the record is consumed before issuing, so concurrent requests with the same refresh token can't both succeed
+      cacheService.getAndRemove[JwtRefreshRecord](keyFor(sessionId)).flatMap {
+        case Some(record) if MessageDigest.isEqual(digest(secret).getBytes(UTF_8), record.secretDigest.getBytes(UTF_8)) =>
+          if (record.expirationDate.isBeforeNow) {
+            Future.successful(None)
+          } else {
+            users.get(record.reference).flatMap {
+              case Some(user) => issue(user, record.reference, sessionId, record.creationDate, record.expirationDate).map(Some(_))
+              case None => Future.successful(None)
+            }
+          }
+        case Some(_) =>
+          // the record is already removed, which revokes the session
+          logger.warn(s"[securesocial] a stale refresh token was used, revoking session $sessionId")
+          Future.successful(None)
+        case None => Future.successful(None)
+      }
+    }
+  }
+
+  /**
+   * Revokes the refresh token of a session.  Access tokens already issued remain valid until they expire.
+   *
+   * @param sessionId the session id
+   * @return a future of Unit
+   */
+  def revoke(sessionId: String): Future[Unit] = cacheService.remove(keyFor(sessionId))
+
+  private def issue(user: U, reference: UserReference, sessionId: String, sessionCreation: DateTime, sessionExpiration: DateTime): Future[JwtAuthenticator[U]] = {
+    generator.generate.flatMap { secret =>
+      val now = DateTime.now()
+      val expirationDate = now.plusSeconds(config.accessTokenTtlInSeconds)
+      val claims = JwtClaims(config.issuer, reference.providerId, reference.userId, sessionId, now.getMillis / 1000, expirationDate.getMillis / 1000)
+      val token = Jwt.sign(keys.current, claims)
+      val record = JwtRefreshRecord(reference, digest(secret), sessionCreation, sessionExpiration)
+      val ttl = math.max(1, ((sessionExpiration.getMillis - now.getMillis) / 1000).toInt)
+      cacheService.set(keyFor(sessionId), record, ttl).map { _ =>
+        JwtAuthenticator(token, user, sessionId, expirationDate, now, now, Some(s"$sessionId.$secret"), this)
+      }
+    }
+  }
+
+  private def keyFor(sessionId: String) = s"securesocial.jwt.$sessionId"
+
+  private def digest(secret: String): String =
+    Codecs.toHexString(MessageDigest.getInstance("SHA-256").digest(secret.getBytes(UTF_8)))
+}
+
+/**
+ * The settings for the JwtAuthenticator
+ *
+ * @param header the header carrying the token
+ * @param issuer the issuer claim set in the tokens and required when verifying them
+ * @param accessTokenTtlInSeconds the lifetime of access tokens
+ * @param refreshTokenTtlInMinutes the time a session can be extended with refresh tokens
+ * @param currentKey the id of the key used to sign new tokens
+ * @param keys the signing keys (base64) by id
+ */
+case class JwtConfig(
+  header: String,
+  issuer: String,
+  accessTokenTtlInSeconds: Int,
+  refreshTokenTtlInMinutes: Int,
+  currentKey: String,
+  keys: Map[String, String])
+
+object JwtConfig {
+  implicit val configLoader: ConfigLoader[JwtConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): JwtConfig =
+    configuration.get[JwtConfig]("securesocial.jwt")
+}
+
+object JwtAuthenticator {
+  val Id = "jwt"
+}
@@ -0,0 +1,472 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import java.io._
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{ Paths, StandardOpenOption }
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.CRC32
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.LocalCache
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.reflect.ClassTag
+import scala.util.control.NonFatal
+
+/**
+ * An AuthenticatorStore that keeps the authenticators in a memory mapped file.  Authenticators are kept outside the
+ * heap and survive restarts of the application, which makes it a good fit for single node deployments.
+ *
+ * The file is divided in buckets of fixed size slots.  An authenticator id always maps to the same bucket, so a
+ * lookup only reads the slot headers of one bucket.  Each slot holds a header (state, id hash, id length,
+ * data length, expiration time and a CRC of the contents) followed by the id and the serialized authenticator.
+ *
+ * Writes never modify a live slot: the new version is written to a free slot and marked as used once its contents
+ * and CRC are in place, then the previous version is released.  A slot that was not completely written when the
+ * process died fails the CRC check and is ignored.
+ *
+ * The authenticators are serialized using Java serialization, so the user objects must be serializable (as they
+ * are when a distributed cache is used).  To avoid deserializing an authenticator on every lookup, the most
+ * recently read ones are kept on the heap (up to decodedCacheSize) along with the slot and CRC they were read
+ * from; they are only returned while that slot still holds the same contents.
+ *
+ * When a bucket is full the slot closest to expiration is reused, evicting a live authenticator.  Evictions are
+ * logged and counted in the stats, a growing count means slots or bucketSize are too small for the sessions.
+ *
+ * @param file the file backing the store
+ * @param config the store settings
+ * @tparam A the Authenticator type
+ */
+class MappedFileAuthenticatorStore[A <: Authenticator[_]](file: File, config: MappedFileStoreConfig)(implicit executionContext: ExecutionContext)
+  extends AuthenticatorStore[A] {
+
+  import MappedFileAuthenticatorStore._
+
+  require(config.slotSizeInBytes > SlotHeaderSize + 64, s"slotSizeInBytes must be greater than ${SlotHeaderSize + 64}")
+  require(config.bucketSize > 1, "bucketSize must be greater than one")
+  require(config.slots % config.bucketSize == 0, "slots must be a multiple of bucketSize")
+  require(FileHeaderSize + config.slots.toLong * config.slotSizeInBytes <= Int.MaxValue, "the store can't be larger than 2GB")
+
+  private val logger = play.api.Logger("securesocial.core.authenticator.MappedFileAuthenticatorStore")
+  private val slotSize = config.slotSizeInBytes
+  private val buckets = config.slots / config.bucketSize
+  private val locks = Array.fill(math.min(config.lockStripes, buckets))(new ReentrantReadWriteLock())
+  private val decoded: Option[LocalCache[String, Decoded[A]]] =
+    if (config.decodedCacheSize > 0)
+      Some(new LocalCache[String, Decoded[A]](config.decodedCacheSize, config.compactionIntervalInSeconds * 1000L))
+    else
+      None
+  private val evictions = new LongAdder
+  private val decodes = new LongAdder
+  private val decodedHits = new LongAdder
+
+  private val buffer: MappedByteBuffer = {
+    Option(file.getAbsoluteFile.getParentFile).foreach(_.mkdirs())
+    val channel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    try {
+      val size = FileHeaderSize + config.slots.toLong * slotSize
+      val existing = channel.size()
+      val mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+      if (existing == 0) {
+        mapped.putInt(0, Magic)
+        mapped.putInt(4, Version)
+        mapped.putInt(8, config.slots)
+        mapped.putInt(12, slotSize)
+      } else if (mapped.getInt(0) != Magic || mapped.getInt(4) != Version ||
+        mapped.getInt(8) != config.slots || mapped.getInt(12) != slotSize) {
+        throw new IllegalStateException(s"$file was created with a different layout, delete it or change the store settings")
+      }
+      mapped
+    } finally {
+      channel.close()
+    }
+  }
+
+  private def offsetOf(slot: Int): Int = FileHeaderSize + slot * slotSize
+
+  private def hashOf(id: String): Int = {
+    val h = id.hashCode
+    h ^ (h >>> 16)
+  }
+
+  private def bucketOf(hash: Int): Int = (hash & Int.MaxValue) % buckets
+
+  private def lockFor(bucket: Int) = locks(bucket % locks.length)
+
+  private def isValid(offset: Int): Boolean = {
+    val keyLength = buffer.getInt(offset + KeyLengthOffset)
+    val dataLength = buffer.getInt(offset + DataLengthOffset)
+    keyLength > 0 && dataLength > 0 && SlotHeaderSize + keyLength + dataLength <= slotSize &&
+      buffer.getInt(offset + CrcOffset) == checksum(offset, keyLength, dataLength)
+  }
+
+  private def checksum(offset: Int, keyLength: Int, dataLength: Int): Int = {
+    val crc = new CRC32()
+    val view = buffer.duplicate()
+    view.limit(offset + SlotHeaderSize + keyLength + dataLength)
+    view.position(offset + HashOffset)
+    val header = view.slice()
+    header.limit(CrcOffset - HashOffset)
+    crc.update(header)
+    view.position(offset + SlotHeaderSize)
+    crc.update(view)
+    crc.getValue.toInt
+  }
+
+  private def keyMatches(offset: Int, key: Array[Byte]): Boolean = {
+    buffer.getInt(offset + KeyLengthOffset) == key.length && {
+      var i = 0
+      val start = offset + SlotHeaderSize
+      while (i < key.length && buffer.get(start + i) == key(i)) i += 1
+      i == key.length
+    }
+  }
+
+  /**
+   * Returns the slot holding the most recent valid version of an id or -1
+   */
+  private def lookup(bucket: Int, hash: Int, key: Array[Byte], now: Long): Int = {
+    var found = -1
+    var foundExpiration = Long.MinValue
+    var slot = bucket * config.bucketSize
+    val last = slot + config.bucketSize
+    while (slot < last) {
+      val offset = offsetOf(slot)
+      if (buffer.get(offset) == Used && buffer.getInt(offset + HashOffset) == hash) {
+        val expiresAt = buffer.getLong(offset + ExpiresAtOffset)
+        if (expiresAt > now && expiresAt > foundExpiration && keyMatches(offset, key) && isValid(offset)) {
+          found = slot
+          foundExpiration = expiresAt
+        }
+      }
+      slot += 1
+    }
+    found
+  }
+
+  /**
+   * Returns a slot that can be written: a free or expired one or, if the bucket is full, the one closest to expiration.
+   */
+  private def freeSlot(bucket: Int, exclude: Int, now: Long): Int = {
+    var candidate = -1
+    var candidateExpiration = Long.MaxValue
+    var slot = bucket * config.bucketSize
+    val last = slot + config.bucketSize
+    while (slot < last && candidateExpiration > now) {
+      if (slot != exclude) {
+        val offset = offsetOf(slot)
+        val expiresAt = if (buffer.get(offset) == Used) buffer.getLong(offset + ExpiresAtOffset) else Long.MinValue
+        if (candidate < 0 || expiresAt < candidateExpiration) {
+          candidate = slot
+          candidateExpiration = expiresAt
+        }
+      }
+      slot += 1
+    }
+    if (candidateExpiration > now) {
+      evictions.increment()
+      logger.warn(s"[securesocial] bucket $bucket in $file is full, evicting a live authenticator. Increase slots or bucketSize")
+    }
+    candidate
+  }
+
+  /**
+   * Returns the authenticator in a slot, reusing the decoded copy if the slot has not been rewritten since it was read
+   */
+  private def decode(id: String, slot: Int)(implicit ct: ClassTag[A]): Option[A] = {
+    val offset = offsetOf(slot)
+    val crc = buffer.getInt(offset + CrcOffset)
+    val expiresAt = buffer.getLong(offset + ExpiresAtOffset)
+    decoded.flatMap(_.get(id)) match {
+      case Some(entry) if entry.slot == slot && entry.crc == crc && entry.expiresAt == expiresAt =>
+        decodedHits.increment()
+        Some(entry.authenticator)
+      case _ =>
+        val result = read(offset)
+        result.foreach { authenticator =>
+          decoded.foreach(_.put(id, Decoded(slot, crc, expiresAt, authenticator)))
+        }
+        result
+    }
+  }
+
+  private def read(offset: Int)(implicit ct: ClassTag[A]): Option[A] = {
+    decodes.increment()
+    val keyLength = buffer.getInt(offset + KeyLengthOffset)
+    val dataLength = buffer.getInt(offset + DataLengthOffset)
+    val data = new Array[Byte](dataLength)
+    val view = buffer.duplicate()
+    view.position(offset + SlotHeaderSize + keyLength)
+    view.get(data)
+    try {
+      val in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data), ct.runtimeClass.getClassLoader)
+      try {
+        Some(ct.runtimeClass.cast(in.readObject()).asInstanceOf[A])
+      } finally {
+        in.close()
+      }
+    } catch {
+      case NonFatal(e) =>
+        logger.error(s"[securesocial] unable to read an authenticator from $file", e)
+        None
+    }
+  }
+
+  private def serialize(authenticator: A): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream(slotSize)
+    val out = new ObjectOutputStream(bytes)
+    try {
+      out.writeObject(authenticator)
+    } finally {
+      out.close()
+    }
+    bytes.toByteArray
+  }
+
+  /**
+   * Retrieves an Authenticator from the file
+   *
+   * @param id the authenticator id
+   * @param ct the class tag for the Authenticator type
+   * @return an optional future Authenticator
+   */
+  override def find(id: String)(implicit ct: ClassTag[A]): Future[Option[A]] = {
+    val key = id.getBytes(UTF_8)
+    val hash = hashOf(id)
+    val bucket = bucketOf(hash)
+    val lock = lockFor(bucket).readLock()
+    lock.lock()
+    val result = try {
+      val slot = lookup(bucket, hash, key, System.currentTimeMillis())
+      if (slot < 0) None else decode(id, slot)
+    } finally {
+      lock.unlock()
+    }
+    Future.successful(result)
+  }
+
+  /**
+   * Saves/updates an authenticator into the file
+   *
+   * @param authenticator the istance to save
+   * @param timeoutInSeconds the timeout.
+   * @return the saved authenticator
+   */
+  override def save(authenticator: A, timeoutInSeconds: Int): Future[A] = {
+    val key = authenticator.id.getBytes(UTF_8)
+    val data = serialize(authenticator)
+    if (SlotHeaderSize + key.length + data.length > slotSize) {
+      Future.failed(new IllegalArgumentException(
+        s"the authenticator needs ${SlotHeaderSize + key.length + data.length} bytes, increase slotSizeInBytes ($slotSize)"))
+    } else {
+      val hash = hashOf(authenticator.id)
+      val bucket = bucketOf(hash)
+      val now = System.currentTimeMillis()
+      val expiresAt = if (timeoutInSeconds > 0) now + timeoutInSeconds * 1000L else Long.MaxValue
+      val lock = lockFor(bucket).writeLock()
+      lock.lock()
+      try {
+        val previous = lookup(bucket, hash, key, now)
+        val slot = freeSlot(bucket, previous, now)
+        val offset = offsetOf(slot)
+        buffer.put(offset, Free)
+        buffer.putInt(offset + HashOffset, hash)
+        buffer.putInt(offset + KeyLengthOffset, key.length)
+        buffer.putInt(offset + DataLengthOffset, data.length)
+        buffer.putLong(offset + ExpiresAtOffset, expiresAt)
+        val view = buffer.duplicate()
+        view.position(offset + SlotHeaderSize)
+        view.put(key)
+        view.put(data)
+        buffer.putInt(offset + CrcOffset, checksum(offset, key.length, data.length))
+        buffer.put(offset, Used)
+        if (previous >= 0) buffer.put(offsetOf(previous), Free)
+      } finally {
+        lock.unlock()
+      }
+      if (config.syncOnWrite) buffer.force()
+      Future.successful(authenticator)
+    }
+  }
+
+  /**
+   * Deletes an Authenticator from the file
+   *
+   * @param id the authenticator id
+   * @return a future of Unit
+   */
+  override def delete(id: String): Future[Unit] = {
+    val key = id.getBytes(UTF_8)
+    val hash = hashOf(id)
+    val bucket = bucketOf(hash)
+    val lock = lockFor(bucket).writeLock()
+    lock.lock()
+    try {
+      var slot = bucket * config.bucketSize
+      val last = slot + config.bucketSize
+      while (slot < last) {
+        val offset = offsetOf(slot)
+        if (buffer.get(offset) == Used && buffer.getInt(offset + HashOffset) == hash && keyMatches(offset, key)) {
+          buffer.put(offset, Free)
+        }
+        slot += 1
+      }
+    } finally {
+      lock.unlock()
+    }
+    decoded.foreach(_.remove(id))
+    Future.successful(())
+  }
+
+  /**
+   * Releases the slots of expired or corrupted authenticators and flushes the file to disk.
+   *
+   * @return the number of slots released
+   */
+  def compact(): Int = {
+    val now = System.currentTimeMillis()
+    var released = 0
+    var bucket = 0
+    while (bucket < buckets) {
+      val lock = lockFor(bucket).writeLock()
+      lock.lock()
+      try {
+        var slot = bucket * config.bucketSize
+        val last = slot + config.bucketSize
+        while (slot < last) {
+          val offset = offsetOf(slot)
+          if (buffer.get(offset) == Used && (buffer.getLong(offset + ExpiresAtOffset) <= now || !isValid(offset))) {
+            buffer.put(offset, Free)
+            released += 1
+          }
+          slot += 1
+        }
+      } finally {
+        lock.unlock()
+      }
+      bucket += 1
+    }
+    buffer.force()
+    logger.debug(s"[securesocial] compacted $file, released $released slots")
+    released
+  }
+
+  /**
+   * The number of slots holding live authenticators
+   */
+  def size: Int = {
+    val now = System.currentTimeMillis()
+    (0 until config.slots).count { slot =>
+      val offset = offsetOf(slot)
+      buffer.get(offset) == Used && buffer.getLong(offset + ExpiresAtOffset) > now
+    }
+  }
+
+  /**
+   * Flushes the pending changes to disk
+   */
+  def flush(): Unit = buffer.force()
+
+  /**
+   * The live authenticators evicted from full buckets and how many lookups were served without deserializing
+   */
+  def stats: MappedFileStoreStats = MappedFileStoreStats(evictions.sum, decodes.sum, decodedHits.sum)
+}
+
+object MappedFileAuthenticatorStore {
+  private val Magic = 0x53534153 // SSAS
+  private val Version = 1
+  private val FileHeaderSize = 64
+
+  private val Free: Byte = 0
+  private val Used: Byte = 1
+
+  // slot header layout
+  private val HashOffset = 4
+  private val KeyLengthOffset = 8
+  private val DataLengthOffset = 12
+  private val ExpiresAtOffset = 16
+  private val CrcOffset = 24
+  private val SlotHeaderSize = 32
+
+  /**
+   * Creates a store backed by a file in the configured directory
+   *
+   * @param name the file name
+   * @param config the store settings
+   * @tparam A the Authenticator type
+   * @return a MappedFileAuthenticatorStore instance
+   */
+  def apply[A <: Authenticator[_]](name: String, config: MappedFileStoreConfig)(implicit executionContext: ExecutionContext): MappedFileAuthenticatorStore[A] =
+    new MappedFileAuthenticatorStore[A](Paths.get(config.directory, name).toFile, config)
+
+  private case class Decoded[A](slot: Int, crc: Int, expiresAt: Long, authenticator: A)
+
+  /**
+   * The activity of a MappedFileAuthenticatorStore
+   *
+   * @param evictions the live authenticators overwritten because their bucket was full
+   * @param decodes the authenticators deserialized from the file
+   * @param decodedHits the lookups answered with an already deserialized authenticator
+   */
+  case class MappedFileStoreStats(evictions: Long, decodes: Long, decodedHits: Long)
+
+  private class ClassLoaderObjectInputStream(in: InputStream, loader: ClassLoader) extends ObjectInputStream(in) {
+    override def resolveClass(desc: ObjectStreamClass): Class[_] = {
+      try {
+        Class.forName(desc.getName, false, loader)
+      } catch {
+        case _: ClassNotFoundException => super.resolveClass(desc)
+      }
+    }
+  }
+}
+
+/**
+ * The settings for the MappedFileAuthenticatorStore
+ *
+ * @param directory the directory where the store files are kept
+ * @param slots the number of slots in each file
+ * @param slotSizeInBytes the size of a slot, it must fit the authenticator id and the serialized authenticator
+ * @param bucketSize the number of slots in a bucket
+ * @param lockStripes the number of locks guarding the buckets
+ * @param syncOnWrite if true every write is flushed to disk
+ * @param compactionIntervalInSeconds how often expired slots are released
+ * @param decodedCacheSize the number of deserialized authenticators kept on the heap, 0 disables it
+ */
+case class MappedFileStoreConfig(
+  directory: String,
+  slots: Int,
+  slotSizeInBytes: Int,
+  bucketSize: Int,
+  lockStripes: Int,
+  syncOnWrite: Boolean,
+  compactionIntervalInSeconds: Int,
+  decodedCacheSize: Int)
+
+object MappedFileStoreConfig {
+  implicit val configLoader: ConfigLoader[MappedFileStoreConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): MappedFileStoreConfig =
+    configuration.get[MappedFileStoreConfig]("securesocial.mappedFileStore")
+}
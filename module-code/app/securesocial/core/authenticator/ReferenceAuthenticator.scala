@@ -0,0 +1,261 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import io.methvin.play.autoconfig.AutoConfig
+import org.joda.time.DateTime
+import play.api.mvc.{ RequestHeader, Result }
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.LocalCache
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.Success
+
+/**
+ * A reference to an application user. This is what reference based authenticators keep in the
+ * AuthenticatorStore instead of the user object.
+ *
+ * @param providerId the provider id
+ * @param userId the user id
+ */
+case class UserReference(providerId: String, userId: String)
+
+/**
+ * Resolves application users from references. Applications using reference based authenticators
+ * need to provide an implementation of this trait (usually backed by their UserService).
+ *
+ * @tparam U the user object type
+ */
+trait UserLoader[U] {
+  /**
+   * Returns the reference that identifies a user
+   *
+   * @param user the user object
+   * @return the reference for the user
+   */
+  def referenceFor(user: U): UserReference
+
+  /**
+   * Loads a user
+   *
+   * @param reference the user reference
+   * @return an optional user
+   */
+  def load(reference: UserReference): Future[Option[U]]
+}
+
+/**
+ * A bounded cache of users shared by all the reference based authenticators. Entries are evicted after
+ * the configured time to live or when the cache is full, whatever happens first.
+ *
+ * Concurrent lookups for the same reference share a single call to the loader.
+ *
+ * @param loader the loader used when a user is not in the cache
+ * @param config the cache settings
+ * @tparam U the user object type
+ */
+class UserCache[U](loader: UserLoader[U], config: UserCacheConfig)(implicit val executionContext: ExecutionContext) {
+  private val users = new LocalCache[UserReference, Future[Option[U]]](config.maxEntries, config.ttlInSeconds * 1000L)
+
+  /**
+   * Returns the reference that identifies a user
+   */
+  def referenceFor(user: U): UserReference = loader.referenceFor(user)
+
+  /**
+   * Retrieves a user, invoking the loader if it is not cached
+   *
+   * @param reference the user reference
+   * @return an optional user
+   */
+  def get(reference: UserReference): Future[Option[U]] = {
+    val result = users.getOrElseUpdate(reference)(loader.load(reference))
+    // misses and failures are not kept
+    result.value match {
+      case Some(Success(Some(_))) =>
+      case Some(_) => users.remove(reference, result)
+      case None =>
+        result.onComplete {
+          case Success(Some(_)) =>
+          case _ => users.remove(reference, result)
+        }
+    }
+    result
+  }
+
+  /**
+   * Adds or replaces a user in the cache
+   *
+   * @param user the user object
+   */
+  def put(user: U): Unit = users.put(loader.referenceFor(user), Future.successful(Some(user)))
+
+  /**
+   * Removes a user from the cache. The next lookup will invoke the loader.
+   *
+   * @param reference the user reference
+   */
+  def invalidate(reference: UserReference): Unit = users.remove(reference)
+
+  /**
+   * Removes all the users from the cache
+   */
+  def invalidateAll(): Unit = users.clear()
+}
+
+case class UserCacheConfig(maxEntries: Int, ttlInSeconds: Int)
+
+object UserCacheConfig {
+  implicit val configLoader: ConfigLoader[UserCacheConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): UserCacheConfig =
+    configuration.get[UserCacheConfig]("securesocial.userCache")
+}
+
+/**
+ * An authenticator that only stores a reference to the user. The stored authenticator (a Cookie or
+ * Http Header authenticator for UserReference) keeps the session data and the user object is resolved
+ * through a UserCache when the authenticator is retrieved.
+ *
+ * Updating the user does not rewrite the stored session unless the reference changes.
+ *
+ * @param underlying the stored authenticator
+ * @param user the resolved user object
+ * @param users the user cache
+ * @tparam U the user object type
+ */
+case class ReferenceAuthenticator[U](
+  underlying: Authenticator[UserReference],
+  user: U,
+  @transient users: UserCache[U]) extends Authenticator[U] {
+
+  @transient
+  implicit private val executionContext: ExecutionContext = users.executionContext
+
+  override val id: String = underlying.id
+  override def creationDate: DateTime = underlying.creationDate
+  override def lastUsed: DateTime = underlying.lastUsed
+  override def expirationDate: DateTime = underlying.expirationDate
+  override def creationMillis: Long = underlying.creationMillis
+  override def lastUsedMillis: Long = underlying.lastUsedMillis
+  override def expirationMillis: Long = underlying.expirationMillis
+
+  override def isValid: Boolean = underlying.isValid
+
+  override def touch: Future[Authenticator[U]] = underlying.touch.map { touched =>
+    copy[U](underlying = touched)
+  }
+
+  /**
+   * Replaces the user in the cache.  The stored authenticator is only updated if the
+   * user reference is different.
+   *
+   * @param user the user object
+   * @return an updated instance
+   */
+  override def updateUser(user: U): Future[Authenticator[U]] = {
+    val reference = users.referenceFor(user)
+    users.put(user)
+    if (reference == underlying.user) {
+      Future.successful(copy[U](user = user))
+    } else {
+      underlying.updateUser(reference).map { updated =>
+        ReferenceAuthenticator(updated, user, users)
+      }
+    }
+  }
+
+  override def starting(result: Result): Future[Result] = underlying.starting(result)
+
+  override def discarding(result: Result): Future[Result] = underlying.discarding(result)
+
+  override def touching(result: Result): Future[Result] = underlying.touching(result)
+
+  override def touching(javaContext: play.mvc.Http.Context): Future[Unit] = underlying.touching(javaContext)
+
+  override def discarding(javaContext: play.mvc.Http.Context): Future[Unit] = underlying.discarding(javaContext)
+}
+
+/**
+ * A builder for reference based authenticators. It wraps a builder for authenticators of UserReference
+ * (eg: a CookieAuthenticatorBuilder[UserReference]) and takes its id, so it can replace the builder it wraps
+ * in the AuthenticatorService.
+ *
+ * @param underlying the builder for the stored authenticators
+ * @param users the user cache used to resolve users
+ * @tparam U the user object type
+ */
+class ReferenceAuthenticatorBuilder[U](
+  underlying: AuthenticatorBuilder[UserReference],
+  users: UserCache[U]) extends AuthenticatorBuilder[U] with AuthenticatorLookup[U] {
+  import users.executionContext
+
+  private val logger = play.api.Logger("securesocial.core.authenticator.ReferenceAuthenticatorBuilder")
+
+  val id = underlying.id
+
+  /**
+   * Retrieves the stored authenticator and resolves the user it references
+   *
+   * @param request the incoming request
+   * @return an optional ReferenceAuthenticator instance
+   */
+  override def fromRequest(request: RequestHeader): Future[Option[ReferenceAuthenticator[U]]] = {
+    underlying.fromRequest(request).flatMapNow {
+      case Some(stored) =>
+        users.get(stored.user).mapNow {
+          case Some(user) => Some(ReferenceAuthenticator(stored, user, users))
+          case None =>
+            logger.debug(s"[securesocial] authenticator ${stored.id} references an unknown user: ${stored.user}")
+            None
+        }
+      case None => Future.successful(None)
+    }
+  }
+
+  /**
+   * Finds several stored authenticators and resolves the users they reference.  It fails if the
+   * underlying builder can't look up its authenticators by id.
+   *
+   * @param ids the authenticator ids
+   * @return the authenticators found by id
+   */
+  override def findMany(ids: Seq[String]): Future[Map[String, ReferenceAuthenticator[U]]] = underlying match {
+    case lookup: AuthenticatorLookup[UserReference @unchecked] =>
+      lookup.findMany(ids).flatMap { found =>
+        Future.sequence(found.toSeq.map {
+          case (id, stored) => users.get(stored.user).map(_.map(user => id -> ReferenceAuthenticator(stored, user, users)))
+        }).map(_.flatten.toMap)
+      }
+    case _ =>
+      Future.failed(new UnsupportedOperationException(s"${underlying.getClass.getName} can't look up authenticators by id"))
+  }
+
+  /**
+   * Creates an authenticator for a user and adds the user to the cache
+   *
+   * @param user the user object
+   * @return a ReferenceAuthenticator instance
+   */
+  override def fromUser(user: U): Future[ReferenceAuthenticator[U]] = {
+    users.put(user)
+    underlying.fromUser(users.referenceFor(user)).map { stored =>
+      ReferenceAuthenticator(stored, user, users)
+    }
+  }
+}
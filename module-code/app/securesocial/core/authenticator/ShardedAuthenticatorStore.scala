@@ -0,0 +1,201 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.authenticator
+
+import java.util.Arrays
+import java.util.concurrent.atomic.LongAdder
+
+import securesocial.core.services.CacheService
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.reflect.ClassTag
+import scala.util.hashing.MurmurHash3
+
+/**
+ * Maps keys to nodes using consistent hashing.  Each node is placed in the ring several times (virtual nodes) so
+ * the keys are evenly spread, and adding or removing a node only moves the keys of the ring sections it takes or
+ * leaves, about 1/N of them.
+ *
+ * @param nodes the nodes, by name.  The names decide the positions in the ring, so they must be stable.
+ * @param virtualNodes the number of positions for each node
+ * @tparam T the node type
+ */
+class ConsistentHashRing[T](val nodes: Seq[(String, T)], virtualNodes: Int = ConsistentHashRing.DefaultVirtualNodes) {
+  require(nodes.nonEmpty, "there must be at least one node")
+  require(nodes.map(_._1).distinct.size == nodes.size, "the node names must be unique")
+  require(virtualNodes > 0, "virtualNodes must be greater than zero")
+
+  private val (positions, owners) = {
+    val points = for ((name, index) <- nodes.map(_._1).zipWithIndex; replica <- 0 until virtualNodes)
+      yield (MurmurHash3.stringHash(s"$name#$replica"), index)
+    val sorted = points.sortBy(_._1).toArray
+    (sorted.map(_._1), sorted.map(_._2))
+  }
+
+  /**
+   * Returns the index in nodes of the node owning a key
+   */
+  def indexFor(key: String): Int = {
+    val found = Arrays.binarySearch(positions, MurmurHash3.stringHash(key))
+    val position = if (found >= 0) found else -found - 1
+    owners(if (position == positions.length) 0 else position)
+  }
+
+  /**
+   * Returns the node owning a key
+   */
+  def nodeFor(key: String): T = nodes(indexFor(key))._2
+
+  /**
+   * The fraction of the keys owned by each node
+   */
+  def shares: Seq[(String, Double)] = {
+    val owned = new Array[Long](nodes.size)
+    val range = 1L << 32
+    positions.indices.foreach { i =>
+      val previous = if (i == 0) positions.last.toLong - range else positions(i - 1).toLong
+      owned(owners(i)) += positions(i).toLong - previous
+    }
+    nodes.map(_._1).zip(owned.map(_.toDouble / range))
+  }
+}
+
+object ConsistentHashRing {
+  val DefaultVirtualNodes = 160
+}
+
+/**
+ * An AuthenticatorStore that spreads the authenticators over several CacheService instances, using consistent
+ * hashing on the authenticator ids.
+ *
+ * When shards are added or removed pass the previous list of shards too: the authenticators that now belong to
+ * another shard are looked up in their previous one when they are not found, and moved on the spot.  Sessions
+ * that are never used again simply expire in their old shard.
+ *
+ * Sample usage:
+ *
+ * new ShardedAuthenticatorStore[CookieAuthenticator[U]](Seq("a" -> cacheA, "b" -> cacheB, "c" -> cacheC),
+ *   previousShards = Seq("a" -> cacheA, "b" -> cacheB))
+ *
+ * @param shards the caches by name.  The names decide which ids a cache holds, so they must be stable.
+ * @param previousShards the shards before the last change, if the sessions stored then must be kept
+ * @param virtualNodes the number of positions for each shard in the hash ring
+ * @tparam A the Authenticator type
+ */
+class ShardedAuthenticatorStore[A <: Authenticator[_]](
+  shards: Seq[(String, CacheService)],
+  previousShards: Seq[(String, CacheService)] = Seq(),
+  virtualNodes: Int = ConsistentHashRing.DefaultVirtualNodes)(implicit executionContext: ExecutionContext)
+  extends AuthenticatorStore[A] {
+
+  import ShardedAuthenticatorStore._
+
+  private val ring = new ConsistentHashRing(shards.map { case (name, cache) => name -> new Shard(name, cache) }, virtualNodes)
+  private val previousRing = if (previousShards.isEmpty) None else Some(new ConsistentHashRing(previousShards, virtualNodes))
+
+  private def timed[T](shard: Shard, counter: LongAdder)(call: => Future[T]): Future[T] = {
+    val start = System.nanoTime()
+    counter.increment()
+    call.andThen {
+      case result =>
+        shard.nanos.add(System.nanoTime() - start)
+        if (result.isFailure) shard.errors.increment()
+    }
+  }
+
+  // the cache that held an id before the last change of shards, when it is not the current one
+  private def previousOwner(id: String, current: Shard): Option[CacheService] =
+    previousRing.map(_.nodeFor(id)).filterNot(_ eq current.cache)
+
+  override def find(id: String)(implicit ct: ClassTag[A]): Future[Option[A]] = {
+    val shard = ring.nodeFor(id)
+    timed(shard, shard.finds)(shard.cache.getAs[A](id)).flatMap {
+      case None =>
+        previousOwner(id, shard) match {
+          case Some(previous) =>
+            previous.getAndRemove[A](id).flatMap {
+              case Some(authenticator) =>
+                val remaining = (authenticator.expirationMillis - System.currentTimeMillis()) / 1000
+                shard.migrated.increment()
+                if (remaining > 0) save(authenticator, remaining.toInt).map(Some(_)) else Future.successful(None)
+              case None =>
+                Future.successful(None)
+            }
+          case None =>
+            Future.successful(None)
+        }
+      case found =>
+        Future.successful(found)
+    }
+  }
+
+  // one multi key lookup per shard, the ids not found there are looked for in their previous owners
+  override def findMany(ids: Seq[String])(implicit ct: ClassTag[A]): Future[Map[String, A]] = {
+    val lookups = ids.groupBy(ring.nodeFor).toSeq.map {
+      case (shard, shardIds) =>
+        timed(shard, shard.finds)(shard.cache.getMany[A](shardIds)).flatMap { found =>
+          val missing = if (previousRing.isEmpty) Seq() else shardIds.filterNot(found.contains)
+          Future.sequence(missing.map(id => find(id).map(id -> _))).map { migrated =>
+            found ++ migrated.collect { case (id, Some(authenticator)) => id -> authenticator }
+          }
+        }
+    }
+    Future.sequence(lookups).map(_.foldLeft(Map.empty[String, A])(_ ++ _))
+  }
+
+  override def save(authenticator: A, timeoutInSeconds: Int): Future[A] = {
+    val shard = ring.nodeFor(authenticator.id)
+    timed(shard, shard.saves)(shard.cache.set(authenticator.id, authenticator, timeoutInSeconds)).map(_ => authenticator)
+  }
+
+  override def delete(id: String): Future[Unit] = {
+    val shard = ring.nodeFor(id)
+    val deleted = timed(shard, shard.deletes)(shard.cache.remove(id))
+    previousOwner(id, shard) match {
+      case Some(previous) => deleted.flatMap(_ => previous.remove(id))
+      case None => deleted
+    }
+  }
+
+  /**
+   * The activity of each shard.  The share is the fraction of the ids that belong to the shard, so it is the
+   * expected fraction of the sessions it holds.
+   */
+  def stats: Seq[ShardStats] = {
+    val shares = ring.shares.toMap
+    ring.nodes.map {
+      case (name, shard) =>
+        val calls = shard.finds.sum + shard.saves.sum + shard.deletes.sum
+        ShardStats(name, shares(name), shard.finds.sum, shard.saves.sum, shard.deletes.sum, shard.migrated.sum,
+          shard.errors.sum, if (calls == 0) 0 else shard.nanos.sum / calls / 1000)
+    }
+  }
+}
+
+object ShardedAuthenticatorStore {
+  private class Shard(val name: String, val cache: CacheService) {
+    val finds = new LongAdder
+    val saves = new LongAdder
+    val deletes = new LongAdder
+    val migrated = new LongAdder
+    val errors = new LongAdder
+    val nanos = new LongAdder
+  }
+
+  case class ShardStats(name: String, share: Double, finds: Long, saves: Long, deletes: Long, migrated: Long,
+    errors: Long, averageLatencyInMicros: Long)
+}
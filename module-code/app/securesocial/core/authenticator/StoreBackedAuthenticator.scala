@@ -18,6 +18,7 @@ package securesocial.core.authenticator
 
 import org.joda.time.DateTime
 import play.api.mvc.Result
+import securesocial.core.services.CoarseClock
 
 import scala.annotation.meta.getter
 import scala.concurrent.Future
@@ -56,6 +57,14 @@ trait StoreBackedAuthenticator[U, T <: Authenticator[U]] extends Authenticator[U
    */
   def withLastUsedTime(time: DateTime): T
 
+  /**
+   * Returns a copy of this authenticator with the given last used time
+   *
+   * @param millis the new time in milliseconds since the epoch
+   * @return the modified authenticator
+   */
+  def withLastUsedMillis(millis: Long): T = withLastUsedTime(new DateTime(millis))
+
   /**
    * Returns a copy of this Authenticator with the given user
    *
@@ -65,14 +74,27 @@ trait StoreBackedAuthenticator[U, T <: Authenticator[U]] extends Authenticator[U
   def withUser(user: U): T
 
   /**
-   * Updated the last used timestamp
+   * How long the last used time kept in the store can lag behind the real one.  Touching an authenticator
+   * that was saved more recently than this does not write it to the store again, so the idle timeout can
+   * be shortened by up to this amount (a tenth of the idle timeout, at most a minute).
+   */
+  protected def touchResolutionInMillis: Long = math.min(60000L, idleTimeoutInMinutes * 6000L)
+
+  /**
+   * Updated the last used timestamp.  Within the touch resolution the authenticator is returned as it is
+   * stored, without a copy.
    *
    * @return a future with the updated authenticator
    */
   override def touch: Future[T] = {
-    val updated = withLastUsedTime(DateTime.now())
-    logger.debug(s"touched: lastUsed = $lastUsed")
-    store.save(updated, absoluteTimeoutInSeconds)
+    val now = CoarseClock.now
+    if (now - lastUsedMillis < touchResolutionInMillis) {
+      // T is the type of the concrete authenticator
+      Future.successful(this.asInstanceOf[T])
+    } else {
+      logger.debug(s"touched: lastUsed = $lastUsed")
+      store.save(withLastUsedMillis(now), absoluteTimeoutInSeconds)
+    }
   }
 
   /**
@@ -93,7 +115,7 @@ trait StoreBackedAuthenticator[U, T <: Authenticator[U]] extends Authenticator[U
    *
    * @return true if the authenticator has expired, false otherwise.
    */
-  def expired: Boolean = expirationDate.isBeforeNow
+  def expired: Boolean = expirationMillis < CoarseClock.now
 
   /**
    * Checks if the time elapsed since the last time the authenticator was used is longer than
@@ -101,11 +123,11 @@ trait StoreBackedAuthenticator[U, T <: Authenticator[U]] extends Authenticator[U
    *
    * @return true if the authenticator timed out, false otherwise.
    */
-  def timedOut: Boolean = lastUsed.plusMinutes(idleTimeoutInMinutes).isBeforeNow
+  def timedOut: Boolean = lastUsedMillis + idleTimeoutInMinutes * 60000L < CoarseClock.now
 
   /**
    * Checks if the authenticator is valid.  For this implementation it means that the
-   * authenticator has not expired or timed out.
+   * authenticator has not expired or timed out.  It reads the CoarseClock and allocates nothing.
    *
    * @return true if the authenticator is valid, false otherwise.
    */
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.java;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The interface that defines an asynchronous authorization implementation, for checks that need
+ * to query a database or a directory service.
+ */
+public interface AsyncAuthorization<U> {
+    CompletionStage<Boolean> isAuthorized(U user, String[] params);
+}
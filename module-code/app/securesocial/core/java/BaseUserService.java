@@ -19,13 +19,21 @@ package securesocial.core.java;
 import play.libs.Scala;
 import scala.Option;
 import scala.concurrent.Future;
+import scala.concurrent.Future$;
+import scala.concurrent.Promise;
+import scala.concurrent.Promise$;
 import securesocial.core.BasicProfile;
+import securesocial.core.OAuth2Info;
 import securesocial.core.PasswordInfo;
 import securesocial.core.providers.MailToken;
+import securesocial.core.services.ProfileChanges;
+import securesocial.core.services.ReadConsistency;
 import securesocial.core.services.SaveMode;
 import securesocial.core.services.UserService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import static scala.compat.java8.FutureConverters.toScala;
+import java.util.function.Function;
 
 /**
  * A base user service for developers that want to write their UserService in Java.
@@ -44,7 +52,17 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<Option<BasicProfile>> find(String providerId, String userId) {
-        return toScala(doFind(providerId, userId).thenApply(Scala::Option));
+        return toScala(doFind(providerId, userId), Scala::Option);
+    }
+
+    /**
+     * Finds an Identity that maches the specified id telling if it can be read from a replica
+     *
+     * @return an optional user
+     */
+    @Override
+    public Future<Option<BasicProfile>> find(String providerId, String userId, ReadConsistency consistency) {
+        return toScala(doFind(providerId, userId, consistency), Scala::Option);
     }
 
     /**
@@ -59,7 +77,20 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<Option<BasicProfile>> findByEmailAndProvider(String email, String providerId) {
-        return toScala(doFindByEmailAndProvider(email, providerId).thenApply(Scala::Option));
+        return toScala(doFindByEmailAndProvider(email, providerId), Scala::Option);
+    }
+
+    /**
+     * Finds an Identity by email and provider id telling if it can be read from a replica
+     *
+     * @param email - the user email
+     * @param providerId - the provider id
+     * @param consistency the consistency the caller needs
+     * @return
+     */
+    @Override
+    public Future<Option<BasicProfile>> findByEmailAndProvider(String email, String providerId, ReadConsistency consistency) {
+        return toScala(doFindByEmailAndProvider(email, providerId, consistency), Scala::Option);
     }
 
     /**
@@ -70,7 +101,18 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<U> save(BasicProfile user, SaveMode mode) {
-        return toScala(doSave(user, mode));
+        return toScala(doSave(user, mode), Function.identity());
+    }
+
+    /**
+     * Saves the Identity of an existing user that logged in again.
+     *
+     * @param user the profile returned by the provider
+     * @param changes the fields that changed since the stored profile
+     */
+    @Override
+    public Future<U> update(BasicProfile user, ProfileChanges changes) {
+        return toScala(doUpdate(user, changes), Function.identity());
     }
 
     /**
@@ -81,18 +123,33 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<U> link(U current, BasicProfile to) {
-        return toScala(doLink(current, to));
+        return toScala(doLink(current, to), Function.identity());
     }
 
     @Override
     public Future<scala.Option<PasswordInfo>> passwordInfoFor(U user) {
-        return toScala(doPasswordInfoFor(user).thenApply(Scala::Option));
+        return toScala(doPasswordInfoFor(user), Scala::Option);
+    }
+
+    @Override
+    public Future<scala.Option<PasswordInfo>> passwordInfoFor(U user, ReadConsistency consistency) {
+        return toScala(doPasswordInfoFor(user, consistency), Scala::Option);
     }
 
     @Override
     public Future<scala.Option<BasicProfile>> updatePasswordInfo(U user, PasswordInfo info) {
-        return toScala(doUpdatePasswordInfo(user, info).thenApply(Scala::Option));
+        return toScala(doUpdatePasswordInfo(user, info), Scala::Option);
+    }
 
+    /**
+     * Updates the OAuth2Info of a profile after its access token was refreshed in the background
+     *
+     * @param profile the profile whose token was refreshed
+     * @param info the new OAuth2Info
+     */
+    @Override
+    public Future<U> updateOAuth2Info(BasicProfile profile, OAuth2Info info) {
+        return toScala(doUpdateOAuth2Info(profile, info), Function.identity());
     }
 
     /**
@@ -107,7 +164,7 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<MailToken> saveToken(MailToken mailToken) {
-        return toScala(doSaveToken(Token.fromScala(mailToken)).thenApply(Token::toScala));
+        return toScala(doSaveToken(Token.fromScala(mailToken)), Token::toScala);
     }
 
     /**
@@ -121,7 +178,19 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<Option<MailToken>> findToken(String tokenId) {
-        return toScala(doFindToken(tokenId).thenApply(this::toMailToken));
+        return toScala(doFindToken(tokenId), this::toMailToken);
+    }
+
+    /**
+     * Finds a token telling if it can be read from a replica
+     *
+     * @param tokenId the token id
+     * @param consistency the consistency the caller needs
+     * @return
+     */
+    @Override
+    public Future<Option<MailToken>> findToken(String tokenId, ReadConsistency consistency) {
+        return toScala(doFindToken(tokenId, consistency), this::toMailToken);
     }
 
     /**
@@ -134,7 +203,7 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     @Override
     public Future<scala.Option<MailToken>> deleteToken(String tokenId) {
-        return toScala(doDeleteToken(tokenId).thenApply(this::toMailToken));
+        return toScala(doDeleteToken(tokenId), this::toMailToken);
     }
 
     private Option<MailToken> toMailToken(Token token) {
@@ -142,6 +211,37 @@ public abstract class BaseUserService<U> implements UserService<U> {
         return Scala.Option(mailToken);
     }
 
+    /**
+     * Converts the result of a doXXX method to a Scala Future applying the conversion in the same step.
+     * Stages that are already completed (eg: the ones created with CompletableFuture.completedFuture)
+     * are converted without registering any callback.
+     */
+    static <T, R> Future<R> toScala(CompletionStage<T> stage, Function<T, R> conversion) {
+        if (stage instanceof CompletableFuture) {
+            CompletableFuture<T> future = (CompletableFuture<T>) stage;
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                try {
+                    return Future$.MODULE$.successful(conversion.apply(future.join()));
+                } catch (RuntimeException e) {
+                    return Future$.MODULE$.failed(e);
+                }
+            }
+        }
+        Promise<R> promise = Promise$.MODULE$.apply();
+        stage.whenComplete((value, error) -> {
+            if (error != null) {
+                promise.tryFailure(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                try {
+                    promise.trySuccess(conversion.apply(value));
+                } catch (RuntimeException e) {
+                    promise.tryFailure(e);
+                }
+            }
+        });
+        return promise.future();
+    }
+
     /**
      * Deletes all expired tokens
      *
@@ -162,6 +262,32 @@ public abstract class BaseUserService<U> implements UserService<U> {
      */
     public abstract CompletionStage<U> doSave(BasicProfile user, SaveMode mode);
 
+    /**
+     * Saves the Identity of an existing user that logged in again.  By default it calls doSave with
+     * SaveMode.LoggedIn, override it to skip the write when nothing changed or to write only the
+     * changed fields.
+     *
+     * @param user the profile returned by the provider
+     * @param changes the fields that changed since the stored profile
+     */
+    public CompletionStage<U> doUpdate(BasicProfile user, ProfileChanges changes) {
+        return doSave(user, SaveMode.LoggedIn());
+    }
+
+    /**
+     * Updates the OAuth2Info of a profile after its access token was refreshed in the background.  By
+     * default it calls doSave with the updated profile and SaveMode.LoggedIn, override it to write only
+     * the token.
+     *
+     * @param profile the profile whose token was refreshed
+     * @param info the new OAuth2Info
+     */
+    public CompletionStage<U> doUpdateOAuth2Info(BasicProfile profile, OAuth2Info info) {
+        return doSave(profile.copy(profile.providerId(), profile.userId(), profile.firstName(), profile.lastName(),
+                profile.fullName(), profile.email(), profile.avatarUrl(), profile.authMethod(), profile.oAuth1Info(),
+                Scala.Option(info), profile.passwordInfo()), SaveMode.LoggedIn());
+    }
+
     /**
      * Saves a token
      *
@@ -232,4 +358,46 @@ public abstract class BaseUserService<U> implements UserService<U> {
      *
      */
     public abstract void doDeleteExpiredTokens();
+
+    /**
+     * Finds the user telling if it can be read from a replica.  Override it to route the reads,
+     * by default it calls doFind(providerId, userId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return an Identity instance or null if no user matches the specified id
+     */
+    public CompletionStage<BasicProfile> doFind(String providerId, String userId, ReadConsistency consistency) {
+        return doFind(providerId, userId);
+    }
+
+    /**
+     * Finds an identity by email and provider id telling if it can be read from a replica.  By default
+     * it calls doFindByEmailAndProvider(email, providerId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return an Identity instance or null if no user matches
+     */
+    public CompletionStage<BasicProfile> doFindByEmailAndProvider(String email, String providerId, ReadConsistency consistency) {
+        return doFindByEmailAndProvider(email, providerId);
+    }
+
+    /**
+     * Returns the password info of a user telling if it can be read from a replica.  By default it
+     * calls doPasswordInfoFor(user).
+     *
+     * @param consistency the consistency the caller needs
+     */
+    public CompletionStage<PasswordInfo> doPasswordInfoFor(U user, ReadConsistency consistency) {
+        return doPasswordInfoFor(user);
+    }
+
+    /**
+     * Finds a token telling if it can be read from a replica.  By default it calls doFindToken(tokenId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return a Token instance or null if no token matches the specified id
+     */
+    public CompletionStage<Token> doFindToken(String tokenId, ReadConsistency consistency) {
+        return doFindToken(tokenId);
+    }
 }
@@ -0,0 +1,304 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.java;
+
+import play.libs.Scala;
+import scala.Option;
+import scala.concurrent.Future;
+import scala.runtime.BoxedUnit;
+import securesocial.core.BasicProfile;
+import securesocial.core.OAuth2Info;
+import securesocial.core.PasswordInfo;
+import securesocial.core.providers.MailToken;
+import securesocial.core.services.BlockingExecutor;
+import securesocial.core.services.ProfileChanges;
+import securesocial.core.services.ReadConsistency;
+import securesocial.core.services.SaveMode;
+import securesocial.core.services.UserService;
+
+/**
+ * A base user service for developers that want to write their UserService in Java using blocking
+ * calls (eg: JDBC).  The doXXX methods return their results directly and are run by a BlockingExecutor,
+ * so they don't block the threads Play uses to handle requests.
+ *
+ * Note: You need to implement all the doXXX methods below.
+ *
+ * @see securesocial.core.services.BlockingExecutor
+ */
+public abstract class BlockingUserService<U> implements UserService<U> {
+    private final BlockingExecutor executor;
+
+    protected BlockingUserService(BlockingExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * The executor running the doXXX methods, its stats can be used to monitor the queue
+     */
+    public BlockingExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public Future<Option<BasicProfile>> find(String providerId, String userId) {
+        return executor.submit("find", () -> Scala.Option(doFind(providerId, userId)));
+    }
+
+    @Override
+    public Future<Option<BasicProfile>> find(String providerId, String userId, ReadConsistency consistency) {
+        return executor.submit("find", () -> Scala.Option(doFind(providerId, userId, consistency)));
+    }
+
+    @Override
+    public Future<Option<BasicProfile>> findByEmailAndProvider(String email, String providerId) {
+        return executor.submit("findByEmailAndProvider", () -> Scala.Option(doFindByEmailAndProvider(email, providerId)));
+    }
+
+    @Override
+    public Future<Option<BasicProfile>> findByEmailAndProvider(String email, String providerId, ReadConsistency consistency) {
+        return executor.submit("findByEmailAndProvider", () -> Scala.Option(doFindByEmailAndProvider(email, providerId, consistency)));
+    }
+
+    @Override
+    public Future<U> save(BasicProfile user, SaveMode mode) {
+        return executor.submit("save", () -> doSave(user, mode));
+    }
+
+    @Override
+    public Future<U> update(BasicProfile user, ProfileChanges changes) {
+        return executor.submit("update", () -> doUpdate(user, changes));
+    }
+
+    @Override
+    public Future<U> link(U current, BasicProfile to) {
+        return executor.submit("link", () -> doLink(current, to));
+    }
+
+    @Override
+    public Future<Option<PasswordInfo>> passwordInfoFor(U user) {
+        return executor.submit("passwordInfoFor", () -> Scala.Option(doPasswordInfoFor(user)));
+    }
+
+    @Override
+    public Future<Option<PasswordInfo>> passwordInfoFor(U user, ReadConsistency consistency) {
+        return executor.submit("passwordInfoFor", () -> Scala.Option(doPasswordInfoFor(user, consistency)));
+    }
+
+    @Override
+    public Future<Option<BasicProfile>> updatePasswordInfo(U user, PasswordInfo info) {
+        return executor.submit("updatePasswordInfo", () -> Scala.Option(doUpdatePasswordInfo(user, info)));
+    }
+
+    @Override
+    public Future<U> updateOAuth2Info(BasicProfile profile, OAuth2Info info) {
+        return executor.submit("updateOAuth2Info", () -> doUpdateOAuth2Info(profile, info));
+    }
+
+    @Override
+    public Future<MailToken> saveToken(MailToken mailToken) {
+        return executor.submit("saveToken", () -> doSaveToken(Token.fromScala(mailToken)).toScala());
+    }
+
+    @Override
+    public Future<Option<MailToken>> findToken(String tokenId) {
+        return executor.submit("findToken", () -> toMailToken(doFindToken(tokenId)));
+    }
+
+    @Override
+    public Future<Option<MailToken>> findToken(String tokenId, ReadConsistency consistency) {
+        return executor.submit("findToken", () -> toMailToken(doFindToken(tokenId, consistency)));
+    }
+
+    @Override
+    public Future<Option<MailToken>> deleteToken(String tokenId) {
+        return executor.submit("deleteToken", () -> toMailToken(doDeleteToken(tokenId)));
+    }
+
+    private Option<MailToken> toMailToken(Token token) {
+        return Scala.Option(token != null ? token.toScala() : null);
+    }
+
+    /**
+     * Deletes the expired tokens in the background
+     */
+    @Override
+    public void deleteExpiredTokens() {
+        executor.submit("deleteExpiredTokens", () -> {
+            doDeleteExpiredTokens();
+            return BoxedUnit.UNIT;
+        });
+    }
+
+    /**
+     * Saves the Identity.  This method gets called when a user logs in.
+     * This is your chance to save the user information in your backing store.
+     *
+     * @param user
+     * @return the user
+     */
+    public abstract U doSave(BasicProfile user, SaveMode mode);
+
+    /**
+     * Saves the Identity of an existing user that logged in again.  By default it calls doSave with
+     * SaveMode.LoggedIn, override it to skip the write when nothing changed or to write only the
+     * changed fields.
+     *
+     * @param user the profile returned by the provider
+     * @param changes the fields that changed since the stored profile
+     * @return the user
+     */
+    public U doUpdate(BasicProfile user, ProfileChanges changes) {
+        return doSave(user, SaveMode.LoggedIn());
+    }
+
+    /**
+     * Updates the OAuth2Info of a profile after its access token was refreshed in the background.  By
+     * default it calls doSave with the updated profile and SaveMode.LoggedIn, override it to write only
+     * the token.
+     *
+     * @param profile the profile whose token was refreshed
+     * @param info the new OAuth2Info
+     * @return the user
+     */
+    public U doUpdateOAuth2Info(BasicProfile profile, OAuth2Info info) {
+        return doSave(profile.copy(profile.providerId(), profile.userId(), profile.firstName(), profile.lastName(),
+                profile.fullName(), profile.email(), profile.avatarUrl(), profile.authMethod(), profile.oAuth1Info(),
+                Scala.Option(info), profile.passwordInfo()), SaveMode.LoggedIn());
+    }
+
+    /**
+     * Saves a token
+     *
+     * Note: If you do not plan to use the UsernamePassword provider just provide en empty
+     * implementation
+     *
+     * @param token
+     * @return the saved token
+     */
+    public abstract Token doSaveToken(Token token);
+
+    /**
+     * Links the current user Identity to another
+     *
+     * @param current The Identity of the current user
+     * @param to The Identity that needs to be linked to the current user
+     * @return the updated user
+     */
+    public abstract U doLink(U current, BasicProfile to);
+
+    /**
+     * Finds the user in the backing store.
+     * @return an Identity instance or null if no user matches the specified id
+     */
+    public abstract BasicProfile doFind(String providerId, String userId);
+
+    /**
+     * @return the password info or null if the user has none
+     */
+    public abstract PasswordInfo doPasswordInfoFor(U user);
+
+    /**
+     * @return the updated profile or null if the user has no password profile
+     */
+    public abstract BasicProfile doUpdatePasswordInfo(U user, PasswordInfo info);
+
+    /**
+     * Finds a token
+     *
+     * Note: If you do not plan to use the UsernamePassword provider just provide en empty
+     * implementation
+     *
+     * @param tokenId the token id
+     * @return a Token instance or null if no token matches the specified id
+     */
+    public abstract Token doFindToken(String tokenId);
+
+    /**
+     * Finds an identity by email and provider id.
+     *
+     * Note: If you do not plan to use the UsernamePassword provider just provide en empty
+     * implementation.
+     *
+     * @param email - the user email
+     * @param providerId - the provider id
+     * @return an Identity instance or null if no user matches the specified id
+     */
+    public abstract BasicProfile doFindByEmailAndProvider(String email, String providerId);
+
+    /**
+     * Deletes a token
+     *
+     * Note: If you do not plan to use the UsernamePassword provider just provide en empty
+     * implementation
+     *
+     * @param uuid the token id
+     * @return the deleted token or null if there was none
+     */
+    public abstract Token doDeleteToken(String uuid);
+
+    /**
+     * Deletes all expired tokens
+     *
+     * Note: If you do not plan to use the UsernamePassword provider just provide en empty
+     * implementation
+     *
+     */
+    public abstract void doDeleteExpiredTokens();
+
+    /**
+     * Finds the user telling if it can be read from a replica.  Override it to route the reads,
+     * by default it calls doFind(providerId, userId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return an Identity instance or null if no user matches the specified id
+     */
+    public BasicProfile doFind(String providerId, String userId, ReadConsistency consistency) {
+        return doFind(providerId, userId);
+    }
+
+    /**
+     * Finds an identity by email and provider id telling if it can be read from a replica.  By default
+     * it calls doFindByEmailAndProvider(email, providerId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return an Identity instance or null if no user matches
+     */
+    public BasicProfile doFindByEmailAndProvider(String email, String providerId, ReadConsistency consistency) {
+        return doFindByEmailAndProvider(email, providerId);
+    }
+
+    /**
+     * Returns the password info of a user telling if it can be read from a replica.  By default it
+     * calls doPasswordInfoFor(user).
+     *
+     * @param consistency the consistency the caller needs
+     * @return the password info or null if the user has none
+     */
+    public PasswordInfo doPasswordInfoFor(U user, ReadConsistency consistency) {
+        return doPasswordInfoFor(user);
+    }
+
+    /**
+     * Finds a token telling if it can be read from a replica.  By default it calls doFindToken(tokenId).
+     *
+     * @param consistency the consistency the caller needs
+     * @return a Token instance or null if no token matches the specified id
+     */
+    public Token doFindToken(String tokenId, ReadConsistency consistency) {
+        return doFindToken(tokenId);
+    }
+}
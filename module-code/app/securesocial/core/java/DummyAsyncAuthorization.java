@@ -0,0 +1,31 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.java;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A dummy asynchronous authorization that just allows all executions. Used when no custom AsyncAuthorization
+ * implementation is specified.
+ */
+class DummyAsyncAuthorization implements AsyncAuthorization<Object> {
+    @Override
+    public CompletionStage<Boolean> isAuthorized(Object user, String[] params) {
+        return CompletableFuture.completedFuture(true);
+    }
+}
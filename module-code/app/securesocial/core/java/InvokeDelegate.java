@@ -21,6 +21,7 @@ import play.mvc.Action;
 import play.mvc.Http;
 import play.mvc.Result;
 import scala.concurrent.ExecutionContextExecutor;
+import securesocial.core.ServerTiming;
 import securesocial.core.authenticator.Authenticator;
 
 import java.util.concurrent.CompletionStage;
@@ -31,16 +32,26 @@ import static scala.compat.java8.FutureConverters.toJava;
 class InvokeDelegate implements Function<Authenticator<Object>, CompletionStage<Result>> {
     private final Http.Context ctx;
     private final Action<?> delegate;
+    private final ServerTiming.Timer timer;
 
-    InvokeDelegate(Http.Context ctx, Action<?> delegate) {
+    InvokeDelegate(Http.Context ctx, Action<?> delegate, ServerTiming.Timer timer) {
         this.ctx = ctx;
         this.delegate = delegate;
+        this.timer = timer;
     }
 
     @Override
     public CompletionStage<Result> apply(Authenticator<Object> authenticator) {
+        timer.mark(ServerTiming.Touch());
         ctx.args.put(SecureSocial.USER_KEY, authenticator.user());
-        return toJava(authenticator.touching(ctx))
+        CompletionStage<Result> result = toJava(authenticator.touching(ctx))
                 .thenComposeAsync(boxedUnit -> delegate.call(ctx), HttpExecution.defaultContext());
+        if (timer.isRecording()) {
+            return result.thenApply(r -> {
+                timer.mark(ServerTiming.Action());
+                return timer.addTo(r, ctx._requestHeader());
+            });
+        }
+        return result;
     }
 }
\ No newline at end of file
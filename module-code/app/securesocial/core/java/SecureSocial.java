@@ -16,16 +16,22 @@
 */
 package securesocial.core.java;
 
+import akka.stream.javadsl.Flow;
 import play.api.mvc.RequestHeader;
+import play.libs.F;
 import play.libs.concurrent.HttpExecution;
 import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
 import scala.Option;
 import scala.concurrent.ExecutionContext;
+import securesocial.core.ConnectionRegistry;
 import securesocial.core.RuntimeEnvironment;
 import securesocial.core.SecureSocial$;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import static scala.compat.java8.FutureConverters.toJava;
 /**
 *
@@ -78,4 +84,23 @@ public class SecureSocial {
             return toJava(scalaFuture).thenApply(userOption -> userOption.isDefined() ? userOption.get() : null);
         }
     }
+
+    /**
+     * Authenticates a WebSocket. The user is resolved once when the socket is opened and the socket is closed
+     * when the user logs out or the authenticator stops being valid. Use it with WebSocket.acceptOrResult.
+     *
+     * @param env the environment
+     * @param request the upgrade request
+     * @param flow creates the flow that handles the messages for the user
+     * @return the flow, or a Forbidden result if there isn't a user available
+     */
+    @SuppressWarnings("unchecked")
+    public static <In, Out> CompletionStage<F.Either<Result, Flow<In, Out, ?>>> authenticatedFlow(
+            RuntimeEnvironment env, Http.RequestHeader request, Function<Object, Flow<In, Out, ?>> flow) {
+        Option<ConnectionRegistry> registry = env.connectionRegistry();
+        if (registry.isEmpty()) {
+            return CompletableFuture.completedFuture(F.Either.<Result, Flow<In, Out, ?>>Left(Results.forbidden()));
+        }
+        return registry.get().acceptJava(request, flow);
+    }
 }
@@ -23,12 +23,14 @@ import play.mvc.Result;
 import scala.Option;
 import scala.concurrent.ExecutionContextExecutor;
 import securesocial.core.RuntimeEnvironment;
+import securesocial.core.ServerTiming;
 import securesocial.core.authenticator.Authenticator;
 
 import javax.inject.Inject;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static play.libs.concurrent.HttpExecution.defaultContext;
 import static scala.compat.java8.FutureConverters.toJava;
@@ -48,6 +50,7 @@ public class Secured extends Action<SecuredAction> {
 
     private RuntimeEnvironment env;
     private Authorization authorizationInstance;
+    private AsyncAuthorization asyncAuthorizationInstance;
     private SecuredActionResponses responses;
     private static final String ENVIRONMENT_KEY = "securesocial-env";
 
@@ -72,9 +75,10 @@ public class Secured extends Action<SecuredAction> {
         try {
             initEnv(env);
             authorizationInstance = configuration.authorization().newInstance();
+            asyncAuthorizationInstance = configuration.asyncAuthorization().newInstance();
             responses = configuration.responses().newInstance();
             return toJava(env.authenticatorService().fromRequest(ctx._requestHeader()))
-                    .thenComposeAsync(new CheckAuthenticator(ctx), HttpExecution.defaultContext())
+                    .thenComposeAsync(new CheckAuthenticator(ctx, env.serverTiming().start(ServerTiming.Secured())), HttpExecution.defaultContext())
                     .whenComplete((result, ex) -> Secured.clearEnv());
         } catch (Throwable t) {
             CompletableFuture<Result> failedResult = new CompletableFuture<>();
@@ -83,26 +87,57 @@ public class Secured extends Action<SecuredAction> {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private CompletionStage<Boolean> authorize(Object user) {
+        final String[] params = configuration.params();
+        final Object instance;
+        final Supplier<CompletionStage<Boolean>> check;
+        if (configuration.asyncAuthorization() != DummyAsyncAuthorization.class) {
+            instance = asyncAuthorizationInstance;
+            check = () -> asyncAuthorizationInstance.isAuthorized(user, params);
+        } else {
+            instance = authorizationInstance;
+            check = () -> CompletableFuture.completedFuture(authorizationInstance.isAuthorized(user, params));
+        }
+        if (configuration.cached()) {
+            String key = instance.getClass().getName() + ":" + String.join(",", params);
+            return env.authorizationCache().decideJava(user, key, check::get);
+        }
+        return check.get();
+    }
+
     class CheckAuthenticator implements Function<Option<Authenticator<Object>>, CompletionStage<Result>> {
         private final Http.Context ctx;
+        private final ServerTiming.Timer timer;
 
-        CheckAuthenticator(Http.Context ctx) {
+        CheckAuthenticator(Http.Context ctx, ServerTiming.Timer timer) {
             this.ctx = ctx;
+            this.timer = timer;
         }
 
         @Override
         public CompletionStage<Result> apply(Option<Authenticator<Object>> authenticatorOption) {
             ExecutionContextExecutor executor = HttpExecution.defaultContext();
+            timer.mark(ServerTiming.Authenticator());
 
             if (authenticatorOption.isDefined() && authenticatorOption.get().isValid()) {
                 final Authenticator<Object> authenticator = authenticatorOption.get();
                 Object user = authenticator.user();
-                if (authorizationInstance.isAuthorized(user, configuration.params())) {
-                    return toJava(authenticator.touch())
-                            .thenComposeAsync(new InvokeDelegate(ctx, delegate), executor);
-                } else {
-                    return responses.notAuthorizedResult(ctx);
+                Function<Boolean, CompletionStage<Result>> next = authorized -> {
+                    timer.mark(ServerTiming.Authorization());
+                    if (authorized) {
+                        return toJava(authenticator.touch())
+                                .thenComposeAsync(new InvokeDelegate(ctx, delegate, timer), executor);
+                    } else {
+                        return responses.notAuthorizedResult(ctx);
+                    }
+                };
+                CompletionStage<Boolean> decision = authorize(user);
+                // decisions that are already available don't need to go through the executor
+                if (decision instanceof CompletableFuture && ((CompletableFuture<Boolean>) decision).isDone()) {
+                    return decision.thenCompose(next);
                 }
+                return decision.thenComposeAsync(next, executor);
             } else {
                 if (authenticatorOption.isDefined()) {
                     return toJava(authenticatorOption.get().discarding(ctx))
@@ -38,6 +38,18 @@ public @interface SecuredAction {
      */
     Class<? extends Authorization> authorization() default DummyAuthorization.class;
 
+    /**
+     * An AsyncAuthorization implementation, for checks that can't be done without blocking.  It is used
+     * instead of the authorization element when it is specified.
+     */
+    Class<? extends AsyncAuthorization> asyncAuthorization() default DummyAsyncAuthorization.class;
+
+    /**
+     * Keeps the authorization decisions in the environment's authorizationCache, by user, authorization
+     * class and params.
+     */
+    boolean cached() default false;
+
     /**
      * The responses sent when the invoker is not authorized or authenticated
      *
@@ -22,6 +22,7 @@ import play.mvc.Http;
 import play.mvc.Result;
 
 import securesocial.core.RuntimeEnvironment;
+import securesocial.core.ServerTiming;
 import securesocial.core.authenticator.Authenticator;
 
 import javax.inject.Inject;
@@ -58,12 +59,19 @@ public class UserAware extends Action<UserAwareAction> {
         try {
             Secured.initEnv(env);
             ExecutionContextExecutor executor = HttpExecution.defaultContext();
+            ServerTiming.Timer timer = env.serverTiming().start(ServerTiming.UserAware());
             return toJava(env.authenticatorService().fromRequest(ctx._requestHeader()))
                     .thenComposeAsync(authenticatorOption -> {
+                        timer.mark(ServerTiming.Authenticator());
                         if (authenticatorOption.isDefined() && authenticatorOption.get().isValid()) {
                             Authenticator<Object> authenticator = authenticatorOption.get();
                             return toJava(authenticator.touch())
-                                    .thenComposeAsync(new InvokeDelegate(ctx, delegate), executor);
+                                    .thenComposeAsync(new InvokeDelegate(ctx, delegate, timer), executor);
+                        } else if (timer.isRecording()) {
+                            return delegate.call(ctx).thenApply(result -> {
+                                timer.mark(ServerTiming.Action());
+                                return timer.addTo(result, ctx._requestHeader());
+                            });
                         } else {
                             return delegate.call(ctx);
                         }
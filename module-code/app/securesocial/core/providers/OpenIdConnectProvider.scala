@@ -0,0 +1,285 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.providers
+
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets.{ US_ASCII, UTF_8 }
+import java.security.spec.RSAPublicKeySpec
+import java.security.{ KeyFactory, PublicKey, Signature }
+import java.util.Base64
+import java.util.concurrent.atomic.AtomicReference
+
+import play.api.libs.json.{ JsValue, Json }
+import securesocial.core._
+import securesocial.core.services.FastFuture._
+import securesocial.core.services.{ CacheService, HttpService, RoutesService }
+
+import scala.concurrent.{ ExecutionContext, Future, Promise }
+import scala.util.control.NonFatal
+
+/**
+ * A generic OpenID Connect provider.  The profile is read from the id token returned with the access token, which
+ * is verified locally with the keys published by the issuer, so a login doesn't need a call to the user info
+ * endpoint.  The discovery document and the keys are fetched once and cached; the keys are fetched again when a
+ * token is signed with a key id that is not known yet (eg: after the issuer rotates them).
+ *
+ * The user info endpoint is only used when there is no id token, eg: for api logins with an access token.
+ *
+ * The settings are the usual OAuth2 ones plus the issuer, eg:
+ *
+ * securesocial.oidc {
+ *   issuer = "https://accounts.google.com"
+ *   authorizationUrl = "https://accounts.google.com/o/oauth2/v2/auth"
+ *   accessTokenUrl = "https://oauth2.googleapis.com/token"
+ *   clientId = ...
+ *   clientSecret = ...
+ *   scope = "openid email profile"
+ * }
+ *
+ * @param discovery the discovery document of the issuer
+ * @param keys the keys of the issuer
+ * @param clockSkewInSeconds the tolerance for the expiration time of the tokens
+ */
+class OpenIdConnectProvider(
+  routesService: RoutesService,
+  cacheService: CacheService,
+  client: OAuth2Client,
+  discovery: OpenIdConnectDiscovery,
+  keys: OpenIdConnectKeys,
+  clockSkewInSeconds: Int = 60,
+  override val id: String = OpenIdConnectProvider.OpenIdConnect)
+  extends OAuth2Provider(routesService, client, cacheService) {
+
+  import OpenIdConnectProvider._
+
+  private def invalid(message: String): Nothing = {
+    logger.error(s"[securesocial] invalid id token for provider $id: $message")
+    throw new AuthenticationException()
+  }
+
+  private def decode(part: String): Array[Byte] =
+    try Base64.getUrlDecoder.decode(part) catch { case NonFatal(_) => invalid("bad encoding") }
+
+  private def audienceOf(claims: JsValue): Seq[String] =
+    (claims \ Audience).asOpt[String].map(Seq(_)).orElse((claims \ Audience).asOpt[Seq[String]]).getOrElse(Seq())
+
+  /**
+   * Verifies an id token: the signature, the issuer, the audience and the expiration time
+   *
+   * @param token the compact serialization of the token
+   * @return the claims
+   */
+  def verify(token: String): Future[JsValue] = Future.successful(token.split('.')).flatMapNow { parts =>
+    if (parts.length != 3) invalid("not a signed token")
+    val header = Json.parse(decode(parts(0)))
+    val algorithm = (header \ "alg").asOpt[String]
+    if (!algorithm.contains(RS256)) invalid(s"unsupported algorithm ${algorithm.getOrElse("")}")
+    val keyId = (header \ "kid").asOpt[String]
+    for (
+      metadata <- discovery.metadata;
+      key <- keys.find(keyId)
+    ) yield {
+      val verifier = Signature.getInstance("SHA256withRSA")
+      verifier.initVerify(key.getOrElse(invalid(s"unknown key ${keyId.getOrElse("")}")))
+      verifier.update(s"${parts(0)}.${parts(1)}".getBytes(US_ASCII))
+      if (!verifier.verify(decode(parts(2)))) invalid("bad signature")
+      val claims = Json.parse(decode(parts(1)))
+      if (!(claims \ Issuer).asOpt[String].contains(metadata.issuer)) invalid(s"unexpected issuer ${(claims \ Issuer).asOpt[String].getOrElse("")}")
+      if (!audienceOf(claims).contains(settings.clientId)) invalid("the token was issued for another client")
+      val now = System.currentTimeMillis() / 1000
+      if ((claims \ Expiration).asOpt[Long].forall(_ + clockSkewInSeconds < now)) invalid("the token expired")
+      claims
+    }
+  }
+
+  private def userInfo(info: OAuth2Info): Future[JsValue] = discovery.metadata.flatMap { metadata =>
+    metadata.userInfoEndpoint match {
+      case Some(url) => client.httpService.url(url).addHttpHeaders("Authorization" -> s"Bearer ${info.accessToken}").get().map(_.json)
+      case None =>
+        logger.error(s"[securesocial] there is no id token and the issuer of provider $id has no user info endpoint")
+        Future.failed(new AuthenticationException())
+    }
+  }
+
+  def fillProfile(info: OAuth2Info): Future[BasicProfile] = {
+    info.idToken.map(verify).getOrElse(userInfo(info)).map { claims =>
+      // an email is only trusted when the issuer says it was verified
+      val verified = (claims \ EmailVerified).asOpt[Boolean].getOrElse(false)
+      BasicProfile(
+        id,
+        (claims \ Subject).as[String],
+        (claims \ GivenName).asOpt[String],
+        (claims \ FamilyName).asOpt[String],
+        (claims \ Name).asOpt[String],
+        (claims \ Email).asOpt[String].filter(_ => verified),
+        (claims \ Picture).asOpt[String],
+        authMethod,
+        oAuth2Info = Some(info))
+    } recover {
+      case e: AuthenticationException => throw e
+      case e =>
+        logger.error(s"[securesocial] error retrieving profile information from provider $id", e)
+        throw new AuthenticationException()
+    }
+  }
+}
+
+object OpenIdConnectProvider {
+  val OpenIdConnect = "oidc"
+
+  val RS256 = "RS256"
+  val Issuer = "iss"
+  val Audience = "aud"
+  val Expiration = "exp"
+  val Subject = "sub"
+  val GivenName = "given_name"
+  val FamilyName = "family_name"
+  val Name = "name"
+  val Email = "email"
+  val EmailVerified = "email_verified"
+  val Picture = "picture"
+
+  /**
+   * Creates a provider that fetches the discovery document and the keys from the issuer
+   *
+   * @param issuer the issuer url, eg: https://accounts.google.com
+   */
+  def apply(routesService: RoutesService, cacheService: CacheService, client: OAuth2Client, issuer: String): OpenIdConnectProvider = {
+    import client.executionContext
+    val discovery = new OpenIdConnectDiscovery(client.httpService, issuer)
+    new OpenIdConnectProvider(routesService, cacheService, client, discovery, new OpenIdConnectKeys(client.httpService, discovery))
+  }
+}
+
+/**
+ * The parts of the discovery document used by the provider
+ */
+case class OpenIdConnectMetadata(issuer: String, jwksUri: String, userInfoEndpoint: Option[String])
+
+/**
+ * Fetches the discovery document of an issuer once.  A failed fetch is retried on the next use.
+ *
+ * @param issuer the issuer url
+ */
+class OpenIdConnectDiscovery(httpService: HttpService, issuer: String)(implicit executionContext: ExecutionContext) {
+  private val logger = play.api.Logger("securesocial.core.providers.OpenIdConnectDiscovery")
+  private val document = new AtomicReference[Future[OpenIdConnectMetadata]]()
+
+  val url = issuer.stripSuffix("/") + "/.well-known/openid-configuration"
+
+  private def fetch(): Future[OpenIdConnectMetadata] = httpService.url(url).get().map { response =>
+    val json = response.json
+    val metadata = OpenIdConnectMetadata(
+      (json \ "issuer").as[String],
+      (json \ "jwks_uri").as[String],
+      (json \ "userinfo_endpoint").asOpt[String])
+    if (metadata.issuer != issuer) throw new IllegalStateException(s"the discovery document is for issuer ${metadata.issuer}")
+    logger.debug(s"[securesocial] fetched the discovery document for $issuer")
+    metadata
+  }
+
+  def metadata: Future[OpenIdConnectMetadata] = {
+    val current = document.get()
+    if (current != null && !current.value.exists(_.isFailure)) {
+      current
+    } else {
+      val promise = Promise[OpenIdConnectMetadata]()
+      if (document.compareAndSet(current, promise.future)) {
+        promise.completeWith(fetch())
+        promise.future.failed.foreach { e => logger.error(s"[securesocial] unable to fetch $url", e) }
+        promise.future
+      } else {
+        metadata
+      }
+    }
+  }
+}
+
+/**
+ * The RSA keys of an issuer, fetched from the jwks_uri of its discovery document.  The keys are fetched again
+ * when a key id is not found, at most once every minRefreshIntervalInSeconds so tokens with made up key ids
+ * can't make the provider hammer the issuer.  Concurrent lookups share the same fetch.
+ *
+ * @param discovery the discovery document of the issuer
+ * @param minRefreshIntervalInSeconds the minimum time between two fetches
+ */
+class OpenIdConnectKeys(httpService: HttpService, discovery: OpenIdConnectDiscovery, minRefreshIntervalInSeconds: Int = 60)(implicit executionContext: ExecutionContext) {
+  private val logger = play.api.Logger("securesocial.core.providers.OpenIdConnectKeys")
+  private val keys = new AtomicReference[Map[String, PublicKey]](Map())
+  private val refreshing = new AtomicReference[Future[Map[String, PublicKey]]]()
+  @volatile private var lastRefresh = 0L
+
+  private def lookup(available: Map[String, PublicKey], keyId: Option[String]): Option[PublicKey] = keyId match {
+    case Some(kid) => available.get(kid)
+    case None => if (available.size == 1) available.values.headOption else None
+  }
+
+  private def decode(value: String) = new BigInteger(1, Base64.getUrlDecoder.decode(value))
+
+  private def parse(json: JsValue): Map[String, PublicKey] = {
+    val factory = KeyFactory.getInstance("RSA")
+    (json \ "keys").as[Seq[JsValue]].filter { key =>
+      (key \ "kty").asOpt[String].contains("RSA") && (key \ "use").asOpt[String].forall(_ == "sig")
+    }.map { key =>
+      val spec = new RSAPublicKeySpec(decode((key \ "n").as[String]), decode((key \ "e").as[String]))
+      (key \ "kid").asOpt[String].getOrElse("") -> factory.generatePublic(spec)
+    }.toMap
+  }
+
+  /**
+   * Fetches the keys, or joins the fetch in progress
+   */
+  def refresh(): Future[Map[String, PublicKey]] = {
+    val inFlight = refreshing.get()
+    if (inFlight != null) {
+      inFlight
+    } else {
+      val promise = Promise[Map[String, PublicKey]]()
+      if (refreshing.compareAndSet(null, promise.future)) {
+        lastRefresh = System.currentTimeMillis()
+        val fetched = discovery.metadata.flatMap { metadata =>
+          httpService.url(metadata.jwksUri).get().map(response => parse(response.json))
+        }.andThen {
+          case result =>
+            result.foreach { fetchedKeys =>
+              keys.set(fetchedKeys)
+              logger.debug(s"[securesocial] fetched ${fetchedKeys.size} keys from the jwks_uri of ${discovery.url}")
+            }
+            result.failed.foreach { e => logger.error("[securesocial] unable to fetch the keys", e) }
+            refreshing.set(null)
+        }
+        promise.completeWith(fetched)
+        promise.future
+      } else {
+        refresh()
+      }
+    }
+  }
+
+  /**
+   * Finds a key, fetching the keys again if it's not known
+   *
+   * @param keyId the kid of the token header, tokens without one are accepted if the issuer has a single key
+   * @return the key if the issuer has it
+   */
+  def find(keyId: Option[String]): Future[Option[PublicKey]] = lookup(keys.get(), keyId) match {
+    case found @ Some(_) => Future.successful(found)
+    case None if System.currentTimeMillis() - lastRefresh >= minRefreshIntervalInSeconds * 1000L =>
+      refresh().mapNow(lookup(_, keyId))
+    case None => Future.successful(None)
+  }
+}
@@ -27,7 +27,7 @@ import securesocial.controllers.ViewTemplates
 import securesocial.core.AuthenticationResult.{ Authenticated, NavigationFlow }
 import securesocial.core._
 import securesocial.core.providers.utils.PasswordHasher
-import securesocial.core.services.{ AvatarService, UserService }
+import securesocial.core.services.{ AvatarService, ReadConsistency, UserService }
 
 import scala.concurrent.{ ExecutionContext, Future }
 
@@ -57,7 +57,7 @@ class UsernamePasswordProvider[U](
   }
 
   private def profileForCredentials(userId: String, password: String): Future[Option[BasicProfile]] = {
-    userService.find(id, userId).map { maybeUser =>
+    userService.find(id, userId, ReadConsistency.Primary).map { maybeUser =>
       for (
         user <- maybeUser;
         pinfo <- user.passwordInfo;
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.providers.utils
+
+import java.io._
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{ Files, StandardOpenOption }
+import java.nio.{ ByteBuffer, MappedByteBuffer }
+import java.security.MessageDigest
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+
+import scala.collection.mutable
+import scala.io.Source
+
+/**
+ * A sorted index of the SHA-1 hashes of breached passwords, kept in a memory mapped file.
+ *
+ * The index holds the first 8 bytes of each hash as a sorted array of unsigned longs after a small header, so
+ * a lookup is a binary search over the mapped file: it takes a few microseconds, reads the entries in place and
+ * doesn't grow the heap no matter how many entries the file has.  With 8 bytes per hash the chance that a
+ * password not in the corpus matches an entry is negligible even with billions of them.
+ *
+ * Use BreachedPasswordIndex.build (or its main method) to create the file from a downloaded corpus.
+ *
+ * @param file the index file
+ */
+class BreachedPasswordIndex(file: File) extends Closeable {
+  import BreachedPasswordIndex._
+
+  private val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+
+  val size: Long = {
+    val header = ByteBuffer.allocate(HeaderSize)
+    channel.read(header, 0)
+    header.flip()
+    if (header.remaining() < HeaderSize || header.getInt(0) != Magic || header.getInt(4) != Version)
+      throw new IllegalArgumentException(s"${file.getPath} is not a breached password index")
+    val count = header.getLong(8)
+    if (channel.size() < HeaderSize + count * EntrySize)
+      throw new IllegalArgumentException(s"${file.getPath} is truncated")
+    count
+  }
+
+  // a mapped buffer holds at most 2GB, so the entries are mapped in chunks
+  private val chunks: Array[MappedByteBuffer] = {
+    val total = size * EntrySize
+    Array.tabulate(((total + ChunkSize - 1) / ChunkSize).toInt) { i =>
+      val offset = i.toLong * ChunkSize
+      channel.map(FileChannel.MapMode.READ_ONLY, HeaderSize + offset, math.min(ChunkSize, total - offset))
+    }
+  }
+
+  private def entry(index: Long): Long = {
+    val position = index * EntrySize
+    chunks((position / ChunkSize).toInt).getLong((position % ChunkSize).toInt)
+  }
+
+  /**
+   * Checks whether the prefix of a hash is in the index
+   *
+   * @param prefix the first 8 bytes of the hash
+   */
+  def containsPrefix(prefix: Long): Boolean = {
+    var low = 0L
+    var high = size - 1
+    while (low <= high) {
+      val middle = (low + high) >>> 1
+      val compared = java.lang.Long.compareUnsigned(entry(middle), prefix)
+      if (compared < 0) low = middle + 1
+      else if (compared > 0) high = middle - 1
+      else return true
+    }
+    false
+  }
+
+  /**
+   * Checks whether a password is in the index
+   */
+  def contains(password: String): Boolean = containsPrefix(prefixOf(password))
+
+  override def close(): Unit = channel.close()
+}
+
+object BreachedPasswordIndex {
+  private val Magic = 0x53534250 // SSBP
+  private val Version = 1
+  private val HeaderSize = 16
+  private val EntrySize = 8
+  // a multiple of EntrySize, so no entry spans two chunks
+  private val ChunkSize = 1L << 30
+  private val SortChunkEntries = 1 << 24
+  private val InitialChunkEntries = 1 << 12
+
+  private val sha1 = new ThreadLocal[MessageDigest] {
+    override def initialValue(): MessageDigest = MessageDigest.getInstance("SHA-1")
+  }
+
+  /**
+   * The first 8 bytes of the SHA-1 hash of a password
+   */
+  def prefixOf(password: String): Long =
+    ByteBuffer.wrap(sha1.get().digest(password.getBytes(StandardCharsets.UTF_8))).getLong
+
+  /**
+   * The first 8 bytes of a hex encoded SHA-1 hash, eg: a line of the Pwned Passwords corpus (HASH:COUNT)
+   */
+  def prefixOfHex(line: String): Long = java.lang.Long.parseUnsignedLong(line.substring(0, 16), 16)
+
+  /**
+   * Builds an index.  The input doesn't need to be sorted: the prefixes are sorted in chunks that are merged
+   * afterwards, so the memory used doesn't depend on the size of the corpus.
+   *
+   * @param lines the corpus, one hex encoded SHA-1 hash (optionally followed by :count) or one password per line
+   * @param plain true if the lines hold passwords instead of hashes
+   * @param output the index file
+   * @param chunkEntries the most prefixes sorted in memory at once, the buffer for them grows up to this size
+   * @return the number of entries in the index
+   */
+  def build(lines: Iterator[String], plain: Boolean, output: File, chunkEntries: Int = SortChunkEntries): Long = {
+    require(chunkEntries > 0, "chunkEntries must be positive")
+    val runs = mutable.ArrayBuffer[File]()
+    try {
+      var buffer = new Array[Long](math.min(InitialChunkEntries, chunkEntries))
+      var used = 0
+      def flush(): Unit = if (used > 0) {
+        // sorting the values with the sign bit flipped sorts them as unsigned longs
+        var i = 0
+        while (i < used) { buffer(i) ^= Long.MinValue; i += 1 }
+        java.util.Arrays.sort(buffer, 0, used)
+        val run = File.createTempFile("securesocial-breached", ".run")
+        val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))
+        try {
+          i = 0
+          while (i < used) { out.writeLong(buffer(i) ^ Long.MinValue); i += 1 }
+        } finally out.close()
+        runs += run
+        used = 0
+      }
+      lines.map(_.trim).filter(_.nonEmpty).foreach { line =>
+        buffer(used) = if (plain) prefixOf(line) else prefixOfHex(line)
+        used += 1
+        if (used == chunkEntries) flush()
+        else if (used == buffer.length) buffer = java.util.Arrays.copyOf(buffer, math.min(buffer.length * 2L, chunkEntries.toLong).toInt)
+      }
+      flush()
+      merge(runs, output)
+    } finally {
+      runs.foreach(_.delete())
+    }
+  }
+
+  private def merge(runs: Seq[File], output: File): Long = {
+    val inputs = runs.map(run => new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16)))
+    val remaining = mutable.ArrayBuffer(runs.map(_.length / EntrySize): _*)
+    val heads = mutable.PriorityQueue[(Long, Int)]()(Ordering.fromLessThan[(Long, Int)] { (a, b) =>
+      java.lang.Long.compareUnsigned(a._1, b._1) > 0
+    })
+    def advance(i: Int): Unit = if (remaining(i) > 0) {
+      remaining(i) -= 1
+      heads.enqueue((inputs(i).readLong(), i))
+    }
+    val temporary = new File(output.getPath + ".tmp")
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))
+    var count = 0L
+    try {
+      out.write(new Array[Byte](HeaderSize))
+      inputs.indices.foreach(advance)
+      var last = 0L
+      while (heads.nonEmpty) {
+        val (value, i) = heads.dequeue()
+        if (count == 0 || value != last) {
+          out.writeLong(value)
+          last = value
+          count += 1
+        }
+        advance(i)
+      }
+    } finally {
+      out.close()
+      inputs.foreach(_.close())
+    }
+    val header = new RandomAccessFile(temporary, "rw")
+    try {
+      header.writeInt(Magic)
+      header.writeInt(Version)
+      header.writeLong(count)
+    } finally header.close()
+    Files.move(temporary.toPath, output.toPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING)
+    count
+  }
+
+  /**
+   * Builds an index from the command line:
+   *
+   * sbt "core/runMain securesocial.core.providers.utils.BreachedPasswordIndex pwned-passwords-sha1.txt breached.idx [--plain]"
+   */
+  def main(args: Array[String]): Unit = {
+    if (args.length < 2) {
+      System.err.println("usage: BreachedPasswordIndex <corpus> <index file> [--plain]")
+      sys.exit(1)
+    }
+    val start = System.nanoTime()
+    val source = Source.fromFile(args(0), "UTF-8")
+    val count = try build(source.getLines(), args.contains("--plain"), new File(args(1))) finally source.close()
+    println(f"wrote $count%,d entries to ${args(1)} in ${(System.nanoTime() - start) / 1e9}%.1f s")
+  }
+}
+
+/**
+ * A PasswordValidator that rejects the passwords found in a BreachedPasswordIndex, after checking them with
+ * another validator (eg: the length check of PasswordValidator.Default)
+ *
+ * @param index the index of breached passwords
+ * @param underlying the validator checked first
+ */
+class BreachedPasswordValidator(index: BreachedPasswordIndex, underlying: PasswordValidator) extends PasswordValidator {
+  override def validate(password: String): Either[(String, Seq[Any]), Unit] =
+    underlying.validate(password).right.flatMap { _ =>
+      if (index.contains(password)) Left((BreachedPasswordValidator.BreachedPasswordMessage, Seq())) else Right(())
+    }
+}
+
+object BreachedPasswordValidator {
+  val BreachedPasswordMessage = "securesocial.signup.breachedPassword"
+}
+
+/**
+ * The settings for the breached password check
+ *
+ * @param indexFile the index built with BreachedPasswordIndex. The check is disabled when it's not set.
+ */
+case class BreachedPasswordConfig(indexFile: Option[String])
+
+object BreachedPasswordConfig {
+  implicit val configLoader: ConfigLoader[BreachedPasswordConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): BreachedPasswordConfig =
+    configuration.get[BreachedPasswordConfig]("securesocial.breachedPasswords")
+}
@@ -19,6 +19,7 @@ package securesocial.core.services
 import play.api.mvc.RequestHeader
 import scala.concurrent.{ ExecutionContext, Future }
 import securesocial.core.authenticator.{ Authenticator, AuthenticatorBuilder }
+import securesocial.core.services.FastFuture._
 import scala.reflect.ClassTag
 import org.apache.commons.lang3.reflect.TypeUtils
 
@@ -41,16 +42,45 @@ class AuthenticatorService[U](builders: AuthenticatorBuilder[U]*)(implicit val e
       if (seq.isEmpty)
         Future.successful(None)
       else {
-        seq.head.fromRequest(request).flatMap {
-          case Some(authenticator) => Future.successful(Some(authenticator))
+        seq.head.fromRequest(request).flatMapNow {
+          case found @ Some(_) => Future.successful(found)
           case None => iterateIt(seq.tail)
         }
       }
     }
-    iterateIt(builders) recover {
+    val result = iterateIt(builders)
+    if (result.value.exists(_.isSuccess)) {
+      result
+    } else {
+      result.recover {
+        case t: Throwable =>
+          logger.error(s"An error occurred while trying to build an authenticator from a request", t)
+          None
+      }(SameThreadExecutionContext)
+    }
+  }
+
+  /**
+   * Like fromRequest, but it also returns the builder that found the authenticator
+   *
+   * @param request the incoming request
+   * @return the builder and the authenticator, if the user is authenticated
+   */
+  def fromRequestWithBuilder(request: RequestHeader): Future[Option[(AuthenticatorBuilder[U], Authenticator[U])]] = {
+    def iterateIt(seq: Seq[AuthenticatorBuilder[U]]): Future[Option[(AuthenticatorBuilder[U], Authenticator[U])]] = {
+      if (seq.isEmpty)
+        Future.successful(None)
+      else {
+        seq.head.fromRequest(request).flatMapNow {
+          case Some(authenticator) => Future.successful(Some(seq.head -> authenticator))
+          case None => iterateIt(seq.tail)
+        }
+      }
+    }
+    iterateIt(builders).recover {
       case t: Throwable =>
         logger.error(s"An error occurred while trying to build an authenticator from a request", t)
         None
-    }
+    }(SameThreadExecutionContext)
   }
 }
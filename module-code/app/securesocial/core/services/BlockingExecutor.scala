@@ -0,0 +1,208 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.{ AtomicInteger, AtomicLong, AtomicReference }
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+
+import scala.concurrent.{ Future, Promise }
+import scala.util.control.NonFatal
+
+/**
+ * Runs blocking calls (eg: JDBC queries) outside of the Play dispatcher. The calls run on a bounded pool of
+ * platform threads or, when virtualThreads is enabled and the JVM supports them, each on its own virtual thread
+ * with at most poolSize of them running at the same time.
+ *
+ * Calls that can't be queued fail with a RejectedExecutionException and calls that don't complete within the
+ * timeout configured for their method fail with a TimeoutException (the thread running them is interrupted).
+ *
+ * @param config the executor settings
+ */
+class BlockingExecutor(config: BlockingExecutorConfig) {
+  import BlockingExecutor._
+
+  private val logger = play.api.Logger("securesocial.core.services.BlockingExecutor")
+
+  private val queued = new AtomicInteger()
+  private val active = new AtomicInteger()
+  private val completed = new AtomicLong()
+  private val rejected = new AtomicLong()
+  private val timedOut = new AtomicLong()
+  private val queueTimeNanos = new AtomicLong()
+
+  // with virtual threads the pool size is enforced with a semaphore
+  private val permits = new Semaphore(config.poolSize)
+
+  private val virtualThreads: Option[ExecutorService] =
+    if (config.virtualThreads) newVirtualThreadExecutor() else None
+
+  private val executor: ExecutorService = virtualThreads.getOrElse {
+    val pool = new ThreadPoolExecutor(config.poolSize, config.poolSize, 60L, TimeUnit.SECONDS,
+      new ArrayBlockingQueue[Runnable](config.queueSize), daemonThreads("securesocial-blocking"))
+    pool.allowCoreThreadTimeOut(true)
+    pool
+  }
+
+  logger.debug(s"[securesocial] blocking executor using ${if (virtualThreads.isDefined) "virtual threads" else "a thread pool"} of ${config.poolSize}")
+
+  private class Task[T](promise: Promise[T], call: Callable[T], queuedAt: Long, timer: AtomicReference[ScheduledFuture[_]]) extends Runnable {
+    private var runner: Thread = _
+
+    def run(): Unit = {
+      val acquired = try {
+        if (virtualThreads.isDefined) permits.acquire()
+        true
+      } catch {
+        case _: InterruptedException => false
+      }
+      queued.decrementAndGet()
+      queueTimeNanos.addAndGet(System.nanoTime() - queuedAt)
+      try {
+        // calls that timed out while queued are not run
+        if (acquired && !promise.isCompleted) {
+          synchronized { runner = Thread.currentThread() }
+          active.incrementAndGet()
+          try {
+            promise.trySuccess(call.call())
+          } catch {
+            case NonFatal(e) => promise.tryFailure(e)
+            case e: InterruptedException => promise.tryFailure(e)
+          } finally {
+            active.decrementAndGet()
+            completed.incrementAndGet()
+            // an interrupt sent after the call finished must not leak into the next task on this thread
+            synchronized {
+              runner = null
+              Thread.interrupted()
+            }
+          }
+        }
+      } finally {
+        if (acquired && virtualThreads.isDefined) permits.release()
+        Option(timer.get).foreach(_.cancel(false))
+      }
+    }
+
+    def interrupt(): Unit = synchronized {
+      if (runner != null) runner.interrupt()
+    }
+  }
+
+  private def timeoutFor(method: String): Long =
+    config.timeoutsInMillis.getOrElse(method, config.defaultTimeoutInMillis).toLong
+
+  /**
+   * Runs a blocking call
+   *
+   * @param method the name of the method, used to pick the timeout
+   * @param call the blocking call
+   * @return a future with the result of the call
+   */
+  def submit[T](method: String, call: Callable[T]): Future[T] = {
+    val promise = Promise[T]()
+    val timer = new AtomicReference[ScheduledFuture[_]]()
+    val queuedAt = System.nanoTime()
+    val task = new Task(promise, call, queuedAt, timer)
+    if (virtualThreads.isDefined && queued.get >= config.queueSize) {
+      rejected.incrementAndGet()
+      promise.failure(new RejectedExecutionException(s"[securesocial] blocking queue is full, rejected $method"))
+    } else {
+      queued.incrementAndGet()
+      try {
+        executor.execute(task)
+        val timeout = timeoutFor(method)
+        if (timeout > 0) {
+          timer.set(timeouts.schedule(new Runnable {
+            def run(): Unit = if (promise.tryFailure(new TimeoutException(s"[securesocial] $method did not complete in $timeout ms"))) {
+              timedOut.incrementAndGet()
+              task.interrupt()
+            }
+          }, timeout, TimeUnit.MILLISECONDS))
+          if (promise.isCompleted) timer.get.cancel(false)
+        }
+      } catch {
+        case e: RejectedExecutionException =>
+          queued.decrementAndGet()
+          rejected.incrementAndGet()
+          promise.tryFailure(e)
+      }
+    }
+    promise.future
+  }
+
+  /**
+   * A snapshot of the executor counters
+   */
+  def stats: Stats = {
+    val done = completed.get
+    Stats(queued.get, active.get, done, rejected.get, timedOut.get,
+      if (done == 0) 0.0 else queueTimeNanos.get / 1e6 / done)
+  }
+
+  def shutdown(): Unit = executor.shutdown()
+}
+
+object BlockingExecutor {
+  /**
+   * @param queued the calls waiting for a thread
+   * @param active the calls running
+   * @param completed the calls that finished (successfully or not)
+   * @param rejected the calls rejected because the queue was full
+   * @param timedOut the calls that did not complete in time
+   * @param averageQueueTimeInMillis the average time calls waited for a thread
+   */
+  case class Stats(queued: Int, active: Int, completed: Long, rejected: Long, timedOut: Long, averageQueueTimeInMillis: Double)
+
+  private def daemonThreads(prefix: String): ThreadFactory = new ThreadFactory {
+    private val count = new AtomicInteger()
+    def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, s"$prefix-${count.incrementAndGet()}")
+      thread.setDaemon(true)
+      thread
+    }
+  }
+
+  private lazy val timeouts: ScheduledExecutorService = {
+    val scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("securesocial-blocking-timeouts"))
+    scheduler.setRemoveOnCancelPolicy(true)
+    scheduler
+  }
+
+  // Executors.newVirtualThreadPerTaskExecutor is only available on Java 21+
+  private def newVirtualThreadExecutor(): Option[ExecutorService] = try {
+    Some(classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor").invoke(null).asInstanceOf[ExecutorService])
+  } catch {
+    case _: NoSuchMethodException => None
+  }
+}
+
+case class BlockingExecutorConfig(
+  poolSize: Int,
+  queueSize: Int,
+  virtualThreads: Boolean,
+  defaultTimeoutInMillis: Int,
+  timeoutsInMillis: Map[String, Int])
+
+object BlockingExecutorConfig {
+  implicit val configLoader: ConfigLoader[BlockingExecutorConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): BlockingExecutorConfig =
+    configuration.get[BlockingExecutorConfig]("securesocial.blockingExecutor")
+}
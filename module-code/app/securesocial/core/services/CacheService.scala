@@ -33,6 +33,69 @@ trait CacheService {
   def getAs[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]]
 
   def remove(key: String): Future[Unit]
+
+  /**
+   * Retrieves several entries.  The lookups are issued in parallel, backends that support multi key
+   * lookups should override it.
+   *
+   * @param keys the keys
+   * @return the values found by key
+   */
+  def getMany[T](keys: Seq[String])(implicit ct: ClassTag[T]): Future[Map[String, T]] = {
+    import SameThreadExecutionContext.Implicits._
+    Future.sequence(keys.map(key => getAs[T](key).map(key -> _))).map {
+      _.collect { case (key, Some(value)) => key -> value }.toMap
+    }
+  }
+
+  /**
+   * Sets a new time to live for an entry.  By default the entry is read and written back, backends that
+   * can change the time to live of an entry in place should override it.
+   *
+   * @param key the key
+   * @param ttlInSeconds the new time to live
+   * @return true if the entry existed
+   */
+  def expire(key: String, ttlInSeconds: Int): Future[Boolean] = {
+    import SameThreadExecutionContext.Implicits._
+    getAs[Any](key).flatMap {
+      case Some(value) => set(key, value, ttlInSeconds).map(_ => true)
+      case None => Future.successful(false)
+    }
+  }
+
+  /**
+   * Retrieves an entry and removes it, for values that must be used only once.  By default it is a lookup
+   * followed by a remove, backends that can do it atomically should override it.
+   *
+   * @param key the key
+   * @return the value if there was one
+   */
+  def getAndRemove[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = {
+    import SameThreadExecutionContext.Implicits._
+    getAs[T](key).flatMap {
+      case found @ Some(_) => remove(key).map(_ => found)
+      case None => Future.successful(None)
+    }
+  }
+
+  /**
+   * Sets an entry only if there is none for the key.  By default it is a lookup followed by a set, so it is a
+   * best effort check: two callers can both get true.  Backends with an atomic add or putIfAbsent should
+   * override it.
+   *
+   * @param key the key
+   * @param value the value
+   * @param ttlInSeconds the time to live
+   * @return true if the value was set
+   */
+  def setIfAbsent[T](key: String, value: T, ttlInSeconds: Int = 0): Future[Boolean] = {
+    import SameThreadExecutionContext.Implicits._
+    getAs[Any](key).flatMap {
+      case Some(_) => Future.successful(false)
+      case None => set(key, value, ttlInSeconds).map(_ => true)
+    }
+  }
 }
 
 object CacheService {
@@ -51,5 +114,17 @@ object CacheService {
 
     override def remove(key: String): Future[Unit] =
       cacheApi.remove(key).map(_ => ())
+
+    /**
+     * A best effort check built on getOrElseUpdate, which most Play cache implementations run as a lookup
+     * followed by a set, so it is not atomic.  It also returns true when the entry already holds the same
+     * instance.  Extend this class and override it for caches that have an atomic add or putIfAbsent.
+     */
+    override def setIfAbsent[T](key: String, value: T, ttlInSeconds: Int): Future[Boolean] = {
+      val candidate: Any = value
+      cacheApi.getOrElseUpdate[Any](key, ttlInSeconds.seconds)(Future.successful(candidate)).map {
+        current => current.asInstanceOf[AnyRef] eq candidate.asInstanceOf[AnyRef]
+      }
+    }
   }
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2013-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import java.util.concurrent.{ Executors, ThreadFactory, TimeUnit }
+
+/**
+ * A clock that reads the time kept in a volatile field, updated every ResolutionInMillis by a daemon thread.
+ * Reading it costs a memory read and allocates nothing, so it suits the checks made on every request whose
+ * granularity is much coarser than the resolution (eg: authenticator timeouts measured in minutes).
+ */
+object CoarseClock {
+  val ResolutionInMillis = 10L
+
+  @volatile private var current = System.currentTimeMillis()
+
+  private val ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "securesocial-coarse-clock")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  ticker.scheduleAtFixedRate(new Runnable {
+    override def run(): Unit = current = System.currentTimeMillis()
+  }, ResolutionInMillis, ResolutionInMillis, TimeUnit.MILLISECONDS)
+
+  /**
+   * The current time in milliseconds since the epoch, at most ResolutionInMillis behind the system clock
+   */
+  def now: Long = current
+}
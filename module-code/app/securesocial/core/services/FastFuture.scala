@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.control.NonFatal
+import scala.util.{ Failure, Success }
+
+/**
+ * Future combinators that skip the executor when the future is already completed.  Many of the futures in the
+ * authentication pipeline are (eg: a missing cookie, a touch within the touch resolution, an in memory cache)
+ * and scheduling their continuations costs a thread hop and a few allocations for nothing.
+ *
+ * The continuation runs in the calling thread when the future is completed and in the given ExecutionContext
+ * otherwise.  Pass SameThreadExecutionContext for continuations that only transform a value.
+ */
+object FastFuture {
+  implicit class FastFutureOps[T](val future: Future[T]) extends AnyVal {
+    def mapNow[S](f: T => S)(implicit executionContext: ExecutionContext): Future[S] = future.value match {
+      case Some(Success(value)) =>
+        try Future.successful(f(value)) catch { case NonFatal(e) => Future.failed(e) }
+      case Some(Failure(_)) => future.asInstanceOf[Future[S]]
+      case None => future.map(f)
+    }
+
+    def flatMapNow[S](f: T => Future[S])(implicit executionContext: ExecutionContext): Future[S] = future.value match {
+      case Some(Success(value)) =>
+        try f(value) catch { case NonFatal(e) => Future.failed(e) }
+      case Some(Failure(_)) => future.asInstanceOf[Future[S]]
+      case None => future.flatMap(f)
+    }
+  }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright 2013-2018 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.{ ConcurrentHashMap, ConcurrentSkipListSet }
+
+import securesocial.core.providers.{ MailToken, UsernamePasswordProvider }
+import securesocial.core.{ BasicProfile, OAuth2Info, PasswordInfo }
+
+import scala.annotation.tailrec
+import scala.concurrent.{ ExecutionContext, Future }
+
+/**
+ * Tells the IndexedUserService how the application user is related to the profiles
+ *
+ * @tparam U the user object type
+ */
+trait UserModel[U] {
+  /**
+   * Creates a user for a profile that is not linked to any user yet
+   *
+   * @param profile the profile
+   * @return the new user
+   */
+  def create(profile: BasicProfile): U
+
+  /**
+   * The profile that identifies the user
+   */
+  def main(user: U): BasicProfile
+
+  /**
+   * All the profiles linked to the user (including the main one)
+   */
+  def profiles(user: U): Seq[BasicProfile]
+
+  /**
+   * Returns a copy of the user with a profile added or replaced
+   *
+   * @param user the user
+   * @param profile the profile
+   * @return the updated user
+   */
+  def withProfile(user: U, profile: BasicProfile): U
+}
+
+/**
+ * An in memory UserService that keeps hash indexes by (providerId, userId) and (email, providerId), so
+ * lookups don't need to scan the users.  Updates to a user are serialized using striped locks and the
+ * tokens are kept ordered by expiration time so deleting the expired ones only visits those.
+ *
+ * When a backing UserService is given this service works as a bounded cache in front of it instead: writes go
+ * to the backing service first and the users it returns are cached, lookups that miss the cache are delegated
+ * to it and the profiles found are cached.  At most maxCachedUsers users and profiles are kept, for at most
+ * cacheTtlInSeconds.
+ *
+ * @param model the model for the user type
+ * @param backing an optional UserService this service caches
+ * @param lockStripes the number of locks guarding the users
+ * @param maxCachedUsers the most users, and the most profiles, cached in front of the backing service
+ * @param cacheTtlInSeconds how long the users and profiles are cached in front of the backing service
+ * @tparam U the user object type
+ */
+class IndexedUserService[U](
+  model: UserModel[U],
+  backing: Option[UserService[U]] = None,
+  lockStripes: Int = IndexedUserService.DefaultLockStripes,
+  maxCachedUsers: Int = IndexedUserService.DefaultMaxCachedUsers,
+  cacheTtlInSeconds: Int = IndexedUserService.DefaultCacheTtlInSeconds)(implicit val executionContext: ExecutionContext) extends UserService[U] {
+
+  import IndexedUserService._
+
+  require(lockStripes > 0, "lockStripes must be greater than zero")
+  require(maxCachedUsers > 0, "maxCachedUsers must be greater than zero")
+  require(cacheTtlInSeconds > 0, "cacheTtlInSeconds must be greater than zero")
+
+  private val logger = play.api.Logger("securesocial.core.services.IndexedUserService")
+
+  // the indexes, when this service holds the users
+  // users by the key of their main profile
+  private val users = new ConcurrentHashMap[ProfileKey, U]()
+  // the main profile key of the user owning each profile
+  private val owners = new ConcurrentHashMap[ProfileKey, ProfileKey]()
+  private val emails = new ConcurrentHashMap[EmailKey, ProfileKey]()
+
+  private val tokens = new ConcurrentHashMap[String, MailToken]()
+  private val expirations = new ConcurrentSkipListSet[TokenExpiration]()
+
+  private val locks = Array.fill(lockStripes)(new ReentrantLock())
+
+  // the cache, when this service is in front of a backing service
+  private class Cached(val service: UserService[U]) {
+    private val ttlInMillis = cacheTtlInSeconds * 1000L
+    // users by the key of their main profile
+    val users = new LocalCache[ProfileKey, U](maxCachedUsers, ttlInMillis)
+    val profiles = new LocalCache[ProfileKey, BasicProfile](maxCachedUsers, ttlInMillis)
+    val emails = new LocalCache[EmailKey, BasicProfile](maxCachedUsers, ttlInMillis)
+
+    def put(user: U): U = {
+      val mainKey = keyOf(model.main(user))
+      withLock(mainKey) {
+        users.get(mainKey).foreach { previous =>
+          model.profiles(previous).foreach { old =>
+            profiles.remove(keyOf(old))
+            emailKeyOf(old).foreach(key => emails.remove(key))
+          }
+        }
+        users.put(mainKey, user)
+        model.profiles(user).foreach { profile =>
+          profiles.put(keyOf(profile), profile)
+          emailKeyOf(profile).foreach(emails.put(_, profile))
+        }
+      }
+      user
+    }
+  }
+
+  private val cached = backing.map(new Cached(_))
+
+  private def withLock[T](key: ProfileKey)(block: => T): T = {
+    val lock = locks((key.hashCode & Int.MaxValue) % locks.length)
+    lock.lock()
+    try {
+      block
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  private def keyOf(profile: BasicProfile) = ProfileKey(profile.providerId, profile.userId)
+
+  private def emailKeyOf(profile: BasicProfile) = profile.email.map(EmailKey(_, profile.providerId))
+
+  private def profileFor(key: ProfileKey): Option[BasicProfile] = for (
+    owner <- Option(owners.get(key));
+    user <- Option(users.get(owner));
+    profile <- model.profiles(user).find(keyOf(_) == key)
+  ) yield profile
+
+  /**
+   * Stores a user and updates the indexes. Must be called holding the lock for the user.
+   */
+  private def store(user: U): U = {
+    val mainKey = keyOf(model.main(user))
+    val profiles = model.profiles(user)
+    val profileKeys = profiles.map(keyOf).toSet
+    val emailKeys = profiles.flatMap(p => emailKeyOf(p).map(_ -> keyOf(p))).toSet
+    profiles.foreach { profile =>
+      val key = keyOf(profile)
+      owners.put(key, mainKey)
+      emailKeyOf(profile).foreach(emails.put(_, key))
+    }
+    // the new entries are in place before the stale ones are removed, so readers never miss a profile
+    Option(users.put(mainKey, user)).foreach { previous =>
+      model.profiles(previous).foreach { old =>
+        val oldKey = keyOf(old)
+        if (!profileKeys.contains(oldKey)) owners.remove(oldKey, mainKey)
+        emailKeyOf(old).filterNot(emailKey => emailKeys.contains(emailKey -> oldKey)).foreach(emails.remove(_, oldKey))
+      }
+    }
+    user
+  }
+
+  // the user a profile is saved into: its owner, or a new user keyed by the profile itself
+  private def ownerFor(key: ProfileKey, mode: SaveMode): ProfileKey = Option(owners.get(key)) match {
+    case Some(owner) if !mode.is(SaveMode.SignUp) || owner != key => owner
+    case _ => key
+  }
+
+  @tailrec
+  private def locally(profile: BasicProfile, mode: SaveMode): U = {
+    val key = keyOf(profile)
+    val owner = ownerFor(key, mode)
+    // the owner is read again holding its lock, a concurrent link or save may have moved the profile
+    val saved = withLock(owner) {
+      if (ownerFor(key, mode) != owner) {
+        None
+      } else {
+        Some(Option(users.get(owner)) match {
+          case Some(user) if owner != key || !mode.is(SaveMode.SignUp) => store(model.withProfile(user, profile))
+          case _ => store(model.create(profile))
+        })
+      }
+    }
+    saved match {
+      case Some(user) => user
+      case None => locally(profile, mode)
+    }
+  }
+
+  override def find(providerId: String, userId: String): Future[Option[BasicProfile]] =
+    find(providerId, userId, ReadConsistency.Primary)
+
+  // the hints are passed to the backing service for the lookups that miss the indexes
+  override def find(providerId: String, userId: String, consistency: ReadConsistency): Future[Option[BasicProfile]] = {
+    val key = ProfileKey(providerId, userId)
+    cached match {
+      case Some(cache) =>
+        cache.profiles.get(key) match {
+          case found @ Some(_) => Future.successful(found)
+          case None =>
+            cache.service.find(providerId, userId, consistency).map { found =>
+              found.foreach(cache.profiles.put(key, _))
+              found
+            }
+        }
+      case None =>
+        Future.successful(profileFor(key))
+    }
+  }
+
+  override def findByEmailAndProvider(email: String, providerId: String): Future[Option[BasicProfile]] =
+    findByEmailAndProvider(email, providerId, ReadConsistency.Primary)
+
+  override def findByEmailAndProvider(email: String, providerId: String, consistency: ReadConsistency): Future[Option[BasicProfile]] = {
+    val key = EmailKey(email, providerId)
+    cached match {
+      case Some(cache) =>
+        cache.emails.get(key) match {
+          case found @ Some(_) => Future.successful(found)
+          case None =>
+            cache.service.findByEmailAndProvider(email, providerId, consistency).map { found =>
+              found.foreach(cache.emails.put(key, _))
+              found
+            }
+        }
+      case None =>
+        Future.successful(Option(emails.get(key)).flatMap(profileFor))
+    }
+  }
+
+  override def save(profile: BasicProfile, mode: SaveMode): Future[U] = cached match {
+    case Some(cache) =>
+      cache.service.save(profile, mode).map(cache.put)
+    case None =>
+      Future.successful(locally(profile, mode))
+  }
+
+  override def update(profile: BasicProfile, changes: ProfileChanges): Future[U] = cached match {
+    case Some(cache) =>
+      cache.service.update(profile, changes).map(cache.put)
+    case None =>
+      // nothing to write if the stored profile is the same
+      val stored = if (changes.isEmpty) Option(owners.get(keyOf(profile))).flatMap(owner => Option(users.get(owner))) else None
+      Future.successful(stored.getOrElse(locally(profile, SaveMode.LoggedIn)))
+  }
+
+  override def link(current: U, to: BasicProfile): Future[U] = cached match {
+    case Some(cache) =>
+      cache.service.link(current, to).map(cache.put)
+    case None =>
+      val mainKey = keyOf(model.main(current))
+      Future.successful {
+        withLock(mainKey) {
+          val user = Option(users.get(mainKey)).getOrElse(current)
+          if (model.profiles(user).exists(keyOf(_) == keyOf(to))) user else store(model.withProfile(user, to))
+        }
+      }
+  }
+
+  override def passwordInfoFor(user: U): Future[Option[PasswordInfo]] =
+    passwordInfoFor(user, ReadConsistency.Primary)
+
+  override def passwordInfoFor(user: U, consistency: ReadConsistency): Future[Option[PasswordInfo]] = {
+    val mainKey = keyOf(model.main(user))
+    def passwordProfileOf(stored: Option[U]) =
+      stored.flatMap(model.profiles(_).find(_.providerId == UsernamePasswordProvider.UsernamePassword))
+    cached match {
+      case Some(cache) =>
+        passwordProfileOf(cache.users.get(mainKey)) match {
+          case Some(profile) => Future.successful(profile.passwordInfo)
+          case None => cache.service.passwordInfoFor(user, consistency)
+        }
+      case None =>
+        Future.successful(passwordProfileOf(Option(users.get(mainKey))).flatMap(_.passwordInfo))
+    }
+  }
+
+  override def updatePasswordInfo(user: U, info: PasswordInfo): Future[Option[BasicProfile]] = {
+    def updateLocally(): Option[BasicProfile] = {
+      val mainKey = keyOf(model.main(user))
+      withLock(mainKey) {
+        val current = Option(users.get(mainKey)).getOrElse(user)
+        model.profiles(current).find(_.providerId == UsernamePasswordProvider.UsernamePassword).map { profile =>
+          val updated = profile.copy(passwordInfo = Some(info))
+          store(model.withProfile(current, updated))
+          updated
+        }
+      }
+    }
+    cached match {
+      case Some(cache) =>
+        cache.service.updatePasswordInfo(user, info).map { result =>
+          // the cached user is replaced, or dropped if the backing service didn't return the profile
+          val mainKey = keyOf(model.main(user))
+          cache.users.get(mainKey).foreach { stored =>
+            result match {
+              case Some(updated) => cache.put(model.withProfile(stored, updated))
+              case None => cache.users.remove(mainKey)
+            }
+          }
+          result
+        }
+      case None =>
+        Future.successful(updateLocally())
+    }
+  }
+
+  override def updateOAuth2Info(profile: BasicProfile, info: OAuth2Info): Future[U] = cached match {
+    case Some(cache) =>
+      cache.service.updateOAuth2Info(profile, info).map(cache.put)
+    case None =>
+      Future.successful(locally(profile.copy(oAuth2Info = Some(info)), SaveMode.LoggedIn))
+  }
+
+  private def storeToken(token: MailToken): MailToken = {
+    Option(tokens.put(token.uuid, token)).foreach { previous =>
+      expirations.remove(TokenExpiration(previous.expirationTime.getMillis, previous.uuid))
+    }
+    expirations.add(TokenExpiration(token.expirationTime.getMillis, token.uuid))
+    token
+  }
+
+  private def removeToken(uuid: String): Option[MailToken] = {
+    val removed = Option(tokens.remove(uuid))
+    removed.foreach { token => expirations.remove(TokenExpiration(token.expirationTime.getMillis, uuid)) }
+    removed
+  }
+
+  override def saveToken(token: MailToken): Future[MailToken] = backing match {
+    case Some(service) => service.saveToken(token).map(storeToken)
+    case None => Future.successful(storeToken(token))
+  }
+
+  override def findToken(token: String): Future[Option[MailToken]] =
+    findToken(token, ReadConsistency.Primary)
+
+  override def findToken(token: String, consistency: ReadConsistency): Future[Option[MailToken]] = {
+    Option(tokens.get(token)) match {
+      case found @ Some(_) => Future.successful(found)
+      case None => backing.map(_.findToken(token, consistency)).getOrElse(Future.successful(None))
+    }
+  }
+
+  override def deleteToken(uuid: String): Future[Option[MailToken]] = backing match {
+    case Some(service) => service.deleteToken(uuid).map { deleted => removeToken(uuid).orElse(deleted) }
+    case None => Future.successful(removeToken(uuid))
+  }
+
+  override def deleteExpiredTokens(): Unit = {
+    val now = System.currentTimeMillis()
+    var deleted = 0
+    var next = expirations.pollFirst()
+    while (next != null && next.expiresAt <= now) {
+      Option(tokens.get(next.uuid)).filter(_.expirationTime.getMillis == next.expiresAt).foreach { token =>
+        tokens.remove(token.uuid, token)
+        deleted += 1
+      }
+      next = expirations.pollFirst()
+    }
+    // the first one that did not expire goes back
+    if (next != null) expirations.add(next)
+    logger.debug(s"[securesocial] deleted $deleted expired tokens")
+    backing.foreach(_.deleteExpiredTokens())
+  }
+
+  /**
+   * The number of users kept in memory
+   */
+  def size: Int = cached.map(_.users.size).getOrElse(users.size())
+}
+
+object IndexedUserService {
+  val DefaultLockStripes = 64
+  val DefaultMaxCachedUsers = 10000
+  val DefaultCacheTtlInSeconds = 300
+
+  private case class ProfileKey(providerId: String, userId: String)
+
+  private case class EmailKey(email: String, providerId: String)
+
+  private case class TokenExpiration(expiresAt: Long, uuid: String) extends Comparable[TokenExpiration] {
+    override def compareTo(o: TokenExpiration): Int = {
+      val byTime = java.lang.Long.compare(expiresAt, o.expiresAt)
+      if (byTime != 0) byTime else uuid.compareTo(o.uuid)
+    }
+  }
+}
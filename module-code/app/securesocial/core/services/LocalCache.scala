@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import java.util.{ LinkedHashMap => JLinkedHashMap, Map => JMap }
+
+/**
+ * A bounded in-process cache with a fixed time to live for its entries.
+ *
+ * The entries are spread over a number of segments, each one guarded by its own lock.  When a segment
+ * is full the least recently used entry in it is evicted.  Expired entries are dropped when they are read.
+ *
+ * @param maxEntries the maximum number of entries kept in the cache
+ * @param ttlInMillis the time an entry is kept since it was added
+ * @param segments the number of independently locked segments
+ * @tparam K the key type
+ * @tparam V the value type
+ */
+class LocalCache[K, V](maxEntries: Int, ttlInMillis: Long, segments: Int = LocalCache.DefaultSegments) {
+  require(maxEntries > 0, "maxEntries must be greater than zero")
+  require(segments > 0, "segments must be greater than zero")
+
+  private class Entry(val value: V, val expiresAt: Long)
+
+  private class Segment(capacity: Int) extends JLinkedHashMap[K, Entry](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JMap.Entry[K, Entry]): Boolean = size() > capacity
+  }
+
+  private val segmentCount = math.min(segments, maxEntries)
+  private val segmentCapacity = (maxEntries + segmentCount - 1) / segmentCount
+  private val table = Array.fill(segmentCount)(new Segment(segmentCapacity))
+
+  private def segmentFor(key: K): Segment = {
+    val h = key.hashCode
+    table(((h ^ (h >>> 16)) & Int.MaxValue) % segmentCount)
+  }
+
+  private def now: Long = System.currentTimeMillis()
+
+  /**
+   * Returns the value associated with a key if it has not expired yet
+   *
+   * @param key the key
+   * @return an optional value
+   */
+  def get(key: K): Option[V] = {
+    val segment = segmentFor(key)
+    segment.synchronized {
+      val entry = segment.get(key)
+      if (entry == null) {
+        None
+      } else if (entry.expiresAt <= now) {
+        segment.remove(key)
+        None
+      } else {
+        Some(entry.value)
+      }
+    }
+  }
+
+  /**
+   * Adds or replaces a value
+   *
+   * @param key the key
+   * @param value the value
+   */
+  def put(key: K, value: V): Unit = {
+    val segment = segmentFor(key)
+    segment.synchronized {
+      segment.put(key, new Entry(value, now + ttlInMillis))
+    }
+  }
+
+  /**
+   * Returns the value associated with a key or adds the one computed by op. The computation runs while the
+   * segment is locked so it must not block; it is meant to start asynchronous work (eg: returning a Future).
+   *
+   * @param key the key
+   * @param op the computation invoked when there is no live entry for the key
+   * @return the existing or the newly added value
+   */
+  def getOrElseUpdate(key: K)(op: => V): V = {
+    val segment = segmentFor(key)
+    segment.synchronized {
+      val entry = segment.get(key)
+      if (entry != null && entry.expiresAt > now) {
+        entry.value
+      } else {
+        val value = op
+        segment.put(key, new Entry(value, now + ttlInMillis))
+        value
+      }
+    }
+  }
+
+  /**
+   * Removes an entry
+   *
+   * @param key the key
+   * @return the removed value if there was one
+   */
+  def remove(key: K): Option[V] = {
+    val segment = segmentFor(key)
+    segment.synchronized {
+      Option(segment.remove(key)).map(_.value)
+    }
+  }
+
+  /**
+   * Removes an entry only if it is currently associated with the given value
+   *
+   * @param key the key
+   * @param value the expected value
+   * @return true if the entry was removed
+   */
+  def remove(key: K, value: V): Boolean = {
+    val segment = segmentFor(key)
+    segment.synchronized {
+      val entry = segment.get(key)
+      if (entry != null && entry.value == value) {
+        segment.remove(key)
+        true
+      } else {
+        false
+      }
+    }
+  }
+
+  /**
+   * Removes all the entries
+   */
+  def clear(): Unit = table.foreach { segment => segment.synchronized { segment.clear() } }
+
+  /**
+   * The number of entries in the cache (including the ones that expired but were not read yet)
+   */
+  def size: Int = table.map { segment => segment.synchronized { segment.size() } }.sum
+}
+
+object LocalCache {
+  val DefaultSegments = 16
+}
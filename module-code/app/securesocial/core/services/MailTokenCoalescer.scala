@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import java.util.concurrent.atomic.AtomicLong
+
+import io.methvin.play.autoconfig.AutoConfig
+import play.api.{ ConfigLoader, Configuration }
+import securesocial.core.providers.MailToken
+
+import scala.concurrent.{ ExecutionContext, Future, Promise }
+import scala.util.{ Failure, Success }
+
+/**
+ * Coalesces the sign up and password reset requests made for the same email address.  The first request within
+ * the window creates a token, saves it and sends the email; the requests that follow during the window get the
+ * same token back and don't save or send anything, so double submits, retries and scripted requests don't
+ * multiply the writes and the emails.
+ *
+ * The live tokens are kept in a bounded in memory map.  When a CacheService is given the tokens are shared
+ * through it too, so the requests are coalesced across the nodes of a cluster.  The sharing relies on
+ * CacheService.setIfAbsent; unless the cache implements it atomically, requests that reach two nodes at the
+ * same time can both send an email.
+ *
+ * @param config the coalescing settings
+ * @param shared an optional cache to share the tokens with other nodes
+ */
+class MailTokenCoalescer(config: MailTokenCoalescerConfig, shared: Option[CacheService] = None)(implicit val executionContext: ExecutionContext) {
+  import MailTokenCoalescer._
+
+  private val enabled = config.windowInSeconds > 0
+  private val live = new LocalCache[String, Future[MailToken]](config.maxEntries, config.windowInSeconds * 1000L)
+  private val requestCount = new AtomicLong()
+  private val duplicateCount = new AtomicLong()
+
+  private def keyFor(email: String, isSignUp: Boolean) =
+    s"${if (isSignUp) "signup" else "reset"}:${email.toLowerCase}"
+
+  /**
+   * Returns the live token for an email, or creates and delivers a new one
+   *
+   * @param email the email address
+   * @param isSignUp whether the token is for a sign up or a password reset
+   * @param create creates a new token
+   * @param deliver saves and sends a new token.  It is not invoked for the duplicate requests.
+   * @return the token
+   */
+  def coalesce(email: String, isSignUp: Boolean)(create: => Future[MailToken])(deliver: MailToken => Future[MailToken]): Future[MailToken] = {
+    requestCount.incrementAndGet()
+    if (!enabled) {
+      create.flatMap(deliver)
+    } else {
+      val key = keyFor(email, isSignUp)
+      val promise = Promise[MailToken]()
+      val existing = live.getOrElseUpdate(key)(promise.future)
+      if (existing ne promise.future) {
+        existing.value match {
+          case Some(Success(token)) if token.isExpired =>
+            live.remove(key, existing)
+            requestCount.decrementAndGet()
+            coalesce(email, isSignUp)(create)(deliver)
+          case _ =>
+            duplicateCount.incrementAndGet()
+            existing
+        }
+      } else {
+        val result = create.flatMap { token =>
+          shared match {
+            case Some(cache) =>
+              cache.setIfAbsent(SharedPrefix + key, token, config.windowInSeconds).flatMap {
+                case true =>
+                  deliver(token).andThen { case Failure(_) => cache.remove(SharedPrefix + key) }
+                case false =>
+                  cache.getAs[MailToken](SharedPrefix + key).flatMap {
+                    case Some(other) if !other.isExpired =>
+                      duplicateCount.incrementAndGet()
+                      Future.successful(other)
+                    case _ =>
+                      deliver(token)
+                  }
+              }
+            case None =>
+              deliver(token)
+          }
+        }
+        // a failed delivery must not hold back the next request
+        result.onComplete {
+          case Failure(_) => live.remove(key, promise.future)
+          case _ =>
+        }
+        promise.completeWith(result)
+        promise.future
+      }
+    }
+  }
+
+  /**
+   * Forgets the live token for an email, eg: once it was used
+   *
+   * @param email the email address
+   * @param isSignUp whether the token is for a sign up or a password reset
+   */
+  def forget(email: String, isSignUp: Boolean): Future[Unit] = {
+    val key = keyFor(email, isSignUp)
+    live.remove(key)
+    shared.map(_.remove(SharedPrefix + key)).getOrElse(Future.successful(()))
+  }
+
+  /**
+   * The number of requests and how many of them were coalesced
+   */
+  def stats: Stats = Stats(requestCount.get, duplicateCount.get)
+}
+
+object MailTokenCoalescer {
+  private val SharedPrefix = "securesocial.mailToken."
+
+  case class Stats(requests: Long, duplicates: Long) {
+    def duplicateRate: Double = if (requests == 0) 0 else duplicates.toDouble / requests
+  }
+}
+
+/**
+ * The settings for the MailTokenCoalescer
+ *
+ * @param windowInSeconds how long the requests for an email are coalesced.  Zero disables the coalescing.
+ * @param maxEntries the maximum number of live tokens kept in memory
+ * @param shared whether the tokens are shared through the CacheService
+ */
+case class MailTokenCoalescerConfig(windowInSeconds: Int, maxEntries: Int, shared: Boolean)
+
+object MailTokenCoalescerConfig {
+  implicit val configLoader: ConfigLoader[MailTokenCoalescerConfig] = AutoConfig.loader
+
+  def fromConfiguration(configuration: Configuration): MailTokenCoalescerConfig =
+    configuration.get[MailTokenCoalescerConfig]("securesocial.mailTokenCoalescer")
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013-2014 Jorge Aliss (jaliss at gmail dot com) - twitter: @jaliss
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package securesocial.core.services
+
+import scala.concurrent.{ ExecutionContext, ExecutionContextExecutor }
+
+/**
+ * An ExecutionContext that runs the callbacks in the thread that completes the future (or registers the
+ * callback if the future is already completed).  It saves a thread hop for short, non blocking callbacks
+ * like the ones that just transform a value; anything that could block must use a regular ExecutionContext.
+ */
+object SameThreadExecutionContext extends ExecutionContextExecutor {
+  private val logger = play.api.Logger("securesocial.core.services.SameThreadExecutionContext")
+
+  override def execute(runnable: Runnable): Unit = runnable.run()
+
+  override def reportFailure(cause: Throwable): Unit =
+    logger.error("[securesocial] error running a callback", cause)
+
+  /**
+   * The context as an implicit, to be imported where needed
+   */
+  object Implicits {
+    implicit val sameThread: ExecutionContext = SameThreadExecutionContext
+  }
+}
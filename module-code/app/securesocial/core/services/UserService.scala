@@ -17,7 +17,7 @@
 package securesocial.core.services
 
 import scala.concurrent.Future
-import securesocial.core.{ PasswordInfo, BasicProfile }
+import securesocial.core.{ OAuth2Info, PasswordInfo, BasicProfile }
 import securesocial.core.providers.MailToken
 
 trait UserService[U] {
@@ -31,6 +31,18 @@ trait UserService[U] {
    */
   def find(providerId: String, userId: String): Future[Option[BasicProfile]]
 
+  /**
+   * Finds a profile telling the implementation if it can be read from a replica.  By default the
+   * hint is ignored, override it to route the reads.
+   *
+   * @param providerId the provider id
+   * @param userId the user id
+   * @param consistency the consistency the caller needs
+   * @return an optional profile
+   */
+  def find(providerId: String, userId: String, consistency: ReadConsistency): Future[Option[BasicProfile]] =
+    find(providerId, userId)
+
   /**
    * Finds a profile by email and provider
    *
@@ -40,6 +52,17 @@ trait UserService[U] {
    */
   def findByEmailAndProvider(email: String, providerId: String): Future[Option[BasicProfile]]
 
+  /**
+   * Finds a profile by email and provider telling the implementation if it can be read from a replica
+   *
+   * @param email - the user email
+   * @param providerId - the provider id
+   * @param consistency the consistency the caller needs
+   * @return an optional profile
+   */
+  def findByEmailAndProvider(email: String, providerId: String, consistency: ReadConsistency): Future[Option[BasicProfile]] =
+    findByEmailAndProvider(email, providerId)
+
   /**
    * Saves a profile.  This method gets called when a user logs in, registers or changes his password.
    * This is your chance to save the user information in your backing store.
@@ -49,6 +72,18 @@ trait UserService[U] {
    */
   def save(profile: BasicProfile, mode: SaveMode): Future[U]
 
+  /**
+   * Saves the profile of an existing user that logged in again.  The changes tell which fields differ from the
+   * stored profile, often none or just the tokens.  By default it calls save with SaveMode.LoggedIn; override it
+   * to skip the write when nothing changed or to write only the changed fields.
+   *
+   * @param profile the profile returned by the provider
+   * @param changes the fields that changed since the stored profile
+   * @return the user the profile belongs to
+   */
+  def update(profile: BasicProfile, changes: ProfileChanges): Future[U] =
+    save(profile, SaveMode.LoggedIn)
+
   /**
    * Links the current user to another profile
    *
@@ -65,6 +100,17 @@ trait UserService[U] {
    */
   def passwordInfoFor(user: U): Future[Option[PasswordInfo]]
 
+  /**
+   * Returns an optional PasswordInfo instance for a given user telling the implementation if it can be
+   * read from a replica
+   *
+   * @param user a user instance
+   * @param consistency the consistency the caller needs
+   * @return returns an optional PasswordInfo
+   */
+  def passwordInfoFor(user: U, consistency: ReadConsistency): Future[Option[PasswordInfo]] =
+    passwordInfoFor(user)
+
   /**
    * Updates the PasswordInfo for a given user
    *
@@ -74,6 +120,18 @@ trait UserService[U] {
    */
   def updatePasswordInfo(user: U, info: PasswordInfo): Future[Option[BasicProfile]]
 
+  /**
+   * Updates the OAuth2Info of a profile after its access token was refreshed in the background
+   * (see securesocial.core.OAuth2TokenRefresher).  By default the updated profile is saved using
+   * SaveMode.LoggedIn, override it if only the token should be written.
+   *
+   * @param profile the profile whose token was refreshed
+   * @param info the new OAuth2Info
+   * @return the user the profile belongs to
+   */
+  def updateOAuth2Info(profile: BasicProfile, info: OAuth2Info): Future[U] =
+    save(profile.copy(oAuth2Info = Some(info)), SaveMode.LoggedIn)
+
   /**
    * Saves a mail token.  This is needed for users that
    * are creating an account in the system or trying to reset a password
@@ -96,6 +154,16 @@ trait UserService[U] {
    */
   def findToken(token: String): Future[Option[MailToken]]
 
+  /**
+   * Finds a token telling the implementation if it can be read from a replica
+   *
+   * @param token the token id
+   * @param consistency the consistency the caller needs
+   * @return
+   */
+  def findToken(token: String, consistency: ReadConsistency): Future[Option[MailToken]] =
+    findToken(token)
+
   /**
    * Deletes a token
    *
@@ -128,3 +196,66 @@ object SaveMode {
   val SignUp = SaveMode("signUp")
   val PasswordChange = SaveMode("passwordChange")
 }
+
+/**
+ * The fields of a profile that changed between the stored version and the one returned by a provider
+ *
+ * @param previous the stored profile
+ * @param current the profile returned by the provider
+ */
+case class ProfileChanges(previous: BasicProfile, current: BasicProfile) {
+  import ProfileChanges._
+
+  /**
+   * The names of the fields that changed
+   */
+  lazy val fields: Set[String] = Seq(
+    FirstName -> (previous.firstName != current.firstName),
+    LastName -> (previous.lastName != current.lastName),
+    FullName -> (previous.fullName != current.fullName),
+    Email -> (previous.email != current.email),
+    AvatarUrl -> (previous.avatarUrl != current.avatarUrl),
+    AuthMethod -> (previous.authMethod != current.authMethod),
+    OAuth1Info -> (previous.oAuth1Info != current.oAuth1Info),
+    OAuth2Info -> (previous.oAuth2Info != current.oAuth2Info),
+    PasswordInfo -> (previous.passwordInfo != current.passwordInfo)).collect { case (field, true) => field }.toSet
+
+  def isEmpty: Boolean = fields.isEmpty
+
+  def nonEmpty: Boolean = fields.nonEmpty
+
+  def contains(field: String): Boolean = fields.contains(field)
+
+  /**
+   * True if something changed and it was only the tokens or the password
+   */
+  def onlyCredentials: Boolean = nonEmpty && fields.subsetOf(Credentials)
+}
+
+object ProfileChanges {
+  val FirstName = "firstName"
+  val LastName = "lastName"
+  val FullName = "fullName"
+  val Email = "email"
+  val AvatarUrl = "avatarUrl"
+  val AuthMethod = "authMethod"
+  val OAuth1Info = "oAuth1Info"
+  val OAuth2Info = "oAuth2Info"
+  val PasswordInfo = "passwordInfo"
+
+  val Credentials = Set(OAuth1Info, OAuth2Info, PasswordInfo)
+}
+
+/**
+ * Tells a UserService where a read can be served from.  The reads made right before a write that depends on
+ * them, or that check credentials, use Primary: they must see the latest writes.  The others use Replica and
+ * can be served from a replica that might be slightly behind.
+ */
+case class ReadConsistency(name: String) {
+  def is(c: ReadConsistency): Boolean = this == c
+}
+
+object ReadConsistency {
+  val Primary = ReadConsistency("primary")
+  val Replica = ReadConsistency("replica")
+}
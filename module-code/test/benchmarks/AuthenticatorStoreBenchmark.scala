@@ -0,0 +1,81 @@
+package benchmarks
+
+import java.nio.file.Files
+import java.util.concurrent.{ CountDownLatch, Executors, TimeUnit }
+import java.util.concurrent.atomic.AtomicLong
+
+import helpers.Authenticators.{ A, headerAuthenticator }
+import helpers.InMemoryCacheService
+import securesocial.core.authenticator._
+
+import scala.concurrent.duration._
+import scala.concurrent.{ Await, ExecutionContext }
+
+/**
+ * Compares the find and save throughput of the AuthenticatorStore implementations.
+ *
+ * Run it with: sbt "core/test:runMain benchmarks.AuthenticatorStoreBenchmark [threads] [seconds] [sessions]"
+ */
+object AuthenticatorStoreBenchmark {
+  implicit val executionContext: ExecutionContext = helpers.sequentialExecutionContext
+
+  def main(args: Array[String]): Unit = {
+    val threads = args.headOption.map(_.toInt).getOrElse(Runtime.getRuntime.availableProcessors())
+    val seconds = if (args.length > 1) args(1).toInt else 10
+    val sessions = if (args.length > 2) args(2).toInt else 50000
+
+    val directory = Files.createTempDirectory("securesocial-benchmark").toFile
+    directory.deleteOnExit()
+    val mappedConfig = MappedFileStoreConfig(directory.getAbsolutePath, slots = sessions * 2, slotSizeInBytes = 2048,
+      bucketSize = 16, lockStripes = 256, syncOnWrite = false, compactionIntervalInSeconds = 300, decodedCacheSize = 4096)
+
+    val stores = Seq(
+      "Default (in memory cache)" -> new AuthenticatorStore.Default[A](new InMemoryCacheService),
+      "MappedFile" -> MappedFileAuthenticatorStore[A]("benchmark.db", mappedConfig))
+
+    println(s"threads = $threads, seconds = $seconds, sessions = $sessions")
+    stores.foreach {
+      case (name, store) =>
+        val ids = (0 until sessions).map(i => f"$i%0256x").toArray
+        ids.foreach(id => Await.result(store.save(headerAuthenticator(id, s"user-$id", store), 3600), 1.second))
+        // warm up
+        run(store, ids, threads, 2, findRatio = 0.9)
+        val (finds, saves) = run(store, ids, threads, seconds, findRatio = 0.9)
+        println(f"$name%-28s find: ${finds / seconds}%,10d ops/s  save: ${saves / seconds}%,10d ops/s")
+    }
+  }
+
+  def run(store: AuthenticatorStore[A], ids: Array[String], threads: Int, seconds: Int, findRatio: Double): (Long, Long) = {
+    val finds = new AtomicLong()
+    val saves = new AtomicLong()
+    val deadline = System.nanoTime() + seconds.seconds.toNanos
+    val done = new CountDownLatch(threads)
+    val pool = Executors.newFixedThreadPool(threads)
+    (0 until threads).foreach { _ =>
+      pool.execute(new Runnable {
+        def run(): Unit = {
+          val random = java.util.concurrent.ThreadLocalRandom.current()
+          var localFinds = 0L
+          var localSaves = 0L
+          while (System.nanoTime() < deadline) {
+            val id = ids(random.nextInt(ids.length))
+            if (random.nextDouble() < findRatio) {
+              Await.result(store.find(id), 1.second)
+              localFinds += 1
+            } else {
+              Await.result(store.save(headerAuthenticator(id, s"user-$id", store), 3600), 1.second)
+              localSaves += 1
+            }
+          }
+          finds.addAndGet(localFinds)
+          saves.addAndGet(localSaves)
+          done.countDown()
+        }
+      })
+    }
+    done.await()
+    pool.shutdown()
+    pool.awaitTermination(1, TimeUnit.SECONDS)
+    (finds.get, saves.get)
+  }
+}
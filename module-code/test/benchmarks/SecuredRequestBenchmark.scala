@@ -0,0 +1,133 @@
+package benchmarks
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+import akka.actor.ActorSystem
+import helpers.InMemoryCacheService
+import org.mockito.Mockito.mock
+import play.api.cache.AsyncCacheApi
+import play.api.i18n.{ DefaultMessagesApi, MessagesApi }
+import play.api.libs.mailer.MailerClient
+import play.api.libs.ws.WSClient
+import play.api.mvc.{ AnyContentAsEmpty, PlayBodyParsers, Result, Results }
+import play.api.test.FakeRequest
+import play.api.{ Configuration, Environment }
+import securesocial.core._
+import securesocial.core.SecureSocial.{ RequestWithUser, SecuredRequest }
+import securesocial.core.authenticator._
+import securesocial.core.services.{ AuthenticatorService, SameThreadExecutionContext, UserService }
+
+import scala.concurrent.duration._
+import scala.concurrent.{ Await, ExecutionContext, ExecutionContextExecutor, Future }
+import scala.reflect.ClassTag
+
+/**
+ * Measures the executor hops and the bytes allocated by SecuredAction and UserAwareAction for a request
+ * with a valid header authenticator.  Each action runs against a store whose futures are already completed
+ * (like the in memory cache) and one whose futures complete in another thread (like a remote cache).
+ *
+ * Run it with: sbt "core/test:runMain benchmarks.SecuredRequestBenchmark [requests]"
+ */
+object SecuredRequestBenchmark {
+  type A = HttpHeaderAuthenticator[BasicProfile]
+
+  /**
+   * Counts the tasks submitted to the global ExecutionContext
+   */
+  object CountingExecutionContext extends ExecutionContextExecutor {
+    val executed = new AtomicLong()
+    override def execute(runnable: Runnable): Unit = {
+      executed.incrementAndGet()
+      ExecutionContext.global.execute(runnable)
+    }
+    override def reportFailure(cause: Throwable): Unit = ExecutionContext.global.reportFailure(cause)
+  }
+
+  implicit val executionContext: ExecutionContext = CountingExecutionContext
+
+  /**
+   * The threads of a remote cache client, they are not counted as hops
+   */
+  val remote: ExecutionContext = ExecutionContext.fromExecutor(Executors.newFixedThreadPool(4, new java.util.concurrent.ThreadFactory {
+    override def newThread(runnable: Runnable): Thread = {
+      val thread = new Thread(runnable, "remote-cache")
+      thread.setDaemon(true)
+      thread
+    }
+  }))
+
+  /**
+   * A store whose results are completed in the remote threads
+   */
+  class RemoteStore(underlying: AuthenticatorStore[A]) extends AuthenticatorStore[A] {
+    private def later[T](call: => Future[T]): Future[T] = Future(())(remote).flatMap(_ => call)(SameThreadExecutionContext)
+
+    override def find(id: String)(implicit ct: ClassTag[A]): Future[Option[A]] = later(underlying.find(id))
+    override def save(authenticator: A, timeoutInSeconds: Int): Future[A] = later(underlying.save(authenticator, timeoutInSeconds))
+    override def delete(id: String): Future[Unit] = later(underlying.delete(id))
+  }
+
+  class BenchmarkEnvironment(store: AuthenticatorStore[A]) extends RuntimeEnvironment.Default {
+    override type U = BasicProfile
+    override implicit def executionContext: ExecutionContext = CountingExecutionContext
+    override val configuration: Configuration = Configuration.reference ++ Configuration(
+      "securesocial.applicationHost" -> "localhost")
+    override val environment: Environment = Environment.simple()
+    override val wsClient: WSClient = mock(classOf[WSClient])
+    override val cacheApi: AsyncCacheApi = mock(classOf[AsyncCacheApi])
+    override val mailerClient: MailerClient = mock(classOf[MailerClient])
+    override val parsers: PlayBodyParsers = mock(classOf[PlayBodyParsers])
+    override val actorSystem: ActorSystem = mock(classOf[ActorSystem])
+    override val messagesApi: MessagesApi = new DefaultMessagesApi()
+    override lazy val userService: UserService[BasicProfile] = mock(classOf[UserService[BasicProfile]])
+    override lazy val authenticatorService: AuthenticatorService[U] = new AuthenticatorService(
+      new HttpHeaderAuthenticatorBuilder[U](store, idGenerator, httpHeaderConfig, authenticatorIdFilter))
+  }
+
+  class BenchmarkController(implicit override val env: BenchmarkEnvironment) extends SecureSocial
+
+  val user = BasicProfile("benchmark", "user", None, None, None, None, None, AuthenticationMethod.UserPassword)
+
+  private val threads = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+
+  private def allocatedBytes: Long = threads.getThreadAllocatedBytes(threads.getAllThreadIds).filter(_ > 0).sum
+
+  def measure(name: String, requests: Int)(action: () => Future[Result]): Unit = {
+    // warm up
+    (0 until requests).foreach(_ => Await.result(action(), 1.second))
+    val hops = CountingExecutionContext.executed.get
+    val bytes = allocatedBytes
+    val start = System.nanoTime()
+    (0 until requests).foreach(_ => Await.result(action(), 1.second))
+    val elapsed = System.nanoTime() - start
+    val hopsPerRequest = (CountingExecutionContext.executed.get - hops).toDouble / requests
+    val bytesPerRequest = (allocatedBytes - bytes).toDouble / requests
+    println(f"$name%-36s ${requests / (elapsed / 1e9)}%,12.0f requests/s  $hopsPerRequest%6.2f hops/request  $bytesPerRequest%,10.0f bytes/request")
+  }
+
+  def benchmark(name: String, store: AuthenticatorStore[A], requests: Int): Unit = {
+    val controller = new BenchmarkController()(new BenchmarkEnvironment(store))
+    val authenticator = Await.result(controller.env.authenticatorService.find(HttpHeaderAuthenticator.Id).get.fromUser(user), 1.second)
+    val request = FakeRequest().withHeaders(controller.env.httpHeaderConfig.name -> authenticator.id)
+
+    measure(s"SecuredAction, $name", requests) { () =>
+      controller.SecuredAction.invokeBlock(request, { secured: SecuredRequest[AnyContentAsEmpty.type, BasicProfile] =>
+        Future.successful(Results.Ok(secured.user.userId))
+      })
+    }
+    measure(s"UserAwareAction, $name", requests) { () =>
+      controller.UserAwareAction.invokeBlock(request, { userAware: RequestWithUser[AnyContentAsEmpty.type, BasicProfile] =>
+        Future.successful(Results.Ok(userAware.user.map(_.userId).getOrElse("")))
+      })
+    }
+  }
+
+  def main(args: Array[String]): Unit = {
+    val requests = args.headOption.map(_.toInt).getOrElse(200000)
+    println(s"requests = $requests")
+    benchmark("completed store", new AuthenticatorStore.Default[A](new InMemoryCacheService), requests)
+    benchmark("remote store", new RemoteStore(new AuthenticatorStore.Default[A](new InMemoryCacheService)), requests)
+  }
+}
@@ -0,0 +1,26 @@
+package helpers
+
+import org.joda.time.DateTime
+import securesocial.core.authenticator.{ AuthenticatorStore, HttpHeaderAuthenticator, HttpHeaderConfig }
+
+/**
+ * Builds the header authenticators saved by the store specs and benchmarks.
+ */
+object Authenticators {
+  type A = HttpHeaderAuthenticator[String]
+
+  val headerConfig = HttpHeaderConfig("X-Auth-Token", 30, 720)
+
+  /**
+   * The store given to the authenticators that are only saved to other stores.  The store field of an
+   * authenticator is not persisted, but one is needed to build it.
+   */
+  lazy val defaultStore: AuthenticatorStore[A] =
+    new AuthenticatorStore.Default[A](new InMemoryCacheService)(sequentialExecutionContext)
+
+  def headerAuthenticator(id: String, user: String = "user", store: AuthenticatorStore[A] = defaultStore): A = {
+    val now = DateTime.now()
+    HttpHeaderAuthenticator[String](id, user, now.plusMinutes(headerConfig.absoluteTimeoutInMinutes), now, now,
+      headerConfig, store)
+  }
+}
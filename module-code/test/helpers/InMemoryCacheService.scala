@@ -0,0 +1,51 @@
+package helpers
+
+import java.util.concurrent.ConcurrentHashMap
+
+import securesocial.core.services.CacheService
+
+import scala.concurrent.Future
+import scala.reflect.ClassTag
+
+/**
+ * A CacheService backed by a ConcurrentHashMap, entries expire when they are read after their ttl.
+ */
+class InMemoryCacheService extends CacheService {
+  private case class Entry(value: Any, expiresAt: Long)
+
+  private val entries = new ConcurrentHashMap[String, Entry]()
+
+  override def set[T](key: String, value: T, ttlInSeconds: Int): Future[Unit] = {
+    val expiresAt = if (ttlInSeconds > 0) System.currentTimeMillis() + ttlInSeconds * 1000L else Long.MaxValue
+    entries.put(key, Entry(value, expiresAt))
+    Future.successful(())
+  }
+
+  override def getAs[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = Future.successful {
+    Option(entries.get(key)) match {
+      case Some(entry) if entry.expiresAt > System.currentTimeMillis() => Some(entry.value.asInstanceOf[T])
+      case Some(entry) =>
+        entries.remove(key, entry)
+        None
+      case None => None
+    }
+  }
+
+  override def remove(key: String): Future[Unit] = {
+    entries.remove(key)
+    Future.successful(())
+  }
+
+  override def getAndRemove[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = Future.successful {
+    Option(entries.remove(key)).filter(_.expiresAt > System.currentTimeMillis()).map(_.value.asInstanceOf[T])
+  }
+
+  override def setIfAbsent[T](key: String, value: T, ttlInSeconds: Int): Future[Boolean] = {
+    val expiresAt = if (ttlInSeconds > 0) System.currentTimeMillis() + ttlInSeconds * 1000L else Long.MaxValue
+    val entry = Entry(value, expiresAt)
+    val current = entries.putIfAbsent(key, entry)
+    // an expired entry counts as absent
+    val set = current == null || (current.expiresAt <= System.currentTimeMillis() && entries.replace(key, current, entry))
+    Future.successful(set)
+  }
+}
@@ -0,0 +1,153 @@
+package helpers
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ ConcurrentLinkedQueue, CountDownLatch, Executors, TimeUnit }
+
+import play.api.libs.ws.{ WSClient, WSResponse }
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+/**
+ * Drives full login, secured request and logout cycles against a running application.
+ *
+ * Each virtual user runs its cycles sequentially on its own thread, following the redirects between the
+ * application and the authorization server by hand so the cookies of each user are kept apart.
+ *
+ * @param ws the client used for the requests
+ * @param baseUrl the application url (eg: http://localhost:19001)
+ * @param loginPath the path that starts the login for a provider (eg: /auth/authenticate/stub2)
+ * @param securedPath a path that requires an authenticated user
+ * @param logoutPath the logout path
+ */
+class LoginLoadDriver(ws: WSClient, baseUrl: String, loginPath: String, securedPath: String, logoutPath: String) {
+  import LoginLoadDriver._
+
+  private val timeout = 30.seconds
+
+  private class VirtualUser {
+    var cookies = Map[String, String]()
+
+    def call(url: String): WSResponse = {
+      val absolute = if (url.startsWith("http")) url else baseUrl + url
+      val request = ws.url(absolute).withFollowRedirects(false)
+      val withCookies = if (cookies.isEmpty) request else request.addHttpHeaders("Cookie" -> cookies.map { case (k, v) => s"$k=$v" }.mkString("; "))
+      val response = Await.result(withCookies.get(), timeout)
+      if (absolute.startsWith(baseUrl)) {
+        response.cookies.foreach { cookie =>
+          if (cookie.value.isEmpty || cookie.maxAge.exists(_ <= 0)) cookies -= cookie.name
+          else cookies += cookie.name -> cookie.value
+        }
+      }
+      response
+    }
+
+    def expect(response: WSResponse, status: Int => Boolean, step: String): WSResponse = {
+      if (!status(response.status)) throw new IllegalStateException(s"$step returned ${response.status}: ${response.body.take(200)}")
+      response
+    }
+
+    def location(response: WSResponse): String = response.header("Location").getOrElse {
+      throw new IllegalStateException(s"missing Location header, status = ${response.status}")
+    }
+
+    def cycle(timings: Timings): Unit = {
+      val redirect = (s: Int) => s >= 300 && s < 400
+      val start = System.nanoTime()
+      val toProvider = timed(timings.loginStart)(expect(call(loginPath), redirect, "login"))
+      val toCallback = expect(call(location(toProvider)), redirect, "authorization")
+      timed(timings.loginCallback)(expect(call(location(toCallback)), redirect, "callback"))
+      timings.login.add(System.nanoTime() - start)
+      timed(timings.secured)(expect(call(securedPath), _ == 200, "secured request"))
+      timed(timings.logout)(expect(call(logoutPath), redirect, "logout"))
+      timings.cycle.add(System.nanoTime() - start)
+    }
+  }
+
+  private def timed[T](into: ConcurrentLinkedQueue[java.lang.Long])(block: => T): T = {
+    val start = System.nanoTime()
+    val result = block
+    into.add(System.nanoTime() - start)
+    result
+  }
+
+  /**
+   * Runs the cycles
+   *
+   * @param users the number of concurrent virtual users
+   * @param cyclesPerUser the number of cycles run by each virtual user
+   * @return the report
+   */
+  def run(users: Int, cyclesPerUser: Int): Report = {
+    val timings = new Timings
+    val failures = new AtomicLong()
+    val pool = Executors.newFixedThreadPool(users)
+    val done = new CountDownLatch(users)
+    val start = System.nanoTime()
+    (0 until users).foreach { _ =>
+      pool.execute(new Runnable {
+        def run(): Unit = {
+          val user = new VirtualUser
+          (0 until cyclesPerUser).foreach { _ =>
+            try {
+              user.cycle(timings)
+            } catch {
+              case e: Exception =>
+                failures.incrementAndGet()
+                user.cookies = Map()
+                logger.debug(s"cycle failed: ${e.getMessage}")
+            }
+          }
+          done.countDown()
+        }
+      })
+    }
+    done.await()
+    val elapsed = System.nanoTime() - start
+    pool.shutdown()
+    pool.awaitTermination(1, TimeUnit.SECONDS)
+    Report(timings.cycle.size, failures.get, elapsed, Seq(
+      "login start" -> Percentiles(timings.loginStart),
+      "login callback" -> Percentiles(timings.loginCallback),
+      "full login" -> Percentiles(timings.login),
+      "secured request" -> Percentiles(timings.secured),
+      "logout" -> Percentiles(timings.logout),
+      "cycle" -> Percentiles(timings.cycle)))
+  }
+}
+
+object LoginLoadDriver {
+  private val logger = play.api.Logger("securesocial.test.LoginLoadDriver")
+
+  private class Timings {
+    val loginStart = new ConcurrentLinkedQueue[java.lang.Long]()
+    val loginCallback = new ConcurrentLinkedQueue[java.lang.Long]()
+    val login = new ConcurrentLinkedQueue[java.lang.Long]()
+    val secured = new ConcurrentLinkedQueue[java.lang.Long]()
+    val logout = new ConcurrentLinkedQueue[java.lang.Long]()
+    val cycle = new ConcurrentLinkedQueue[java.lang.Long]()
+  }
+
+  case class Percentiles(count: Int, p50: Double, p90: Double, p99: Double, max: Double) {
+    override def toString = f"n = $count%6d  p50 = $p50%8.2f ms  p90 = $p90%8.2f ms  p99 = $p99%8.2f ms  max = $max%8.2f ms"
+  }
+
+  object Percentiles {
+    def apply(samples: ConcurrentLinkedQueue[java.lang.Long]): Percentiles = {
+      val sorted = samples.asScala.map(_.longValue).toArray.sorted
+      def at(p: Double): Double =
+        if (sorted.isEmpty) 0 else sorted(math.min(sorted.length - 1, (p * sorted.length).toInt)) / 1e6
+      Percentiles(sorted.length, at(0.5), at(0.9), at(0.99), at(1.0))
+    }
+  }
+
+  case class Report(cycles: Int, failures: Long, elapsedNanos: Long, steps: Seq[(String, Percentiles)]) {
+    def throughput: Double = cycles / (elapsedNanos / 1e9)
+
+    override def toString: String = {
+      val header = f"cycles = $cycles, failures = $failures, elapsed = ${elapsedNanos / 1e9}%.2f s, throughput = $throughput%.2f cycles/s"
+      (header +: steps.map { case (name, p) => f"  $name%-16s $p" }).mkString("\n")
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package helpers
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import play.api.libs.ws.ahc.AhcWSClient
+import play.api.test.{ PlaySpecification, TestServer }
+import play.api.{ Application, Configuration, Environment }
+import securesocial.core.IdentityProvider
+import securesocial.core.services.{ HttpService, RoutesService }
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+
+/**
+ * A load test for the OAuth login flows of an application using SecureSocial.  The application is started
+ * with the providers of a StubOAuthServer and driven through login, secured request and logout cycles.
+ *
+ * It only runs when the securesocial.loadtest system property is set. These properties tune it:
+ *
+ * securesocial.loadtest.users: the number of concurrent virtual users (20)
+ * securesocial.loadtest.cycles: the number of cycles per virtual user (50)
+ * securesocial.loadtest.latencyInMillis: the latency of the stub token and profile endpoints (0)
+ * securesocial.loadtest.errorRate: the fraction of stub token and profile requests that fail (0)
+ * securesocial.loadtest.port: the port for the application (19001)
+ */
+abstract class LoginLoadTest extends PlaySpecification {
+  /**
+   * Builds the application under test
+   *
+   * @param providers the providers for the stub server that must be available in the application
+   */
+  def application(providers: Seq[IdentityProvider]): Application
+
+  /**
+   * A path that requires an authenticated user
+   */
+  def securedPath: String = "/"
+
+  def authenticationPath(providerId: String): String = s"/auth/authenticate/$providerId"
+
+  def logoutPath: String = "/auth/logout"
+
+  private def property(name: String, default: String) = System.getProperty(s"securesocial.loadtest.$name", default)
+
+  val enabled = System.getProperty("securesocial.loadtest") != null
+  val users = property("users", "20").toInt
+  val cycles = property("cycles", "50").toInt
+  val latency = property("latencyInMillis", "0").toInt.millis
+  val errorRate = property("errorRate", "0").toDouble
+  val port = property("port", "19001").toInt
+
+  args(skipAll = !enabled)
+  sequential
+
+  /**
+   * Runs the cycles for a provider
+   *
+   * @return the report and a description of the run, used as the failure message
+   */
+  def runFor(providerId: String): (LoginLoadDriver.Report, String) = {
+    val stub = new StubOAuthServer(StubOAuthServer.Settings(latency, errorRate)).start()
+    val system = ActorSystem("loadtest")
+    val ws = AhcWSClient()(ActorMaterializer()(system))
+    try {
+      val configuration = Configuration.reference ++ Configuration(
+        "securesocial.applicationHost" -> "localhost",
+        "securesocial.applicationPort" -> port)
+      val routes = new RoutesService.Default(Environment.simple(), configuration)
+      val providers = StubProfiles.providersFor(stub, routes, new InMemoryCacheService, new HttpService.Default(ws))
+      running(TestServer(port, application(providers))) {
+        val driver = new LoginLoadDriver(ws, s"http://localhost:$port", authenticationPath(providerId), securedPath, logoutPath)
+        // warm up
+        driver.run(math.min(users, 4), 5)
+        val report = driver.run(users, cycles)
+        (report, s"[$providerId] users = $users, latency = $latency, error rate = $errorRate, stub requests = ${stub.requests.get}\n$report")
+      }
+    } finally {
+      ws.close()
+      system.terminate()
+      stub.stop()
+    }
+  }
+
+  "The login flow" should {
+    "sustain concurrent OAuth 2 logins" in {
+      val (report, description) = runFor(StubOAuth2Provider.Id)
+      report.cycles aka description must be_>(0)
+    }
+
+    "sustain concurrent OAuth 1 logins" in {
+      val (report, description) = runFor(StubOAuth1Provider.Id)
+      report.cycles aka description must be_>(0)
+    }
+  }
+}
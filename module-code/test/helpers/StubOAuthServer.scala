@@ -0,0 +1,191 @@
+package helpers
+
+import java.net.{ URLDecoder, URLEncoder }
+import java.util.UUID
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.{ AtomicInteger, AtomicLong }
+
+import akka.actor.Scheduler
+import play.api.Mode
+import play.api.libs.json.Json
+import play.api.mvc.{ RequestHeader, Result, Results }
+import play.api.routing.sird._
+import play.core.server.{ AkkaHttpServer, ServerConfig }
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration._
+import scala.concurrent.{ ExecutionContext, Future }
+
+/**
+ * An embeddable authorization server that implements the OAuth 2 and OAuth 1 endpoints used by the
+ * providers, so the login flows can be exercised without hitting real services.
+ *
+ * OAuth 2: GET /oauth2/authorize, POST /oauth2/token, GET /oauth2/me
+ * OAuth 1: POST /oauth1/request_token, GET /oauth1/authorize, POST /oauth1/access_token, GET /oauth1/me
+ *
+ * The authorization endpoints redirect back immediately, as if the user had granted access. Every
+ * authorization is assigned one of settings.users users in a round robin fashion. Signatures and client
+ * credentials are not checked.
+ *
+ * @param settings the latency and error rate for the token and profile endpoints
+ */
+class StubOAuthServer(settings: StubOAuthServer.Settings = StubOAuthServer.Settings()) {
+  private val codes = TrieMap[String, String]()
+  private val accessTokens = TrieMap[String, String]()
+  private val callbacks = TrieMap[String, String]()
+  private val nextUser = new AtomicInteger()
+
+  /**
+   * The number of requests served
+   */
+  val requests = new AtomicLong()
+
+  /**
+   * The number of errors injected
+   */
+  val errors = new AtomicLong()
+
+  private def newUser(): String = s"user${nextUser.getAndIncrement() % settings.users}"
+
+  private def newToken(): String = UUID.randomUUID().toString.replace("-", "")
+
+  private def encode(value: String) = URLEncoder.encode(value, "UTF-8")
+
+  private def withLatency(result: => Result)(implicit ec: ExecutionContext, scheduler: Scheduler): Future[Result] = {
+    requests.incrementAndGet()
+    def respond(): Result = if (ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+      errors.incrementAndGet()
+      Results.InternalServerError("injected error")
+    } else {
+      result
+    }
+    if (settings.latency == Duration.Zero)
+      Future.successful(respond())
+    else
+      akka.pattern.after(settings.latency, scheduler)(Future(respond()))
+  }
+
+  private def profile(userId: String) = Json.obj(
+    "id" -> userId,
+    "first_name" -> "Stub",
+    "last_name" -> userId,
+    "name" -> s"Stub $userId",
+    "email" -> s"$userId@example.com")
+
+  private def form(request: RequestHeader, body: Option[Map[String, Seq[String]]], name: String): Option[String] =
+    body.flatMap(_.get(name)).orElse(request.queryString.get(name)).flatMap(_.headOption)
+
+  // the oauth_callback parameter sent by the OAuth 1 client in the Authorization header
+  private def callbackFrom(request: RequestHeader): Option[String] = {
+    val Callback = """oauth_callback="([^"]*)"""".r
+    request.headers.get("Authorization").flatMap(Callback.findFirstMatchIn).map(m => URLDecoder.decode(m.group(1), "UTF-8"))
+  }
+
+  private lazy val server: AkkaHttpServer = AkkaHttpServer.fromRouterWithComponents(ServerConfig(port = Some(0), mode = Mode.Test)) { components =>
+    import Results._
+    import components.{ defaultActionBuilder => Action }
+    implicit val ec: ExecutionContext = components.executionContext
+    implicit val scheduler: Scheduler = components.actorSystem.scheduler
+
+    {
+      case GET(p"/oauth2/authorize" ? q"redirect_uri=$redirectUri" & q"state=$state") => Action {
+        requests.incrementAndGet()
+        val code = newToken()
+        codes.put(code, newUser())
+        val separator = if (redirectUri.contains("?")) "&" else "?"
+        Redirect(s"$redirectUri${separator}code=${encode(code)}&state=${encode(state)}")
+      }
+
+      case POST(p"/oauth2/token") => Action.async { request =>
+        withLatency {
+          form(request, request.body.asFormUrlEncoded, "code").flatMap(codes.remove) match {
+            case Some(userId) =>
+              val token = newToken()
+              accessTokens.put(token, userId)
+              Ok(Json.obj("access_token" -> token, "token_type" -> "bearer", "expires_in" -> 3600, "refresh_token" -> newToken()))
+            case None =>
+              BadRequest(Json.obj("error" -> "invalid_grant"))
+          }
+        }
+      }
+
+      case GET(p"/oauth2/me" ? q"access_token=$token") => Action.async {
+        withLatency {
+          accessTokens.get(token).map(userId => Ok(profile(userId))).getOrElse(Unauthorized(Json.obj("error" -> "invalid_token")))
+        }
+      }
+
+      case POST(p"/oauth1/request_token") => Action.async { request =>
+        withLatency {
+          val token = newToken()
+          callbacks.put(token, callbackFrom(request).getOrElse(""))
+          Ok(s"oauth_token=$token&oauth_token_secret=${newToken()}&oauth_callback_confirmed=true")
+            .as("application/x-www-form-urlencoded")
+        }
+      }
+
+      case GET(p"/oauth1/authorize" ? q"oauth_token=$token") => Action {
+        requests.incrementAndGet()
+        callbacks.remove(token) match {
+          case Some(callback) =>
+            val verifier = newToken()
+            codes.put(verifier, newUser())
+            val separator = if (callback.contains("?")) "&" else "?"
+            Redirect(s"$callback${separator}oauth_token=${encode(token)}&oauth_verifier=${encode(verifier)}")
+          case None => BadRequest("unknown request token")
+        }
+      }
+
+      case POST(p"/oauth1/access_token") => Action.async { request =>
+        withLatency {
+          val Verifier = """oauth_verifier="([^"]*)"""".r
+          val verifier = request.headers.get("Authorization").flatMap(Verifier.findFirstMatchIn).map(_.group(1))
+          verifier.flatMap(codes.remove) match {
+            case Some(userId) =>
+              val token = newToken()
+              accessTokens.put(token, userId)
+              Ok(s"oauth_token=$token&oauth_token_secret=${newToken()}").as("application/x-www-form-urlencoded")
+            case None => Unauthorized("invalid verifier")
+          }
+        }
+      }
+
+      case GET(p"/oauth1/me") => Action.async { request =>
+        withLatency {
+          val Token = """oauth_token="([^"]*)"""".r
+          val token = request.headers.get("Authorization").flatMap(Token.findFirstMatchIn).map(m => URLDecoder.decode(m.group(1), "UTF-8"))
+          token.flatMap(accessTokens.get).map(userId => Ok(profile(userId))).getOrElse(Unauthorized("invalid token"))
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts the server (it is started on first use too)
+   */
+  def start(): StubOAuthServer = {
+    server
+    this
+  }
+
+  /**
+   * The port the server is listening on
+   */
+  def port: Int = server.httpPort.get
+
+  /**
+   * Builds an absolute url for a path in this server
+   */
+  def url(path: String): String = s"http://localhost:$port$path"
+
+  def stop(): Unit = server.stop()
+}
+
+object StubOAuthServer {
+  /**
+   * @param latency the delay added to the token and profile endpoints
+   * @param errorRate the fraction of token and profile requests that fail with a 500 error
+   * @param users the number of distinct users handed out by the authorization endpoints
+   */
+  case class Settings(latency: FiniteDuration = Duration.Zero, errorRate: Double = 0.0, users: Int = 1000)
+}
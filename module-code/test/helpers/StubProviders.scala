@@ -0,0 +1,81 @@
+package helpers
+
+import play.api.libs.json.JsValue
+import play.api.libs.oauth.{ ConsumerKey, ServiceInfo }
+import securesocial.core._
+import securesocial.core.services.{ CacheService, HttpService, RoutesService }
+
+import scala.concurrent.{ ExecutionContext, Future }
+
+/**
+ * An OAuth 2 provider for the StubOAuthServer
+ */
+class StubOAuth2Provider(
+  routesService: RoutesService,
+  cacheService: CacheService,
+  client: OAuth2Client,
+  profileUrl: String,
+  override val id: String = StubOAuth2Provider.Id)
+  extends OAuth2Provider(routesService, client, cacheService) {
+
+  def fillProfile(info: OAuth2Info): Future[BasicProfile] =
+    client.retrieveProfile(s"$profileUrl?access_token=${info.accessToken}").map { me =>
+      StubProfiles.toProfile(id, me, authMethod).copy(oAuth2Info = Some(info))
+    }
+}
+
+object StubOAuth2Provider {
+  val Id = "stub2"
+}
+
+/**
+ * An OAuth 1 provider for the StubOAuthServer
+ */
+class StubOAuth1Provider(
+  routesService: RoutesService,
+  cacheService: CacheService,
+  client: OAuth1Client,
+  profileUrl: String,
+  override val id: String = StubOAuth1Provider.Id)
+  extends OAuth1Provider(routesService, cacheService, client) {
+
+  def fillProfile(info: OAuth1Info): Future[BasicProfile] =
+    client.retrieveProfile(profileUrl, info).map { me =>
+      StubProfiles.toProfile(id, me, authMethod).copy(oAuth1Info = Some(info))
+    }
+}
+
+object StubOAuth1Provider {
+  val Id = "stub1"
+}
+
+object StubProfiles {
+  def toProfile(providerId: String, me: JsValue, authMethod: AuthenticationMethod): BasicProfile = BasicProfile(
+    providerId,
+    (me \ "id").as[String],
+    (me \ "first_name").asOpt[String],
+    (me \ "last_name").asOpt[String],
+    (me \ "name").asOpt[String],
+    (me \ "email").asOpt[String],
+    None,
+    authMethod)
+
+  /**
+   * Builds the OAuth 2 and OAuth 1 providers for a stub server
+   *
+   * @param server the stub server
+   * @param routesService the routes service used to build the callback urls
+   * @param cacheService the cache where the providers keep the state between steps
+   * @param httpService the http service used to call the stub server
+   * @return the providers
+   */
+  def providersFor(server: StubOAuthServer, routesService: RoutesService, cacheService: CacheService, httpService: HttpService)(implicit ec: ExecutionContext): Seq[IdentityProvider] = {
+    val oauth2Settings = OAuth2Settings(server.url("/oauth2/authorize"), server.url("/oauth2/token"),
+      "stub-client", "stub-secret", None, Map(), Map())
+    val serviceInfo = ServiceInfo(server.url("/oauth1/request_token"), server.url("/oauth1/access_token"),
+      server.url("/oauth1/authorize"), ConsumerKey("stub-key", "stub-secret"))
+    Seq(
+      new StubOAuth2Provider(routesService, cacheService, new OAuth2Client.Default(httpService, oauth2Settings), server.url("/oauth2/me")),
+      new StubOAuth1Provider(routesService, cacheService, new OAuth1Client.Default(serviceInfo, httpService), server.url("/oauth1/me")))
+  }
+}
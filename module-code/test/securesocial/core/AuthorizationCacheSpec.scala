@@ -0,0 +1,69 @@
+package securesocial.core
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.mvc.RequestHeader
+import play.api.test._
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.{ Future, Promise }
+
+@RunWith(classOf[JUnitRunner])
+class AuthorizationCacheSpec extends PlaySpecification {
+  case class User(id: String, roles: Set[String])
+
+  class CountingAuthorization(result: => Future[Boolean]) extends AsyncAuthorization[User] {
+    val calls = new AtomicInteger()
+    def isAuthorized(user: User, request: RequestHeader) = {
+      calls.incrementAndGet()
+      result
+    }
+  }
+
+  val user = User("foo", Set("admin"))
+  val request = FakeRequest()
+
+  def newCache = new AuthorizationCache(AuthorizationCacheConfig(100, 60))
+
+  "CachedAuthorization" should {
+    "reuse the decision for the same user" in {
+      val underlying = new CountingAuthorization(Future.successful(true))
+      val authorization = new CachedAuthorization(underlying, newCache, "role:admin")
+      await(authorization.isAuthorized(user, request)) must beTrue
+      await(authorization.isAuthorized(user, request)) must beTrue
+      underlying.calls.get() must_== 1
+    }
+
+    "share a single check between concurrent requests" in {
+      val promise = Promise[Boolean]()
+      val underlying = new CountingAuthorization(promise.future)
+      val authorization = new CachedAuthorization(underlying, newCache, "role:admin")
+      val first = authorization.isAuthorized(user, request)
+      val second = authorization.isAuthorized(user, request)
+      promise.success(false)
+      await(first) must beFalse
+      await(second) must beFalse
+      underlying.calls.get() must_== 1
+    }
+
+    "check again after the user is invalidated" in {
+      val cache = newCache
+      val underlying = new CountingAuthorization(Future.successful(true))
+      val authorization = new CachedAuthorization(underlying, cache, "role:admin")
+      await(authorization.isAuthorized(user, request))
+      cache.invalidate(user)
+      await(authorization.isAuthorized(user, request))
+      underlying.calls.get() must_== 2
+    }
+
+    "not cache failed checks" in {
+      val underlying = new CountingAuthorization(Future.failed(new IllegalStateException("directory down")))
+      val authorization = new CachedAuthorization(underlying, newCache, "role:admin")
+      await(authorization.isAuthorized(user, request)) must throwA[IllegalStateException]
+      await(authorization.isAuthorized(user, request)) must throwA[IllegalStateException]
+      underlying.calls.get() must_== 2
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package securesocial.core
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.{ Flow, Sink, Source }
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.mvc.RequestHeader
+import play.api.test._
+import securesocial.core.authenticator.{ Authenticator, AuthenticatorBuilder, AuthenticatorLookup }
+import securesocial.core.services.AuthenticatorService
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class ConnectionRegistrySpec extends PlaySpecification with Mockito {
+  val config = ConnectionRegistryConfig(enabled = true, revalidationIntervalInSeconds = 30, batchSize = 10)
+
+  implicit val system = ActorSystem("ConnectionRegistrySpec")
+  implicit val materializer = ActorMaterializer()
+
+  def authenticator(id: String, expirationMillis: Long = Long.MaxValue): Authenticator[String] = {
+    val authenticator = mock[Authenticator[String]]
+    authenticator.id returns id
+    authenticator.user returns "user"
+    authenticator.isValid returns true
+    authenticator.expirationMillis returns expirationMillis
+    authenticator
+  }
+
+  // finds the authenticators by the id in the X-Auth-Token header
+  class LookupBuilder extends AuthenticatorBuilder[String] with AuthenticatorLookup[String] {
+    val id = "lookup"
+    @volatile var stored = Map[String, Authenticator[String]]()
+    val lookups = new AtomicInteger()
+
+    override def fromRequest(request: RequestHeader): Future[Option[Authenticator[String]]] =
+      Future.successful(request.headers.get("X-Auth-Token").flatMap(stored.get))
+    override def fromUser(user: String): Future[Authenticator[String]] = Future.failed(new UnsupportedOperationException)
+    override def findMany(ids: Seq[String]): Future[Map[String, Authenticator[String]]] = {
+      lookups.incrementAndGet()
+      Future.successful(stored.filterKeys(ids.toSet))
+    }
+  }
+
+  def open(registry: ConnectionRegistry[String], id: String) = {
+    val accepted = await(registry.accept(FakeRequest().withHeaders("X-Auth-Token" -> id)) { user => Flow[String].map(user + _) })
+    accepted must beRight
+    Source.maybe[String].via(accepted.right.get).runWith(Sink.ignore)
+  }
+
+  "ConnectionRegistry" should {
+    "reject requests without a valid authenticator" in {
+      val registry = new ConnectionRegistry[String](new AuthenticatorService[String](new LookupBuilder), config)
+
+      await(registry.accept(FakeRequest()) { _ => Flow[String] }) must beLeft
+      registry.size must_== 0
+    }
+
+    "look up the authenticators in a batch and close the connections when they are gone" in {
+      val builder = new LookupBuilder
+      val (a, b) = (authenticator("a"), authenticator("b"))
+      builder.stored = Map("a" -> a, "b" -> b)
+      val registry = new ConnectionRegistry[String](new AuthenticatorService[String](builder), config)
+      val first = open(registry, "a")
+      val second = open(registry, "a")
+      val third = open(registry, "b")
+      registry.size must_== 3
+
+      await(registry.revalidate()) must_== 0
+      builder.lookups.get must_== 1
+      first.isCompleted must beFalse
+      // checking an authenticator doesn't keep its session alive
+      there was no(a).touch
+
+      builder.stored = Map("b" -> b)
+      await(registry.revalidate()) must_== 1
+      await(first) must not(beNull)
+      await(second) must not(beNull)
+      third.isCompleted must beFalse
+      registry.size must_== 1
+    }
+
+    "close the connections of authenticators that can't be looked up when they expire" in {
+      val builder = mock[AuthenticatorBuilder[String]]
+      builder.id returns "plain"
+      builder.fromRequest(any[RequestHeader]) returns Future.successful(Some(authenticator("a", System.currentTimeMillis() - 1)))
+      val registry = new ConnectionRegistry[String](new AuthenticatorService[String](builder), config)
+      val connection = open(registry, "a")
+
+      await(registry.revalidate()) must_== 1
+      await(connection) must not(beNull)
+      registry.size must_== 0
+    }
+
+    "close the connections of an authenticator" in {
+      val builder = new LookupBuilder
+      builder.stored = Map("a" -> authenticator("a"))
+      val registry = new ConnectionRegistry[String](new AuthenticatorService[String](builder), config)
+      val connection = open(registry, "a")
+
+      registry.close("a")
+      await(connection) must not(beNull)
+      registry.size must_== 0
+    }
+  }
+}
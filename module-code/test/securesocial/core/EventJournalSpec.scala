@@ -0,0 +1,65 @@
+package securesocial.core
+
+import java.nio.file.Files
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.Sink
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+import scala.concurrent.ExecutionContext.Implicits.global
+
+@RunWith(classOf[JUnitRunner])
+class EventJournalSpec extends PlaySpecification {
+  implicit val system = ActorSystem("EventJournalSpec")
+  implicit val materializer = ActorMaterializer()
+
+  def config(directory: String, maxSegmentSizeInBytes: Long = 1024 * 1024) = EventJournalConfig(
+    enabled = true, directory, queueSize = 1000, maxBatchSize = 100, fsync = false,
+    maxSegmentSizeInBytes, maxSegmentAgeInSeconds = 3600, compress = true)
+
+  val request = FakeRequest()
+  val profile = BasicProfile("userpass", "john", None, None, None, None, None, AuthenticationMethod.UserPassword)
+
+  "EventJournal" should {
+    "write the events and replay them" in {
+      val directory = Files.createTempDirectory("journal").toString
+      val journal = EventJournal(config(directory))
+      journal.onEvent(SignUpEvent(profile), request, request.session) must beNone
+      journal.onEvent(LoginEvent(profile), request, request.session)
+      journal.onEvent(LogoutEvent("someone"), request, request.session)
+      journal.close()
+
+      journal.written must_== 3
+      val entries = await(journal.replay().runWith(Sink.seq))
+      entries.map(_.event) must_== Seq("signup", "login", "logout")
+      entries.map(_.user) must_== Seq("userpass:john", "userpass:john", "java.lang.String")
+    }
+
+    "replay the entries of the rotated segments" in {
+      val directory = Files.createTempDirectory("journal").toString
+      val journal = EventJournal(config(directory, maxSegmentSizeInBytes = 1))
+      (1 to 5).foreach { _ =>
+        journal.onEvent(LoginEvent(profile), request, request.session)
+        Thread.sleep(20)
+      }
+      journal.close()
+
+      val reopened = EventJournal(config(directory))
+      val entries = await(reopened.replay().runWith(Sink.seq))
+      reopened.close()
+      entries must have size 5
+      entries.map(_.timestamp) must_== entries.map(_.timestamp).sorted
+    }
+
+    "describe the users by the ids of their profile and never by their toString" in {
+      case class User(main: BasicProfile, identities: List[BasicProfile])
+      val withPassword = profile.copy(passwordInfo = Some(PasswordInfo("bcrypt", "secret-hash")))
+      EventJournal.describeUser(withPassword) must_== "userpass:john"
+      EventJournal.describeUser(User(withPassword, List(withPassword))) must_== "userpass:john"
+      EventJournal.describeUser(Some("secret-hash")) must_== classOf[Some[_]].getName
+    }
+  }
+}
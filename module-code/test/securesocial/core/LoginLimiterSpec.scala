@@ -0,0 +1,56 @@
+package securesocial.core
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test.PlaySpecification
+
+import scala.concurrent.{ Future, Promise }
+
+@RunWith(classOf[JUnitRunner])
+class LoginLimiterSpec extends PlaySpecification {
+  def config(maxLatencyInMillis: Int = 1000) = LoginLimiterConfig(enabled = true, initialLimit = 4, minLimit = 2,
+    maxLimit = 8, maxLatencyInMillis, backoffRatio = 0.5, retryAfterInSeconds = 5)
+
+  "LoginLimiter" should {
+    "reject the logins over the limit of a provider and not the ones of other providers" in {
+      val limiter = new LoginLimiter(config())
+      val pending = Promise[Int]()
+      val accepted = (1 to 6).flatMap(_ => limiter("google")(pending.future))
+
+      accepted.size must_== 4
+      limiter("facebook")(Future.successful(1)) must beSome
+      limiter.stats("google").rejected must_== 2
+
+      pending.success(1)
+      limiter("google")(Future.successful(1)) must beSome
+      limiter.stats("google").inFlight must_== 0
+    }
+
+    "reduce the limit once for a burst of slow logins" in {
+      val limiter = new LoginLimiter(config(maxLatencyInMillis = 0))
+      val pending = Promise[Int]()
+      (1 to 4).foreach(_ => limiter("google")(pending.future))
+      Thread.sleep(5)
+      pending.success(1)
+
+      limiter.stats("google").limit must_== 2
+      limiter.stats("google").slow must_== 4
+    }
+
+    "grow the limit while the logins are fast and the limit is in use" in {
+      val limiter = new LoginLimiter(config())
+      (1 to 100).foreach { _ =>
+        val pending = Promise[Int]()
+        (1 to limiter.stats.get("google").map(_.limit).getOrElse(4)).foreach(_ => limiter("google")(pending.future))
+        pending.success(1)
+      }
+      limiter.stats("google").limit must_== 8
+    }
+
+    "count the logins that fail" in {
+      val limiter = new LoginLimiter(config())
+      limiter("google")(throw new IllegalStateException()).map(_.isCompleted) must beSome(true)
+      limiter.stats("google").inFlight must_== 0
+    }
+  }
+}
@@ -30,6 +30,18 @@ class OAuth2ClientSpec extends Specification with Mockito {
 
         token must beEqualTo(expectedToken).await
     }
+    "refresh a token" in {
+      implicit ee: ExecutionEnv =>
+        val httpService: MockHttpService = new MockHttpService()
+        val client = aDefaultClient(httpService)
+        val expectedToken = OAuth2Info("newAccessToken", None, Some(3600), Some("refreshToken"))
+
+        httpService.request.post(any[Params])(any[ParamsWriter]) returns Future.successful(httpService.response)
+
+        val token: Future[OAuth2Info] = client.refreshToken("refreshToken", _ => expectedToken)
+
+        token must beEqualTo(expectedToken).await
+    }
     "retrieve the profile given an access token" in {
       implicit ee: ExecutionEnv =>
         val httpService: MockHttpService = new MockHttpService()
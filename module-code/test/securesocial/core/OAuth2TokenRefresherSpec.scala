@@ -0,0 +1,86 @@
+package securesocial.core
+
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+import securesocial.core.services.UserService
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class OAuth2TokenRefresherSpec extends PlaySpecification with Mockito {
+  val config = OAuth2RefreshConfig(enabled = true, intervalInSeconds = 60, refreshBeforeExpiryInSeconds = 300,
+    jitterInSeconds = 0, maxConcurrentPerProvider = 2, maxTracked = 10, maxAgeInDays = 30)
+
+  def profile(userId: String, expiresIn: Int, refreshToken: Option[String] = Some("refresh")) =
+    BasicProfile("stub", userId, None, None, None, None, None, AuthenticationMethod.OAuth2,
+      oAuth2Info = Some(OAuth2Info("access", None, Some(expiresIn), refreshToken)))
+
+  "OAuth2TokenRefresher" should {
+    "refresh the tokens about to expire and save them" in {
+      val provider = mock[OAuth2Provider]
+      val userService = mock[UserService[String]]
+      val refreshed = OAuth2Info("new", None, Some(3600), Some("refresh"))
+      provider.refreshAccessToken(any[OAuth2Info]) returns Future.successful(refreshed)
+      userService.updateOAuth2Info(any[BasicProfile], any[OAuth2Info]) returns Future.successful("user")
+
+      val refresher = new OAuth2TokenRefresher[String](Map("stub" -> provider), userService, config)
+      refresher.track(profile("due1", 60), "login-due1")
+      refresher.track(profile("due2", 60), "login-due2")
+      refresher.track(profile("due3", 60), "login-due3")
+      refresher.track(profile("later", 3600), "login-later")
+      refresher.track(profile("no-refresh-token", 60, None), "login-no-refresh-token")
+
+      await(refresher.refreshDue()) must_== 3
+      there were three(userService).updateOAuth2Info(any[BasicProfile], any[OAuth2Info])
+      // the refreshed tokens are tracked again
+      refresher.size must_== 4
+    }
+
+    "drop the tokens that can't be refreshed" in {
+      val provider = mock[OAuth2Provider]
+      val userService = mock[UserService[String]]
+      provider.refreshAccessToken(any[OAuth2Info]) returns Future.failed(new AuthenticationException())
+
+      val refresher = new OAuth2TokenRefresher[String](Map("stub" -> provider), userService, config)
+      refresher.track(profile("due", 60), "login-due")
+
+      await(refresher.refreshDue()) must_== 0
+      refresher.size must_== 0
+    }
+
+    "stop refreshing the tokens of the users that logged out" in {
+      val refresher = new OAuth2TokenRefresher[String](Map.empty, mock[UserService[String]], config)
+      refresher.track(profile("user1", 60), "login1")
+      refresher.track(profile("user2", 60), "login2")
+
+      refresher.untrackLogin("login1")
+      refresher.size must_== 1
+      refresher.untrackLogin("login1")
+      refresher.size must_== 1
+    }
+
+    "track at most maxTracked tokens" in {
+      val refresher = new OAuth2TokenRefresher[String](Map.empty, mock[UserService[String]], config)
+      (1 to 20).foreach(i => refresher.track(profile(s"user$i", 3600), s"login$i"))
+      refresher.size must_== 10
+      // the tracked users can still log in again
+      refresher.track(profile("user1", 3600), "login21")
+      refresher.size must_== 10
+    }
+
+    "drop the tokens of the users that logged in more than maxAgeInDays ago" in {
+      val provider = mock[OAuth2Provider]
+      val userService = mock[UserService[String]]
+
+      val refresher = new OAuth2TokenRefresher[String](Map("stub" -> provider), userService, config.copy(maxAgeInDays = 0))
+      refresher.track(profile("due", 60), "login")
+
+      await(refresher.refreshDue()) must_== 0
+      refresher.size must_== 0
+      there was no(provider).refreshAccessToken(any[OAuth2Info])
+    }
+  }
+}
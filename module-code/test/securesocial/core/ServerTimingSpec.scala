@@ -0,0 +1,39 @@
+package securesocial.core
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.mvc.Results
+import play.api.test.{ FakeRequest, PlaySpecification }
+
+@RunWith(classOf[JUnitRunner])
+class ServerTimingSpec extends PlaySpecification {
+  def config(enabled: Boolean = true, sampleRate: Double = 1.0) = ServerTimingConfig(enabled, sampleRate, header = true, log = false)
+
+  "ServerTiming" should {
+    "not record anything when disabled or not sampled" in {
+      new ServerTiming(config(enabled = false)).start(ServerTiming.Secured) must be(ServerTiming.Off)
+      new ServerTiming(config(sampleRate = 0.0)).start(ServerTiming.Secured) must be(ServerTiming.Off)
+      ServerTiming.Off.addTo(Results.Ok, FakeRequest()).header.headers.get(ServerTiming.HeaderName) must beNone
+    }
+
+    "report the phases in order followed by the total" in {
+      val timer = new ServerTiming(config()).start(ServerTiming.Secured)
+      timer.mark(ServerTiming.Authenticator)
+      timer.mark(ServerTiming.Action)
+      val header = timer.addTo(Results.Ok, FakeRequest()).header.headers(ServerTiming.HeaderName)
+      header.split(", ").map(_.takeWhile(_ != ';')).toSeq must_== Seq("ss-authenticator", "ss-action", "ss-secured")
+    }
+
+    "only log the login timings" in {
+      val timer = new ServerTiming(config()).start(ServerTiming.Login)
+      timer.mark(ServerTiming.Provider)
+      timer.addTo(Results.Ok, FakeRequest()).header.headers.get(ServerTiming.HeaderName) must beNone
+    }
+
+    "keep the timings added by the application" in {
+      val timer = new ServerTiming(config()).start(ServerTiming.Secured)
+      val result = timer.addTo(Results.Ok.withHeaders(ServerTiming.HeaderName -> "db;dur=12"), FakeRequest())
+      result.header.headers(ServerTiming.HeaderName) must startWith("db;dur=12, ss-secured;dur=")
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package securesocial.core
+
+import akka.actor.ActorSystem
+import helpers.InMemoryCacheService
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.cache.AsyncCacheApi
+import play.api.i18n.{ DefaultMessagesApi, MessagesApi }
+import play.api.libs.mailer.MailerClient
+import play.api.libs.ws.WSClient
+import play.api.mvc.PlayBodyParsers
+import play.api.test.PlaySpecification
+import play.api.{ Configuration, Environment }
+import play.twirl.api.Html
+import securesocial.controllers.ViewTemplates
+import securesocial.core.services.{ CacheService, UserService }
+
+import scala.concurrent.ExecutionContext
+
+@RunWith(classOf[JUnitRunner])
+class WarmUpSpec extends PlaySpecification with Mockito {
+  def runtimeEnvironment = new RuntimeEnvironment.Default {
+    override type U = BasicProfile
+    override implicit def executionContext: ExecutionContext = ExecutionContext.global
+    override val configuration: Configuration = Configuration.reference ++ Configuration(
+      "securesocial.applicationHost" -> "localhost",
+      "securesocial.warmUp.hasherRounds" -> 1,
+      "securesocial.warmUp.idRounds" -> 10)
+    override val environment: Environment = Environment.simple()
+    override val wsClient: WSClient = mock[WSClient]
+    override val cacheApi: AsyncCacheApi = mock[AsyncCacheApi]
+    override val mailerClient: MailerClient = mock[MailerClient]
+    override val parsers: PlayBodyParsers = mock[PlayBodyParsers]
+    override val actorSystem: ActorSystem = mock[ActorSystem]
+    override val messagesApi: MessagesApi = new DefaultMessagesApi()
+    override lazy val cacheService: CacheService = new InMemoryCacheService
+    override lazy val userService: UserService[BasicProfile] = mock[UserService[BasicProfile]]
+    override lazy val viewTemplates: ViewTemplates = {
+      val templates = mock[ViewTemplates]
+      templates.getLoginPage(any, any)(any) returns Html("login")
+      templates.getNotAuthorizedPage(any) returns Html("not authorized")
+      templates
+    }
+  }
+
+  "WarmUp" should {
+    "run every step without failures" in {
+      val env = runtimeEnvironment
+      val report = await(new WarmUp(env, env.warmUpConfig).run())
+      report.steps.map(_.name) must contain("authenticator codecs")
+      report.failed must beEmpty
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package securesocial.core.authenticator
+
+import java.util.concurrent.atomic.AtomicLong
+
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.Configuration
+import play.api.test._
+
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class AuthenticatorIdFilterSpec extends PlaySpecification with Mockito {
+  implicit val ec = helpers.sequentialExecutionContext
+
+  val generator = new IdGenerator.Default(Configuration("securesocial.idLengthInBytes" -> 16))
+  val config = AuthenticatorIdFilterConfig(negativeCacheSize = 100, negativeCacheTtlInSeconds = 60,
+    bloomFilterEnabled = false, bloomFilterExpectedIds = 1000, bloomFilterFalsePositiveRate = 0.01, bloomFilterRotationInMinutes = 60)
+  val headerConfig = HttpHeaderConfig("X-Auth-Token", 30, 720)
+
+  "AuthenticatorIdFilter" should {
+    "reject the ids that are not well formed" in {
+      val filter = new AuthenticatorIdFilter(config, generator.isWellFormed)
+      filter.mightExist(await(generator.generate)) must beTrue
+      filter.mightExist("short") must beFalse
+      filter.mightExist("z" * 32) must beFalse
+      filter.mightExist("A" * 32) must beFalse
+      filter.mightExist("\uff11" * 32) must beFalse
+      filter.stats.malformed must_== 4
+    }
+
+    "remember the ids that missed until they are seen" in {
+      val filter = new AuthenticatorIdFilter(config)
+      filter.missed("a")
+      filter.mightExist("a") must beFalse
+      filter.seen("a")
+      filter.mightExist("a") must beTrue
+    }
+
+    "keep the header authenticator builder from looking up rejected ids" in {
+      val store = mock[AuthenticatorStore[HttpHeaderAuthenticator[String]]]
+      store.find(anyString)(any) returns Future.successful(None)
+      val builder = new HttpHeaderAuthenticatorBuilder[String](store, generator, headerConfig, new AuthenticatorIdFilter(config, generator.isWellFormed))
+      val id = await(generator.generate)
+      val request = FakeRequest().withHeaders("X-Auth-Token" -> id)
+
+      await(builder.fromRequest(FakeRequest().withHeaders("X-Auth-Token" -> "garbage"))) must beNone
+      await(builder.fromRequest(request)) must beNone
+      await(builder.fromRequest(request)) must beNone
+      there was one(store).find(anyString)(any)
+    }
+  }
+
+  "RotatingBloomFilter" should {
+    val rotation = 1000L
+
+    def filterWith(clock: AtomicLong) =
+      new AuthenticatorIdFilter.RotatingBloomFilter(1000, 0.01, rotation, () => clock.get)
+
+    "trust its answers only after running for a full period" in {
+      val clock = new AtomicLong(0)
+      val filter = filterWith(clock)
+      filter.mightContain("never-added") must beTrue
+      clock.set(rotation - 1)
+      filter.mightContain("never-added") must beTrue
+      clock.set(rotation)
+      filter.mightContain("never-added") must beFalse
+    }
+
+    "not have false negatives for the ids added" in {
+      val clock = new AtomicLong(0)
+      val filter = filterWith(clock)
+      val ids = (1 to 1000).map(_ => await(generator.generate))
+      ids.foreach(filter.add)
+      clock.set(rotation + 1)
+      ids.forall(filter.mightContain) must beTrue
+    }
+
+    "forget the ids that were not seen for two periods" in {
+      val clock = new AtomicLong(0)
+      val filter = filterWith(clock)
+      filter.add("old")
+      clock.set(rotation)
+      filter.add("recent")
+      filter.mightContain("old") must beTrue
+      filter.mightContain("recent") must beTrue
+      clock.set(2 * rotation)
+      filter.mightContain("old") must beFalse
+      filter.mightContain("recent") must beTrue
+      clock.set(3 * rotation)
+      filter.mightContain("recent") must beFalse
+    }
+  }
+}
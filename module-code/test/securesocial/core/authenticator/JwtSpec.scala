@@ -0,0 +1,71 @@
+package securesocial.core.authenticator
+
+import helpers.InMemoryCacheService
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.Configuration
+import play.api.test.PlaySpecification
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class JwtSpec extends PlaySpecification {
+  def key(id: String) = new JwtKey(id, Array.fill[Byte](32)(id.hashCode.toByte))
+
+  val claims = JwtClaims("securesocial", "userpass", "foo\"@bar.com", "abc123", 1500000000L, 1500000300L)
+
+  "Jwt" should {
+    "verify the tokens it signs" in {
+      val keys = new JwtKeySet(key("k1"))
+      Jwt.verify(keys, Jwt.sign(keys.current, claims)) must beSome(claims)
+    }
+
+    "reject tampered tokens" in {
+      val keys = new JwtKeySet(key("k1"))
+      val token = Jwt.sign(keys.current, claims)
+      val forged = Jwt.sign(key("k1"), claims.copy(userId = "admin")).split('.')(1)
+      val parts = token.split('.')
+      Jwt.verify(keys, s"${parts(0)}.$forged.${parts(2)}") must beNone
+      Jwt.verify(keys, token.dropRight(2)) must beNone
+      Jwt.verify(keys, "not.a.token") must beNone
+    }
+
+    "reject signatures that are not canonically encoded" in {
+      val keys = new JwtKeySet(key("k1"))
+      val token = Jwt.sign(keys.current, claims)
+      val alphabet = ('A' to 'Z') ++ ('a' to 'z') ++ ('0' to '9') ++ Seq('-', '_')
+      // the last character of a 32 byte signature carries 4 unused bits, flipping one decodes to the same bytes
+      val last = alphabet(alphabet.indexOf(token.last) ^ 1)
+      Jwt.verify(keys, token.dropRight(1) + last) must beNone
+    }
+
+    "accept tokens signed with previous keys until they are retired" in {
+      val keys = new JwtKeySet(key("k1"))
+      val token = Jwt.sign(keys.current, claims)
+      keys.rotate(key("k2"))
+      keys.current.id must_== "k2"
+      Jwt.verify(keys, token) must beSome(claims)
+      keys.retire("k1")
+      Jwt.verify(keys, token) must beNone
+    }
+  }
+
+  "JwtAuthenticatorBuilder" should {
+    "let only one of two concurrent refreshes with the same token succeed" in {
+      val reference = UserReference("userpass", "foo@bar.com")
+      val loader = new UserLoader[UserReference] {
+        def referenceFor(user: UserReference) = user
+        def load(reference: UserReference) = Future.successful(Some(reference))
+      }
+      val config = JwtConfig("Authorization", "securesocial", 300, 60, "k1", Map())
+      val builder = new JwtAuthenticatorBuilder[UserReference](new JwtKeySet(key("k1")), new UserCache(loader, UserCacheConfig(10, 60)),
+        new InMemoryCacheService, new IdGenerator.Default(Configuration("securesocial.idLengthInBytes" -> 16)), config)
+      val refreshToken = await(builder.fromUser(reference)).refreshToken.get
+
+      val first = builder.refresh(refreshToken)
+      val second = builder.refresh(refreshToken)
+      Seq(await(first), await(second)).flatten.size must_== 1
+    }
+  }
+}
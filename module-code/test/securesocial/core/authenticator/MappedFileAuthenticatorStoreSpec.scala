@@ -0,0 +1,105 @@
+package securesocial.core.authenticator
+
+import java.io.{ File, RandomAccessFile }
+import java.nio.file.Files
+
+import helpers.Authenticators.{ A, headerAuthenticator => authenticator }
+import org.junit.runner.RunWith
+import org.specs2.mutable._
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+@RunWith(classOf[JUnitRunner])
+class MappedFileAuthenticatorStoreSpec extends PlaySpecification {
+  implicit val ec = helpers.sequentialExecutionContext
+
+  val config = MappedFileStoreConfig("unused", slots = 64, slotSizeInBytes = 2048, bucketSize = 4, lockStripes = 4,
+    syncOnWrite = false, compactionIntervalInSeconds = 300, decodedCacheSize = 16)
+
+  def newFile: File = {
+    val file = Files.createTempFile("securesocial", ".db").toFile
+    file.delete()
+    file.deleteOnExit()
+    file
+  }
+
+  "MappedFileAuthenticatorStore" should {
+    "find the authenticators it saves" in {
+      val store = new MappedFileAuthenticatorStore[A](newFile, config)
+      await(store.save(authenticator("a"), 60))
+      await(store.find("a")).map(_.user) must beSome("user")
+      await(store.find("b")) must beNone
+    }
+
+    "keep only the latest version of an authenticator" in {
+      val store = new MappedFileAuthenticatorStore[A](newFile, config)
+      await(store.save(authenticator("a"), 60))
+      await(store.save(authenticator("a", "updated"), 60))
+      await(store.find("a")).map(_.user) must beSome("updated")
+      store.size must_== 1
+      await(store.delete("a"))
+      await(store.find("a")) must beNone
+    }
+
+    "keep the authenticators when the file is reopened" in {
+      val file = newFile
+      val store = new MappedFileAuthenticatorStore[A](file, config)
+      await(store.save(authenticator("a"), 60))
+      store.flush()
+      await(new MappedFileAuthenticatorStore[A](file, config).find("a")).map(_.user) must beSome("user")
+    }
+
+    "ignore slots with a wrong checksum" in {
+      val file = newFile
+      val store = new MappedFileAuthenticatorStore[A](file, config)
+      await(store.save(authenticator("a"), 60))
+      store.flush()
+      val raw = new RandomAccessFile(file, "rw")
+      try {
+        // corrupt the contents of every used slot
+        (0 until config.slots).foreach { slot =>
+          val offset = 64L + slot * config.slotSizeInBytes
+          raw.seek(offset)
+          if (raw.read() == 1) {
+            raw.seek(offset + 40)
+            val b = raw.read()
+            raw.seek(offset + 40)
+            raw.write(~b)
+          }
+        }
+      } finally {
+        raw.close()
+      }
+      await(new MappedFileAuthenticatorStore[A](file, config).find("a")) must beNone
+    }
+
+    "deserialize an authenticator again only when it changes" in {
+      val store = new MappedFileAuthenticatorStore[A](newFile, config)
+      await(store.save(authenticator("a"), 60))
+      await(store.find("a")) must beSome
+      await(store.find("a")) must beSome
+      store.stats.decodes must_== 1
+      store.stats.decodedHits must_== 1
+      await(store.save(authenticator("a", "updated"), 60))
+      await(store.find("a")).map(_.user) must beSome("updated")
+      store.stats.decodes must_== 2
+    }
+
+    "count the live authenticators evicted from a full bucket" in {
+      val store = new MappedFileAuthenticatorStore[A](newFile, config.copy(slots = 4))
+      (1 to 5).foreach(i => await(store.save(authenticator(s"id$i"), 60)))
+      store.stats.evictions must_== 1
+      store.size must_== 4
+    }
+
+    "release expired slots when compacting" in {
+      val store = new MappedFileAuthenticatorStore[A](newFile, config)
+      await(store.save(authenticator("a"), 1))
+      await(store.save(authenticator("b"), 60))
+      Thread.sleep(1100)
+      await(store.find("a")) must beNone
+      store.compact() must_== 1
+      await(store.find("b")) must beSome
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package securesocial.core.authenticator
+
+import helpers.Authenticators.{ A, headerAuthenticator => authenticator }
+import helpers.InMemoryCacheService
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+@RunWith(classOf[JUnitRunner])
+class ShardedAuthenticatorStoreSpec extends PlaySpecification {
+  implicit val ec = helpers.sequentialExecutionContext
+
+  val ids = (1 to 10000).map(i => s"authenticator-$i")
+
+  "ConsistentHashRing" should {
+    "spread the keys evenly" in {
+      val ring = new ConsistentHashRing((1 to 4).map(i => s"shard$i" -> i))
+      val counts = ids.groupBy(ring.nodeFor).mapValues(_.size)
+      counts.values.foreach { count => count must beBetween(1800, 3200) }
+      ring.shares.map(_._2).sum must beCloseTo(1.0, 0.0001)
+    }
+
+    "only move the keys taken by a new node" in {
+      val before = new ConsistentHashRing((1 to 4).map(i => s"shard$i" -> i))
+      val after = new ConsistentHashRing((1 to 5).map(i => s"shard$i" -> i))
+      val moved = ids.filter(id => before.nodeFor(id) != after.nodeFor(id))
+      moved.forall(after.nodeFor(_) == 5) must beTrue
+      moved.size must beBetween(1400, 2600)
+    }
+  }
+
+  "ShardedAuthenticatorStore" should {
+    "save, find and delete the authenticators" in {
+      val shards = (1 to 3).map(i => s"shard$i" -> new InMemoryCacheService)
+      val store = new ShardedAuthenticatorStore[A](shards)
+      ids.take(300).foreach(id => await(store.save(authenticator(id), 60)))
+      await(store.find("authenticator-1")).map(_.id) must beSome("authenticator-1")
+      await(store.delete("authenticator-1"))
+      await(store.find("authenticator-1")) must beNone
+
+      val stats = store.stats
+      stats.map(_.saves).sum must_== 300
+      stats.forall(_.saves > 0) must beTrue
+    }
+
+    "move the authenticators to their new shard when they are used" in {
+      val caches = (1 to 4).map(i => s"shard$i" -> new InMemoryCacheService)
+      val before = new ShardedAuthenticatorStore[A](caches.take(3))
+      ids.take(300).foreach(id => await(before.save(authenticator(id), 60)))
+
+      val after = new ShardedAuthenticatorStore[A](caches, previousShards = caches.take(3))
+      ids.take(300).forall(id => await(after.find(id)).isDefined) must beTrue
+      val migrated = after.stats.map(_.migrated).sum
+      migrated must be_>(0L)
+      migrated must be_<(150L)
+
+      // a store without the previous shards finds them all in their new place
+      val settled = new ShardedAuthenticatorStore[A](caches)
+      ids.take(300).forall(id => await(settled.find(id)).isDefined) must beTrue
+    }
+  }
+}
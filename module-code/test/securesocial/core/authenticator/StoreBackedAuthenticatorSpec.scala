@@ -0,0 +1,51 @@
+package securesocial.core.authenticator
+
+import org.joda.time.DateTime
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class StoreBackedAuthenticatorSpec extends PlaySpecification with Mockito {
+  val headerConfig = HttpHeaderConfig("X-Auth-Token", 30, 720)
+  val minute = 60000L
+
+  def authenticator(expiration: Long, lastUsed: Long, store: AuthenticatorStore[HttpHeaderAuthenticator[String]] = mock[AuthenticatorStore[HttpHeaderAuthenticator[String]]]) =
+    HttpHeaderAuthenticator[String]("id", "user", expiration, lastUsed, lastUsed - minute, headerConfig, store)
+
+  "StoreBackedAuthenticator" should {
+    "check the expiration and the idle timeout" in {
+      val now = System.currentTimeMillis()
+      authenticator(now + minute, now).isValid must beTrue
+      authenticator(now - minute, now).isValid must beFalse
+      authenticator(now + 60 * minute, now - 31 * minute).isValid must beFalse
+    }
+
+    "keep the DateTime accessors" in {
+      val now = DateTime.now()
+      val store = mock[AuthenticatorStore[HttpHeaderAuthenticator[String]]]
+      val a = HttpHeaderAuthenticator[String]("id", "user", now.plusMinutes(720), now, now, headerConfig, store)
+      a.expirationDate must_== now.plusMinutes(720)
+      a.lastUsed must_== now
+      a.lastUsedMillis must_== now.getMillis
+      a.withLastUsedTime(now.plusMinutes(1)).lastUsed must_== now.plusMinutes(1)
+      a.withExpirationDate(now.plusMinutes(5)).expirationDate must_== now.plusMinutes(5)
+    }
+
+    "only save a touched authenticator after the touch resolution" in {
+      val store = mock[AuthenticatorStore[HttpHeaderAuthenticator[String]]]
+      val now = System.currentTimeMillis()
+      val recent = authenticator(now + 60 * minute, now, store)
+      store.save(any, anyInt) returns Future.successful(recent)
+      await(recent.touch) must be(recent)
+      there was no(store).save(any, anyInt)
+
+      await(authenticator(now + 60 * minute, now - 10 * minute, store).touch)
+      there was one(store).save(any, anyInt)
+      recent.withLastUsedMillis(now + minute).lastUsedMillis must_== now + minute
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package securesocial.core.authenticator
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.runner.RunWith
+import org.specs2.mutable._
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.{ Future, Promise }
+
+@RunWith(classOf[JUnitRunner])
+class UserCacheSpec extends PlaySpecification {
+  case class User(providerId: String, userId: String, name: String)
+
+  class CountingLoader(result: => Future[Option[User]]) extends UserLoader[User] {
+    val calls = new AtomicInteger()
+    def referenceFor(user: User) = UserReference(user.providerId, user.userId)
+    def load(reference: UserReference) = {
+      calls.incrementAndGet()
+      result
+    }
+  }
+
+  val reference = UserReference("userpass", "foo@bar.com")
+  val user = User("userpass", "foo@bar.com", "Foo")
+
+  "UserCache" should {
+    "share a single load between concurrent lookups" in {
+      val promise = Promise[Option[User]]()
+      val loader = new CountingLoader(promise.future)
+      val cache = new UserCache[User](loader, UserCacheConfig(10, 60))
+      val first = cache.get(reference)
+      val second = cache.get(reference)
+      promise.success(Some(user))
+      await(first) must beSome(user)
+      await(second) must beSome(user)
+      loader.calls.get() must_== 1
+    }
+
+    "not keep misses" in {
+      val loader = new CountingLoader(Future.successful(None))
+      val cache = new UserCache[User](loader, UserCacheConfig(10, 60))
+      await(cache.get(reference)) must beNone
+      await(cache.get(reference)) must beNone
+      loader.calls.get() must_== 2
+    }
+
+    "return users added with put without invoking the loader" in {
+      val loader = new CountingLoader(Future.successful(None))
+      val cache = new UserCache[User](loader, UserCacheConfig(10, 60))
+      cache.put(user)
+      await(cache.get(reference)) must beSome(user)
+      cache.invalidate(reference)
+      await(cache.get(reference)) must beNone
+      loader.calls.get() must_== 1
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package securesocial.core.providers
+
+import java.nio.charset.StandardCharsets.UTF_8
+import java.security.interfaces.RSAPublicKey
+import java.security.{ KeyPair, KeyPairGenerator, Signature }
+import java.util.Base64
+
+import org.junit.runner.RunWith
+import org.specs2.mock.Mockito
+import org.specs2.runner.JUnitRunner
+import play.api.libs.json.{ JsBoolean, JsObject, JsValue, Json }
+import play.api.libs.ws.{ WSRequest, WSResponse }
+import play.api.test.PlaySpecification
+import securesocial.core._
+import securesocial.core.services.{ CacheService, HttpService, RoutesService }
+
+import scala.collection.mutable
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class OpenIdConnectProviderSpec extends PlaySpecification with Mockito {
+  val Issuer = "https://issuer.example.com"
+  val JwksUri = s"$Issuer/jwks"
+
+  def newKey(): KeyPair = {
+    val generator = KeyPairGenerator.getInstance("RSA")
+    generator.initialize(2048)
+    generator.generateKeyPair()
+  }
+
+  def encode(bytes: Array[Byte]): String = Base64.getUrlEncoder.withoutPadding().encodeToString(bytes)
+
+  def jwk(kid: String, key: KeyPair): JsObject = {
+    val public = key.getPublic.asInstanceOf[RSAPublicKey]
+    Json.obj("kty" -> "RSA", "use" -> "sig", "kid" -> kid,
+      "n" -> encode(public.getModulus.toByteArray), "e" -> encode(public.getPublicExponent.toByteArray))
+  }
+
+  def sign(kid: String, key: KeyPair, claims: JsObject): String = {
+    val input = encode(Json.obj("alg" -> "RS256", "kid" -> kid).toString.getBytes(UTF_8)) + "." + encode(claims.toString.getBytes(UTF_8))
+    val signature = Signature.getInstance("SHA256withRSA")
+    signature.initSign(key.getPrivate)
+    signature.update(input.getBytes(UTF_8))
+    input + "." + encode(signature.sign())
+  }
+
+  def claims(audience: String = "client-id", expiresIn: Long = 300) = Json.obj(
+    "iss" -> Issuer, "aud" -> audience, "sub" -> "1234", "exp" -> (System.currentTimeMillis() / 1000 + expiresIn),
+    "given_name" -> "Jane", "family_name" -> "Doe", "email" -> "jane@example.com", "email_verified" -> true)
+
+  class IssuerHttpService extends HttpService with Mockito {
+    var keys: Seq[JsObject] = Seq()
+    val requested = mutable.Buffer[String]()
+
+    def url(url: String): WSRequest = synchronized {
+      requested += url
+      val json: JsValue = url match {
+        case JwksUri => Json.obj("keys" -> keys)
+        case _ => Json.obj("issuer" -> Issuer, "jwks_uri" -> JwksUri)
+      }
+      val response = mock[WSResponse]
+      response.json returns json
+      val request = mock[WSRequest]
+      request.get() returns Future.successful(response)
+      request
+    }
+  }
+
+  def client(http: HttpService) = new OAuth2Client.Default(http,
+    OAuth2Settings(s"$Issuer/authorize", s"$Issuer/token", "client-id", "secret", None, Map(), Map()))
+
+  def provider(http: HttpService) = OpenIdConnectProvider(mock[RoutesService], mock[CacheService], client(http), Issuer)
+
+  "OpenIdConnectProvider" should {
+    "read the profile from a verified id token fetching the discovery document and the keys once" in {
+      val key = newKey()
+      val http = new IssuerHttpService
+      http.keys = Seq(jwk("k1", key))
+      val oidc = provider(http)
+      val info = OAuth2Info("access", idToken = Some(sign("k1", key, claims())))
+
+      val profile = await(oidc.fillProfile(info))
+      await(oidc.fillProfile(info))
+
+      profile.userId must_== "1234"
+      profile.email must beSome("jane@example.com")
+      profile.oAuth2Info must beSome(info)
+      http.requested must_== Seq(s"$Issuer/.well-known/openid-configuration", JwksUri)
+    }
+
+    "leave out emails that are not known to be verified" in {
+      val key = newKey()
+      val http = new IssuerHttpService
+      http.keys = Seq(jwk("k1", key))
+      val oidc = provider(http)
+
+      val unverified = OAuth2Info("access", idToken = Some(sign("k1", key, claims() + ("email_verified" -> JsBoolean(false)))))
+      await(oidc.fillProfile(unverified)).email must beNone
+      val unknown = OAuth2Info("access", idToken = Some(sign("k1", key, claims() - "email_verified")))
+      await(oidc.fillProfile(unknown)).email must beNone
+    }
+
+    "fetch the keys again when a token is signed with an unknown key" in {
+      val (first, second) = (newKey(), newKey())
+      val http = new IssuerHttpService
+      http.keys = Seq(jwk("k1", first))
+      val discovery = new OpenIdConnectDiscovery(http, Issuer)
+      val oidc = new OpenIdConnectProvider(mock[RoutesService], mock[CacheService], client(http), discovery,
+        new OpenIdConnectKeys(http, discovery, minRefreshIntervalInSeconds = 0))
+      await(oidc.verify(sign("k1", first, claims())))
+
+      http.keys = Seq(jwk("k1", first), jwk("k2", second))
+      (await(oidc.verify(sign("k2", second, claims()))) \ "sub").as[String] must_== "1234"
+      http.requested.count(_ == JwksUri) must_== 2
+    }
+
+    "not fetch the keys again within the refresh interval" in {
+      val (first, second) = (newKey(), newKey())
+      val http = new IssuerHttpService
+      http.keys = Seq(jwk("k1", first))
+      val oidc = provider(http)
+      await(oidc.verify(sign("k1", first, claims())))
+
+      await(oidc.verify(sign("k2", second, claims()))) must throwA[AuthenticationException]
+      http.requested.count(_ == JwksUri) must_== 1
+    }
+
+    "reject tokens for other clients, expired tokens and bad signatures" in {
+      val (key, other) = (newKey(), newKey())
+      val http = new IssuerHttpService
+      http.keys = Seq(jwk("k1", key))
+      val oidc = provider(http)
+
+      await(oidc.verify(sign("k1", key, claims(audience = "someone-else")))) must throwA[AuthenticationException]
+      await(oidc.verify(sign("k1", key, claims(expiresIn = -3600)))) must throwA[AuthenticationException]
+      await(oidc.verify(sign("k1", other, claims()))) must throwA[AuthenticationException]
+      await(oidc.verify("not-a-token")) must throwA[AuthenticationException]
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package securesocial.core.providers.utils
+
+import java.io.File
+import java.security.MessageDigest
+
+import org.junit.runner.RunWith
+import org.specs2.mutable.Specification
+import org.specs2.runner.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class BreachedPasswordValidatorSpec extends Specification {
+  def sha1(password: String): String =
+    MessageDigest.getInstance("SHA-1").digest(password.getBytes("UTF-8")).map("%02X".format(_)).mkString
+
+  val breached = Seq("password", "123456", "qwerty", "letmein", "dragon")
+
+  // a small chunk, so the corpora are sorted in several runs that are merged
+  def withIndex[T](lines: Seq[String], plain: Boolean, chunkEntries: Int = 2)(check: BreachedPasswordIndex => T): T = {
+    val file = File.createTempFile("breached", ".idx")
+    file.deleteOnExit()
+    BreachedPasswordIndex.build(lines.iterator, plain, file, chunkEntries)
+    val index = new BreachedPasswordIndex(file)
+    try check(index) finally index.close()
+  }
+
+  "BreachedPasswordIndex" should {
+    "find the passwords of a corpus of hashes" in {
+      withIndex(breached.map(p => s"${sha1(p)}:42"), plain = false) { index =>
+        index.size must_== breached.size
+        breached.forall(index.contains) must beTrue
+        index.contains("correct horse battery staple") must beFalse
+      }
+    }
+
+    "find the passwords of a corpus of plain passwords and skip the duplicates" in {
+      withIndex(breached ++ breached.reverse, plain = true) { index =>
+        index.size must_== breached.size
+        breached.forall(index.contains) must beTrue
+        index.contains("not-in-the-corpus") must beFalse
+      }
+    }
+
+    "build the same index when the corpus fits in a single chunk" in {
+      withIndex(breached ++ breached.reverse, plain = true, chunkEntries = 1024) { index =>
+        index.size must_== breached.size
+        breached.forall(index.contains) must beTrue
+      }
+    }
+
+    "handle prefixes with the high bit set" in {
+      withIndex(Seq("FFFFFFFFFFFFFFFF0000", "0000000000000001", "8000000000000000"), plain = false) { index =>
+        index.containsPrefix(-1L) must beTrue
+        index.containsPrefix(1L) must beTrue
+        index.containsPrefix(Long.MinValue) must beTrue
+        index.containsPrefix(2L) must beFalse
+      }
+    }
+  }
+
+  "BreachedPasswordValidator" should {
+    "check the underlying validator first and then the index" in {
+      withIndex(breached, plain = true) { index =>
+        val validator = new BreachedPasswordValidator(index, new PasswordValidator.Default(6))
+        validator.validate("abc") must beLeft((PasswordValidator.Default.InvalidPasswordMessage, Seq(6)))
+        validator.validate("letmein") must beLeft((BreachedPasswordValidator.BreachedPasswordMessage, Seq()))
+        validator.validate("a-long-unusual-password") must beRight
+      }
+    }
+  }
+}
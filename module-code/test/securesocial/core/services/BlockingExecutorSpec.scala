@@ -0,0 +1,53 @@
+package securesocial.core.services
+
+import java.util.concurrent.{ Callable, CountDownLatch, RejectedExecutionException, TimeoutException }
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+@RunWith(classOf[JUnitRunner])
+class BlockingExecutorSpec extends PlaySpecification {
+  def config(poolSize: Int = 2, queueSize: Int = 10, timeouts: Map[String, Int] = Map()) =
+    BlockingExecutorConfig(poolSize, queueSize, virtualThreads = false, defaultTimeoutInMillis = 5000, timeouts)
+
+  def call[T](block: => T): Callable[T] = new Callable[T] {
+    def call(): T = block
+  }
+
+  "BlockingExecutor" should {
+    "run the calls and count them" in {
+      val executor = new BlockingExecutor(config())
+      await(executor.submit("find", call(Thread.currentThread().getName))) must startWith("securesocial-blocking")
+      executor.stats.completed must_== 1
+      executor.stats.queued must_== 0
+      executor.shutdown()
+      ok
+    }
+
+    "fail the calls that exceed their method timeout" in {
+      val executor = new BlockingExecutor(config(timeouts = Map("save" -> 50)))
+      val release = new CountDownLatch(1)
+      await(executor.submit("save", call(release.await()))) must throwA[TimeoutException]
+      executor.stats.timedOut must_== 1
+      release.countDown()
+      executor.shutdown()
+      ok
+    }
+
+    "reject the calls when the queue is full" in {
+      val executor = new BlockingExecutor(config(poolSize = 1, queueSize = 1))
+      val release = new CountDownLatch(1)
+      val started = new CountDownLatch(1)
+      executor.submit("save", call { started.countDown(); release.await() })
+      started.await()
+      executor.submit("save", call(release.await()))
+      await(executor.submit("save", call(()))) must throwA[RejectedExecutionException]
+      executor.stats.rejected must_== 1
+      executor.stats.queued must_== 1
+      release.countDown()
+      executor.shutdown()
+      ok
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package securesocial.core.services
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.Future
+import scala.reflect.ClassTag
+
+@RunWith(classOf[JUnitRunner])
+class CacheServiceSpec extends PlaySpecification {
+  // only implements the basic operations, so the default implementations of the others are used
+  class MapCacheService extends CacheService {
+    val entries = TrieMap[String, (Any, Int)]()
+
+    def set[T](key: String, value: T, ttlInSeconds: Int): Future[Unit] = {
+      entries.put(key, (value, ttlInSeconds))
+      Future.successful(())
+    }
+    def getAs[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = Future.successful(entries.get(key).map(_._1.asInstanceOf[T]))
+    def remove(key: String): Future[Unit] = {
+      entries.remove(key)
+      Future.successful(())
+    }
+  }
+
+  "The default CacheService operations" should {
+    "get several entries at once" in {
+      val cache = new MapCacheService
+      cache.entries.put("a", ("1", 0))
+      cache.entries.put("b", ("2", 0))
+      await(cache.getMany[String](Seq("a", "b", "c"))) must_== Map("a" -> "1", "b" -> "2")
+    }
+
+    "change the time to live of an existing entry" in {
+      val cache = new MapCacheService
+      cache.entries.put("a", ("1", 10))
+      await(cache.expire("a", 60)) must beTrue
+      cache.entries("a") must_== ("1", 60)
+      await(cache.expire("missing", 60)) must beFalse
+    }
+
+    "return an entry only once" in {
+      val cache = new MapCacheService
+      cache.entries.put("state", ("xyz", 0))
+      await(cache.getAndRemove[String]("state")) must beSome("xyz")
+      await(cache.getAndRemove[String]("state")) must beNone
+    }
+
+    "set an entry only if there is none" in {
+      val cache = new MapCacheService
+      await(cache.setIfAbsent("a", "1", 60)) must beTrue
+      await(cache.setIfAbsent("a", "2", 60)) must beFalse
+      await(cache.getAs[String]("a")) must beSome("1")
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package securesocial.core.services
+
+import org.joda.time.DateTime
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+import securesocial.core.providers.{ MailToken, UsernamePasswordProvider }
+import securesocial.core.{ AuthenticationMethod, BasicProfile, OAuth1Info, PasswordInfo }
+
+import scala.concurrent.ExecutionContext.Implicits.global
+
+@RunWith(classOf[JUnitRunner])
+class IndexedUserServiceSpec extends PlaySpecification {
+  case class User(main: BasicProfile, identities: List[BasicProfile])
+
+  object Model extends UserModel[User] {
+    def create(profile: BasicProfile) = User(profile, List(profile))
+    def main(user: User) = user.main
+    def profiles(user: User) = user.identities
+    def withProfile(user: User, profile: BasicProfile) = {
+      val others = user.identities.filterNot(p => p.providerId == profile.providerId && p.userId == profile.userId)
+      val main = if (user.main.providerId == profile.providerId && user.main.userId == profile.userId) profile else user.main
+      User(main, profile :: others)
+    }
+  }
+
+  def profile(providerId: String, userId: String, email: Option[String] = None) =
+    BasicProfile(providerId, userId, None, None, None, email, None, AuthenticationMethod.UserPassword)
+
+  def token(uuid: String, expiresAt: DateTime) = MailToken(uuid, "foo@bar.com", expiresAt.minusMinutes(60), expiresAt, isSignUp = true)
+
+  val password = profile(UsernamePasswordProvider.UsernamePassword, "foo@bar.com", Some("foo@bar.com"))
+  val twitter = profile("twitter", "1234", Some("foo@twitter.com"))
+
+  "IndexedUserService" should {
+    "find saved profiles by id and by email" in {
+      val service = new IndexedUserService[User](Model)
+      await(service.save(password, SaveMode.SignUp))
+      await(service.find(password.providerId, password.userId)) must beSome(password)
+      await(service.findByEmailAndProvider("foo@bar.com", password.providerId)) must beSome(password)
+      await(service.findByEmailAndProvider("foo@bar.com", "twitter")) must beNone
+    }
+
+    "index the profiles linked to a user" in {
+      val service = new IndexedUserService[User](Model)
+      val user = await(service.save(password, SaveMode.SignUp))
+      val linked = await(service.link(user, twitter))
+      linked.identities must contain(twitter)
+      await(service.find("twitter", "1234")) must beSome(twitter)
+      await(service.save(twitter.copy(fullName = Some("Foo")), SaveMode.LoggedIn)).main must_== password
+      service.size must_== 1
+    }
+
+    "drop the email index of a profile when the email changes" in {
+      val service = new IndexedUserService[User](Model)
+      await(service.save(password, SaveMode.SignUp))
+      await(service.save(password.copy(email = Some("new@bar.com")), SaveMode.LoggedIn))
+      await(service.findByEmailAndProvider("foo@bar.com", password.providerId)) must beNone
+      await(service.findByEmailAndProvider("new@bar.com", password.providerId)) must beSome
+    }
+
+    "update the password info" in {
+      val service = new IndexedUserService[User](Model)
+      val user = await(service.save(password, SaveMode.SignUp))
+      val info = PasswordInfo("bcrypt", "secret")
+      await(service.updatePasswordInfo(user, info)).flatMap(_.passwordInfo) must beSome(info)
+      await(service.passwordInfoFor(user)) must beSome(info)
+    }
+
+    "delete only the expired tokens" in {
+      val service = new IndexedUserService[User](Model)
+      await(service.saveToken(token("expired", DateTime.now.minusMinutes(1))))
+      await(service.saveToken(token("valid", DateTime.now.plusMinutes(10))))
+      service.deleteExpiredTokens()
+      await(service.findToken("expired")) must beNone
+      await(service.findToken("valid")) must beSome
+    }
+
+    "read through and write through a backing service" in {
+      val backing = new IndexedUserService[User](Model)
+      await(backing.save(twitter, SaveMode.SignUp))
+      val service = new IndexedUserService[User](Model, Some(backing))
+      await(service.find("twitter", "1234")) must beSome(twitter)
+      await(service.save(password, SaveMode.SignUp))
+      await(backing.find(password.providerId, password.userId)) must beSome(password)
+      service.size must_== 1
+    }
+
+    "cache the profiles read through the backing service" in {
+      val lookups = new java.util.concurrent.atomic.AtomicInteger()
+      val backing = new IndexedUserService[User](Model) {
+        override def find(providerId: String, userId: String, consistency: ReadConsistency) = {
+          lookups.incrementAndGet()
+          super.find(providerId, userId, consistency)
+        }
+      }
+      await(backing.save(twitter, SaveMode.SignUp))
+      val service = new IndexedUserService[User](Model, Some(backing), maxCachedUsers = 1)
+      await(service.find("twitter", "1234")) must beSome(twitter)
+      await(service.find("twitter", "1234")) must beSome(twitter)
+      lookups.get must_== 1
+      // the misses are not cached
+      await(service.find("twitter", "unknown")) must beNone
+      await(service.find("twitter", "unknown")) must beNone
+      lookups.get must_== 3
+    }
+
+    "keep at most maxCachedUsers users in front of a backing service" in {
+      val service = new IndexedUserService[User](Model, Some(new IndexedUserService[User](Model)), maxCachedUsers = 1)
+      await(service.save(twitter, SaveMode.SignUp))
+      await(service.save(password, SaveMode.SignUp))
+      service.size must_== 1
+    }
+
+    "reject invalid settings" in {
+      new IndexedUserService[User](Model, lockStripes = 0) must throwAn[IllegalArgumentException]
+      new IndexedUserService[User](Model, maxCachedUsers = 0) must throwAn[IllegalArgumentException]
+    }
+
+    "detect the fields that changed in a profile" in {
+      ProfileChanges(twitter, twitter).isEmpty must beTrue
+      val refreshed = twitter.copy(oAuth1Info = Some(OAuth1Info("token", "secret")))
+      ProfileChanges(twitter, refreshed).fields must_== Set(ProfileChanges.OAuth1Info)
+      ProfileChanges(twitter, refreshed).onlyCredentials must beTrue
+      ProfileChanges(twitter, refreshed.copy(email = None)).onlyCredentials must beFalse
+    }
+
+    "skip the write when an update has no changes" in {
+      val service = new IndexedUserService[User](Model)
+      val user = await(service.save(twitter, SaveMode.SignUp))
+      await(service.update(twitter, ProfileChanges(twitter, twitter))) must be(user)
+      val renamed = twitter.copy(fullName = Some("Foo"))
+      await(service.update(renamed, ProfileChanges(twitter, renamed))).main must_== renamed
+    }
+
+    "pass the read consistency to the backing service" in {
+      val hints = collection.mutable.Buffer[ReadConsistency]()
+      val backing = new IndexedUserService[User](Model) {
+        override def find(providerId: String, userId: String, consistency: ReadConsistency) = {
+          hints += consistency
+          super.find(providerId, userId, consistency)
+        }
+      }
+      val service = new IndexedUserService[User](Model, Some(backing))
+      await(service.find("twitter", "1234", ReadConsistency.Replica)) must beNone
+      await(service.find("twitter", "1234")) must beNone
+      hints must_== Seq(ReadConsistency.Replica, ReadConsistency.Primary)
+    }
+  }
+}
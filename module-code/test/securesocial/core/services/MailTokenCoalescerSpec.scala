@@ -0,0 +1,67 @@
+package securesocial.core.services
+
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+
+import helpers.InMemoryCacheService
+import org.joda.time.DateTime
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test._
+import securesocial.core.providers.MailToken
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+@RunWith(classOf[JUnitRunner])
+class MailTokenCoalescerSpec extends PlaySpecification {
+  val config = MailTokenCoalescerConfig(windowInSeconds = 60, maxEntries = 100, shared = false)
+
+  def newToken(email: String) =
+    Future.successful(MailToken(UUID.randomUUID().toString, email, DateTime.now, DateTime.now.plusMinutes(60), isSignUp = true))
+
+  "MailTokenCoalescer" should {
+    "deliver a single token for repeated requests" in {
+      val coalescer = new MailTokenCoalescer(config)
+      val delivered = new AtomicInteger()
+      val tokens = (1 to 5).map { _ =>
+        await(coalescer.coalesce("john@example.com", isSignUp = true)(newToken("john@example.com")) { token =>
+          delivered.incrementAndGet()
+          Future.successful(token)
+        })
+      }
+      tokens.map(_.uuid).distinct must have size 1
+      delivered.get must_== 1
+      coalescer.stats.duplicates must_== 4
+      coalescer.stats.duplicateRate must_== 0.8
+    }
+
+    "not hold back requests after a failed delivery" in {
+      val coalescer = new MailTokenCoalescer(config)
+      val failed = coalescer.coalesce("john@example.com", isSignUp = false)(newToken("john@example.com")) { _ =>
+        Future.failed(new IllegalStateException("smtp down"))
+      }
+      await(failed) must throwA[IllegalStateException]
+      val delivered = new AtomicInteger()
+      await(coalescer.coalesce("john@example.com", isSignUp = false)(newToken("john@example.com")) { token =>
+        delivered.incrementAndGet()
+        Future.successful(token)
+      })
+      delivered.get must_== 1
+    }
+
+    "coalesce requests across nodes sharing a cache" in {
+      val cache = new InMemoryCacheService
+      val nodes = Seq(new MailTokenCoalescer(config, Some(cache)), new MailTokenCoalescer(config, Some(cache)))
+      val delivered = new AtomicInteger()
+      val tokens = nodes.map { node =>
+        await(node.coalesce("john@example.com", isSignUp = true)(newToken("john@example.com")) { token =>
+          delivered.incrementAndGet()
+          Future.successful(token)
+        })
+      }
+      tokens.map(_.uuid).distinct must have size 1
+      delivered.get must_== 1
+    }
+  }
+}
@@ -16,166 +16,151 @@
  */
 package service;
 
-import play.Logger;
-import play.libs.F;
+import scala.Option;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.Future;
 import securesocial.core.BasicProfile;
+import securesocial.core.OAuth2Info;
 import securesocial.core.PasswordInfo;
-import securesocial.core.services.SaveMode;
 import securesocial.core.java.BaseUserService;
 import securesocial.core.java.Token;
-import securesocial.core.providers.UsernamePasswordProvider;
+import securesocial.core.providers.MailToken;
+import securesocial.core.services.IndexedUserService;
+import securesocial.core.services.ProfileChanges;
+import securesocial.core.services.SaveMode;
+import securesocial.core.services.UserModel;
+import securesocial.core.services.UserService;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
 import java.util.concurrent.CompletionStage;
 
+import static scala.compat.java8.FutureConverters.toJava;
+
 /**
  * A Sample In Memory user service in Java
  *
- * Note: This is NOT suitable for a production environment and is provided only as a guide.
- * A real implementation would persist things in a database
+ * The users are kept in an IndexedUserService, so finding them does not require scanning all of them.
+ * A real implementation would persist things in a database, it could still use an IndexedUserService
+ * with the database service as its backing service to cache the users.
  */
 public class InMemoryUserService extends BaseUserService<DemoUser> {
-    public Logger.ALogger logger = play.Logger.of("application.service.InMemoryUserService");
+    private final IndexedUserService<DemoUser> users;
+
+    public InMemoryUserService(ExecutionContext executionContext) {
+        users = new IndexedUserService<DemoUser>(new Model(), Option.<UserService<DemoUser>>empty(),
+                IndexedUserService.DefaultLockStripes(), IndexedUserService.DefaultMaxCachedUsers(),
+                IndexedUserService.DefaultCacheTtlInSeconds(), executionContext);
+    }
+
+    private static <T> CompletionStage<T> orNull(Future<Option<T>> future) {
+        return toJava(future).thenApply(found -> found.isDefined() ? found.get() : null);
+    }
 
-    private HashMap<String, DemoUser> users = new HashMap<String, DemoUser>();
-    private HashMap<String, Token> tokens = new HashMap<String, Token>();
+    private static CompletionStage<Token> tokenOrNull(Future<Option<MailToken>> future) {
+        return toJava(future).thenApply(found -> found.isDefined() ? Token.fromScala(found.get()) : null);
+    }
 
     @Override
     public CompletionStage<DemoUser> doSave(BasicProfile profile, SaveMode mode) {
-        DemoUser result = null;
-        if (mode == SaveMode.SignUp()) {
-            result = new DemoUser(profile);
-            users.put(profile.providerId() + profile.userId(), result);
-        } else if (mode == SaveMode.LoggedIn()) {
-            for (Iterator<DemoUser> it =  users.values().iterator() ; it.hasNext() && result == null ; ) {
-                DemoUser user = it.next();
-                for ( BasicProfile p : user.identities) {
-                    if ( p.userId().equals(profile.userId()) && p.providerId().equals(profile.providerId())) {
-                        user.identities.remove(p);
-                        user.identities.add(profile);
-                        result = user;
-                        break;
-                    }
-                }
-            }
-        } else if (mode == SaveMode.PasswordChange()) {
-            for (Iterator<DemoUser> it =  users.values().iterator() ; it.hasNext() && result == null ; ) {
-                DemoUser user = it.next();
-                for (BasicProfile p : user.identities) {
-                    if (p.userId().equals(profile.userId()) && p.providerId().equals(UsernamePasswordProvider.UsernamePassword())) {
-                        user.identities.remove(p);
-                        user.identities.add(profile);
-                        result = user;
-                        break;
-                    }
-                }
-            }
-        } else {
-            throw new RuntimeException("Unknown mode");
-        }
-        return new CompletableFuture().completedFuture(result);
+        return toJava(users.save(profile, mode));
     }
 
     @Override
-    public CompletionStage<DemoUser> doLink(DemoUser current, BasicProfile to) {
-        DemoUser target = null;
-
-        for ( DemoUser u: users.values() ) {
-            if ( u.main.providerId().equals(current.main.providerId()) && u.main.userId().equals(current.main.userId()) ) {
-                target = u;
-                break;
-            }
-        }
-
-        if ( target == null ) {
-            // this should not happen
-            throw new RuntimeException("Can't find user : " + current.main.userId());
-        }
+    public CompletionStage<DemoUser> doUpdate(BasicProfile profile, ProfileChanges changes) {
+        // the indexed service skips the write when nothing changed
+        return toJava(users.update(profile, changes));
+    }
 
-        boolean alreadyLinked = false;
-        for ( BasicProfile p : target.identities) {
-            if ( p.userId().equals(to.userId()) && p.providerId().equals(to.providerId())) {
-                alreadyLinked = true;
-                break;
-            }
-        }
-        if (!alreadyLinked) target.identities.add(to);
-        return new CompletableFuture().completedFuture(target);
+    @Override
+    public CompletionStage<DemoUser> doUpdateOAuth2Info(BasicProfile profile, OAuth2Info info) {
+        return toJava(users.updateOAuth2Info(profile, info));
     }
 
     @Override
-    public CompletionStage<Token> doSaveToken(Token token) {
-        tokens.put(token.uuid, token);
-        return new CompletableFuture().completedFuture(token);
+    public CompletionStage<DemoUser> doLink(DemoUser current, BasicProfile to) {
+        return toJava(users.link(current, to));
     }
 
     @Override
     public CompletionStage<BasicProfile> doFind(String providerId, String userId) {
-        if(logger.isDebugEnabled()){
-            logger.debug("Finding user " + userId);
-        }
-        BasicProfile found = null;
-
-        for ( DemoUser u: users.values() ) {
-            for ( BasicProfile i : u.identities ) {
-                if ( i.providerId().equals(providerId) && i.userId().equals(userId) ) {
-                    found = i;
-                    break;
-                }
-            }
-        }
+        return orNull(users.find(providerId, userId));
+    }
 
-        return new CompletableFuture().completedFuture(found);
+    @Override
+    public CompletionStage<BasicProfile> doFindByEmailAndProvider(String email, String providerId) {
+        return orNull(users.findByEmailAndProvider(email, providerId));
     }
 
     @Override
     public CompletionStage<PasswordInfo> doPasswordInfoFor(DemoUser user) {
-        throw new RuntimeException("doPasswordInfoFor is not implemented yet in sample app");
+        return orNull(users.passwordInfoFor(user));
     }
 
     @Override
     public CompletionStage<BasicProfile> doUpdatePasswordInfo(DemoUser user, PasswordInfo info) {
-        throw new RuntimeException("doUpdatePasswordInfo is not implemented yet in sample app");
+        return orNull(users.updatePasswordInfo(user, info));
     }
 
     @Override
-    public CompletionStage<Token> doFindToken(String tokenId) {
-        return new CompletableFuture().completedFuture(tokens.get(tokenId));
+    public CompletionStage<Token> doSaveToken(Token token) {
+        return toJava(users.saveToken(token.toScala())).thenApply(Token::fromScala);
     }
 
-
     @Override
-    public CompletionStage<BasicProfile> doFindByEmailAndProvider(String email, String providerId) {
-        BasicProfile found = null;
-
-        for ( DemoUser u: users.values() ) {
-            for ( BasicProfile i : u.identities ) {
-                if ( i.providerId().equals(providerId) && i.email().isDefined() && i.email().get().equals(email) ) {
-                    found = i;
-                    break;
-                }
-            }
-        }
-
-        return new CompletableFuture().completedFuture(found);
+    public CompletionStage<Token> doFindToken(String tokenId) {
+        return tokenOrNull(users.findToken(tokenId));
     }
 
     @Override
     public CompletionStage<Token> doDeleteToken(String uuid) {
-        return new CompletableFuture().completedFuture(tokens.remove(uuid));
+        return tokenOrNull(users.deleteToken(uuid));
     }
 
     @Override
     public void doDeleteExpiredTokens() {
-        Iterator<Map.Entry<String,Token>> iterator = tokens.entrySet().iterator();
-        while ( iterator.hasNext() ) {
-            Map.Entry<String, Token> entry = iterator.next();
-            if ( entry.getValue().isExpired() ) {
-                iterator.remove();
+        users.deleteExpiredTokens();
+    }
+
+    /**
+     * The users are shared between threads, so instead of changing them a copy is returned
+     */
+    public static class Model implements UserModel<DemoUser> {
+        @Override
+        public DemoUser create(BasicProfile profile) {
+            return new DemoUser(profile);
+        }
+
+        @Override
+        public BasicProfile main(DemoUser user) {
+            return user.main;
+        }
+
+        @Override
+        public Seq<BasicProfile> profiles(DemoUser user) {
+            return JavaConverters.asScalaBufferConverter(user.identities).asScala();
+        }
+
+        @Override
+        public DemoUser withProfile(DemoUser user, BasicProfile profile) {
+            DemoUser updated = new DemoUser(sameProfile(user.main, profile) ? profile : user.main);
+            updated.identities = new ArrayList<BasicProfile>(user.identities.size() + 1);
+            boolean replaced = false;
+            for (BasicProfile p : user.identities) {
+                if (sameProfile(p, profile)) {
+                    updated.identities.add(profile);
+                    replaced = true;
+                } else {
+                    updated.identities.add(p);
+                }
             }
+            if (!replaced) updated.identities.add(profile);
+            return updated;
+        }
+
+        private static boolean sameProfile(BasicProfile a, BasicProfile b) {
+            return a.providerId().equals(b.providerId()) && a.userId().equals(b.userId());
         }
     }
 }
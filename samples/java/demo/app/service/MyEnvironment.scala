@@ -21,13 +21,15 @@ import javax.inject.{ Inject, Singleton }
 import akka.actor.ActorSystem
 import play.api.{ Configuration, Environment }
 import play.api.cache.AsyncCacheApi
+import play.api.inject.ApplicationLifecycle
 import play.api.i18n.MessagesApi
 import play.api.libs.mailer.MailerClient
 import play.api.libs.ws.WSClient
 import play.api.mvc.PlayBodyParsers
-import securesocial.core.RuntimeEnvironment
+import securesocial.core.{ IdentityProvider, RuntimeEnvironment }
 import securesocial.core.services.UserService
 
+import scala.collection.immutable.ListMap
 import scala.concurrent.ExecutionContext
 
 @Singleton
@@ -40,7 +42,16 @@ class MyEnvironment @Inject() (
   override val mailerClient: MailerClient,
   override val executionContext: ExecutionContext,
   override val parsers: PlayBodyParsers,
-  override val actorSystem: ActorSystem) extends RuntimeEnvironment.Default {
+  override val actorSystem: ActorSystem,
+  lifecycle: ApplicationLifecycle,
+  customProviders: CustomProviders) extends RuntimeEnvironment.Default {
+  override val applicationLifecycle = Some(lifecycle)
   type U = DemoUser
-  override val userService: UserService[U] = new InMemoryUserService()
+  override val userService: UserService[U] = new InMemoryUserService(executionContext)
+  override lazy val providers: ListMap[String, IdentityProvider] =
+    ListMap(customProviders.list.map(include): _*) ++ builtInProviders
+}
+
+case class CustomProviders(list: Seq[IdentityProvider]) {
+  @Inject def this() = this(Seq.empty)
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+import helpers.LoginLoadTest
+import play.api.Application
+import play.api.inject._
+import play.api.inject.guice.GuiceApplicationBuilder
+import securesocial.core.IdentityProvider
+import service.CustomProviders
+
+/**
+ * Runs the login load test against the demo: sbt -Dsecuresocial.loadtest=true "javaDemo/testOnly DemoLoginLoadTest"
+ */
+class DemoLoginLoadTest extends LoginLoadTest {
+  def application(providers: Seq[IdentityProvider]): Application = new GuiceApplicationBuilder()
+    .bindings(bind[CustomProviders].to(CustomProviders(providers)))
+    .build()
+}
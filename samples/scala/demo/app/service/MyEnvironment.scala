@@ -22,6 +22,7 @@ import javax.inject.{ Inject, Singleton }
 import akka.actor.ActorSystem
 import controllers.CustomRoutesService
 import play.api.cache.AsyncCacheApi
+import play.api.inject.ApplicationLifecycle
 import play.api.{ Configuration, Environment }
 import play.api.i18n.MessagesApi
 import play.api.libs.mailer.MailerClient
@@ -43,10 +44,12 @@ class MyEnvironment @Inject() (
   override val executionContext: ExecutionContext,
   override val parsers: PlayBodyParsers,
   override val actorSystem: ActorSystem,
+  lifecycle: ApplicationLifecycle,
   customProviders: CustomProviders) extends RuntimeEnvironment.Default {
+  override val applicationLifecycle = Some(lifecycle)
   override type U = DemoUser
   override lazy val routes = new CustomRoutesService(environment, configuration)
-  override lazy val userService: InMemoryUserService = new InMemoryUserService()
+  override lazy val userService: InMemoryUserService = new InMemoryUserService()(executionContext)
   override lazy val eventListeners = List(new MyEventListener)
   override lazy val providers: ListMap[String, IdentityProvider] =
     ListMap(customProviders.list.map(include): _*) ++ builtInProviders
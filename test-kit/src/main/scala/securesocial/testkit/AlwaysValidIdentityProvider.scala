@@ -1,25 +1,25 @@
 package securesocial.testkit
 
-import play.api.Logger
+import play.api.mvc.{ AnyContent, Request }
 import securesocial.core._
-import play.api.mvc.{Result, Request}
-import securesocial.core.IdentityId
-
-class AlwaysValidIdentityProvider(app:play.api.Application) extends IdentityProvider(app){
-  val logger = Logger("securesocial.stubs.AlwaysValidIdentityProvider")
-  def authMethod: AuthenticationMethod = AuthenticationMethod("naive")
 
+import scala.concurrent.Future
 
-  override def doAuth()(implicit request: Request[play.api.mvc.AnyContent]): Either[Result, SocialUser] ={
-    val userId = request.body.toString
-    val r =Right(SocialUserGenerator.socialUserGen(IdentityId(userId, id), authMethod).sample.get)
-    r
-  }
+/**
+ * An IdentityProvider that authenticates every request.  The user id is taken from the userId query string
+ * parameter (or the request body), and the rest of the profile is random.
+ */
+class AlwaysValidIdentityProvider extends IdentityProvider {
+  val id: String = AlwaysValidIdentityProvider.Naive
 
+  def authMethod: AuthenticationMethod = AuthenticationMethod("naive")
 
-  def fillProfile(user: SocialUser): SocialUser = {
-    user
+  override def authenticate()(implicit request: Request[AnyContent]): Future[AuthenticationResult] = {
+    val userId = request.getQueryString("userId").getOrElse(request.body.asText.getOrElse(request.body.toString))
+    Future.successful(AuthenticationResult.Authenticated(ProfileGenerator.profile(id, userId, authMethod)))
   }
+}
 
-  def id: String = "naive"
-}
\ No newline at end of file
+object AlwaysValidIdentityProvider {
+  val Naive = "naive"
+}
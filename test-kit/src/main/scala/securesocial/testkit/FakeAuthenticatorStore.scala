@@ -1,19 +1,48 @@
 package securesocial.testkit
 
-import securesocial.core.{Authenticator, AuthenticatorStore}
-import play.api.Application
-
-class FakeAuthenticatorStore(app:Application) extends AuthenticatorStore(app) {
-  var authenticator:Option[Authenticator] = None
-  def save(authenticator: Authenticator): Either[Error, Unit] = {
-    this.authenticator=Some(authenticator)
-    Right()
+import java.util.concurrent.ConcurrentHashMap
+
+import securesocial.core.authenticator.{ Authenticator, AuthenticatorStore }
+
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.reflect.ClassTag
+
+/**
+ * A thread safe, in memory AuthenticatorStore.  All the operations complete immediately.  Entries expire when
+ * they are read after their timeout.
+ *
+ * @tparam A the Authenticator type
+ */
+class FakeAuthenticatorStore[A <: Authenticator[_]](implicit executionContext: ExecutionContext) extends AuthenticatorStore[A] {
+  private case class Entry(authenticator: A, expiresAt: Long)
+
+  private val entries = new ConcurrentHashMap[String, Entry]()
+
+  override def find(id: String)(implicit ct: ClassTag[A]): Future[Option[A]] = Future.successful {
+    Option(entries.get(id)) match {
+      case Some(entry) if entry.expiresAt > System.currentTimeMillis() => Some(entry.authenticator)
+      case Some(entry) =>
+        entries.remove(id, entry)
+        None
+      case None => None
+    }
   }
-  def find(id: String): Either[Error, Option[Authenticator]] = {
-    Some(authenticator.filter(_.id == id)).toRight(new Error("no such authenticator"))
+
+  override def save(authenticator: A, timeoutInSeconds: Int): Future[A] = {
+    val expiresAt = if (timeoutInSeconds > 0) System.currentTimeMillis() + timeoutInSeconds * 1000L else Long.MaxValue
+    entries.put(authenticator.id, Entry(authenticator, expiresAt))
+    Future.successful(authenticator)
   }
-  def delete(id: String): Either[Error, Unit] = {
-    this.authenticator=None
-    Right()
+
+  override def delete(id: String): Future[Unit] = {
+    entries.remove(id)
+    Future.successful(())
   }
-}
\ No newline at end of file
+
+  /**
+   * The number of authenticators stored, including the expired ones not read yet
+   */
+  def size: Int = entries.size()
+
+  def clear(): Unit = entries.clear()
+}
@@ -0,0 +1,63 @@
+package securesocial.testkit
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.BiFunction
+
+import securesocial.core.services.CacheService
+
+import scala.concurrent.Future
+import scala.reflect.ClassTag
+
+/**
+ * A thread safe, in memory CacheService.  All the operations complete immediately, and getAndRemove and
+ * setIfAbsent are atomic.  Entries expire when they are read after their ttl.
+ */
+class FakeCacheService extends CacheService {
+  private case class Entry(value: Any, expiresAt: Long) {
+    def isLive: Boolean = expiresAt > System.currentTimeMillis()
+  }
+
+  private val entries = new ConcurrentHashMap[String, Entry]()
+
+  private def expiresAt(ttlInSeconds: Int) =
+    if (ttlInSeconds > 0) System.currentTimeMillis() + ttlInSeconds * 1000L else Long.MaxValue
+
+  override def set[T](key: String, value: T, ttlInSeconds: Int): Future[Unit] = {
+    entries.put(key, Entry(value, expiresAt(ttlInSeconds)))
+    Future.successful(())
+  }
+
+  override def getAs[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = Future.successful {
+    Option(entries.get(key)) match {
+      case Some(entry) if entry.isLive => Some(entry.value.asInstanceOf[T])
+      case Some(entry) =>
+        entries.remove(key, entry)
+        None
+      case None => None
+    }
+  }
+
+  override def remove(key: String): Future[Unit] = {
+    entries.remove(key)
+    Future.successful(())
+  }
+
+  override def getAndRemove[T](key: String)(implicit ct: ClassTag[T]): Future[Option[T]] = Future.successful {
+    Option(entries.remove(key)).filter(_.isLive).map(_.value.asInstanceOf[T])
+  }
+
+  override def setIfAbsent[T](key: String, value: T, ttlInSeconds: Int): Future[Boolean] = Future.successful {
+    val entry = Entry(value, expiresAt(ttlInSeconds))
+    val previous = entries.compute(key, new BiFunction[String, Entry, Entry] {
+      override def apply(key: String, existing: Entry): Entry = if (existing != null && existing.isLive) existing else entry
+    })
+    previous eq entry
+  }
+
+  /**
+   * The number of entries, including the expired ones not read yet
+   */
+  def size: Int = entries.size()
+
+  def clear(): Unit = entries.clear()
+}
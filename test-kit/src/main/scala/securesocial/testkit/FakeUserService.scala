@@ -0,0 +1,32 @@
+package securesocial.testkit
+
+import securesocial.core.BasicProfile
+import securesocial.core.services.{ IndexedUserService, UserModel }
+
+import scala.concurrent.ExecutionContext
+
+/**
+ * A user for tests: the profile used to sign up and all the profiles linked to it
+ */
+case class FakeUser(main: BasicProfile, identities: List[BasicProfile])
+
+object FakeUser {
+  object Model extends UserModel[FakeUser] {
+    def create(profile: BasicProfile): FakeUser = FakeUser(profile, List(profile))
+
+    def main(user: FakeUser): BasicProfile = user.main
+
+    def profiles(user: FakeUser): Seq[BasicProfile] = user.identities
+
+    def withProfile(user: FakeUser, profile: BasicProfile): FakeUser = {
+      val others = user.identities.filterNot(p => p.providerId == profile.providerId && p.userId == profile.userId)
+      val main = if (user.main.providerId == profile.providerId && user.main.userId == profile.userId) profile else user.main
+      user.copy(main = main, identities = profile :: others)
+    }
+  }
+}
+
+/**
+ * A thread safe, in memory UserService for FakeUser objects
+ */
+class FakeUserService(implicit executionContext: ExecutionContext) extends IndexedUserService[FakeUser](FakeUser.Model)
@@ -0,0 +1,35 @@
+package securesocial.testkit
+
+import java.util.concurrent.ThreadLocalRandom
+
+import securesocial.core.{ AuthenticationMethod, BasicProfile }
+
+/**
+ * Generates random profiles for tests
+ */
+object ProfileGenerator {
+  private def random = ThreadLocalRandom.current()
+
+  def name: String = {
+    val tail = Seq.fill(random.nextInt(1, 11))(('a' + random.nextInt(26)).toChar).mkString
+    s"${('A' + random.nextInt(26)).toChar}$tail"
+  }
+
+  def authMethod: AuthenticationMethod =
+    Seq(AuthenticationMethod.OAuth1, AuthenticationMethod.OAuth2, AuthenticationMethod.OpenId, AuthenticationMethod.UserPassword)(random.nextInt(4))
+
+  /**
+   * A random profile
+   *
+   * @param providerId the provider id
+   * @param userId the user id, a random one by default
+   * @param authMethod the authentication method, a random one by default
+   */
+  def profile(providerId: String = name.toLowerCase, userId: String = java.util.UUID.randomUUID().toString,
+    authMethod: AuthenticationMethod = authMethod): BasicProfile = {
+    val firstName = name
+    val lastName = name
+    BasicProfile(providerId, userId, Some(firstName), Some(lastName), Some(s"$firstName $lastName"),
+      Some(s"${firstName.head}.$lastName@example.com".toLowerCase), None, authMethod)
+  }
+}
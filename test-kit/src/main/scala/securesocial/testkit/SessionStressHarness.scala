@@ -0,0 +1,160 @@
+package securesocial.testkit
+
+import java.util.concurrent.atomic.{ AtomicLong, LongAdder }
+import java.util.concurrent.{ ConcurrentHashMap, CountDownLatch, Executors, TimeUnit }
+import java.util.function.{ Function => JFunction }
+
+import org.joda.time.DateTime
+import play.api.Configuration
+import play.api.mvc.Results
+import play.api.test.FakeRequest
+import securesocial.core.authenticator._
+import securesocial.core.services.{ SaveMode, UserService }
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{ Await, ExecutionContext, Future }
+import scala.util.control.NonFatal
+
+/**
+ * Drives thousands of simulated users through the session lifecycle concurrently and checks the sessions stay
+ * consistent.  Each simulated user:
+ *
+ * - signs up and starts a session
+ * - sends requests with the session cookie, checking the session resolves to the user and touching it
+ * - links a second profile and checks the session sees the updated user
+ * - logs out and checks the session is gone
+ * - checks an expired session is not accepted
+ *
+ * Every failed check is counted as a violation under its name, so a run with no violations means all the
+ * sessions behaved.
+ *
+ * @param store the store under test
+ * @param userService the user service under test
+ * @param executionContext the context for the store and the builder
+ */
+class SessionStressHarness(
+  store: AuthenticatorStore[CookieAuthenticator[FakeUser]] = new FakeAuthenticatorStore[CookieAuthenticator[FakeUser]]()(ExecutionContext.global),
+  userService: UserService[FakeUser] = new FakeUserService()(ExecutionContext.global))(implicit executionContext: ExecutionContext = ExecutionContext.global) {
+
+  import SessionStressHarness._
+
+  val cookieConfig = CookieConfig("id", "/", None, secure = false, httpOnly = true, idleTimeoutInMinutes = 30,
+    absoluteTimeoutInMinutes = 720, makeTransient = false)
+  val builder = new CookieAuthenticatorBuilder[FakeUser](store,
+    new IdGenerator.Default(Configuration("securesocial.idLengthInBytes" -> 32)), cookieConfig)
+
+  private val timeout = 10.seconds
+
+  private def await[T](future: Future[T]): T = Await.result(future, timeout)
+
+  private class Run {
+    val violations = new ConcurrentHashMap[String, LongAdder]()
+    val operations = new AtomicLong()
+    private val newCounter = new JFunction[String, LongAdder] {
+      override def apply(name: String): LongAdder = new LongAdder
+    }
+
+    def check(name: String)(condition: => Boolean): Unit = {
+      operations.incrementAndGet()
+      val passed = try condition catch { case NonFatal(_) => false }
+      if (!passed) violations.computeIfAbsent(name, newCounter).increment()
+    }
+  }
+
+  private def find(id: String): Option[Authenticator[FakeUser]] =
+    await(builder.fromRequest(FakeRequest().withCookies(cookieConfig.toCookieWithId(id))))
+
+  private def simulate(run: Run, requestsPerUser: Int): Unit = {
+    val profile = ProfileGenerator.profile("userpass")
+    val user = await(userService.save(profile, SaveMode.SignUp))
+    var authenticator: Authenticator[FakeUser] = await(builder.fromUser(user))
+    val id = authenticator.id
+
+    (0 until requestsPerUser).foreach { _ =>
+      val found = find(id)
+      run.check("session resolves to its user") {
+        found.exists(a => a.id == id && a.isValid && a.user.main.userId == profile.userId)
+      }
+      found.foreach { current =>
+        val touched = await(current.touch)
+        run.check("touch moves the last used time forward") { !touched.lastUsed.isBefore(current.lastUsed) }
+        authenticator = touched
+      }
+    }
+
+    val other = ProfileGenerator.profile()
+    val linked = await(userService.link(user, other))
+    authenticator = await(authenticator.updateUser(linked))
+    run.check("session sees the linked profile") {
+      find(id).exists(_.user.identities.exists(p => p.providerId == other.providerId && p.userId == other.userId))
+    }
+    run.check("linked profile resolves to the user") {
+      await(userService.find(other.providerId, other.userId)).isDefined
+    }
+
+    await(authenticator.discarding(Results.Ok))
+    run.check("discarded session is gone") { find(id).forall(!_.isValid) }
+
+    val expiredId = s"$id-expired"
+    val past = DateTime.now().minusMinutes(1)
+    await(store.save(CookieAuthenticator(expiredId, linked, past, past, past.minusHours(1), cookieConfig, store), 60))
+    run.check("expired session is not accepted") { find(expiredId).forall(!_.isValid) }
+  }
+
+  /**
+   * Runs the simulation
+   *
+   * @param users the number of simulated users
+   * @param threads the number of threads running them
+   * @param requestsPerUser the number of requests each user sends before logging out
+   * @return the report
+   */
+  def run(users: Int, threads: Int = Runtime.getRuntime.availableProcessors() * 4, requestsPerUser: Int = 10): Report = {
+    val state = new Run
+    val failures = new AtomicLong()
+    val pool = Executors.newFixedThreadPool(threads)
+    val done = new CountDownLatch(users)
+    val start = System.nanoTime()
+    (0 until users).foreach { _ =>
+      pool.execute(new Runnable {
+        def run(): Unit = {
+          try simulate(state, requestsPerUser) catch {
+            case NonFatal(e) =>
+              failures.incrementAndGet()
+              logger.debug(s"simulated user failed: ${e.getMessage}")
+          } finally done.countDown()
+        }
+      })
+    }
+    done.await()
+    val elapsed = System.nanoTime() - start
+    pool.shutdown()
+    pool.awaitTermination(1, TimeUnit.SECONDS)
+    Report(users, failures.get, state.operations.get, elapsed, state.violations.asScala.map { case (k, v) => k -> v.sum }.toMap)
+  }
+}
+
+object SessionStressHarness {
+  private val logger = play.api.Logger("securesocial.testkit.SessionStressHarness")
+
+  /**
+   * The outcome of a run
+   *
+   * @param users the number of simulated users
+   * @param failures the number of simulated users that failed with an exception
+   * @param checks the number of checks made
+   * @param elapsedNanos the duration of the run
+   * @param violations the number of failed checks, by check
+   */
+  case class Report(users: Int, failures: Long, checks: Long, elapsedNanos: Long, violations: Map[String, Long]) {
+    def isClean: Boolean = failures == 0 && violations.isEmpty
+
+    def checksPerSecond: Double = checks / (elapsedNanos / 1e9)
+
+    override def toString: String = {
+      val header = f"users = $users, failures = $failures, checks = $checks, elapsed = ${elapsedNanos / 1e9}%.2f s, $checksPerSecond%.0f checks/s"
+      (header +: violations.toSeq.sortBy(_._1).map { case (name, count) => s"  $name: $count violations" }).mkString("\n")
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package securesocial.testkit
+
+import org.junit.runner.RunWith
+import org.specs2.runner.JUnitRunner
+import play.api.test.PlaySpecification
+
+@RunWith(classOf[JUnitRunner])
+class SessionStressHarnessSpec extends PlaySpecification {
+  "The fakes" should {
+    "keep thousands of concurrent sessions consistent" in {
+      val report = new SessionStressHarness().run(users = 2000, threads = 32)
+      report.isClean aka report.toString must beTrue
+    }
+  }
+}